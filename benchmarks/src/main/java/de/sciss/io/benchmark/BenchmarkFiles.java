@@ -0,0 +1,217 @@
+/*
+ *  BenchmarkFiles.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.Marker;
+import de.sciss.io.Region;
+import de.sciss.io.Span;
+
+/**
+ *	Creates the audio files used by the benchmarks.
+ *	Files are written to the temporary directory
+ *	with deterministic content (fixed random seed),
+ *	so that results are comparable across runs and commits.
+ *	<p>
+ *	Formats are given as strings of the form
+ *	<code>&lt;type&gt;-&lt;sample format&gt;&lt;bits&gt;</code>,
+ *	e.g. <code>"aiff-int24"</code> or <code>"wave-float32"</code>.
+ *	AIFF and SND are big endian, WAVE and Wave64 little endian,
+ *	so together they cover every buffer handler in both byte orders.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ */
+public class BenchmarkFiles
+{
+    private static final long	SEED	= 0x5C1551BL;
+
+    private BenchmarkFiles() { /* empty */ }
+
+    /**
+     *	Creates a description for a new temporary file.
+     *
+     *	@param	format		the format string, e.g. <code>"wave-int16"</code>
+     *	@param	channels	the number of channels
+     *	@return	a description whose file is a new (empty) temporary file
+     *
+     *	@throws	IOException	if the temporary file cannot be created
+     */
+    public static AudioFileDescr createDescr( String format, int channels )
+    throws IOException
+    {
+        final AudioFileDescr	afd		= new AudioFileDescr();
+        final int				i		= format.indexOf( '-' );
+        final String			type	= format.substring( 0, i );
+        final String			res		= format.substring( i + 1 );
+
+        afd.type			= parseType( type );
+        if( res.startsWith( "int" )) {
+            afd.sampleFormat	= AudioFileDescr.FORMAT_INT;
+            afd.bitsPerSample	= Integer.parseInt( res.substring( 3 ));
+        } else if( res.startsWith( "float" )) {
+            afd.sampleFormat	= AudioFileDescr.FORMAT_FLOAT;
+            afd.bitsPerSample	= Integer.parseInt( res.substring( 5 ));
+        } else {
+            throw new IllegalArgumentException( format );
+        }
+        afd.channels		= channels;
+        afd.rate			= 44100.0;
+        afd.file			= File.createTempFile( "bench", "." + type );
+        afd.file.deleteOnExit();
+        return afd;
+    }
+
+    /**
+     *	Creates a temporary audio file filled with
+     *	a deterministic signal.
+     *
+     *	@param	format		the format string, e.g. <code>"wave-int16"</code>
+     *	@param	channels	the number of channels
+     *	@param	numFrames	the length of the file in sample frames
+     *	@return	the new file
+     *
+     *	@throws	IOException	if the file cannot be written
+     */
+    public static File create( String format, int channels, long numFrames )
+    throws IOException
+    {
+        final AudioFileDescr afd = createDescr( format, channels );
+
+        write( afd, numFrames );
+        return afd.file;
+    }
+
+    /**
+     *	Creates a short temporary audio file carrying as much
+     *	meta data as the file type supports (markers, regions,
+     *	loop, gain and comment), so that opening it exercises
+     *	the whole header parser.
+     *
+     *	@param	type		the file type, e.g. <code>"aiff"</code>
+     *	@param	numMarkers	the number of markers or regions to write
+     *	@return	the new file
+     *
+     *	@throws	IOException	if the file cannot be written
+     */
+    public static File createWithMetaData( String type, int numMarkers )
+    throws IOException
+    {
+        final AudioFileDescr	afd		= createDescr( type + "-int16", 2 );
+        final long				numFrames = 44100;
+        final List				markers	= new ArrayList( numMarkers );
+        final List				regions	= new ArrayList( numMarkers );
+        long					pos;
+
+        for( int i = 0; i < numMarkers; i++ ) {
+            pos = numFrames * i / numMarkers;
+            markers.add( new Marker( pos, "Mark " + i ));
+            regions.add( new Region( new Span( pos, pos + numFrames / numMarkers ), "Region " + i ));
+        }
+        if( afd.isPropertySupported( AudioFileDescr.KEY_MARKERS )) {
+            afd.setProperty( AudioFileDescr.KEY_MARKERS, markers );
+        }
+        if( afd.isPropertySupported( AudioFileDescr.KEY_REGIONS )) {
+            afd.setProperty( AudioFileDescr.KEY_REGIONS, regions );
+        }
+        if( afd.isPropertySupported( AudioFileDescr.KEY_LOOP )) {
+            afd.setProperty( AudioFileDescr.KEY_LOOP, new Region( new Span( 0, numFrames ), "Loop" ));
+        }
+        if( afd.isPropertySupported( AudioFileDescr.KEY_GAIN )) {
+            afd.setProperty( AudioFileDescr.KEY_GAIN, new Float( 0.5f ));
+        }
+        if( afd.isPropertySupported( AudioFileDescr.KEY_COMMENT )) {
+            afd.setProperty( AudioFileDescr.KEY_COMMENT, "ScissLib header parsing benchmark" );
+        }
+        write( afd, numFrames );
+        return afd.file;
+    }
+
+    /**
+     *	Fills a buffer with a deterministic signal,
+     *	a sine tone plus some noise, ranging between -0.9 and +0.9.
+     *
+     *	@param	buf	the buffer to fill (deinterleaved)
+     *	@param	rnd	the random generator to use for the noise
+     */
+    public static void fill( float[][] buf, Random rnd )
+    {
+        float[] b;
+
+        for( int ch = 0; ch < buf.length; ch++ ) {
+            b = buf[ ch ];
+            for( int i = 0; i < b.length; i++ ) {
+                b[ i ] = (float) (Math.sin( i * 0.01 * (ch + 1) ) * 0.6 + (rnd.nextDouble() - 0.5) * 0.6);
+            }
+        }
+    }
+
+    private static void write( AudioFileDescr afd, long numFrames )
+    throws IOException
+    {
+        final AudioFile	af		= AudioFile.openAsWrite( afd );
+        final float[][]	buf		= new float[ afd.channels ][ 8192 ];
+        final Random	rnd		= new Random( SEED );
+        int				chunkLength;
+
+        try {
+            fill( buf, rnd );
+            for( long n = 0; n < numFrames; n += chunkLength ) {
+                chunkLength = (int) Math.min( 8192, numFrames - n );
+                af.writeFrames( buf, 0, chunkLength );
+            }
+            af.close();
+        }
+        catch( IOException e1 ) {
+            af.cleanUp();
+            throw e1;
+        }
+    }
+
+    private static int parseType( String type )
+    {
+        if( type.equals( "aiff" )) {
+            return AudioFileDescr.TYPE_AIFF;
+        } else if( type.equals( "wave" )) {
+            return AudioFileDescr.TYPE_WAVE;
+        } else if( type.equals( "wave64" )) {
+            return AudioFileDescr.TYPE_WAVE64;
+        } else if( type.equals( "snd" )) {
+            return AudioFileDescr.TYPE_SND;
+        } else if( type.equals( "ircam" )) {
+            return AudioFileDescr.TYPE_IRCAM;
+        } else {
+            throw new IllegalArgumentException( type );
+        }
+    }
+}
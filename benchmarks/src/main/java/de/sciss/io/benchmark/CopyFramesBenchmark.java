@@ -0,0 +1,115 @@
+/*
+ *  CopyFramesBenchmark.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sciss.io.AudioFile;
+
+/**
+ *	Measures <code>AudioFile.copyFrames</code> from a 24 bit stereo
+ *	WAVE file, either into a file of the same sample format
+ *	(raw byte transfer) or into a 32 bit float AIFF file
+ *	(decoding and encoding).
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class CopyFramesBenchmark
+{
+    private static final int	NUM_FRAMES	= 0x80000;
+    private static final String	SOURCE		= "wave-int24";
+
+    @Param({ "wave64-int24", "aiff-float32" })
+    public String		target;
+
+    private File		file;
+    private AudioFile	source;
+    private AudioFile	af;
+
+    @Setup( Level.Trial )
+    public void setupSource()
+    throws IOException
+    {
+        file	= BenchmarkFiles.create( SOURCE, 2, NUM_FRAMES );
+        source	= AudioFile.openAsRead( file );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDownSource()
+    throws IOException
+    {
+        source.close();
+        file.delete();
+    }
+
+    @Setup( Level.Iteration )
+    public void setupTarget()
+    throws IOException
+    {
+        af = AudioFile.openAsWrite( BenchmarkFiles.createDescr( target, 2 ));
+    }
+
+    @TearDown( Level.Iteration )
+    public void tearDownTarget()
+    throws IOException
+    {
+        af.close();
+        af.getFile().delete();
+    }
+
+    @Benchmark
+    public AudioFile copyFrames()
+    throws IOException
+    {
+        source.seekFrame( 0 );
+        af.seekFrame( 0 );
+        source.copyFrames( af, NUM_FRAMES );
+        return af;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  HeaderBenchmark.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+
+/**
+ *	Measures opening a file and parsing its header. The files
+ *	carry all meta data their type supports (markers, regions,
+ *	loop, gain, comment). Since markers are only parsed on demand,
+ *	there is a second benchmark which also reads them.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class HeaderBenchmark
+{
+    @Param({ "aiff", "wave", "wave64", "snd", "ircam" })
+    public String		type;
+
+    @Param({ "0", "100" })
+    public int			numMarkers;
+
+    private File		file;
+
+    @Setup
+    public void setup()
+    throws IOException
+    {
+        file = BenchmarkFiles.createWithMetaData( type, numMarkers );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Benchmark
+    public AudioFileDescr openAsRead()
+    throws IOException
+    {
+        final AudioFile af = AudioFile.openAsRead( file );
+
+        af.close();
+        return af.getDescr();
+    }
+
+    @Benchmark
+    public AudioFileDescr openAndReadMarkers()
+    throws IOException
+    {
+        final AudioFile af = AudioFile.openAsRead( file );
+
+        try {
+            af.readMarkers();
+        }
+        finally {
+            af.close();
+        }
+        return af.getDescr();
+    }
+}
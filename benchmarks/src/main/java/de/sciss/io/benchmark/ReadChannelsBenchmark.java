@@ -0,0 +1,122 @@
+/*
+ *  ReadChannelsBenchmark.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sciss.io.AudioFile;
+
+/**
+ *	Measures reading two channels of a wide file, comparing
+ *	<code>AudioFile.readChannels</code> with <code>readFrames</code>
+ *	and <code>null</code> arrays for the unused channels.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ReadChannelsBenchmark
+{
+    private static final int	NUM_FRAMES	= 0x10000;
+    private static final int	BLOCK_SIZE	= 8192;
+
+    @Param({ "wave-int16", "wave-int24", "wave-float32" })
+    public String		format;
+
+    @Param({ "8", "64" })
+    public int			channels;
+
+    @Param({ "false", "true" })
+    public boolean		mapped;
+
+    private File		file;
+    private AudioFile	af;
+    private int[]		chans;
+    private float[][]	buf;
+    private float[][]	frames;
+
+    @Setup
+    public void setup()
+    throws IOException
+    {
+        file	= BenchmarkFiles.create( format, channels, NUM_FRAMES );
+        af		= AudioFile.openAsRead( file, mapped );
+        chans	= new int[] { 0, channels / 2 };
+        buf		= new float[ chans.length ][ BLOCK_SIZE ];
+        frames	= new float[ channels ][];
+        for( int i = 0; i < chans.length; i++ ) frames[ chans[ i ]] = buf[ i ];
+    }
+
+    @TearDown
+    public void tearDown()
+    throws IOException
+    {
+        af.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public float[][] readChannels()
+    throws IOException
+    {
+        af.seekFrame( 0 );
+        for( int n = 0; n < NUM_FRAMES; n += BLOCK_SIZE ) {
+            af.readChannels( chans, buf, 0, BLOCK_SIZE );
+        }
+        return buf;
+    }
+
+    @Benchmark
+    public float[][] readFramesSkipping()
+    throws IOException
+    {
+        af.seekFrame( 0 );
+        for( int n = 0; n < NUM_FRAMES; n += BLOCK_SIZE ) {
+            af.readFrames( frames, 0, BLOCK_SIZE );
+        }
+        return buf;
+    }
+}
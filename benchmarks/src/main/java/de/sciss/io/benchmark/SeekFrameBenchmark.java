@@ -0,0 +1,113 @@
+/*
+ *  SeekFrameBenchmark.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sciss.io.AudioFile;
+
+/**
+ *	Measures random access, i.e. <code>AudioFile.seekFrame</code>
+ *	followed by reading a short block, as done when drawing
+ *	waveforms or scrubbing. The positions follow a fixed
+ *	pseudo random sequence.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class SeekFrameBenchmark
+{
+    private static final int	NUM_FRAMES		= 0x400000;
+    private static final int	NUM_POSITIONS	= 0x1000;	// must be a power of two
+
+    @Param({ "64", "1024" })
+    public int			blockSize;
+
+    @Param({ "false", "true" })
+    public boolean		mapped;
+
+    private File		file;
+    private AudioFile	af;
+    private float[][]	buf;
+    private long[]		positions;
+    private int			posIdx;
+
+    @Setup
+    public void setup()
+    throws IOException
+    {
+        final Random rnd = new Random( 0 );
+
+        file		= BenchmarkFiles.create( "wave-int16", 2, NUM_FRAMES );
+        af			= AudioFile.openAsRead( file, mapped );
+        buf			= new float[ 2 ][ blockSize ];
+        positions	= new long[ NUM_POSITIONS ];
+        for( int i = 0; i < NUM_POSITIONS; i++ ) {
+            positions[ i ] = rnd.nextInt( NUM_FRAMES - blockSize );
+        }
+        posIdx		= 0;
+    }
+
+    @TearDown
+    public void tearDown()
+    throws IOException
+    {
+        af.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public float[][] seekAndRead()
+    throws IOException
+    {
+        af.seekFrame( positions[ posIdx ]);
+        posIdx = (posIdx + 1) & (NUM_POSITIONS - 1);
+        af.readFrames( buf, 0, blockSize );
+        return buf;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  WriteFramesBenchmark.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+
+/**
+ *	Measures encoding through <code>AudioFile.writeFrames</code>
+ *	for every buffer handler in both byte orders. Each operation
+ *	overwrites the same region of the file in blocks of 8192 frames,
+ *	so the file does not grow during the measurement.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class WriteFramesBenchmark
+{
+    private static final int	NUM_FRAMES	= 0x40000;
+    private static final int	BLOCK_SIZE	= 8192;
+
+    @Param({ "aiff-int8", "wave-int8", "aiff-int16", "wave-int16", "aiff-int24", "wave-int24",
+             "aiff-int32", "wave-int32", "aiff-float32", "wave-float32", "aiff-float64", "wave-float64" })
+    public String		format;
+
+    @Param({ "1", "2", "6" })
+    public int			channels;
+
+    private AudioFile	af;
+    private float[][]	buf;
+
+    @Setup( Level.Iteration )
+    public void setup()
+    throws IOException
+    {
+        final AudioFileDescr afd = BenchmarkFiles.createDescr( format, channels );
+
+        af	= AudioFile.openAsWrite( afd );
+        buf	= new float[ channels ][ BLOCK_SIZE ];
+        BenchmarkFiles.fill( buf, new Random( 0 ));
+    }
+
+    @TearDown( Level.Iteration )
+    public void tearDown()
+    throws IOException
+    {
+        af.close();
+        af.getFile().delete();
+    }
+
+    @Benchmark
+    public AudioFile writeFrames()
+    throws IOException
+    {
+        af.seekFrame( 0 );
+        for( int n = 0; n < NUM_FRAMES; n += BLOCK_SIZE ) {
+            af.writeFrames( buf, 0, BLOCK_SIZE );
+        }
+        return af;
+    }
+}
@@ -26,15 +26,20 @@
 package de.sciss.io;
 
 import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
@@ -47,6 +52,12 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 //import de.sciss.app.AbstractApplication;
 
@@ -57,10 +68,15 @@ import java.util.Map;
  *	the specific sample format and endianess.
  *	<p>
  *	Currently supported formats are: AIFF, IRCAM,
- *  NeXT/Sun (.au), WAVE, and Wave64. Supported resolutions are
+ *  NeXT/Sun (.au), WAVE, Wave64 and FLAC. Supported resolutions are
  *  8/16/24/32 bit integer and 32/64 bit floating point.
  *  However not all audio formats support all bit depths.
  *  <p>
+ *	FLAC files are decoded and encoded in pure Java. They are read
+ *	with up to 24 bit integer resolution, and written with 8, 16 or 24 bits.
+ *	Files opened for writing can only be written sequentially, i.e.
+ *	they cannot seek, be read from, or be truncated.
+ *  <p>
  *	Not all format combinations are supported, for example
  *	the rather exotic little-endian AIFF, but also
  *	little-endian SND, WAVE 8-bit.
@@ -93,6 +109,21 @@ import java.util.Map;
 public class AudioFile
 implements InterleavedStreamFile
 {
+    /**
+     *	Dither mode : no dither, floating point
+     *	samples are truncated when writing integer formats
+     *
+     *	@see	#setDither( int )
+     */
+    public static final int DITHER_NONE		= 0;
+    /**
+     *	Dither mode : triangular (TPDF) dither of
+     *	+/- 1 LSB is added when writing integer formats
+     *
+     *	@see	#setDither( int )
+     */
+    public static final int DITHER_TPDF		= 1;
+
     private static final int MODE_READONLY   = 0;
     private static final int MODE_READWRITE  = 1;
 
@@ -102,6 +133,7 @@ implements InterleavedStreamFile
 
     protected AudioFileDescr			afd;
     private AudioFileHeader				afh;
+    private final HeaderInput			hin				= new HeaderInput();
 
     protected ByteBuffer				byteBuf;
     private int							byteBufCapacity;
@@ -115,6 +147,32 @@ implements InterleavedStreamFile
     private long						updateLen;
     private long						updateStep;
 
+    private boolean						mapped			= false;
+    private MappedByteBuffer			mapBuf			= null;
+    private long						mapStart;			// frame index of the first frame in mapBuf
+    private long						mapStop;			// frame index (exclusive) of the last frame in mapBuf
+    private int							mapFrameCapacity;
+
+    protected int						dither			= DITHER_NONE;
+    protected boolean					clipping		= false;
+
+    private PeakPyramidBuilder			peakBuilder		= null;
+    private File						peakCacheFile;
+    private float[][]					peakBuf			= null;	// deinterleaved frames for peakBuilder
+
+    // idle read buffers and (for compressed files) decoders for positional reads.
+    // they are checked out for the duration of a call, instead of being kept per
+    // thread, so that pooled threads do not hold on to them after the file is closed
+    private final Object				posSync			= new Object();
+    private ByteBuffer[]				posBufs			= new ByteBuffer[ 4 ];	// guarded by posSync
+    private int							numPosBufs		= 0;
+    private FLACBufferHandler[]			posHandlers		= new FLACBufferHandler[ 4 ];	// guarded by posSync
+    private int							numPosHandlers	= 0;
+    private boolean						posClosed		= false;
+
+    private static final int			MAP_WINDOW_SIZE	= 0x4000000;	// 64 MB
+    private static final int			CONVERT_BLOCK_CHUNKS	= 4;	// frameBufCapacity units per convertFrames block
+
     private static final String			NAME_LOOP		= "loop";
     private static final String			NAME_MARK		= "mark";
     private static final String			NAME_REGION		= "region";
@@ -134,6 +192,38 @@ implements InterleavedStreamFile
      */
     public static AudioFile openAsRead( File f )
     throws IOException
+    {
+        return openAsRead( f, false );
+    }
+
+    /**
+     *  Opens an audio file for reading, optionally memory mapping
+     *	the sample data. In mapped mode, the sample data region is
+     *	mapped in windows of 64 MB using <code>FileChannel.map</code>,
+     *	and frames are deinterleaved straight from the mapped buffer
+     *	instead of being copied through an intermediate read buffer.
+     *	<code>seekFrame</code> becomes a mere pointer move.
+     *	This is particularly useful for scanning very large files.
+     *	Note that reading beyond the file's <code>length</code>
+     *	throws an <code>EOFException</code> in mapped mode.
+     *	Compressed files (FLAC) are never mapped.
+     *
+     *  @param		f				the path name of the file
+     *	@param		memoryMapped	<code>true</code> to map the sample data into
+     *								memory, <code>false</code> to use regular
+     *								channel reads (as in <code>openAsRead( File )</code>)
+     *  @return		a new <code>AudioFile</code> object
+     *				whose header is already parsed and can
+     *				be obtained through the <code>getDescr</code> method.
+     *
+     *  @throws IOException if the file was not found, could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	#openAsRead( File )
+     *	@see	#isMemoryMapped()
+     */
+    public static AudioFile openAsRead( File f, boolean memoryMapped )
+    throws IOException
     {
         final AudioFile af	= new AudioFile( f, MODE_READONLY );
         af.afd				= new AudioFileDescr();
@@ -141,11 +231,50 @@ implements InterleavedStreamFile
         af.afd.type			= af.retrieveType();
         af.afh				= af.createHeader();
         af.afh.readHeader( af.afd );
+        af.hin.release();
         af.init();
+        af.mapped			= memoryMapped && !af.afh.isCompressed();
         af.seekFrame( 0 );
         return af;
     }
 
+    /**
+     *  Reads the header of an audio file without opening it
+     *	for sample access. This is much cheaper than <code>openAsRead</code>,
+     *	as only the header is read through a small buffer, and none of the
+     *	sample buffers are allocated. The file is closed before this method
+     *	returns. Use this to display the format of many files.
+     *	<p>
+     *	Markers, regions and application code are not read.
+     *
+     *  @param		f   the path name of the file
+     *  @return		a description of the file's format whose
+     *				<code>type</code>, <code>channels</code>, <code>bitsPerSample</code>,
+     *				<code>sampleFormat</code>, <code>rate</code> and
+     *				<code>length</code> fields are filled in
+     *
+     *  @throws IOException if the file was not found, could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	AudioFileScanner
+     */
+    public static AudioFileDescr probe( File f )
+    throws IOException
+    {
+        final AudioFile af	= new AudioFile( f, MODE_READONLY );
+        try {
+            af.afd			= new AudioFileDescr();
+            af.afd.file		= f;
+            af.afd.type		= af.retrieveType();
+            af.afh			= af.createHeader();
+            af.afh.readHeader( af.afd );
+            return af.afd;
+        }
+        finally {
+            af.raf.close();
+        }
+    }
+
     /**
      *  Opens an audio file for reading/writing. The pathname
      *	is determined by the <code>file</code> field of the provided <code>AudioFileDescr</code>.
@@ -251,47 +380,55 @@ implements InterleavedStreamFile
         channels		= afd.channels;
         bytesPerFrame	= (afd.bitsPerSample >> 3) * channels;
         frameBufCapacity= Math.max( 1, 65536 / Math.max( 1, bytesPerFrame ));
+        if( afh.isCompressed() ) {	// does not use byteBuf
+            bh = new FLACBufferHandler( (FLACHeader) afh );
+            return;
+        }
         byteBufCapacity = frameBufCapacity * bytesPerFrame;
         byteBuf			= ByteBuffer.allocateDirect( byteBufCapacity );
         byteBuf.order( afh.getByteOrder() );
-        bh				= null;
+        mapFrameCapacity= Math.max( 1, MAP_WINDOW_SIZE / Math.max( 1, bytesPerFrame ));
+        bh				= createBufferHandler( byteBuf );
+        if( bh == null) throw new IOException( getResourceString( "errAudioFileEncoding" ));
+    }
 
+    /*
+     *	Creates the handler for the file's sample format, working on the
+     *	given buffer for the raw sample data. Returns null if the format
+     *	is not supported.
+     */
+    private BufferHandler createBufferHandler( ByteBuffer b )
+    {
         switch( afd.sampleFormat ) {
         case AudioFileDescr.FORMAT_INT:
             switch( afd.bitsPerSample ) {
             case 8:			// 8 bit int
                 if( afh.isUnsignedPCM() ) {
-                    bh  = new UByteBufferHandler();
+                    return new UByteBufferHandler( b );
                 } else {
-                    bh  = new ByteBufferHandler();
+                    return new ByteBufferHandler( b );
                 }
-                break;
             case 16:		// 16 bit int
-                bh  = new ShortBufferHandler();
-                break;
+                return new ShortBufferHandler( b );
             case 24:		// 24 bit int
                 if( afh.getByteOrder() == ByteOrder.BIG_ENDIAN ) {
-                    bh  = new ThreeByteBufferHandler();
+                    return new ThreeByteBufferHandler( b );
                 } else {
-                    bh  = new ThreeLittleByteBufferHandler();
+                    return new ThreeLittleByteBufferHandler( b );
                 }
-                break;
             case 32:		// 32 bit int
-                bh  = new IntBufferHandler();
-                break;
+                return new IntBufferHandler( b );
             }
             break;
         case AudioFileDescr.FORMAT_FLOAT:
             switch( afd.bitsPerSample ) {
             case 32:		// 32 bit float
-                bh  = new FloatBufferHandler();
-                break;
+                return new FloatBufferHandler( b );
             case 64:		// 64 bit float
-                bh  = new DoubleBufferHandler();
-                break;
+                return new DoubleBufferHandler( b );
             }
         }
-        if( bh == null) throw new IOException( getResourceString( "errAudioFileEncoding" ));
+        return null;
     }
 
     private AudioFileHeader createHeader()
@@ -310,6 +447,8 @@ implements InterleavedStreamFile
             return new RawHeader();
         case AudioFileDescr.TYPE_WAVE64:
             return new Wave64Header();
+        case AudioFileDescr.TYPE_FLAC:
+            return new FLACHeader();
         default:
             throw new IOException( getResourceString( "errAudioFileType" ));
         }
@@ -321,20 +460,20 @@ implements InterleavedStreamFile
     private int retrieveType()
     throws IOException
     {
-        long	len		= raf.length();
-        long	oldpos	= raf.getFilePointer();
+        long	len		= hin.length();
+        long	oldpos	= hin.getFilePointer();
         int		magic;
         int		type	= AudioFileDescr.TYPE_UNKNOWN;
 
         if( len < 4 ) return type;
 
-        raf.seek( 0L );
-        magic = raf.readInt();
+        hin.seek( 0L );
+        magic = hin.readInt();
         switch( magic ) {
         case AIFFHeader.FORM_MAGIC:					// -------- probably AIFF --------
             if( len < 12 ) break;
-            raf.readInt();
-            magic = raf.readInt();
+            hin.readInt();
+            magic = hin.readInt();
             switch( magic ) {
             case AIFFHeader.AIFC_MAGIC:
             case AIFFHeader.AIFF_MAGIC:
@@ -359,9 +498,11 @@ implements InterleavedStreamFile
             break;
 
         case WAVEHeader.RIFF_MAGIC:					// -------- probably WAVE --------
+        case WAVEHeader.RF64_MAGIC:
+        case WAVEHeader.BW64_MAGIC:
             if( len < 12 ) break;
-            raf.readInt();
-            magic = raf.readInt();
+            hin.readInt();
+            magic = hin.readInt();
             switch( magic ) {
             case WAVEHeader.WAVE_MAGIC:
                 type = AudioFileDescr.TYPE_WAVE;
@@ -371,22 +512,26 @@ implements InterleavedStreamFile
 
         case Wave64Header.RIFF_MAGIC1a:				// -------- probably Wave64 --------
             if( (len < 40) ||
-                (raf.readInt() != Wave64Header.RIFF_MAGIC1b) ||
-                (raf.readLong() != Wave64Header.RIFF_MAGIC2) ) break;
+                (hin.readInt() != Wave64Header.RIFF_MAGIC1b) ||
+                (hin.readLong() != Wave64Header.RIFF_MAGIC2) ) break;
 
-            raf.readLong(); // length
+            hin.readLong(); // length
 
-            if( (raf.readLong() == Wave64Header.WAVE_MAGIC1) &&
-                (raf.readLong() == Wave64Header.WAVE_MAGIC2) ) {
+            if( (hin.readLong() == Wave64Header.WAVE_MAGIC1) &&
+                (hin.readLong() == Wave64Header.WAVE_MAGIC2) ) {
                 type = AudioFileDescr.TYPE_WAVE64;
             }
             break;
 
+        case FLACHeader.FLAC_MAGIC:					// -------- FLAC --------
+            type = AudioFileDescr.TYPE_FLAC;
+            break;
+
         default:
             break;
         }
 
-        raf.seek( oldpos );
+        hin.seek( oldpos );
         return type;
     }
 
@@ -398,19 +543,93 @@ implements InterleavedStreamFile
      *					the new file position. this is really
      *					the sample index and not the physical file pointer.
      *  @throws IOException when a seek error occurs or you try to
-     *						seek past the file's end.
+     *						seek past the file's end. Compressed files (FLAC)
+     *						opened for writing cannot seek at all.
      */
     public void seekFrame( long frame )
     throws IOException
     {
-        long physical	= afh.getSampleDataOffset() + frame * bytesPerFrame;
+        if( afh.isCompressed() ) {
+            if( mode == MODE_READWRITE ) {
+                if( frame != framePosition ) throw new IOException( getResourceString( "errAudioFileSequential" ));
+            } else {
+                ((FLACBufferHandler) bh).seek( frame );
+            }
+        } else if( !mapped ) {
+            long physical	= afh.getSampleDataOffset() + frame * bytesPerFrame;
 
-        // XXX fch.force( true );
+            // XXX fch.force( true );
 
-        raf.seek( physical );
+            raf.seek( physical );
+        }
         framePosition = frame;
     }
 
+    /**
+     *	Queries whether the sample data is read
+     *	through memory mapped windows.
+     *
+     *	@return	<code>true</code> if the file was opened
+     *			using <code>openAsRead( f, true )</code>
+     *
+     *	@see	#openAsRead( File, boolean )
+     */
+    public boolean isMemoryMapped()
+    {
+        return mapped;
+    }
+
+    /**
+     *	Sets the dither mode used when writing
+     *	integer sample formats. Dithering implies clipping.
+     *	Floating point formats are never dithered.
+     *
+     *	@param	mode	either <code>DITHER_NONE</code> (default)
+     *					or <code>DITHER_TPDF</code>
+     *
+     *	@see	#setClipping( boolean )
+     */
+    public void setDither( int mode )
+    {
+        if( (mode != DITHER_NONE) && (mode != DITHER_TPDF) ) {
+            throw new IllegalArgumentException( String.valueOf( mode ));
+        }
+        dither = mode;
+    }
+
+    /**
+     *	Queries the dither mode used when writing.
+     *
+     *	@return	the dither mode, <code>DITHER_NONE</code> by default
+     */
+    public int getDither()
+    {
+        return dither;
+    }
+
+    /**
+     *	Decides whether samples are clipped to
+     *	the range -1 ... +1 when writing. Without clipping,
+     *	samples outside that range wrap around in integer formats.
+     *
+     *	@param	onOff	<code>true</code> to clip samples,
+     *					<code>false</code> (default) to write them as they are
+     */
+    public void setClipping( boolean onOff )
+    {
+        clipping = onOff;
+    }
+
+    /**
+     *	Queries whether samples are clipped when writing.
+     *
+     *	@return	<code>true</code> if clipping is enabled
+     */
+    public boolean isClipping()
+    {
+        return clipping;
+    }
+
     /**
      *	Flushes pending buffer content, and
      *	updates the sound file header information
@@ -464,761 +683,3004 @@ implements InterleavedStreamFile
     public void readFrames( float[][] data, int offset, int length )
     throws IOException
     {
-        bh.readFrames( data, offset, length );
+        if( mapped ) {
+            readMappedFrames( data, offset, length );
+        } else {
+            bh.readFrames( data, offset, length );
+        }
         framePosition += length;
     }
 
     /**
-     *	Writes sample frames to the file starting at the current position.
-     *  If you write past the previous end of the file, the <code>length</code>
-     *  field of the internal <code>AudioFileDescr</code> is updated.
-     *  Since you get a reference from <code>getDescr</code> and not
-     *  a copy, using this reference to the description will automatically
-     *  give you the correct file length.
+     *	Reads sample frames from the current position
+     *	into double precision buffers. The samples are converted
+     *	straight from the file's resolution, without passing
+     *	through single precision.
      *
-     *  @param  data	buffer holding the frames to write to harddisc.
-     *					the samples must be deinterleaved such that
-     *					data[0][] holds the first channel, data[1][]
-     *					holds the second channel etc.
-     *  @param  offset  offset in the buffer in sample frames, such
-     *					that he first frame of the first channel will
-     *					be read from data[0][offset] etc.
-     *  @param  length  number of continuous frames to write.
+     *  @param  data	buffer to hold the frames read from harddisc
+     *					(deinterleaved; <code>null</code> arrays are skipped)
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read.
      *
-     *  @throws IOException if a write error occurs.
+     *  @throws IOException if a read error or end-of-file occurs.
+     *
+     *	@see	#readFrames( float[][], int, int )
      */
-    public void writeFrames( float[][] data, int offset, int length )
+    public void readFrames( double[][] data, int offset, int length )
     throws IOException
     {
-        bh.writeFrames( data, offset, length );
+        syncMappedPosition();
+        bh.readFrames( data, offset, length );
         framePosition += length;
-
-        if( framePosition > afd.length ) {
-            if( (framePosition > updateLen) || (System.currentTimeMillis() > updateTime) ) {
-                flush();
-            } else {
-                afd.length = framePosition;
-            }
-        }
     }
 
     /**
-     *	Returns the number of frames
-     *	in the file.
+     *	Reads sample frames from the current position
+     *	into an interleaved buffer, i.e. <code>data[offset * numChannels]</code>
+     *	holds the first channel of the first frame,
+     *	<code>data[offset * numChannels + 1]</code> the second channel etc.
      *
-     *	@return	the number of sample frames
-     *			in the file. includes pending
-     *			buffer content
+     *  @param  data	buffer to hold the interleaved frames read from harddisc.
+     *					it must have room for <code>length * numChannels</code> samples
+     *					beginning at <code>offset * numChannels</code>
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read.
      *
-     *	@throws	IOException	this is never thrown
-     *			but declared as of the <code>InterleavedStreamFile</code>
-     *			interface
+     *  @throws IOException if a read error or end-of-file occurs.
      */
-    public long getFrameNum()
+    public void readFrames( float[] data, int offset, int length )
     throws IOException
     {
-        return afd.length;
+        syncMappedPosition();
+        bh.readInterleaved( data, offset * channels, length );
+        framePosition += length;
     }
 
-    public void setFrameNum( long frame )
+    /**
+     *	Reads sample frames from the current position
+     *	into an interleaved double precision buffer.
+     *
+     *  @param  data	buffer to hold the interleaved frames read from harddisc.
+     *					it must have room for <code>length * numChannels</code> samples
+     *					beginning at <code>offset * numChannels</code>
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     *
+     *	@see	#readFrames( float[], int, int )
+     */
+    public void readFrames( double[] data, int offset, int length )
     throws IOException
     {
-        final long physical	= afh.getSampleDataOffset() + frame * bytesPerFrame;
-
-        raf.setLength( physical );
-        if( framePosition > frame ) framePosition = frame;
-        afd.length	= frame;
-//		updateTime	= System.currentTimeMillis() + 10000;
-//		afh.updateHeader( afd );
-//		updateLen	= framePosition + updateStep;
+        syncMappedPosition();
+        bh.readInterleaved( data, offset * channels, length );
+        framePosition += length;
     }
 
     /**
-     *	Returns the number of channels
-     *	in the file.
+     *	Reads sample frames from the current position
+     *	into an interleaved buffer, beginning at the buffer's position.
+     *	The buffer's position is advanced by <code>length * numChannels</code>.
      *
-     *	@return	the number of channels
+     *  @param  data	buffer to hold the interleaved frames read from harddisc.
+     *					this may be a direct buffer, e.g. one shared with
+     *					native code
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     *	@throws	BufferOverflowException	if the buffer has not enough room
+     *
+     *	@see	#readFrames( float[], int, int )
      */
-    public int getChannelNum()
+    public void readFrames( FloatBuffer data, int length )
+    throws IOException
     {
-        return afd.channels;
+        syncMappedPosition();
+        bh.readInterleaved( data, length );
+        framePosition += length;
     }
 
     /**
-     *	Truncates the file to the size represented
-     *	by the current file position. The file
-     *	must have been opened in write mode.
-     *	Truncation occurs only if frames exist
-     *	beyond the current file position, which implicates
-     *	that you have set the position using <code>seekFrame</code>
-     *	to a location before the end of the file.
-     *	The header information is immediately updated.
+     *	Reads a selection of channels from the current position.
+     *	Only the samples of the selected channels are decoded. If only few
+     *	channels of a wide file are selected, the samples are decoded
+     *	straight from the I/O buffer (or the mapped window, if the file was
+     *	opened memory mapped), so the unused channels are not even copied.
+     *	This is considerably faster than passing <code>null</code> arrays
+     *	to <code>readFrames</code> when e.g. two channels of a 64 channel
+     *	recording are needed.
      *
-     *	@throws	IOException	if truncation fails
+     *	@param	chans	the indices of the channels to read. the same
+     *					channel may appear more than once
+     *  @param  data	buffer to hold the frames read from harddisc, such
+     *					that <code>data[i]</code> receives channel <code>chans[i]</code>
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     *	@throws	IllegalArgumentException	if a channel index is out of range
+     *
+     *	@see	#readFrames( float[][], int, int )
      */
-    public void truncate()
+    public void readChannels( int[] chans, float[][] data, int offset, int length )
     throws IOException
     {
-        fch.truncate( fch.position() );
-        if( framePosition != afd.length ) {
-            afd.length	= framePosition;
-            updateTime	= System.currentTimeMillis() + 10000;
-            afh.updateHeader( afd );
-            updateLen	= framePosition + updateStep;
+        for( int i = 0; i < chans.length; i++ ) {
+            if( (chans[ i ] < 0) || (chans[ i ] >= channels) ) {
+                throw new IllegalArgumentException( "Channel " + chans[ i ]);
+            }
         }
+
+        if( mapped ) {
+            readMappedChannels( chans, data, offset, length );
+        } else if( afh.isCompressed() ) {
+            readCompressedChannels( chans, data, offset, length );
+        } else if( chans.length * bh.sparseRatio <= channels ) {
+            readSparseChannels( chans, data, offset, length );
+        } else {
+            readDenseChannels( chans, data, offset, length );
+        }
+        framePosition += length;
     }
 
-    /**
-     *	Copies sample frames from a source sound file
-     *	to a target file (either another sound file
-     *	or any other class implementing the
-     *	<code>InterleavedStreamFile</code> interface).
-     *	Both files must have the same number of channels.
-     *
-     *	@param	target	to file to copy to from this audio file
-     *	@param	length	the number of frames to copy. Reading
-     *					and writing begins at the current positions
-     *					of both files.
-     *
-     *	@throws	IOException	if a read or write error occurs
-     */
-    public void copyFrames( InterleavedStreamFile target, long length )
+    // decodes the selected channels straight from byteBuf, skipping the
+    // bulk copy of the whole frames into the handler's array
+    private void readSparseChannels( int[] chans, float[][] data, int offset, int length )
     throws IOException
     {
         int chunkLength;
 
-//		if( (target instanceof AudioFile) && ((AudioFile) target).bh.getClass().equals( this.bh.getClass() ) &&
-//			(((AudioFile) target).channels == this.channels) ) {
-//		
-//			while( length > 0 ) {
-//				chunkLength = Math.min( frameBufCapacity, length );
-//				byteBuf.clear();
-//					...
-//				byteBuf.flip();
-//				fch.write( byteBuf );
-//				length -= chunkLength;
-//			}
-//
-//		} else {
-            int			tempBufSize	= (int) Math.min( length, 8192 );
-            float[][]	tempBuf		= new float[ channels ][ tempBufSize ];
-
-            while( length > 0 ) {
-                chunkLength	= (int) Math.min( length, tempBufSize );
-                this.readFrames( tempBuf, 0, chunkLength );
-                target.writeFrames( tempBuf, 0, chunkLength );
-                length -= chunkLength;
+        while( length > 0 ) {
+            chunkLength = Math.min( frameBufCapacity, length );
+            byteBuf.rewind().limit( chunkLength * bytesPerFrame );
+            while( byteBuf.hasRemaining() ) {
+                if( fch.read( byteBuf ) < 0 ) throw new EOFException();
+            }
+            for( int i = 0; i < chans.length; i++ ) {
+                bh.decodeChannel( byteBuf, 0, chans[ i ], data[ i ], offset, chunkLength );
             }
-//		}
+            offset += chunkLength;
+            length -= chunkLength;
+        }
     }
 
-    /**
-     *  Flushes and closes the file
-     *
-     *  @throws IOException if an error occurs during buffer flush
-     *						or closing the file.
-     */
-    public void close()
+    private void readDenseChannels( int[] chans, float[][] data, int offset, int length )
     throws IOException
     {
-        if( mode == MODE_READWRITE ) {
-            fch.force( true );
-            afh.updateHeader( afd );
+        final float[][]	frames	= new float[ channels ][];
+        int				ch;
+
+        for( int i = 0; i < chans.length; i++ ) {
+            ch = chans[ i ];
+            if( frames[ ch ] != null ) {	// duplicate selection
+                readSparseChannels( chans, data, offset, length );
+                return;
+            }
+            frames[ ch ] = data[ i ];
         }
-        raf.close();
+        bh.readFrames( frames, offset, length );
+    }
 
+    // compressed frames are always decoded as a whole,
+    // so duplicate selections are copied afterwards
+    private void readCompressedChannels( int[] chans, float[][] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	frames	= new float[ channels ][];
+        int				ch;
+
+        for( int i = 0; i < chans.length; i++ ) {
+            ch = chans[ i ];
+            if( frames[ ch ] == null ) frames[ ch ] = data[ i ];
+        }
+        bh.readFrames( frames, offset, length );
+        for( int i = 0; i < chans.length; i++ ) {
+            ch = chans[ i ];
+            if( frames[ ch ] != data[ i ]) System.arraycopy( frames[ ch ], offset, data[ i ], offset, length );
+        }
     }
 
-    /**
-     *  Flushes and closes the file. As opposed
-     *	to <code>close()</code>, this does not
-     *	throw any exceptions but simply ignores any errors.
-     *
-     *	@see	#close()
-     */
-    public void cleanUp()
+    private void readMappedChannels( int[] chans, float[][] data, int offset, int length )
+    throws IOException
     {
-        try {
-            close();
+        long	pos		= framePosition;
+        int		chunkLength, srcOff;
+
+        while( length > 0 ) {
+            if( (mapBuf == null) || (pos < mapStart) || (pos >= mapStop) ) mapWindow( pos );
+            chunkLength	= (int) Math.min( length, mapStop - pos );
+            srcOff		= (int) (pos - mapStart) * bytesPerFrame;
+            for( int i = 0; i < chans.length; i++ ) {
+                bh.decodeChannel( mapBuf, srcOff, chans[ i ], data[ i ], offset, chunkLength );
+            }
+            pos		   += chunkLength;
+            offset	   += chunkLength;
+            length	   -= chunkLength;
         }
-        catch( IOException e ) { /* ignored */ }
+    }
+
+    // the mapped read path does not move the channel's position,
+    // so it has to be set before reading through the channel
+    private void syncMappedPosition()
+    throws IOException
+    {
+        if( mapped ) fch.position( afh.getSampleDataOffset() + framePosition * bytesPerFrame );
     }
 
     /**
-     *  Reads markers into the audio file description
-     *  if there are any. This method sets the <code>KEY_MARKERS</code>
-     *  property of the afd, if markers are available. It sets
-     *  the <code>KEY_LOOP</code> property if a loop span is available.
+     *	Reads sample frames from an absolute position, independent
+     *	of the current file pointer. Unlike <code>readFrames( float[][], int, int )</code>
+     *	this method does not use or modify the shared frame position or
+     *	read buffer, but reads through <code>FileChannel.read( ByteBuffer, long )</code>
+     *	into a buffer used only by this call. It is therefore safe
+     *	to call this method concurrently from several threads, e.g. multiple
+     *	analysis or overview threads reading different regions of the same
+     *	file, and concurrently with sequential reading. For compressed files
+     *	(FLAC), each concurrent call likewise uses a decoder of its own. Buffers
+     *	and decoders are taken from pools which are released when the file is
+     *	closed. The most recently used decoder is reused first, so contiguous
+     *	reads continue without seeking.
      *
-     *	@see	#getDescr()
-     *	@see	AudioFileDescr#KEY_MARKERS
-     *	@see	AudioFileDescr#KEY_LOOP
+     *	@param	position	the sample frame index at which to start reading
+     *  @param  data		buffer to hold the frames read from harddisc.
+     *						the samples will be deinterleaved such that
+     *						data[0][] holds the first channel, data[1][]
+     *						holds the second channel etc.
+     *						; it is allowed to have null arrays in the data
+     *						(e.g. data[0] == null), in which case these channels
+     *						are skipped when reading
+     *  @param  offset		offset in the buffer in sample frames, such
+     *						that he first frame of the first channel will
+     *						be placed in data[0][offset] etc.
+     *  @param  length		number of continuous frames to read.
      *
-     *	@throws	IOException	if a read or parsing error occurs
+     *  @throws IOException if a read error or end-of-file occurs.
+     *
+     *	@see	#readFrames( float[][], int, int )
      */
-    public void readMarkers()
+    public void readFrames( long position, float[][] data, int offset, int length )
+    throws IOException
+    {
+        if( afh.isCompressed() ) {
+            final FLACBufferHandler h = checkOutPosHandler();
+            try {
+                h.seek( position );
+                h.readFrames( data, offset, length );
+            }
+            finally {
+                checkInPosHandler( h );
+            }
+            return;
+        }
+
+        final ByteBuffer	b			= checkOutPosBuf();
+        long				physical	= afh.getSampleDataOffset() + position * bytesPerFrame;
+        int					chunkLength, n;
+
+        try {
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                b.clear().limit( chunkLength * bytesPerFrame );
+                while( b.hasRemaining() ) {
+                    n = fch.read( b, physical + b.position() );
+                    if( n < 0 ) throw new EOFException();
+                }
+                bh.readFrames( b, 0, data, offset, chunkLength );
+                physical   += chunkLength * bytesPerFrame;
+                offset	   += chunkLength;
+                length	   -= chunkLength;
+            }
+        }
+        finally {
+            checkInPosBuf( b );
+        }
+    }
+
+    private ByteBuffer checkOutPosBuf()
+    {
+        synchronized( posSync ) {
+            if( numPosBufs > 0 ) {
+                final ByteBuffer b = posBufs[ --numPosBufs ];
+                posBufs[ numPosBufs ] = null;
+                return b;
+            }
+        }
+        final ByteBuffer b = ByteBuffer.allocateDirect( byteBufCapacity );
+        b.order( afh.getByteOrder() );
+        return b;
+    }
+
+    private void checkInPosBuf( ByteBuffer b )
+    {
+        synchronized( posSync ) {
+            if( posClosed ) return;
+            if( numPosBufs == posBufs.length ) {
+                final ByteBuffer[] newBufs = new ByteBuffer[ numPosBufs << 1 ];
+                System.arraycopy( posBufs, 0, newBufs, 0, numPosBufs );
+                posBufs = newBufs;
+            }
+            posBufs[ numPosBufs++ ] = b;
+        }
+    }
+
+    // the most recently used decoder is handed out first, so
+    // that contiguous reads by one thread continue without seeking
+    private FLACBufferHandler checkOutPosHandler()
+    {
+        synchronized( posSync ) {
+            if( numPosHandlers > 0 ) {
+                final FLACBufferHandler h = posHandlers[ --numPosHandlers ];
+                posHandlers[ numPosHandlers ] = null;
+                return h;
+            }
+        }
+        return new FLACBufferHandler( (FLACHeader) afh );
+    }
+
+    private void checkInPosHandler( FLACBufferHandler h )
+    {
+        synchronized( posSync ) {
+            if( posClosed ) return;
+            if( numPosHandlers == posHandlers.length ) {
+                final FLACBufferHandler[] newHandlers = new FLACBufferHandler[ numPosHandlers << 1 ];
+                System.arraycopy( posHandlers, 0, newHandlers, 0, numPosHandlers );
+                posHandlers = newHandlers;
+            }
+            posHandlers[ numPosHandlers++ ] = h;
+        }
+    }
+
+    private void readMappedFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        long	pos		= framePosition;
+        int		chunkLength;
+
+        while( length > 0 ) {
+            if( (mapBuf == null) || (pos < mapStart) || (pos >= mapStop) ) mapWindow( pos );
+            chunkLength	= (int) Math.min( length, mapStop - pos );
+            bh.readFrames( mapBuf, (int) (pos - mapStart) * bytesPerFrame, data, offset, chunkLength );
+            pos		   += chunkLength;
+            offset	   += chunkLength;
+            length	   -= chunkLength;
+        }
+    }
+
+    /*
+     *	Maps the window of sample data containing the given frame.
+     *	Windows are aligned to multiples of mapFrameCapacity, so
+     *	seeking back and forth within a window does not remap.
+     */
+    private void mapWindow( long frame )
     throws IOException
     {
-        afh.readMarkers();
+        final long dataOffset	= afh.getSampleDataOffset();
+        final long numFrames	= Math.min( afd.length, (fch.size() - dataOffset) / bytesPerFrame );
+
+        if( (frame < 0) || (frame >= numFrames) ) throw new EOFException();
+
+        mapBuf		= null;		// allow the old window to be reclaimed
+        mapStart	= frame - (frame % mapFrameCapacity);
+        mapStop		= Math.min( numFrames, mapStart + mapFrameCapacity );
+        mapBuf		= fch.map( FileChannel.MapMode.READ_ONLY, dataOffset + mapStart * bytesPerFrame,
+                               (mapStop - mapStart) * bytesPerFrame );
+        mapBuf.order( afh.getByteOrder() );
     }
 
     /**
-     *  Reads application specific code into the audio file description
-     *  if there is such code. This method sets the <code>KEY_APPCODE</code>
-     *  property of the afd. The caller can check the <code>appCode</code>
-     *  field of the afd to ensure that potential app code is relevant to it.
+     *	Writes sample frames to the file starting at the current position.
+     *  If you write past the previous end of the file, the <code>length</code>
+     *  field of the internal <code>AudioFileDescr</code> is updated.
+     *  Since you get a reference from <code>getDescr</code> and not
+     *  a copy, using this reference to the description will automatically
+     *  give you the correct file length.
      *
-     *	@see	#getDescr()
-     *	@see	AudioFileDescr#KEY_APPCODE
-     *	@see	AudioFileDescr#appCode
+     *  @param  data	buffer holding the frames to write to harddisc.
+     *					the samples must be deinterleaved such that
+     *					data[0][] holds the first channel, data[1][]
+     *					holds the second channel etc.
+     *  @param  offset  offset in the buffer in sample frames, such
+     *					that he first frame of the first channel will
+     *					be read from data[0][offset] etc.
+     *  @param  length  number of continuous frames to write.
      *
-     *	@throws	IOException	if a read or parsing error occurs
+     *  @throws IOException if a write error occurs.
      */
-    public void readAppCode()
+    public void writeFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        bh.writeFrames( data, offset, length );
+        if( (peakBuilder != null) && isAppending() ) peakBuilder.add( data, offset, length );
+        framesWritten( length );
+    }
+
+    /**
+     *	Writes double precision sample frames to the file
+     *	starting at the current position.
+     *
+     *  @param  data	buffer holding the frames to write to harddisc
+     *					(deinterleaved)
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     *
+     *	@see	#writeFrames( float[][], int, int )
+     */
+    public void writeFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        bh.writeFrames( data, offset, length );
+        if( (peakBuilder != null) && isAppending() ) addPeaks( data, offset, length );
+        framesWritten( length );
+    }
+
+    /**
+     *	Writes interleaved sample frames to the file
+     *	starting at the current position.
+     *
+     *  @param  data	buffer holding the interleaved frames to write to harddisc,
+     *					<code>length * numChannels</code> samples beginning
+     *					at <code>offset * numChannels</code>
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     *
+     *	@see	#writeFrames( float[][], int, int )
+     */
+    public void writeFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        bh.writeInterleaved( data, offset * channels, length );
+        if( (peakBuilder != null) && isAppending() ) addPeaks( data, offset * channels, length );
+        framesWritten( length );
+    }
+
+    /**
+     *	Writes interleaved double precision sample frames to the file
+     *	starting at the current position.
+     *
+     *  @param  data	buffer holding the interleaved frames to write to harddisc,
+     *					<code>length * numChannels</code> samples beginning
+     *					at <code>offset * numChannels</code>
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     *
+     *	@see	#writeFrames( float[], int, int )
+     */
+    public void writeFrames( double[] data, int offset, int length )
+    throws IOException
+    {
+        bh.writeInterleaved( data, offset * channels, length );
+        if( (peakBuilder != null) && isAppending() ) addPeaks( data, offset * channels, length );
+        framesWritten( length );
+    }
+
+    /**
+     *	Writes interleaved sample frames to the file starting at the
+     *	current position, taking them from the buffer's position on.
+     *	The buffer's position is advanced by <code>length * numChannels</code>.
+     *
+     *  @param  data	buffer holding the interleaved frames to write to harddisc
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     *	@throws	BufferUnderflowException	if the buffer holds too few samples
+     *
+     *	@see	#writeFrames( float[], int, int )
+     */
+    public void writeFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        final int pos = data.position();
+
+        bh.writeInterleaved( data, length );
+        if( (peakBuilder != null) && isAppending() ) addPeaks( data, pos, length );
+        framesWritten( length );
+    }
+
+    /**
+     *	Attaches a peak pyramid to a file opened for writing,
+     *	so an overview of the recording is available while
+     *	it is being written. All frames written are fed into the pyramid,
+     *	which lives in memory, so querying it does not read from disk.
+     *	When the file is closed, the pyramid is written to a cache
+     *	file stamped with the final state of the audio file, which
+     *	can later be opened with <code>PeakPyramid.open</code>.
+     *	<p>
+     *	The pyramid follows the file as long as frames are appended to
+     *	its end. Writing elsewhere, or shortening the file, detaches the
+     *	pyramid: it is no longer updated, and no cache file is written.
+     *	Frames are fed into the pyramid as passed to <code>writeFrames</code>,
+     *	i.e. before clipping, dither and quantization.
+     *
+     *	@param	cacheFile	the cache file to write when the audio file is closed
+     *	@return	a pyramid which grows along with the file. It may be
+     *			queried from any thread
+     *
+     *	@throws	IllegalStateException	if the file was not opened for writing,
+     *									or frames have already been written
+     *
+     *	@see	PeakPyramid#open( File, AudioFile )
+     */
+    public PeakPyramid attachPeakPyramid( File cacheFile )
+    {
+        if( mode != MODE_READWRITE ) throw new IllegalStateException( "File not opened for writing" );
+        if( afd.length > 0 ) throw new IllegalStateException( "File not empty" );
+
+        peakBuilder		= new PeakPyramidBuilder( channels );
+        peakCacheFile	= cacheFile;
+        return new PeakPyramid( peakBuilder );
+    }
+
+    /*
+     *	Checks whether frames written at the current position
+     *	extend the attached peak pyramid; if not, the pyramid is detached
+     */
+    private boolean isAppending()
+    {
+        if( framePosition == peakBuilder.getFrameNum() ) return true;
+
+        peakBuilder = null;
+        peakBuf		= null;
+        return false;
+    }
+
+    private void addPeaks( double[][] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getPeakBuf();
+        double[]		d;
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( frameBufCapacity, length );
+            for( int ch = 0; ch < channels; ch++ ) {
+                d = data[ ch ];
+                f = b[ ch ];
+                if( d == null ) {
+                    for( int i = 0; i < chunkLength; i++ ) f[ i ] = 0f;
+                } else {
+                    for( int i = 0, j = offset; i < chunkLength; i++, j++ ) f[ i ] = (float) d[ j ];
+                }
+            }
+            peakBuilder.add( b, 0, chunkLength );
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    private void addPeaks( float[] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getPeakBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( frameBufCapacity, length );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset + ch; i < chunkLength; i++, j += channels ) f[ i ] = data[ j ];
+            }
+            peakBuilder.add( b, 0, chunkLength );
+            offset += chunkLength * channels;
+            length -= chunkLength;
+        }
+    }
+
+    private void addPeaks( double[] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getPeakBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( frameBufCapacity, length );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset + ch; i < chunkLength; i++, j += channels ) f[ i ] = (float) data[ j ];
+            }
+            peakBuilder.add( b, 0, chunkLength );
+            offset += chunkLength * channels;
+            length -= chunkLength;
+        }
+    }
+
+    // uses absolute gets, so the buffer's position is not touched
+    private void addPeaks( FloatBuffer data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getPeakBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( frameBufCapacity, length );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset + ch; i < chunkLength; i++, j += channels ) f[ i ] = data.get( j );
+            }
+            peakBuilder.add( b, 0, chunkLength );
+            offset += chunkLength * channels;
+            length -= chunkLength;
+        }
+    }
+
+    private float[][] getPeakBuf()
+    {
+        if( peakBuf == null ) peakBuf = new float[ channels ][ frameBufCapacity ];
+        return peakBuf;
+    }
+
+    /*
+     *	Advances the frame position after frames have been
+     *	written, and updates the length field (and periodically
+     *	the header) if the file has grown.
+     */
+    private void framesWritten( long length )
+    throws IOException
+    {
+        framePosition += length;
+
+        if( framePosition > afd.length ) {
+            if( (framePosition > updateLen) || (System.currentTimeMillis() > updateTime) ) {
+                flush();
+            } else {
+                afd.length = framePosition;
+            }
+        }
+    }
+
+    /**
+     *	Returns the number of frames
+     *	in the file.
+     *
+     *	@return	the number of sample frames
+     *			in the file. includes pending
+     *			buffer content
+     *
+     *	@throws	IOException	this is never thrown
+     *			but declared as of the <code>InterleavedStreamFile</code>
+     *			interface
+     */
+    public long getFrameNum()
+    throws IOException
+    {
+        return afd.length;
+    }
+
+    public void setFrameNum( long frame )
+    throws IOException
+    {
+        if( afh.isCompressed() ) {
+            if( frame != afd.length ) throw new IOException( getResourceString( "errAudioFileSequential" ));
+            return;
+        }
+
+        final long physical	= afh.getSampleDataOffset() + frame * bytesPerFrame;
+
+        raf.setLength( physical );
+        if( framePosition > frame ) framePosition = frame;
+        if( (peakBuilder != null) && (frame < peakBuilder.getFrameNum()) ) peakBuilder = null;
+        afd.length	= frame;
+//		updateTime	= System.currentTimeMillis() + 10000;
+//		afh.updateHeader( afd );
+//		updateLen	= framePosition + updateStep;
+    }
+
+    /**
+     *	Returns the number of channels
+     *	in the file.
+     *
+     *	@return	the number of channels
+     */
+    public int getChannelNum()
+    {
+        return afd.channels;
+    }
+
+    /**
+     *	Truncates the file to the size represented
+     *	by the current file position. The file
+     *	must have been opened in write mode.
+     *	Truncation occurs only if frames exist
+     *	beyond the current file position, which implicates
+     *	that you have set the position using <code>seekFrame</code>
+     *	to a location before the end of the file.
+     *	The header information is immediately updated.
+     *
+     *	@throws	IOException	if truncation fails
+     */
+    public void truncate()
     throws IOException
     {
-        afh.readAppCode();
+        if( afh.isCompressed() ) {
+            if( framePosition != afd.length ) throw new IOException( getResourceString( "errAudioFileSequential" ));
+            return;
+        }
+
+        fch.truncate( fch.position() );
+        if( (peakBuilder != null) && (framePosition < peakBuilder.getFrameNum()) ) peakBuilder = null;
+        if( framePosition != afd.length ) {
+            afd.length	= framePosition;
+            updateTime	= System.currentTimeMillis() + 10000;
+            afh.updateHeader( afd );
+            updateLen	= framePosition + updateStep;
+        }
     }
 
-    protected static final String getResourceString( String key )
-    {
-        return IOUtil.getResourceString( key );
-    }
+    /**
+     *	Copies sample frames from a source sound file
+     *	to a target file (either another sound file
+     *	or any other class implementing the
+     *	<code>InterleavedStreamFile</code> interface).
+     *	Both files must have the same number of channels.
+     *	<p>
+     *	If the target is an <code>AudioFile</code> with the same
+     *	number of channels, sample format, resolution and byte order,
+     *	the raw sample bytes are copied using <code>FileChannel.transferTo</code>,
+     *	without decoding and encoding the frames. The target's length
+     *	information is updated in both cases.
+     *
+     *	@param	target	to file to copy to from this audio file
+     *	@param	length	the number of frames to copy. Reading
+     *					and writing begins at the current positions
+     *					of both files.
+     *
+     *	@throws	IOException	if a read or write error occurs
+     */
+    public void copyFrames( InterleavedStreamFile target, long length )
+    throws IOException
+    {
+        if( (target instanceof AudioFile) && isRawCompatible( (AudioFile) target )) {
+            copyRawFrames( (AudioFile) target, length );
+            return;
+        }
+
+        int			chunkLength;
+        int			tempBufSize	= (int) Math.min( length, 8192 );
+        float[][]	tempBuf		= new float[ channels ][ tempBufSize ];
+
+        while( length > 0 ) {
+            chunkLength	= (int) Math.min( length, tempBufSize );
+            this.readFrames( tempBuf, 0, chunkLength );
+            target.writeFrames( tempBuf, 0, chunkLength );
+            length -= chunkLength;
+        }
+    }
+
+    /*
+     *	Checks whether sample data can be copied byte-by-byte
+     *	from this file to the target file
+     */
+    private boolean isRawCompatible( AudioFile target )
+    {
+        return( (target != this) && (target.mode == MODE_READWRITE) && (target.peakBuilder == null) &&
+                !this.afh.isCompressed() && !target.afh.isCompressed() &&
+                (target.channels == this.channels) &&
+                (target.afd.sampleFormat == this.afd.sampleFormat) &&
+                (target.afd.bitsPerSample == this.afd.bitsPerSample) &&
+                (target.afh.getByteOrder() == this.afh.getByteOrder()) &&
+                (target.afh.isUnsignedPCM() == this.afh.isUnsignedPCM()) );
+    }
+
+    private void copyRawFrames( AudioFile target, long length )
+    throws IOException
+    {
+        long	srcPos		= afh.getSampleDataOffset() + framePosition * bytesPerFrame;
+        long	remaining	= length * bytesPerFrame;
+        long	n;
+
+        // transferTo writes at (and advances) the target channel's
+        // position which corresponds to the target's frame position
+        while( remaining > 0 ) {
+            n = fch.transferTo( srcPos, remaining, target.fch );
+            if( n <= 0 ) throw new EOFException();
+            srcPos	  += n;
+            remaining -= n;
+        }
+        seekFrame( framePosition + length );
+        target.framesWritten( length );
+    }
+
+    /*
+     *	Parallel variant of copyFrames, used by AudioFileConverter. The
+     *	frames are read sequentially in blocks on the calling thread. Each
+     *	block is then encoded into the target's sample format by a pool
+     *	thread, using a buffer handler of its own, and written with a
+     *	positional write at the block's place in the target file, while
+     *	the calling thread already reads the next block. Falls back to
+     *	copyFrames if the target cannot be written out of order.
+     */
+    protected void convertFrames( AudioFile target, long length, ExecutorService pool, int numThreads )
+    throws IOException
+    {
+        if( (numThreads < 2) || (target == this) || (target.mode != MODE_READWRITE) ||
+            target.afh.isCompressed() || (target.channels != channels) || isRawCompatible( target )) {
+
+            copyFrames( target, length );
+            return;
+        }
+
+        final int			numSlots	= numThreads + 1;	// one is filled while the others are encoded
+        final int			blockSize	= target.frameBufCapacity * CONVERT_BLOCK_CHUNKS;
+        final BlockingQueue<ConvertSlot>	free		= new ArrayBlockingQueue<ConvertSlot>( numSlots );
+        final List<Future<Object>>			futures		= new ArrayList<Future<Object>>();
+        final long			physical	= target.afh.getSampleDataOffset() + target.framePosition * target.bytesPerFrame;
+        final boolean		peaks		= (target.peakBuilder != null) && target.isAppending();
+        ConvertSlot			slot;
+        long				off			= 0;
+        int					chunkLength;
+
+        for( int i = 0; i < numSlots; i++ ) {
+            slot = new ConvertSlot( target.createBufferHandler( ByteBuffer.allocateDirect(
+                target.byteBufCapacity ).order( target.afh.getByteOrder() )), channels, blockSize, free );
+            slot.bh.ditherSeed += i * 0x9E3779B9;	// decorrelates the slots' dither
+            free.add( slot );
+        }
+
+        try {
+            while( off < length ) {
+                slot = free.take();
+                if( slot.exception != null ) throw slot.exception;
+                chunkLength	= (int) Math.min( blockSize, length - off );
+                readFrames( slot.frames, 0, chunkLength );
+                if( peaks ) target.peakBuilder.add( slot.frames, 0, chunkLength );
+                slot.length		= chunkLength;
+                slot.physical	= physical + off * target.bytesPerFrame;
+                futures.add( pool.submit( slot ));
+                off += chunkLength;
+            }
+            for( int i = 0; i < futures.size(); i++ ) {
+                futures.get( i ).get();
+            }
+        }
+        catch( InterruptedException e1 ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e1.getMessage() );
+        }
+        catch( ExecutionException e1 ) {
+            final Throwable cause = e1.getCause();
+            if( cause instanceof IOException ) throw (IOException) cause;
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new IOException( String.valueOf( cause ));
+        }
+        finally {
+            // no block may still be written when we return, so every
+            // submitted block is waited for, even after an interrupt
+            boolean interrupted = Thread.interrupted();
+            for( int i = 0; i < futures.size(); ) {
+                try {
+                    futures.get( i ).get();
+                    i++;
+                }
+                catch( InterruptedException e1 ) {
+                    interrupted = true;
+                }
+                catch( ExecutionException e1 ) {
+                    i++;	// the first failure is thrown above
+                }
+            }
+            if( interrupted ) Thread.currentThread().interrupt();
+        }
+
+        target.framesWritten( length );
+        target.seekFrame( target.framePosition );	// positional writes leave the channel's position alone
+    }
+
+    /**
+     *  Flushes and closes the file
+     *
+     *  @throws IOException if an error occurs during buffer flush
+     *						or closing the file.
+     */
+    public void close()
+    throws IOException
+    {
+        if( mode == MODE_READWRITE ) {
+            bh.finish();
+            fch.force( true );
+            afh.updateHeader( afd );
+        }
+        mapBuf = null;
+        synchronized( posSync ) {
+            posClosed		= true;
+            posBufs			= new ByteBuffer[ 0 ];
+            numPosBufs		= 0;
+            posHandlers		= new FLACBufferHandler[ 0 ];
+            numPosHandlers	= 0;
+        }
+        raf.close();
+
+        if( peakBuilder != null ) {
+            // the stamp includes the modification date, so it is taken after closing
+            final PeakPyramidBuilder b = peakBuilder;
+            peakBuilder = null;
+            peakBuf		= null;
+            b.writeCache( peakCacheFile, new AudioFileCacheInfo( this, PeakPyramid.CACHE_MODEL, afd.length ), afd.rate );
+        }
+
+    }
+
+    /**
+     *  Flushes and closes the file. As opposed
+     *	to <code>close()</code>, this does not
+     *	throw any exceptions but simply ignores any errors.
+     *
+     *	@see	#close()
+     */
+    public void cleanUp()
+    {
+        try {
+            close();
+        }
+        catch( IOException e ) { /* ignored */ }
+    }
+
+    /**
+     *  Reads markers into the audio file description
+     *  if there are any. This method sets the <code>KEY_MARKERS</code>
+     *  property of the afd, if markers are available. It sets
+     *  the <code>KEY_LOOP</code> property if a loop span is available.
+     *
+     *	@see	#getDescr()
+     *	@see	AudioFileDescr#KEY_MARKERS
+     *	@see	AudioFileDescr#KEY_LOOP
+     *
+     *	@throws	IOException	if a read or parsing error occurs
+     */
+    public void readMarkers()
+    throws IOException
+    {
+        try {
+            afh.readMarkers();
+        }
+        finally {
+            hin.release();
+        }
+    }
+
+    /**
+     *  Reads application specific code into the audio file description
+     *  if there is such code. This method sets the <code>KEY_APPCODE</code>
+     *  property of the afd. The caller can check the <code>appCode</code>
+     *  field of the afd to ensure that potential app code is relevant to it.
+     *
+     *	@see	#getDescr()
+     *	@see	AudioFileDescr#KEY_APPCODE
+     *	@see	AudioFileDescr#appCode
+     *
+     *	@throws	IOException	if a read or parsing error occurs
+     */
+    public void readAppCode()
+    throws IOException
+    {
+        try {
+            afh.readAppCode();
+        }
+        finally {
+            hin.release();
+        }
+    }
+
+    protected static final String getResourceString( String key )
+    {
+        return IOUtil.getResourceString( key );
+    }
+
+// -------- ConvertSlot Klasse --------
+
+    /*
+     *	A block of frames encoded and written by a pool thread
+     *	in convertFrames. The slot returns itself to the free
+     *	queue when it is done.
+     */
+    private static class ConvertSlot
+    implements Callable<Object>
+    {
+        protected final BufferHandler	bh;
+        protected final float[][]		frames;
+        private final BlockingQueue<ConvertSlot>	free;
+        protected int					length;
+        protected long					physical;
+        protected IOException			exception	= null;
+
+        protected ConvertSlot( BufferHandler bh, int channels, int blockSize, BlockingQueue<ConvertSlot> free )
+        {
+            this.bh		= bh;
+            this.free	= free;
+            frames		= new float[ channels ][ blockSize ];
+        }
+
+        public Object call()
+        throws IOException
+        {
+            try {
+                bh.writeFrames( frames, 0, length, physical );
+            }
+            catch( IOException e1 ) {
+                exception = e1;
+                throw e1;
+            }
+            finally {
+                free.add( this );
+            }
+            return null;
+        }
+    }
+
+// -------- BufferHandler Klassen --------
+
+    /*
+     *	Each handler moves raw sample data between the file channel and
+     *	a primitive array (load / store) and converts between that array
+     *	and the float or double frames in separate kernels. The kernels are
+     *	plain counted loops without branches or calls in their bodies, so
+     *	HotSpot can unroll and vectorize them: a contiguous one for mono
+     *	files and interleaved buffers, a dedicated one for stereo files,
+     *	and a strided one per channel for everything else. Optional dither
+     *	and clipping are applied in a separate pass before encoding, so the
+     *	kernels themselves never test for them.
+     *
+     *	24 and 32 bit integers are scaled by multiplying with the
+     *	reciprocal, which gives exactly the same floats as the division
+     *	for all possible sample values (for 32 bit the divisor is rounded
+     *	to a power of two anyway). 8 and 16 bit integers keep the division,
+     *	since there the reciprocal would be off by one ulp for some values.
+     */
+    private abstract class BufferHandler
+    {
+        // raw sample data. this is the file's byteBuf, unless the
+        // handler encodes on behalf of convertFrames
+        protected final ByteBuffer	byteBuf;
+
+        private final float	lsb;		// 0 for float formats
+        private int			ditherSeed	= 0x5EED;
+        private float[][]	prepBuf		= null;
+        private double[][]	prepBufD	= null;
+        private float[]		interBuf	= null;
+
+        // channel selections of at most one in sparseRatio channels are decoded
+        // straight from the I/O buffer, because copying and converting the whole
+        // frames would be more expensive (determined by measurement)
+        protected final int	sparseRatio;
+
+        protected BufferHandler( ByteBuffer byteBuf, float lsb, int sparseRatio )
+        {
+            this.byteBuf		= byteBuf;
+            this.lsb			= lsb;
+            this.sparseRatio	= sparseRatio;
+        }
+
+        protected abstract void load( int length ) throws IOException;
+
+        // converts length frames from the handler's array into byteBuf,
+        // leaving the buffer ready to be written
+        protected abstract void pack( int length );
+
+        protected void store( int length )
+        throws IOException
+        {
+            pack( length );
+            fch.write( byteBuf );
+        }
+
+        // writes pending data when the file is closed
+        protected void finish() throws IOException { /* empty */ }
+
+        protected abstract void decodeInterleaved( float[] dst, int dstOff, int numSamples );
+        protected abstract void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length );
+        protected abstract void decodeChannel( int ch, float[] dst, int dstOff, int length );
+        protected abstract void encodeInterleaved( float[] src, int srcOff, int numSamples );
+        protected abstract void encodeStereo( float[] src0, float[] src1, int srcOff, int length );
+        protected abstract void encodeChannel( int ch, float[] src, int srcOff, int length );
+
+        protected abstract void decodeInterleaved( double[] dst, int dstOff, int numSamples );
+        protected abstract void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length );
+        protected abstract void decodeChannel( int ch, double[] dst, int dstOff, int length );
+        protected abstract void encodeInterleaved( double[] src, int srcOff, int numSamples );
+        protected abstract void encodeStereo( double[] src0, double[] src1, int srcOff, int length );
+        protected abstract void encodeChannel( int ch, double[] src, int srcOff, int length );
+
+        // decodes one channel straight from a buffer holding raw sample data
+        // (e.g. a mapped window), beginning at byte index srcOff. uses absolute
+        // indexing only, so neither the buffer's position nor the handler's
+        // own buffers are touched
+        protected abstract void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length );
+
+        protected void readFrames( ByteBuffer src, int srcOff, float[][] frames, int offset, int length )
+        {
+            for( int ch = 0; ch < channels; ch++ ) {
+                if( frames[ ch ] != null ) decodeChannel( src, srcOff, ch, frames[ ch ], offset, length );
+            }
+        }
+
+        protected void readFrames( float[][] frames, int offset, int length )
+        throws IOException
+        {
+            int chunkLength;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                load( chunkLength );
+                decode( frames, offset, chunkLength );
+                length -= chunkLength;
+                offset += chunkLength;
+            }
+        }
+
+        protected void writeFrames( float[][] frames, int offset, int length )
+        throws IOException
+        {
+            int chunkLength;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                encode( frames, offset, chunkLength );
+                store( chunkLength );
+                length -= chunkLength;
+                offset += chunkLength;
+            }
+        }
+
+        // positional variant used by convertFrames, writing at byte
+        // offset physical without touching the channel's position
+        protected void writeFrames( float[][] frames, int offset, int length, long physical )
+        throws IOException
+        {
+            int chunkLength;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                encode( frames, offset, chunkLength );
+                pack( chunkLength );
+                while( byteBuf.hasRemaining() ) {
+                    physical += fch.write( byteBuf, physical );
+                }
+                length -= chunkLength;
+                offset += chunkLength;
+            }
+        }
+
+        // offset is given in samples, length in frames
+        protected void readInterleaved( float[] data, int offset, int length )
+        throws IOException
+        {
+            int chunkLength, n;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                n			= chunkLength * channels;
+                load( chunkLength );
+                decodeInterleaved( data, offset, n );
+                length -= chunkLength;
+                offset += n;
+            }
+        }
+
+        // offset is given in samples, length in frames
+        protected void writeInterleaved( float[] data, int offset, int length )
+        throws IOException
+        {
+            final boolean	process	= clipping || (dither != DITHER_NONE);
+            int				chunkLength, n;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                n			= chunkLength * channels;
+                if( process ) {
+                    encodeInterleaved( prepare( data, offset, n, 0, true ), 0, n );
+                } else {
+                    encodeInterleaved( data, offset, n );
+                }
+                store( chunkLength );
+                length -= chunkLength;
+                offset += n;
+            }
+        }
+
+        private void decode( float[][] frames, int offset, int length )
+        {
+            float[] b;
+
+            if( channels == 1 ) {
+                if( frames[ 0 ] != null ) decodeInterleaved( frames[ 0 ], offset, length );
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                decodeStereo( frames[ 0 ], frames[ 1 ], offset, length );
+            } else {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    decodeChannel( ch, b, offset, length );
+                }
+            }
+        }
+
+        private void encode( float[][] frames, int offset, int length )
+        {
+            final boolean	process	= clipping || (dither != DITHER_NONE);
+            float[]			b;
+            int				off;
+
+            if( channels == 2 ) {
+                if( process || (frames[ 0 ] == null) || (frames[ 1 ] == null) ) {
+                    encodeStereo( prepare( frames[ 0 ], offset, length, 0, process ),
+                                  prepare( frames[ 1 ], offset, length, 1, process ), 0, length );
+                } else {
+                    encodeStereo( frames[ 0 ], frames[ 1 ], offset, length );
+                }
+            } else {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    b	= frames[ ch ];
+                    off	= offset;
+                    if( process || (b == null) ) {
+                        b	= prepare( b, offset, length, 0, process );
+                        off	= 0;
+                    }
+                    if( channels == 1 ) {
+                        encodeInterleaved( b, off, length );
+                    } else {
+                        encodeChannel( ch, b, off, length );
+                    }
+                }
+            }
+        }
+
+        protected void readFrames( double[][] frames, int offset, int length )
+        throws IOException
+        {
+            int chunkLength;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                load( chunkLength );
+                decode( frames, offset, chunkLength );
+                length -= chunkLength;
+                offset += chunkLength;
+            }
+        }
+
+        protected void writeFrames( double[][] frames, int offset, int length )
+        throws IOException
+        {
+            int chunkLength;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                encode( frames, offset, chunkLength );
+                store( chunkLength );
+                length -= chunkLength;
+                offset += chunkLength;
+            }
+        }
+
+        // offset is given in samples, length in frames
+        protected void readInterleaved( double[] data, int offset, int length )
+        throws IOException
+        {
+            int chunkLength, n;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                n			= chunkLength * channels;
+                load( chunkLength );
+                decodeInterleaved( data, offset, n );
+                length -= chunkLength;
+                offset += n;
+            }
+        }
+
+        // offset is given in samples, length in frames
+        protected void writeInterleaved( double[] data, int offset, int length )
+        throws IOException
+        {
+            final boolean	process	= clipping || (dither != DITHER_NONE);
+            int				chunkLength, n;
+
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                n			= chunkLength * channels;
+                if( process ) {
+                    encodeInterleaved( prepare( data, offset, n, 0, true ), 0, n );
+                } else {
+                    encodeInterleaved( data, offset, n );
+                }
+                store( chunkLength );
+                length -= chunkLength;
+                offset += n;
+            }
+        }
+
+        private void decode( double[][] frames, int offset, int length )
+        {
+            double[] b;
+
+            if( channels == 1 ) {
+                if( frames[ 0 ] != null ) decodeInterleaved( frames[ 0 ], offset, length );
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                decodeStereo( frames[ 0 ], frames[ 1 ], offset, length );
+            } else {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    decodeChannel( ch, b, offset, length );
+                }
+            }
+        }
+
+        private void encode( double[][] frames, int offset, int length )
+        {
+            final boolean	process	= clipping || (dither != DITHER_NONE);
+            double[]			b;
+            int				off;
+
+            if( channels == 2 ) {
+                if( process || (frames[ 0 ] == null) || (frames[ 1 ] == null) ) {
+                    encodeStereo( prepare( frames[ 0 ], offset, length, 0, process ),
+                                  prepare( frames[ 1 ], offset, length, 1, process ), 0, length );
+                } else {
+                    encodeStereo( frames[ 0 ], frames[ 1 ], offset, length );
+                }
+            } else {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    b	= frames[ ch ];
+                    off	= offset;
+                    if( process || (b == null) ) {
+                        b	= prepare( b, offset, length, 0, process );
+                        off	= 0;
+                    }
+                    if( channels == 1 ) {
+                        encodeInterleaved( b, off, length );
+                    } else {
+                        encodeChannel( ch, b, off, length );
+                    }
+                }
+            }
+        }
+
+        // copies samples into a scratch buffer (beginning at index zero),
+        // applying dither and clipping if requested. a missing channel
+        // is written as silence
+        private float[] prepare( float[] b, int offset, int length, int slot, boolean process )
+        {
+            final float[]	d;
+            final float		scale;
+            int				seed, r;
+
+            if( prepBuf == null ) prepBuf = new float[ 2 ][ frameBufCapacity * channels ];
+            d = prepBuf[ slot ];
+            if( b == null ) {
+                for( int i = 0; i < length; i++ ) d[ i ] = 0f;
+            } else {
+                System.arraycopy( b, offset, d, 0, length );
+            }
+            if( !process ) return d;
+
+            if( (dither == DITHER_TPDF) && (lsb > 0f) ) {
+                // triangular dither of +/- 1 LSB, being the sum of
+                // two uniform variates (linear congruential generator)
+                scale	= lsb / 4294967296f;
+                seed	= ditherSeed;
+                for( int i = 0; i < length; i++ ) {
+                    seed	= seed * 1664525 + 1013904223;
+                    r		= seed;
+                    seed	= seed * 1664525 + 1013904223;
+                    d[ i ] += ((float) r + (float) seed) * scale;
+                }
+                ditherSeed = seed;
+            }
+            // always clip when dithering, so full scale samples cannot wrap around
+            for( int i = 0; i < length; i++ ) {
+                d[ i ] = Math.max( -1f, Math.min( 1f, d[ i ]));
+            }
+            return d;
+        }
+
+        private double[] prepare( double[] b, int offset, int length, int slot, boolean process )
+        {
+            final double[]	d;
+            final double	scale;
+            int				seed, r;
+
+            if( prepBufD == null ) prepBufD = new double[ 2 ][ frameBufCapacity * channels ];
+            d = prepBufD[ slot ];
+            if( b == null ) {
+                for( int i = 0; i < length; i++ ) d[ i ] = 0.0;
+            } else {
+                System.arraycopy( b, offset, d, 0, length );
+            }
+            if( !process ) return d;
+
+            if( (dither == DITHER_TPDF) && (lsb > 0f) ) {
+                scale	= lsb / 4294967296.0;
+                seed	= ditherSeed;
+                for( int i = 0; i < length; i++ ) {
+                    seed	= seed * 1664525 + 1013904223;
+                    r		= seed;
+                    seed	= seed * 1664525 + 1013904223;
+                    d[ i ] += ((double) r + (double) seed) * scale;
+                }
+                ditherSeed = seed;
+            }
+            for( int i = 0; i < length; i++ ) {
+                d[ i ] = Math.max( -1.0, Math.min( 1.0, d[ i ]));
+            }
+            return d;
+        }
+
+        // a buffer without accessible array is (de)coded
+        // through a scratch array of one chunk
+        protected void readInterleaved( FloatBuffer data, int length )
+        throws IOException
+        {
+            int chunkLength, n;
+
+            if( data.remaining() < length * channels ) throw new BufferOverflowException();
+            if( data.hasArray() ) {
+                n = length * channels;
+                readInterleaved( data.array(), data.arrayOffset() + data.position(), length );
+                data.position( data.position() + n );
+                return;
+            }
+            if( interBuf == null ) interBuf = new float[ frameBufCapacity * channels ];
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                n			= chunkLength * channels;
+                load( chunkLength );
+                decodeInterleaved( interBuf, 0, n );
+                data.put( interBuf, 0, n );
+                length -= chunkLength;
+            }
+        }
+
+        protected void writeInterleaved( FloatBuffer data, int length )
+        throws IOException
+        {
+            int chunkLength, n;
+
+            if( data.remaining() < length * channels ) throw new BufferUnderflowException();
+            if( data.hasArray() ) {
+                n = length * channels;
+                writeInterleaved( data.array(), data.arrayOffset() + data.position(), length );
+                data.position( data.position() + n );
+                return;
+            }
+            if( interBuf == null ) interBuf = new float[ frameBufCapacity * channels ];
+            while( length > 0 ) {
+                chunkLength = Math.min( frameBufCapacity, length );
+                n			= chunkLength * channels;
+                data.get( interBuf, 0, n );
+                writeInterleaved( interBuf, 0, chunkLength );
+                length -= chunkLength;
+            }
+        }
+    }
+
+    private class ByteBufferHandler
+    extends BufferHandler
+    {
+        private final byte[]		arrayBuf;
+
+        protected ByteBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 1.0f / 0x7F, 32 );
+            arrayBuf	= new byte[ byteBuf.capacity() ];
+        }
+
+        protected void load( int length )
+        throws IOException
+        {
+            final int m = length * bytesPerFrame;
+
+            byteBuf.rewind().limit( m );
+            fch.read( byteBuf );
+            byteBuf.flip();
+            byteBuf.get( arrayBuf, 0, m );
+        }
+
+        protected void pack( int length )
+        {
+            byteBuf.clear();
+            byteBuf.put( arrayBuf, 0, length * bytesPerFrame );
+            byteBuf.flip();
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (float) arrayBuf[ i ] / 0x7F;
+            }
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (float) arrayBuf[ i ] / 0x7F;
+                dst1[ j ] = (float) arrayBuf[ i + 1 ] / 0x7F;
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (float) arrayBuf[ i ] / 0x7F;
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (byte) (src[ srcOff + i ] * 0x7F);
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (byte) (src0[ j ] * 0x7F);
+                arrayBuf[ i + 1 ] = (byte) (src1[ j ] * 0x7F);
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (byte) (src[ j ] * 0x7F);
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (double) arrayBuf[ i ] / 0x7F;
+            }
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (double) arrayBuf[ i ] / 0x7F;
+                dst1[ j ] = (double) arrayBuf[ i + 1 ] / 0x7F;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (double) arrayBuf[ i ] / 0x7F;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (byte) (src[ srcOff + i ] * 0x7F);
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (byte) (src0[ j ] * 0x7F);
+                arrayBuf[ i + 1 ] = (byte) (src1[ j ] * 0x7F);
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (byte) (src[ j ] * 0x7F);
+            }
+        }
+
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + ch, j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) src.get( i ) / 0x7F;
+            }
+        }
+    }
+
+    // float to byte = f*0x7F+0x80 (-1 ... +1 becomes 0x01 to 0xFF)
+    // which is how libsndfile behaves
+    private class UByteBufferHandler
+    extends BufferHandler
+    {
+        private final byte[]		arrayBuf;
+
+        protected UByteBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 1.0f / 0x7F, 32 );
+            arrayBuf	= new byte[ byteBuf.capacity() ];
+        }
+
+        protected void load( int length )
+        throws IOException
+        {
+            final int m = length * bytesPerFrame;
+
+            byteBuf.rewind().limit( m );
+            fch.read( byteBuf );
+            byteBuf.flip();
+            byteBuf.get( arrayBuf, 0, m );
+        }
+
+        protected void pack( int length )
+        {
+            byteBuf.clear();
+            byteBuf.put( arrayBuf, 0, length * bytesPerFrame );
+            byteBuf.flip();
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (float) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (float) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+                dst1[ j ] = (float) ((arrayBuf[ i + 1 ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (float) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (byte) (src[ srcOff + i ] * 0x7F + 0x80);
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (byte) (src0[ j ] * 0x7F + 0x80);
+                arrayBuf[ i + 1 ] = (byte) (src1[ j ] * 0x7F + 0x80);
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (byte) (src[ j ] * 0x7F + 0x80);
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (double) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (double) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+                dst1[ j ] = (double) ((arrayBuf[ i + 1 ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (double) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (byte) (src[ srcOff + i ] * 0x7F + 0x80);
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (byte) (src0[ j ] * 0x7F + 0x80);
+                arrayBuf[ i + 1 ] = (byte) (src1[ j ] * 0x7F + 0x80);
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (byte) (src[ j ] * 0x7F + 0x80);
+            }
+        }
+
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + ch, j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) ((src.get( i ) & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+    }
+
+    private class ShortBufferHandler
+    extends BufferHandler
+    {
+        private final ShortBuffer	viewBuf;
+        private final short[]		arrayBuf;
+
+        protected ShortBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 1.0f / 0x7FFF, 32 );
+            byteBuf.clear();
+            viewBuf		= byteBuf.asShortBuffer();
+            arrayBuf	= new short[ viewBuf.capacity() ];
+        }
+
+        protected void load( int length )
+        throws IOException
+        {
+            byteBuf.rewind().limit( length * bytesPerFrame );
+            fch.read( byteBuf );
+            viewBuf.clear();
+            viewBuf.get( arrayBuf, 0, length * channels );
+        }
+
+        protected void pack( int length )
+        {
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, length * channels );
+            byteBuf.rewind().limit( length * bytesPerFrame );
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (float) arrayBuf[ i ] / 0x7FFF;
+            }
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (float) arrayBuf[ i ] / 0x7FFF;
+                dst1[ j ] = (float) arrayBuf[ i + 1 ] / 0x7FFF;
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (float) arrayBuf[ i ] / 0x7FFF;
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (short) (src[ srcOff + i ] * 0x7FFF);
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (short) (src0[ j ] * 0x7FFF);
+                arrayBuf[ i + 1 ] = (short) (src1[ j ] * 0x7FFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (short) (src[ j ] * 0x7FFF);
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (double) arrayBuf[ i ] / 0x7FFF;
+            }
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (double) arrayBuf[ i ] / 0x7FFF;
+                dst1[ j ] = (double) arrayBuf[ i + 1 ] / 0x7FFF;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (double) arrayBuf[ i ] / 0x7FFF;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (short) (src[ srcOff + i ] * 0x7FFF);
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (short) (src0[ j ] * 0x7FFF);
+                arrayBuf[ i + 1 ] = (short) (src1[ j ] * 0x7FFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (short) (src[ j ] * 0x7FFF);
+            }
+        }
+
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + (ch << 1), j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) src.getShort( i ) / 0x7FFF;
+            }
+        }
+    }
+
+    /*
+     *  24bit big endian
+     */
+    private class ThreeByteBufferHandler
+    extends BufferHandler
+    {
+        private final byte[]		packBuf;
+        private final ByteBuffer	packView;
+        private final int[]			arrayBuf;
+
+        protected ThreeByteBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 1.0f / 0x7FFFFF, 4 );
+            // note : it's *not* faster to use ByteBuffer.allocate()
+            // and ByteBuffer.array() than this implementation
+            // (using ByteBuffer.allocateDirect() and bulk get into a separate packBuf)
+            //
+            // when reading, the samples begin at packBuf[ 1 ], so every 24 bit word
+            // can be fetched as the lower bytes of an int (or with the next word,
+            // as a long) starting one byte before it. one byte of slack at the end
+            // keeps the long of the last stereo frame in bounds
+            packBuf		= new byte[ byteBuf.capacity() + 2 ];
+            packView	= ByteBuffer.wrap( packBuf );
+            packView.order( ByteOrder.BIG_ENDIAN );
+            arrayBuf	= new int[ frameBufCapacity * channels ];
+        }
+
+        // there is no separate unpacking pass; the decoding kernels
+        // extract and scale the 24 bit words straight from packBuf
+        protected void load( int length )
+        throws IOException
+        {
+            final int m = length * bytesPerFrame;
+
+            byteBuf.rewind().limit( m );
+            fch.read( byteBuf );
+            byteBuf.flip();
+            byteBuf.get( packBuf, 1, m );
+        }
+
+        protected void pack( int length )
+        {
+            final int	m = length * bytesPerFrame;
+            int			k;
+
+            for( int i = 0, j = 0; j < m; i++, j += 3 ) {
+                k				= arrayBuf[ i ];
+                packBuf[ j ]		= (byte) (k >> 16);
+                packBuf[ j + 1 ]	= (byte) (k >> 8);
+                packBuf[ j + 2 ]	= (byte)  k;
+            }
+            byteBuf.clear();
+            byteBuf.put( packBuf, 0, m );
+            byteBuf.flip();
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            final ByteBuffer	v		= packView;
+            final int			stop	= dstOff + (numSamples & ~1);
+            int					i		= dstOff;
+            int					j		= 0;
+            long				l;
+
+            for( ; i < stop; i += 2, j += 6 ) {		// two words at a time
+                l				= v.getLong( j );
+                dst[ i ]		= (float) ((int) (l >>> 32) << 8 >> 8) * (1.0f / 0x7FFFFF);
+                dst[ i + 1 ]	= (float) ((int) (l >>> 8) << 8 >> 8) * (1.0f / 0x7FFFFF);
+            }
+            if( (numSamples & 1) != 0 ) dst[ i ] = (float) (v.getInt( j ) << 8 >> 8) * (1.0f / 0x7FFFFF);
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            final ByteBuffer	v	= packView;
+            long				l;
+
+            for( int i = dstOff, j = 0, stop = dstOff + length; i < stop; i++, j += 6 ) {
+                l			= v.getLong( j );		// both words of the frame
+                dst0[ i ]	= (float) ((int) (l >>> 32) << 8 >> 8) * (1.0f / 0x7FFFFF);
+                dst1[ i ]	= (float) ((int) (l >>> 8) << 8 >> 8) * (1.0f / 0x7FFFFF);
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            final ByteBuffer v = packView;
+
+            for( int i = dstOff, j = ch * 3, stop = dstOff + length; i < stop; i++, j += bytesPerFrame ) {
+                dst[ i ] = (float) (v.getInt( j ) << 8 >> 8) * (1.0f / 0x7FFFFF);
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (int) (src[ srcOff + i ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (int) (src0[ j ] * 0x7FFFFF);
+                arrayBuf[ i + 1 ] = (int) (src1[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (int) (src[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            final ByteBuffer	v		= packView;
+            final int			stop	= dstOff + (numSamples & ~1);
+            int					i		= dstOff;
+            int					j		= 0;
+            long				l;
+
+            for( ; i < stop; i += 2, j += 6 ) {		// two words at a time
+                l				= v.getLong( j );
+                dst[ i ]		= (double) ((int) (l >>> 32) << 8 >> 8) / 0x7FFFFF;
+                dst[ i + 1 ]	= (double) ((int) (l >>> 8) << 8 >> 8) / 0x7FFFFF;
+            }
+            if( (numSamples & 1) != 0 ) dst[ i ] = (double) (v.getInt( j ) << 8 >> 8) / 0x7FFFFF;
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            final ByteBuffer	v	= packView;
+            long				l;
+
+            for( int i = dstOff, j = 0, stop = dstOff + length; i < stop; i++, j += 6 ) {
+                l			= v.getLong( j );		// both words of the frame
+                dst0[ i ]	= (double) ((int) (l >>> 32) << 8 >> 8) / 0x7FFFFF;
+                dst1[ i ]	= (double) ((int) (l >>> 8) << 8 >> 8) / 0x7FFFFF;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            final ByteBuffer v = packView;
+
+            for( int i = dstOff, j = ch * 3, stop = dstOff + length; i < stop; i++, j += bytesPerFrame ) {
+                dst[ i ] = (double) (v.getInt( j ) << 8 >> 8) / 0x7FFFFF;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (int) (src[ srcOff + i ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (int) (src0[ j ] * 0x7FFFFF);
+                arrayBuf[ i + 1 ] = (int) (src1[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (int) (src[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + ch * 3, j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) ((src.get( i ) << 16) |
+                                   ((src.get( i + 1 ) & 0xFF) << 8) |
+                                    (src.get( i + 2 ) & 0xFF)) * (1.0f / 0x7FFFFF);
+            }
+        }
+    }
+
+    /*
+     *  24bit little endian
+     */
+    private class ThreeLittleByteBufferHandler
+    extends BufferHandler
+    {
+        private final byte[]		packBuf;
+        private final ByteBuffer	packView;
+        private final int[]			arrayBuf;
+
+        protected ThreeLittleByteBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 1.0f / 0x7FFFFF, 4 );
+            // note : it's *not* faster to use ByteBuffer.allocate()
+            // and ByteBuffer.array() than this implementation
+            // (using ByteBuffer.allocateDirect() and bulk get into a separate packBuf)
+            //
+            // when reading, the samples begin at packBuf[ 1 ], so every 24 bit word
+            // can be fetched as the lower bytes of an int (or with the next word,
+            // as a long) starting one byte before it. one byte of slack at the end
+            // keeps the long of the last stereo frame in bounds
+            packBuf		= new byte[ byteBuf.capacity() + 2 ];
+            packView	= ByteBuffer.wrap( packBuf );
+            packView.order( ByteOrder.LITTLE_ENDIAN );
+            arrayBuf	= new int[ frameBufCapacity * channels ];
+        }
+
+        // there is no separate unpacking pass; the decoding kernels
+        // extract and scale the 24 bit words straight from packBuf
+        protected void load( int length )
+        throws IOException
+        {
+            final int m = length * bytesPerFrame;
+
+            byteBuf.rewind().limit( m );
+            fch.read( byteBuf );
+            byteBuf.flip();
+            byteBuf.get( packBuf, 1, m );
+        }
+
+        protected void pack( int length )
+        {
+            final int	m = length * bytesPerFrame;
+            int			k;
+
+            for( int i = 0, j = 0; j < m; i++, j += 3 ) {
+                k				= arrayBuf[ i ];
+                packBuf[ j ]		= (byte)  k;
+                packBuf[ j + 1 ]	= (byte) (k >> 8);
+                packBuf[ j + 2 ]	= (byte) (k >> 16);
+            }
+            byteBuf.clear();
+            byteBuf.put( packBuf, 0, m );
+            byteBuf.flip();
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            final ByteBuffer	v		= packView;
+            final int			stop	= dstOff + (numSamples & ~1);
+            int					i		= dstOff;
+            int					j		= 0;
+            long				l;
+
+            for( ; i < stop; i += 2, j += 6 ) {		// two words at a time
+                l				= v.getLong( j );
+                dst[ i ]		= (float) ((int) l >> 8) * (1.0f / 0x7FFFFF);
+                dst[ i + 1 ]	= (float) ((int) (l >>> 24) >> 8) * (1.0f / 0x7FFFFF);
+            }
+            if( (numSamples & 1) != 0 ) dst[ i ] = (float) (v.getInt( j ) >> 8) * (1.0f / 0x7FFFFF);
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            final ByteBuffer	v	= packView;
+            long				l;
+
+            for( int i = dstOff, j = 0, stop = dstOff + length; i < stop; i++, j += 6 ) {
+                l			= v.getLong( j );		// both words of the frame
+                dst0[ i ]	= (float) ((int) l >> 8) * (1.0f / 0x7FFFFF);
+                dst1[ i ]	= (float) ((int) (l >>> 24) >> 8) * (1.0f / 0x7FFFFF);
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            final ByteBuffer v = packView;
+
+            for( int i = dstOff, j = ch * 3, stop = dstOff + length; i < stop; i++, j += bytesPerFrame ) {
+                dst[ i ] = (float) (v.getInt( j ) >> 8) * (1.0f / 0x7FFFFF);
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (int) (src[ srcOff + i ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (int) (src0[ j ] * 0x7FFFFF);
+                arrayBuf[ i + 1 ] = (int) (src1[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (int) (src[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            final ByteBuffer	v		= packView;
+            final int			stop	= dstOff + (numSamples & ~1);
+            int					i		= dstOff;
+            int					j		= 0;
+            long				l;
+
+            for( ; i < stop; i += 2, j += 6 ) {		// two words at a time
+                l				= v.getLong( j );
+                dst[ i ]		= (double) ((int) l >> 8) / 0x7FFFFF;
+                dst[ i + 1 ]	= (double) ((int) (l >>> 24) >> 8) / 0x7FFFFF;
+            }
+            if( (numSamples & 1) != 0 ) dst[ i ] = (double) (v.getInt( j ) >> 8) / 0x7FFFFF;
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            final ByteBuffer	v	= packView;
+            long				l;
+
+            for( int i = dstOff, j = 0, stop = dstOff + length; i < stop; i++, j += 6 ) {
+                l			= v.getLong( j );		// both words of the frame
+                dst0[ i ]	= (double) ((int) l >> 8) / 0x7FFFFF;
+                dst1[ i ]	= (double) ((int) (l >>> 24) >> 8) / 0x7FFFFF;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            final ByteBuffer v = packView;
+
+            for( int i = dstOff, j = ch * 3, stop = dstOff + length; i < stop; i++, j += bytesPerFrame ) {
+                dst[ i ] = (double) (v.getInt( j ) >> 8) / 0x7FFFFF;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (int) (src[ srcOff + i ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (int) (src0[ j ] * 0x7FFFFF);
+                arrayBuf[ i + 1 ] = (int) (src1[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (int) (src[ j ] * 0x7FFFFF);
+            }
+        }
+
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + ch * 3, j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) ((src.get( i ) & 0xFF) |
+                                   ((src.get( i + 1 ) & 0xFF) << 8) |
+                                    (src.get( i + 2 ) << 16)) * (1.0f / 0x7FFFFF);
+            }
+        }
+    }
+
+    private class IntBufferHandler
+    extends BufferHandler
+    {
+        private final IntBuffer	viewBuf;
+        private final int[]		arrayBuf;
+
+        protected IntBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 1.0f / 0x7FFFFFFF, 8 );
+            byteBuf.clear();
+            viewBuf		= byteBuf.asIntBuffer();
+            arrayBuf	= new int[ viewBuf.capacity() ];
+        }
+
+        protected void load( int length )
+        throws IOException
+        {
+            byteBuf.rewind().limit( length * bytesPerFrame );
+            fch.read( byteBuf );
+            viewBuf.clear();
+            viewBuf.get( arrayBuf, 0, length * channels );
+        }
+
+        protected void pack( int length )
+        {
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, length * channels );
+            byteBuf.rewind().limit( length * bytesPerFrame );
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (float) arrayBuf[ i ] * (1.0f / 0x7FFFFFFF);
+            }
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (float) arrayBuf[ i ] * (1.0f / 0x7FFFFFFF);
+                dst1[ j ] = (float) arrayBuf[ i + 1 ] * (1.0f / 0x7FFFFFFF);
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (float) arrayBuf[ i ] * (1.0f / 0x7FFFFFFF);
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (int) (src[ srcOff + i ] * 0x7FFFFFFF);
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (int) (src0[ j ] * 0x7FFFFFFF);
+                arrayBuf[ i + 1 ] = (int) (src1[ j ] * 0x7FFFFFFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (int) (src[ j ] * 0x7FFFFFFF);
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (double) arrayBuf[ i ] / 0x7FFFFFFF;
+            }
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (double) arrayBuf[ i ] / 0x7FFFFFFF;
+                dst1[ j ] = (double) arrayBuf[ i + 1 ] / 0x7FFFFFFF;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (double) arrayBuf[ i ] / 0x7FFFFFFF;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (int) (src[ srcOff + i ] * 0x7FFFFFFF);
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (int) (src0[ j ] * 0x7FFFFFFF);
+                arrayBuf[ i + 1 ] = (int) (src1[ j ] * 0x7FFFFFFF);
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (int) (src[ j ] * 0x7FFFFFFF);
+            }
+        }
+
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + (ch << 2), j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) src.getInt( i ) * (1.0f / 0x7FFFFFFF);
+            }
+        }
+    }
+
+    private class FloatBufferHandler
+    extends BufferHandler
+    {
+        private final FloatBuffer	viewBuf;
+        private final float[]		arrayBuf;
+
+        protected FloatBufferHandler( ByteBuffer byteBuf )
+        {
+            super( byteBuf, 0f, 8 );
+            byteBuf.clear();
+            viewBuf		= byteBuf.asFloatBuffer();
+            arrayBuf	= new float[ viewBuf.capacity() ];
+        }
+
+        protected void load( int length )
+        throws IOException
+        {
+            byteBuf.rewind().limit( length * bytesPerFrame );
+            fch.read( byteBuf );
+            viewBuf.clear();
+            viewBuf.get( arrayBuf, 0, length * channels );
+        }
+
+        protected void pack( int length )
+        {
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, length * channels );
+            byteBuf.rewind().limit( length * bytesPerFrame );
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            System.arraycopy( arrayBuf, 0, dst, dstOff, numSamples );
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = arrayBuf[ i ];
+                dst1[ j ] = arrayBuf[ i + 1 ];
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = arrayBuf[ i ];
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            System.arraycopy( src, srcOff, arrayBuf, 0, numSamples );
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = src0[ j ];
+                arrayBuf[ i + 1 ] = src1[ j ];
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = src[ j ];
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (double) arrayBuf[ i ];
+            }
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (double) arrayBuf[ i ];
+                dst1[ j ] = (double) arrayBuf[ i + 1 ];
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (double) arrayBuf[ i ];
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = (float) src[ srcOff + i ];
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = (float) src0[ j ];
+                arrayBuf[ i + 1 ] = (float) src1[ j ];
+            }
+        }
 
-// -------- BufferHandler Klassen --------
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = (float) src[ j ];
+            }
+        }
 
-    private abstract class BufferHandler
-    {
-        protected BufferHandler() { /* empty */ }
-        protected abstract void writeFrames( float[][] frames, int off, int len ) throws IOException;
-        protected abstract void readFrames( float[][] frames, int off, int len ) throws IOException;
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + (ch << 2), j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = src.getFloat( i );
+            }
+        }
     }
 
-    private class ByteBufferHandler
+    private class DoubleBufferHandler
     extends BufferHandler
     {
-        private final byte[]	arrayBuf;
+        private final DoubleBuffer	viewBuf;
+        private final double[]		arrayBuf;
 
-        protected ByteBufferHandler()
+        protected DoubleBufferHandler( ByteBuffer byteBuf )
         {
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            super( byteBuf, 0f, 8 );
+            byteBuf.clear();
+            viewBuf		= byteBuf.asDoubleBuffer();
+            arrayBuf	= new double[ viewBuf.capacity() ];
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        protected void load( int length )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            byteBuf.rewind().limit( length * bytesPerFrame );
+            fch.read( byteBuf );
+            viewBuf.clear();
+            viewBuf.get( arrayBuf, 0, length * channels );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F);
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        protected void pack( int length )
+        {
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, length * channels );
+            byteBuf.rewind().limit( length * bytesPerFrame );
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
-        throws IOException
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (float) arrayBuf[ i ];
+            }
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ] / 0x7F;
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (float) arrayBuf[ i ];
+                dst1[ j ] = (float) arrayBuf[ i + 1 ];
             }
         }
-    }
 
-    // float to byte = f*0x7F+0x80 (-1 ... +1 becomes 0x01 to 0xFF)
-    // which is how libsndfile behaves
-    private class UByteBufferHandler
-    extends BufferHandler
-    {
-        private final byte[]	arrayBuf;
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (float) arrayBuf[ i ];
+            }
+        }
 
-        protected UByteBufferHandler()
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
         {
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = src[ srcOff + i ];
+            }
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
-        throws IOException
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = src0[ j ];
+                arrayBuf[ i + 1 ] = src1[ j ];
+            }
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F + 0x80);
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = src[ j ];
             }
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
-        throws IOException
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            System.arraycopy( arrayBuf, 0, dst, dstOff, numSamples );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        if( arrayBuf[ i ] < 0 ) { // hmmm, java can't handle unsigned bytes
-                            b[ j ]	= (float) (0x80 + arrayBuf[ i ]) / 0x7F;
-                        } else {
-                            b[ j ]	= (float) (arrayBuf[ i ] - 0x80) / 0x7F;
-                        }
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = arrayBuf[ i ];
+                dst1[ j ] = arrayBuf[ i + 1 ];
             }
         }
-    }
-
-    private class ShortBufferHandler
-    extends BufferHandler
-    {
-        private final ShortBuffer	viewBuf;
-        private final short[]		arrayBuf;
 
-        protected ShortBufferHandler()
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asShortBuffer();
-            arrayBuf	= new short[ viewBuf.capacity() ];
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = arrayBuf[ i ];
+            }
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
-        throws IOException
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            System.arraycopy( src, srcOff, arrayBuf, 0, numSamples );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
-                    }
-                }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = src0[ j ];
+                arrayBuf[ i + 1 ] = src1[ j ];
             }
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
-        throws IOException
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = src[ j ];
+            }
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ] / 0x7FFF;
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = srcOff + (ch << 3), j = dstOff, stop = dstOff + length; j < stop; i += bytesPerFrame, j++ ) {
+                dst[ j ] = (float) src.getDouble( i );
             }
         }
     }
 
     /*
-     *  24bit big endian
+     *	FLAC streams. load and store run the decoder and encoder on
+     *	integer samples, and the kernels convert them like the uncompressed
+     *	integer formats of the same resolution do (dividing by the largest
+     *	positive value, and wrapping around when encoding without clipping).
+     *	Bulk reads announce their length to the decoder first, so that
+     *	it may decode several audio frames in parallel.
      */
-    private class ThreeByteBufferHandler
+    private class FLACBufferHandler
     extends BufferHandler
     {
-        private final byte[]		arrayBuf;
-        private final int			chStep = (channels - 1) * 3;
+        private final FLACHeader	fh;
+        private final int[]			arrayBuf;
+        private final float			scale;
+        private final double		scaleD;
+        private final int			shift;
+        private FLACDecoder			decoder	= null;
 
-        protected ThreeByteBufferHandler()
+        protected FLACBufferHandler( FLACHeader fh )
         {
-            // note : it's *not* faster to use ByteBuffer.allocate()
-            // and ByteBuffer.array() than this implementation
-            // (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            super( null, 1.0f / ((1 << (afd.bitsPerSample - 1)) - 1), 1 );
+            this.fh		= fh;
+            arrayBuf	= new int[ frameBufCapacity * channels ];
+            scaleD		= (1 << (afd.bitsPerSample - 1)) - 1;
+            scale		= (float) scaleD;
+            shift		= 32 - afd.bitsPerSample;
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        protected void load( int length )
         throws IOException
         {
-            int		i, j, k, m, ch, chunkLength;
-            float[]	b;
+            getDecoder().read( arrayBuf, length );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        k				= (int)  (b[ j ] * 0x7FFFFF);
-                        arrayBuf[ i++ ] = (byte) (k >> 16);
-                        arrayBuf[ i++ ] = (byte) (k >> 8);
-                        arrayBuf[ i++ ] = (byte)  k;
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void pack( int length )
+        {
+            throw new IllegalStateException( "Compressed file" );
+        }
+
+        protected void store( int length )
+        throws IOException
+        {
+            fh.encoder.write( arrayBuf, length );
+        }
+
+        protected void finish()
+        throws IOException
+        {
+            fh.encoder.finish();
+        }
+
+        protected void seek( long frame )
+        throws IOException
+        {
+            getDecoder().seek( frame );
+        }
+
+        private FLACDecoder getDecoder()
+        throws IOException
+        {
+            if( decoder == null ) {
+                if( fh.encoder != null ) throw new IOException( getResourceString( "errAudioFileSequential" ));
+                decoder = fh.createDecoder();
             }
+            return decoder;
         }
 
         protected void readFrames( float[][] frames, int offset, int length )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            getDecoder().expect( length );
+            super.readFrames( frames, offset, length );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        b[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
-                                          ((arrayBuf[ i++ ] & 0xFF) << 8) |
-                                           (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void readFrames( double[][] frames, int offset, int length )
+        throws IOException
+        {
+            getDecoder().expect( length );
+            super.readFrames( frames, offset, length );
+        }
+
+        protected void readInterleaved( float[] data, int offset, int length )
+        throws IOException
+        {
+            getDecoder().expect( length );
+            super.readInterleaved( data, offset, length );
+        }
+
+        protected void readInterleaved( double[] data, int offset, int length )
+        throws IOException
+        {
+            getDecoder().expect( length );
+            super.readInterleaved( data, offset, length );
+        }
+
+        protected void readInterleaved( FloatBuffer data, int length )
+        throws IOException
+        {
+            getDecoder().expect( length );
+            super.readInterleaved( data, length );
+        }
+
+        protected void decodeInterleaved( float[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (float) arrayBuf[ i ] / scale;
+            }
+        }
+
+        protected void decodeStereo( float[] dst0, float[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (float) arrayBuf[ i ] / scale;
+                dst1[ j ] = (float) arrayBuf[ i + 1 ] / scale;
+            }
+        }
+
+        protected void decodeChannel( int ch, float[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (float) arrayBuf[ i ] / scale;
+            }
+        }
+
+        protected void encodeInterleaved( float[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = ((int) (src[ srcOff + i ] * scale) << shift) >> shift;
+            }
+        }
+
+        protected void encodeStereo( float[] src0, float[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = ((int) (src0[ j ] * scale) << shift) >> shift;
+                arrayBuf[ i + 1 ] = ((int) (src1[ j ] * scale) << shift) >> shift;
+            }
+        }
+
+        protected void encodeChannel( int ch, float[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = ((int) (src[ j ] * scale) << shift) >> shift;
+            }
+        }
+
+        protected void decodeInterleaved( double[] dst, int dstOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                dst[ dstOff + i ] = (double) arrayBuf[ i ] / scaleD;
+            }
+        }
+
+        protected void decodeStereo( double[] dst0, double[] dst1, int dstOff, int length )
+        {
+            for( int i = 0, j = dstOff, stop = dstOff + length; j < stop; i += 2, j++ ) {
+                dst0[ j ] = (double) arrayBuf[ i ] / scaleD;
+                dst1[ j ] = (double) arrayBuf[ i + 1 ] / scaleD;
+            }
+        }
+
+        protected void decodeChannel( int ch, double[] dst, int dstOff, int length )
+        {
+            for( int i = ch, j = dstOff, stop = dstOff + length; j < stop; i += channels, j++ ) {
+                dst[ j ] = (double) arrayBuf[ i ] / scaleD;
+            }
+        }
+
+        protected void encodeInterleaved( double[] src, int srcOff, int numSamples )
+        {
+            for( int i = 0; i < numSamples; i++ ) {
+                arrayBuf[ i ] = ((int) (src[ srcOff + i ] * scaleD) << shift) >> shift;
+            }
+        }
+
+        protected void encodeStereo( double[] src0, double[] src1, int srcOff, int length )
+        {
+            for( int i = 0, j = srcOff, stop = srcOff + length; j < stop; i += 2, j++ ) {
+                arrayBuf[ i ] = ((int) (src0[ j ] * scaleD) << shift) >> shift;
+                arrayBuf[ i + 1 ] = ((int) (src1[ j ] * scaleD) << shift) >> shift;
+            }
+        }
+
+        protected void encodeChannel( int ch, double[] src, int srcOff, int length )
+        {
+            for( int i = ch, j = srcOff, stop = srcOff + length; j < stop; i += channels, j++ ) {
+                arrayBuf[ i ] = ((int) (src[ j ] * scaleD) << shift) >> shift;
             }
         }
+
+        // there is no raw sample data to decode from
+        protected void decodeChannel( ByteBuffer src, int srcOff, int ch, float[] dst, int dstOff, int length )
+        {
+            throw new IllegalStateException( "Compressed file" );
+        }
     }
 
+// -------- AudioFileHeader Klassen --------
+
     /*
-     *  24bit little endian
+     *	Buffered input for parsing headers. Reads from the file
+     *	in blocks of BUF_SIZE bytes, so parsing many small fields and
+     *	skipping over chunks costs one system call per block instead of one
+     *	per field. Blocks are read with positional reads, so neither the
+     *	file pointer nor the channel position used for the sample frames
+     *	are moved. The buffer is released after the header has been parsed
+     *	and allocated again when chunks are parsed lazily.
      */
-    private class ThreeLittleByteBufferHandler
-    extends BufferHandler
+    private class HeaderInput
+    implements DataInput
     {
-        private final byte[]		arrayBuf;
-        private final int			chStep = (channels - 1) * 3;
+        private static final int	BUF_SIZE	= 8192;
 
-        protected ThreeLittleByteBufferHandler()
+        private byte[]				buf			= null;
+        private ByteBuffer			bb;
+        private long				bufStart	= 0L;
+        private int					bufLen		= 0;
+        private long				pos			= 0L;
+
+        protected HeaderInput() { /* empty */ }
+
+        protected void seek( long newPos )
         {
-            // note : it's *not* faster to use ByteBuffer.allocate()
-            // and ByteBuffer.array() than this implementation
-            // (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            pos = newPos;
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        protected long getFilePointer()
+        {
+            return pos;
+        }
+
+        protected long length()
         throws IOException
         {
-            int		i, j, k, m, ch, chunkLength;
-            float[]	b;
+            return raf.length();
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        k				= (int)  (b[ j ] * 0x7FFFFF);
-                        arrayBuf[ i++ ] = (byte)  k;
-                        arrayBuf[ i++ ] = (byte) (k >> 8);
-                        arrayBuf[ i++ ] = (byte) (k >> 16);
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        protected void release()
+        {
+            buf		= null;
+            bb		= null;
+            bufLen	= 0;
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        // makes the byte at pos available and returns its index in buf
+        private int fill()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            int n;
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
-                                          ((arrayBuf[ i++ ] & 0xFF) << 8) |
-                                           (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
-                    }
+            if( (pos < bufStart) || (pos >= bufStart + bufLen) ) {
+                if( buf == null ) {
+                    buf	= new byte[ BUF_SIZE ];
+                    bb	= ByteBuffer.wrap( buf );
                 }
-                length -= chunkLength;
-                offset += chunkLength;
+                bb.clear();
+                bufStart	= pos;
+                bufLen		= 0;
+                while( bb.hasRemaining() ) {
+                    n = fch.read( bb, pos + bb.position() );
+                    if( n < 0 ) break;
+                }
+                bufLen = bb.position();
+                if( bufLen == 0 ) throw new EOFException();
             }
+            return (int) (pos - bufStart);
         }
-    }
-
-    private class IntBufferHandler
-    extends BufferHandler
-    {
-        private final IntBuffer		viewBuf;
-        private final int[]			arrayBuf;
 
-        protected IntBufferHandler()
+        public void readFully( byte[] b )
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asIntBuffer();
-            arrayBuf	= new int[ viewBuf.capacity() ];
+            readFully( b, 0, b.length );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public void readFully( byte[] b, int off, int len )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
-                    }
-                }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+            int i, n;
+
+            while( len > 0 ) {
+                i	 = fill();
+                n	 = Math.min( len, bufLen - i );
+                System.arraycopy( buf, i, b, off, n );
+                pos	+= n;
+                off	+= n;
+                len	-= n;
             }
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        public int skipBytes( int n )
+        {
+            pos += n;
+            return n;
+        }
+
+        public boolean readBoolean()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            return( readUnsignedByte() != 0 );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ] / 0x7FFFFFFF;
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public byte readByte()
+        throws IOException
+        {
+            return (byte) readUnsignedByte();
         }
-    }
 
-    private class FloatBufferHandler
-    extends BufferHandler
-    {
-        private final FloatBuffer	viewBuf;
-        private final float[]		arrayBuf;
+        public int readUnsignedByte()
+        throws IOException
+        {
+            final int i = fill();
+            pos++;
+            return( buf[ i ] & 0xFF );
+        }
 
-        protected FloatBufferHandler()
+        public short readShort()
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asFloatBuffer();
-            arrayBuf	= new float[ viewBuf.capacity() ];
+            return (short) readUnsignedShort();
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public int readUnsignedShort()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            return( (readUnsignedByte() << 8) | readUnsignedByte() );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = b[ j ];
-                    }
-                }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public char readChar()
+        throws IOException
+        {
+            return (char) readUnsignedShort();
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        public int readInt()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            final int i = fill();
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= arrayBuf[ i ];
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
+            if( i + 4 > bufLen ) {
+                return( (readUnsignedShort() << 16) | readUnsignedShort() );
             }
+            pos += 4;
+            return( (buf[ i ] << 24) | ((buf[ i + 1 ] & 0xFF) << 16) | ((buf[ i + 2 ] & 0xFF) << 8) | (buf[ i + 3 ] & 0xFF) );
         }
-    }
 
-    private class DoubleBufferHandler
-    extends BufferHandler
-    {
-        private final DoubleBuffer	viewBuf;
-        private final double[]		arrayBuf;
+        public long readLong()
+        throws IOException
+        {
+            return( ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL) );
+        }
 
-        protected DoubleBufferHandler()
+        public float readFloat()
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asDoubleBuffer();
-            arrayBuf	= new double[ viewBuf.capacity() ];
+            return Float.intBitsToFloat( readInt() );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public double readDouble()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            return Double.longBitsToDouble( readLong() );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = b[ j ];
-                    }
+        // reads a line of bytes like RandomAccessFile.readLine does,
+        // i.e. without character decoding. returns null at the end of the file
+        public String readLine()
+        throws IOException
+        {
+            final StringBuffer	sb	= new StringBuffer();
+            int					c;
+
+            while( true ) {
+                c = read();
+                if( (c == -1) || (c == '\n') ) break;
+                if( c == '\r' ) {
+                    final long crPos = pos;
+                    if( read() != '\n' ) pos = crPos;	// a stand-alone CR
+                    break;
                 }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+                sb.append( (char) c );
             }
+            return( ((c == -1) && (sb.length() == 0)) ? null : sb.toString() );
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        private int read()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ];
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
+            try {
+                return readUnsignedByte();
+            }
+            catch( EOFException e1 ) {
+                return -1;
             }
         }
-    }
 
-// -------- AudioFileHeader Klassen --------
+        public String readUTF()
+        throws IOException
+        {
+            return DataInputStream.readUTF( this );
+        }
+    }
 
     private abstract class AudioFileHeader
     {
@@ -1235,37 +3697,103 @@ implements InterleavedStreamFile
         // WAV might overwrite this
         protected boolean isUnsignedPCM() { return false; }
 
+        // FLAC overwrites this. compressed files are not accessed
+        // through byteBuf and cannot be mapped or truncated
+        protected boolean isCompressed() { return false; }
+
         // WAV and AIFF might overwrite this
         protected void readMarkers() throws IOException { /* empty */ }
 
         // AIFF might overwrite this
         protected void readAppCode() throws IOException { /* empty */ }
 
+        // chunk index, filled by readHeader of the chunk based formats :
+        // identifier, data offset and data length of each top level chunk
+        private int[]		chunkMagic			= null;
+        private long[]		chunkOff;
+        private long[]		chunkLen;
+        private int			numChunks			= 0;
+
+        // chunk identifiers consist of four printable ASCII characters
+        protected final boolean isChunkMagic( int magic )
+        {
+            int c;
+
+            for( int i = 0; i < 32; i += 8 ) {
+                c = (magic >>> i) & 0xFF;
+                if( (c < 0x20) || (c > 0x7E) ) return false;
+            }
+            return true;
+        }
+
+        protected final void addChunk( int magic, long off, long len )
+        {
+            if( chunkMagic == null ) {
+                chunkMagic	= new int[ 8 ];
+                chunkOff	= new long[ 8 ];
+                chunkLen	= new long[ 8 ];
+            } else if( numChunks == chunkMagic.length ) {
+                final int[]		newMagic	= new int[ numChunks << 1 ];
+                final long[]	newOff		= new long[ numChunks << 1 ];
+                final long[]	newLen		= new long[ numChunks << 1 ];
+                System.arraycopy( chunkMagic, 0, newMagic, 0, numChunks );
+                System.arraycopy( chunkOff, 0, newOff, 0, numChunks );
+                System.arraycopy( chunkLen, 0, newLen, 0, numChunks );
+                chunkMagic	= newMagic;
+                chunkOff	= newOff;
+                chunkLen	= newLen;
+            }
+            chunkMagic[ numChunks ]	= magic;
+            chunkOff[ numChunks ]	= off;
+            chunkLen[ numChunks ]	= len;
+            numChunks++;
+        }
+
+        // returns the index of the first chunk with the given
+        // identifier, beginning the search at index start, or -1
+        protected final int findChunk( int magic, int start )
+        {
+            for( int i = start; i < numChunks; i++ ) {
+                if( chunkMagic[ i ] == magic ) return i;
+            }
+            return -1;
+        }
+
+        protected final long getChunkOffset( int idx )
+        {
+            return chunkOff[ idx ];
+        }
+
+        protected final long getChunkLength( int idx )
+        {
+            return chunkLen[ idx ];
+        }
+
         protected final int readLittleUShort()
         throws IOException
         {
-            final int i = raf.readUnsignedShort();
+            final int i = hin.readUnsignedShort();
             return( (i >> 8) | ((i & 0xFF) << 8) );
         }
 
         protected final int readLittleInt()
         throws IOException
         {
-            final int i = raf.readInt();
+            final int i = hin.readInt();
             return( ((i >> 24) & 0xFF) | ((i >> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24) );
         }
 
         protected final float readLittleFloat()
         throws IOException
         {
-            final int i = raf.readInt();
+            final int i = hin.readInt();
             return( Float.intBitsToFloat( ((i >> 24) & 0xFF) | ((i >> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24) ));
         }
 
         protected final long readLittleLong()
         throws IOException
         {
-            final long n = raf.readLong();
+            final long n = hin.readLong();
             return( ((n >> 56) & 0xFFL) |
                     ((n >> 40) & 0xFF00L) |
                     ((n >> 24) & 0xFF0000L) |
@@ -1307,10 +3835,10 @@ implements InterleavedStreamFile
             final StringBuffer	buf = new StringBuffer();
             byte				b;
 
-            b	= raf.readByte();
+            b	= hin.readByte();
             while( b != 0 ) {
                 buf.append( (char) b );
-                b	= raf.readByte();
+                b	= hin.readByte();
             }
             return buf.toString();
         }
@@ -1389,9 +3917,6 @@ implements InterleavedStreamFile
         // a default is required!!
         private ByteOrder	byteOrder			= ByteOrder.BIG_ENDIAN;
 
-        private int			appCodeLen;
-        private long		appCodeOff			= 0L;
-        private long		markersOffset		= 0L;
         private boolean		loop				= false;
         private int			loopStart			= 0;
         private int			loopEnd				= 0;
@@ -1401,40 +3926,52 @@ implements InterleavedStreamFile
         protected void readHeader( AudioFileDescr descr )
         throws IOException
         {
-            long			l1, l2, l3, len;
+            final long		fileLen;
+            long			l1, l2, l3, chunkStart;
             int				i, i1, i2, chunkLen, essentials, magic;
             byte[]			strBuf;
             boolean			comment			= false;
+            boolean			trailing		= true;
 
-            raf.readInt();		// FORM
-raf.readInt();
+            hin.readInt();		// FORM
+hin.readInt();
 // trust the file length more than 32 bit form field which breaks for > 2 GB (> 1 GB if using signed ints)
-len = raf.length() - 8;
-//			len		= (raf.readInt() + 1) & 0xFFFFFFFE;		// Laenge ohne FORM-Header (Dateilaenge minus 8)
-            isAIFC  = raf.readInt() == AIFC_MAGIC;
-            len	   -= 4;
-            chunkLen = 0;
-
-            for( essentials = 2; (len > 0) && (essentials > 0); ) {
-                if( chunkLen != 0 ) raf.seek( raf.getFilePointer() + chunkLen );	// skip to next chunk
-
-                magic		= raf.readInt();
-                chunkLen	= (raf.readInt() + 1) & 0xFFFFFFFE;
-                len		   -= chunkLen + 8;
+fileLen = hin.length();
+//			len		= (hin.readInt() + 1) & 0xFFFFFFFE;		// Laenge ohne FORM-Header (Dateilaenge minus 8)
+            isAIFC		= hin.readInt() == AIFC_MAGIC;
+            chunkStart	= hin.getFilePointer();
+
+            // all chunks are indexed, but only the essentials and the small
+            // chunks in front of the sound data are parsed here. MARK and APPL
+            // are read from the index by readMarkers and readAppCode. chunks
+            // behind the sound data are only indexed if its length is plausible,
+            // so that sample data is never taken for chunk headers
+            for( essentials = 2; chunkStart + 8 <= fileLen; ) {
+                hin.seek( chunkStart );
+                magic		= hin.readInt();
+                l1			= ((hin.readInt() & 0xFFFFFFFFL) + 1) & ~1L;
+                chunkLen	= (int) l1;
+                chunkStart	= hin.getFilePointer() + l1;
+                if( essentials == 0 ) {
+                    if( !trailing || !isChunkMagic( magic ) || (chunkStart > fileLen) ) break;	// garbage after the last chunk
+                    addChunk( magic, hin.getFilePointer(), l1 );
+                    continue;
+                }
+                addChunk( magic, hin.getFilePointer(), l1 );
 
                 switch( magic ) {
                 case COMM_MAGIC:
                     essentials--;
-                    descr.channels		= raf.readShort();	// # of channels
-                    commSmpNumOffset	= raf.getFilePointer();
-                    descr.length			= raf.readInt();	// # of samples
-                    descr.bitsPerSample	= raf.readShort();	// # of bits per sample
+                    descr.channels		= hin.readShort();	// # of channels
+                    commSmpNumOffset	= hin.getFilePointer();
+                    descr.length			= hin.readInt();	// # of samples
+                    descr.bitsPerSample	= hin.readShort();	// # of bits per sample
                     descr.sampleFormat	= AudioFileDescr.FORMAT_INT;   // default, AIFC will be dealt with later
 //					byteOrder			= ByteOrder.BIG_ENDIAN;   // default, AIFC will be dealt with later
 
                     // suckers never die. perhaps the most stupid data format to store a float:
-                    l1 					= raf.readLong();
-                    l2	 				= raf.readUnsignedShort();
+                    l1 					= hin.readLong();
+                    l2	 				= hin.readUnsignedShort();
                     l3	 				= l1 & 0x0000FFFFFFFFFFFFL;
                     i1					= ((int) (l1 >> 48) & 0x7FFF) - 0x3FFE;
 //					afd.rate			= (float) ((((double) l3 * Math.pow( 2.0, i1 - 48 )) +
@@ -1444,7 +3981,7 @@ len = raf.length() - 8;
 
                     chunkLen -= 18;
                     if( isAIFC ) {
-                        switch( raf.readInt() ) {
+                        switch( hin.readInt() ) {
                         case NONE_MAGIC:
                             break;
                         case in16_MAGIC:
@@ -1478,50 +4015,49 @@ len = raf.length() - 8;
                     break;
 
                 case INST_MAGIC:
-                    raf.readInt();		// char: MIDI Note, Detune, LowNote, HighNote
+                    hin.readInt();		// char: MIDI Note, Detune, LowNote, HighNote
 //					i1					= readInt();	// char: MIDI Note, Detune, LowNote, HighNote
 //					b1					= (byte) ((i1 & 0x00FF0000) >> 16);	// Detune in -50...50 Cent
 //											// MIDI-Note to Hz (69 = A4 = 440 Hz)
 //					stream.base			= (float) (440.0 * Math.pow( 2, ((float) (((i1 & 0x7F000000) >> 24) -
 //											69) + (float) b1 / 100.0f) / 12.0f ));
-                    i1					= raf.readInt();		// char velocityLo, char velocityHi, short gain [dB]
+                    i1					= hin.readInt();		// char velocityLo, char velocityHi, short gain [dB]
                     descr.setProperty( AudioFileDescr.KEY_GAIN,
                                      new Float( Math.exp( (double) (i1 & 0xFFFF) / 20 * Math.log( 10 ))));
-                    i1	 				= raf.readShort();		// Sustain-Loop: 0 = no loop, 1 = fwd, 2 = back
+                    i1	 				= hin.readShort();		// Sustain-Loop: 0 = no loop, 1 = fwd, 2 = back
                     loop				= i1 != 0;
-                    i1					= raf.readInt();		// Short Lp-Start-MarkerID, Short End-ID
+                    i1					= hin.readInt();		// Short Lp-Start-MarkerID, Short End-ID
                     loopStart			= (i1 >> 16) & 0xFFFF;
                     loopEnd				= i1 & 0xFFFF;
                     chunkLen -= 14;
                     break;
 
-                case MARK_MAGIC:
-                    markersOffset = raf.getFilePointer();		// read them out later
-                    break;
-
                 case SSND_MAGIC:
                     essentials--;
-                    i1 = raf.readInt();			// sample data offset
-                    raf.readInt();
-                    sampleDataOffset = raf.getFilePointer() + i1;
+                    i1 = hin.readInt();			// sample data offset
+                    hin.readInt();
+                    sampleDataOffset = hin.getFilePointer() + i1;
                     chunkLen -= 8;
+                    if( essentials == 0 ) {		// COMM is known, so the frames must fit into the chunk
+                        trailing = (chunkStart <= fileLen) && (l1 - 8 - (i1 & 0xFFFFFFFFL) >=
+                            (descr.length & 0xFFFFFFFFL) * descr.channels * ((descr.bitsPerSample + 7) >> 3));
+                    }
                     break;
 
                 case APPL_MAGIC:
-                    strBuf		= new byte[ 4 ];
-                    raf.readFully( strBuf );		// App code
-                    chunkLen   -= 4;
-                    descr.appCode	= new String( strBuf );
-                    appCodeOff	= raf.getFilePointer();
-                    appCodeLen	= chunkLen;
+                    if( descr.appCode == null ) {
+                        strBuf		= new byte[ 4 ];
+                        hin.readFully( strBuf );		// App code; the data is read by readAppCode
+                        descr.appCode	= new String( strBuf );
+                    }
                     break;
 
                 case COMT_MAGIC:
-                    i1		  = raf.readShort();	// number of comments
+                    i1		  = hin.readShort();	// number of comments
                     chunkLen -= 2;
 commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
-                        raf.readInt();				// time stamp (ignore)
-                        i2	= raf.readInt();		// markerID << 16 | count
+                        hin.readInt();				// time stamp (ignore)
+                        i2	= hin.readInt();		// markerID << 16 | count
                         chunkLen -= 8;
                         if( (i2 != 0) && ((i2 >> 16) == 0) ) {		// ok, not empty and not linked to a marker
                             strBuf	  = new byte[ i2 ];
@@ -1530,11 +4066,11 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                             // ; PString wouldn't make sense anyway because we have
                             // the dedicated count field. Logic Pro 6 writes a PString
                             // but leaves count at zero, so this won't get read...
-                            raf.readFully( strBuf );
+                            hin.readFully( strBuf );
                             descr.setProperty( AudioFileDescr.KEY_COMMENT, new String( strBuf ));
                             if( (i2 & 1) == 1 ) {
                                 i2++;
-                                raf.readByte();
+                                hin.readByte();
                             }
                             chunkLen   -= i2;
                             comment		= true;
@@ -1543,7 +4079,7 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                         } else {
                             i2		  = (i2 + 1) & 0xFFFE;
                             chunkLen -= i2;
-                            raf.seek( raf.getFilePointer() + i2 );
+                            hin.seek( hin.getFilePointer() + i2 );
                         }
                     }
                     break;
@@ -1551,7 +4087,7 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                 case ANNO_MAGIC:
                     if( !comment ) {
                         strBuf		= new byte[ chunkLen ];
-                        raf.readFully( strBuf );
+                        hin.readFully( strBuf );
                         descr.setProperty( AudioFileDescr.KEY_COMMENT, new String( strBuf ));
                         chunkLen	= 0;
                         comment		= true;
@@ -1561,7 +4097,7 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                 default:
                     break;
                 } // switch( magic )
-            } // for( essentials = 2; (len > 0) && (essentials > 0); )
+            } // for( essentials = 2; chunkStart + 8 <= fileLen; )
             if( essentials > 0 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
         }
 
@@ -1770,23 +4306,24 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
         protected void readMarkers()
         throws IOException
         {
+            final int idx = findChunk( MARK_MAGIC, 0 );
             int i, i1, i2, i3;
 
-            if( markersOffset <= 0L ) return;
+            if( idx < 0 ) return;
 
             final List		markers;
             final byte[]	strBuf 		= new byte[ 64 ];	// to store the names
-            final long		oldPos		= raf.getFilePointer();
+            final long		oldPos		= hin.getFilePointer();
             int				essentials	= loop ? 2 : 0; 	// start+end for sustain-loop
 
             try {
-                raf.seek( markersOffset );
-                i1 = raf.readUnsignedShort();		// number of markers
+                hin.seek( getChunkOffset( idx ));
+                i1 = hin.readUnsignedShort();		// number of markers
                 markers = new ArrayList( i1 );
                 for( i = i1; i > 0; i-- ) {
-                    i3 = raf.readUnsignedShort();	// marker ID
-                    i2 = raf.readInt();				// marker position (sample offset)
-                    i1 = raf.readUnsignedByte();	// markerName String-len
+                    i3 = hin.readUnsignedShort();	// marker ID
+                    i2 = hin.readInt();				// marker position (sample offset)
+                    i1 = hin.readUnsignedByte();	// markerName String-len
                     if( loop && (i3 == loopStart) ) {
                         loopStart	= i2;
                         essentials--;
@@ -1795,14 +4332,14 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                         essentials--;
                     } else {
                         i3	 = Math.min( i1, strBuf.length );
-                        raf.readFully( strBuf, 0, i3 );
+                        hin.readFully( strBuf, 0, i3 );
                         i1	-= i3;
                         if( (i3 > 0) && (strBuf[ i3 - 1 ] == 0x20) ) {
                             i3--;	// ignore padding space created by Peak
                         }
                         markers.add( new Marker( i2, new String( strBuf, 0, i3 )));
                     }
-                    raf.seek( (raf.getFilePointer() + (i1 + 1)) & ~1 );
+                    hin.seek( (hin.getFilePointer() + (i1 + 1)) & ~1 );
                 }
                 afd.setProperty( AudioFileDescr.KEY_MARKERS, markers );
                 if( loop && essentials == 0 ) {
@@ -1810,20 +4347,30 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                 }
             }
             finally {
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             }
         }
 
         protected void readAppCode()
         throws IOException
         {
-            if( appCodeOff > 0 ) {
-                final byte[]	strBuf = new byte[ appCodeLen ];
-                final long		oldPos = raf.getFilePointer();
-                raf.seek( appCodeOff );
-                raf.readFully( strBuf );
+            final int idx = findChunk( APPL_MAGIC, 0 );
+
+            if( (idx >= 0) && (getChunkLength( idx ) >= 4) ) {
+                final byte[]	strBuf = new byte[ (int) getChunkLength( idx ) - 4 ];
+                final byte[]	code;
+                final long		oldPos = hin.getFilePointer();
+                hin.seek( getChunkOffset( idx ));
+                if( afd.appCode == null ) {		// APPL chunk behind the sound data
+                    code		= new byte[ 4 ];
+                    hin.readFully( code );
+                    afd.appCode	= new String( code );
+                } else {
+                    hin.skipBytes( 4 );
+                }
+                hin.readFully( strBuf );
                 afd.setProperty( AudioFileDescr.KEY_APPCODE, strBuf );
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             } else {
                 afd.setProperty( AudioFileDescr.KEY_APPCODE, null );
             }
@@ -1874,6 +4421,8 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
     extends AbstractRIFFHeader
     {
         private static final int RIFF_MAGIC		= 0x52494646;	// 'RIFF'
+        private static final int RF64_MAGIC		= 0x52463634;	// 'RF64' (EBU Tech 3306)
+        private static final int BW64_MAGIC		= 0x42573634;	// 'BW64' (ITU-R BS.2088)
         private static final int WAVE_MAGIC		= 0x57415645;	// 'WAVE' (offset 8)
 
         // chunk identifiers
@@ -1883,41 +4432,96 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
         private static final int CUE_MAGIC		= 0x63756520;	// 'cue '
         private static final int SMPL_MAGIC		= 0x73616D6C;	// 'smpl'
         private static final int INST_MAGIC		= 0x696E7374;	// 'inst'
+        private static final int DS64_MAGIC		= 0x64733634;	// 'ds64'
+        private static final int JUNK_MAGIC		= 0x4A554E4B;	// 'JUNK'
+
+        // 64 bit RIFF size, data size and sample count, table length
+        private static final int DS64_LEN		= 28;
+        private static final long MAX_RIFF_LEN	= 0xFFFFFFFFL;		// also the RF64 size marker
 
         // embedded LIST (peak speak) / list (rest of the universe speak) format
         private static final int LIST_MAGIC		= 0x6C697374;	// 'list'
         private static final int LIST_MAGIC2	= 0x4C495354;	// 'LIST'
 
-        private long		smplMagicOff		= 0L;
-        private long		listMagicOff		= 0L;
-        private long		listMagicLen		= 0L;
-        private long		cueMagicOff			= 0L;
         private static final long riffLengthOffset = 4L;
+        private static final long ds64Offset	= 12L;		// JUNK placeholder written by writeHeader
+        private boolean		isRF64				= false;
 
         protected WAVEHeader() { /* empty */ }
 
         protected void readHeader( AudioFileDescr descr )
         throws IOException
         {
-            int		i, i1, i2, i3, chunkLen, essentials, magic, dataLen = 0, bpf = 0;
-            long	len;
-
-            raf.readInt();		// RIFF
-raf.readInt();
-len	= raf.length() - 8;
+            final long	fileLen;
+            final boolean rf64;
+            int			i, i1, i2, i3, chunkLen, essentials, magic, bpf = 0;
+            long		l1, chunkStart, dataLen = 0;
+            long		ds64DataLen	= -1L;
+            int[]		ds64Magic	= null;		// table of other chunks exceeding 4 GB
+            long[]		ds64Len		= null;
+            boolean		trailing	= true;
+
+            i		= hin.readInt();		// RIFF, RF64 or BW64
+            rf64	= i != RIFF_MAGIC;
+hin.readInt();
+fileLen	= hin.length();
 //			len		= (readLittleInt() + 1) & 0xFFFFFFFE;		// Laenge ohne RIFF-Header (Dateilaenge minus 8)
-            raf.readInt();		// WAVE
-            len	   -= 4;
-            chunkLen = 0;
-
-            for( essentials = 2; (len > 0) && (essentials > 0); ) {
-                if( chunkLen != 0 ) raf.seek( raf.getFilePointer() + chunkLen );	// skip to next chunk
-
-                magic		= raf.readInt();
-                chunkLen	= (readLittleInt() + 1) & 0xFFFFFFFE;
-                len		   -= chunkLen + 8;
+            hin.readInt();		// WAVE
+            chunkStart	= hin.getFilePointer();
+
+            // all chunks are indexed, but only the essentials and the small
+            // chunks in front of the sound data are parsed here. cue, LIST
+            // and smpl are read from the index by readMarkers. chunks behind
+            // the sound data are only indexed if its length is plausible, so
+            // that e.g. a streamed file with a zero data length is not searched
+            for( essentials = 2; chunkStart + 8 <= fileLen; ) {
+                hin.seek( chunkStart );
+                magic		= hin.readInt();
+                l1			= readLittleInt() & 0xFFFFFFFFL;
+                if( l1 == MAX_RIFF_LEN ) {
+                    // RF64 : the size is found in the ds64 chunk. Otherwise
+                    // assume a streamed file whose chunk extends to the end
+                    l1 = fileLen - hin.getFilePointer();
+                    if( rf64 ) {
+                        if( magic == DATA_MAGIC ) {
+                            if( ds64DataLen >= 0L ) l1 = ds64DataLen;
+                        } else if( ds64Magic != null ) {
+                            for( i = 0; i < ds64Magic.length; i++ ) {
+                                if( ds64Magic[ i ] == magic ) {
+                                    l1 = ds64Len[ i ];
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+                l1			= (l1 + 1) & ~1L;
+                chunkLen	= (int) l1;
+                chunkStart	= hin.getFilePointer() + l1;
+                if( essentials == 0 ) {
+                    if( !trailing || !isChunkMagic( magic ) || (chunkStart > fileLen) ) break;	// garbage after the last chunk
+                    addChunk( magic, hin.getFilePointer(), l1 );
+                    continue;
+                }
+                addChunk( magic, hin.getFilePointer(), l1 );
 
                 switch( magic ) {
+                case DS64_MAGIC:
+                    if( !rf64 || (chunkLen < DS64_LEN) ) break;
+                    readLittleLong();					// RIFF size
+                    ds64DataLen	= readLittleLong();
+                    readLittleLong();					// sample count
+                    i1			= readLittleInt();		// table length
+                    if( (i1 > 0) && (i1 <= (chunkLen - DS64_LEN) / 12) ) {
+                        ds64Magic	= new int[ i1 ];
+                        ds64Len		= new long[ i1 ];
+                        for( i = 0; i < i1; i++ ) {
+                            ds64Magic[ i ]	= hin.readInt();
+                            ds64Len[ i ]	= readLittleLong();
+                        }
+                    }
+                    break;
+
                 case FMT_MAGIC:
                     essentials--;
                     i					= readLittleUShort();		// format
@@ -1949,7 +4553,7 @@ len	= raf.length() - 8;
                         i1 = readLittleUShort();	// extension size
                         if( i1 < 22 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
                         i2 = readLittleUShort();	// # valid bits per sample
-                        raf.readInt();				// channel mask, ignore
+                        hin.readInt();				// channel mask, ignore
                         i3 = readLittleUShort();	// GUID first two bytes
                         if( (i2 != descr.bitsPerSample) ||
                             ((i3 != FORMAT_PCM) &&
@@ -1964,31 +4568,14 @@ len	= raf.length() - 8;
 
                 case DATA_MAGIC:
                     essentials--;
-                    sampleDataOffset	= raf.getFilePointer();
-                    dataLen				= chunkLen;
-                    break;
-
-                case CUE_MAGIC:
-                    cueMagicOff			= raf.getFilePointer();
-                    break;
-
-                case LIST_MAGIC:
-                case LIST_MAGIC2:
-                    i	= raf.readInt();
-                    chunkLen -= 4;
-                    if( i == ADTL_MAGIC ) {
-                        listMagicOff = raf.getFilePointer();
-                        listMagicLen = chunkLen;
-                    } // if( i == ADTL_MAGIC )
-                    break;
-
-                case SMPL_MAGIC:
-                    smplMagicOff = raf.getFilePointer() + 28;
+                    sampleDataOffset	= hin.getFilePointer();
+                    dataLen				= l1;
+                    if( essentials == 0 ) trailing = (l1 > 0) && (chunkStart <= fileLen);
                     break;
 
                 case INST_MAGIC:
-                    raf.readShort();	// skip UnshiftedNode, FineTune
-                    i = raf.readByte();	// gain (dB)
+                    hin.readShort();	// skip UnshiftedNode, FineTune
+                    i = hin.readByte();	// gain (dB)
                     if( i != 0 ) descr.setProperty( AudioFileDescr.KEY_GAIN, new Float( Math.exp(
                         (double) i / 20 * Math.log( 10 ))));
                     chunkLen -= 3;
@@ -1997,9 +4584,10 @@ len	= raf.length() - 8;
                 default:
                     break;
                 } // switch( magic )
-            } // for( essentials = 2; (len > 0) && (essentials > 0); )
+            } // for( essentials = 2; chunkStart + 8 <= fileLen; )
             if( essentials > 0 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
 
+            isRF64			= rf64;
             descr.length	= dataLen / bpf;
         }
 
@@ -2019,6 +4607,12 @@ len	= raf.length() - 8;
             raf.writeInt( 0 );				// Laenge ohne RIFF-Header (Dateilaenge minus 8); unknown now
             raf.writeInt( WAVE_MAGIC );
 
+            // placeholder for the ds64 chunk, taken when the file grows beyond 4 GB
+            raf.writeInt( JUNK_MAGIC );
+            writeLittleInt( DS64_LEN );
+            raf.write( new byte[ DS64_LEN ]);
+            isRF64 = false;
+
             // fmt Chunk
             raf.writeInt( FMT_MAGIC );
             writeLittleInt( isFloat ? 18 : 16 );	// FORMAT_FLOAT has extension of size 0
@@ -2166,17 +4760,38 @@ len	= raf.length() - 8;
             long len	= raf.length();
             if( len == lastUpdateLength ) return;
 
+            // beyond 4 GB the file turns into RF64, the sizes being
+            // kept in the ds64 chunk which takes the place of the JUNK chunk.
+            // if the file is truncated again, it turns back into plain RIFF
+            final boolean rf64 = len - 8 >= MAX_RIFF_LEN;
+            if( rf64 != isRF64 ) {
+                raf.seek( 0L );
+                raf.writeInt( rf64 ? RF64_MAGIC : RIFF_MAGIC );
+                raf.seek( ds64Offset );
+                raf.writeInt( rf64 ? DS64_MAGIC : JUNK_MAGIC );
+                writeLittleInt( DS64_LEN );
+                if( !rf64 ) raf.write( new byte[ DS64_LEN ]);
+                isRF64 = rf64;
+            }
+            if( rf64 ) {
+                raf.seek( ds64Offset + 8 );
+                writeLittleLong( len - 8 );										// RIFF size
+                writeLittleLong( len - (dataLengthOffset + 4) );					// data size
+                writeLittleLong( descr.length );								// sample count
+                writeLittleInt( 0 );											// no table
+            }
+
             if( len >= riffLengthOffset + 4 ) {
                 raf.seek( riffLengthOffset );
-                writeLittleInt( (int) (len - 8) );								// RIFF Chunk len
+                writeLittleInt( rf64 ? -1 : (int) (len - 8) );					// RIFF Chunk len
             }
             if( isFloat && (len >= factSmpNumOffset + 4) ) {
                 raf.seek( factSmpNumOffset );
-                writeLittleInt( (int) (descr.length * descr.channels) );			// fact: Sample-Num XXX check multich.!
+                writeLittleInt( rf64 ? -1 : (int) (descr.length * descr.channels) );	// fact: Sample-Num XXX check multich.!
             }
             if( len >= dataLengthOffset + 4 ) {
                 raf.seek( dataLengthOffset );
-                writeLittleInt( (int) (len - (dataLengthOffset + 4)) );			// data Chunk len
+                writeLittleInt( rf64 ? -1 : (int) (len - (dataLengthOffset + 4)) );	// data Chunk len
             }
             raf.seek( oldPos );
             lastUpdateLength = len;
@@ -2197,15 +4812,28 @@ len	= raf.length() - 8;
             return unsignedPCM;
         }
 
+        // index of the next 'LIST' or 'list' chunk at or after index start, or -1
+        private int nextListChunk( int start )
+        {
+            final int i1 = findChunk( LIST_MAGIC, start );
+            final int i2 = findChunk( LIST_MAGIC2, start );
+
+            return( i1 < 0 ? i2 : (i2 < 0 ? i1 : Math.min( i1, i2 )));
+        }
+
         protected void readMarkers()
         throws IOException
         {
-            if( (smplMagicOff == 0L) && (listMagicOff == 0L) ) return;
+            final int	smplIdx			= findChunk( SMPL_MAGIC, 0 );
+            final int	cueIdx			= findChunk( CUE_MAGIC, 0 );
+            int			listIdx			= -1;
+
+            if( (smplIdx < 0) && (cueIdx < 0) ) return;
 
             final Map	mapCues			= new HashMap();
             final Map	mapCueLengths	= new HashMap();
             final Map	mapCueNames		= new HashMap();
-            final long	oldPos			= raf.getFilePointer();
+            final long	oldPos			= hin.getFilePointer();
             final List	markers, regions;
             int			i, i1, i2, i3, i4, i5;
             Object		o;
@@ -2213,10 +4841,20 @@ len	= raf.length() - 8;
             byte[]		strBuf			= null;
 
             try {
-                if( smplMagicOff > 0L ) {
-                    raf.seek( smplMagicOff );
+                // the first list chunk of type 'adtl' holds the labels
+                for( int j = 0; (j = nextListChunk( j )) >= 0; j++ ) {
+                    if( getChunkLength( j ) < 4 ) continue;
+                    hin.seek( getChunkOffset( j ));
+                    if( hin.readInt() == ADTL_MAGIC ) {
+                        listIdx = j;
+                        break;
+                    }
+                }
+
+                if( smplIdx >= 0 ) {
+                    hin.seek( getChunkOffset( smplIdx ) + 28 );
                     i		  = readLittleInt();	// cSampleLoops
-                    raf.readInt();					// chunk extension length
+                    hin.readInt();					// chunk extension length
         //			chunkLen -= 36;
                     if( i > 0 ) {
                         i1	= readLittleInt(); 	// dwIdentifier
@@ -2230,10 +4868,10 @@ len	= raf.length() - 8;
         //				chunkLen -= 16;
                     }
                 }
-                if( listMagicOff > 0L ) {
-                    raf.seek( listMagicOff );
-                    for( long chunkLen = listMagicLen; chunkLen >= 8; ) {
-                        i	= raf.readInt();		// sub chunk ID
+                if( listIdx >= 0 ) {
+                    hin.seek( getChunkOffset( listIdx ) + 4 );
+                    for( long chunkLen = getChunkLength( listIdx ) - 4; chunkLen >= 8; ) {
+                        i	= hin.readInt();		// sub chunk ID
                         i1	= readLittleInt();
                         i2	= (i1 + 1) & 0xFFFFFFFE;	// sub chunk length
                         chunkLen -= 8;
@@ -2246,7 +4884,7 @@ len	= raf.length() - 8;
                             if( strBuf == null || strBuf.length < i1 ) {
                                 strBuf  = new byte[ Math.max( 64, i1 )];
                             }
-                            raf.readFully( strBuf, 0, i1 );	// null-terminated
+                            hin.readFully( strBuf, 0, i1 );	// null-terminated
                             mapCueNames.put( new Integer( i3 ), new String( strBuf, 0, i1 - 1 ));
                             chunkLen -= i1;
                             i2		 -= i1;
@@ -2255,8 +4893,8 @@ len	= raf.length() - 8;
                         case LTXT_MAGIC:
                             i3			= readLittleInt();	// dwIdentifier
                             i4			= readLittleInt();	// dwSampleLength (= frames)
-                            i5			= raf.readInt();	// dwPurpose
-                            raf.readLong();					// skip wCountry, wLanguage, wDialect, wCodePage
+                            i5			= hin.readInt();	// dwPurpose
+                            hin.readLong();					// skip wCountry, wLanguage, wDialect, wCodePage
                             i1			-= 20;
                             i2			-= 20;
                             chunkLen	-= 20;
@@ -2265,7 +4903,7 @@ len	= raf.length() - 8;
                                 if( strBuf == null || strBuf.length < i1 ) {
                                     strBuf  = new byte[ Math.max( 64, i1 )];
                                 }
-                                raf.readFully( strBuf, 0, i1 );	// null-terminated
+                                hin.readFully( strBuf, 0, i1 );	// null-terminated
                                 mapCueNames.put( o, new String( strBuf, 0, i1 - 1 ));
                                 chunkLen -= i1;
                                 i2		 -= i1;
@@ -2279,20 +4917,20 @@ len	= raf.length() - 8;
                             break;
                         }
                         if( i2 != 0 ) {
-                            raf.seek( raf.getFilePointer() + i2 );
+                            hin.seek( hin.getFilePointer() + i2 );
                             chunkLen -= i2;
                         }
                     } // while( chunkLen >= 8 )
                 }
 
-                if( cueMagicOff > 0L ) {
-                    raf.seek( cueMagicOff );
+                if( cueIdx >= 0 ) {
+                    hin.seek( getChunkOffset( cueIdx ));
                     i	= readLittleInt();	// num cues
                     for( int j = 0; j < i; j++ ) {
                         i1	= readLittleInt();	// dwIdentifier
-                        raf.readInt();			// dwPosition (ignore, we don't use playlist)
-                        i2	= raf.readInt();	// should be 'data'
-                        raf.readLong();			// ignore dwChunkStart and dwBlockStart
+                        hin.readInt();			// dwPosition (ignore, we don't use playlist)
+                        i2	= hin.readInt();	// should be 'data'
+                        hin.readLong();			// ignore dwChunkStart and dwBlockStart
                         i3	= readLittleInt();	// dwSampleOffset (fails for 64bit space)
                         if( i2 == DATA_MAGIC ) {
                             mapCues.put( new Integer( i1 ), new Integer( i3 ));
@@ -2323,7 +4961,7 @@ len	= raf.length() - 8;
                 }
             }
             finally {
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             }
         }
     } // class WAVEHeader
@@ -2365,22 +5003,22 @@ len	= raf.length() - 8;
             int		i, i1, i2, i3, essentials, bpf = 0;
             long	len, magic1, magic2, chunkLen, dataLen = 0;
 
-            raf.readLong(); raf.readLong();		// riff
+            hin.readLong(); hin.readLong();		// riff
             len	= readLittleLong();
-            raf.readLong(); raf.readLong();		// wave
+            hin.readLong(); hin.readLong();		// wave
             len	   -= 40;
             chunkLen = 0;
 
 //System.out.println( "len = " + len );
 
             for( essentials = 2; (len >= 24) && (essentials > 0); ) {
-                if( chunkLen != 0 ) raf.seek( raf.getFilePointer() + chunkLen );	// skip to next chunk
+                if( chunkLen != 0 ) hin.seek( hin.getFilePointer() + chunkLen );	// skip to next chunk
 
-                magic1		= raf.readLong();
-                magic2		= raf.readLong();
+                magic1		= hin.readLong();
+                magic2		= hin.readLong();
                 chunkLen	= (readLittleLong() + 7) & 0xFFFFFFFFFFFFFFF8L;
 
-//System.out.println( "magic1 = " + magic1 + "; chunkLen = " + chunkLen + "; pos = " + raf.getFilePointer() );
+//System.out.println( "magic1 = " + magic1 + "; chunkLen = " + chunkLen + "; pos = " + hin.getFilePointer() );
 
                 len		   -= chunkLen;
                 chunkLen   -= 24;
@@ -2416,7 +5054,7 @@ len	= raf.length() - 8;
                         i1 = readLittleUShort();	// extension size
                         if( i1 < 22 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
                         i2 = readLittleUShort();	// # valid bits per sample
-                        raf.readInt();				// channel mask, ignore
+                        hin.readInt();				// channel mask, ignore
                         i3 = readLittleUShort();	// GUID first two bytes
                         if( (i2 != descr.bitsPerSample) ||
                             ((i3 != FORMAT_PCM) &&
@@ -2430,11 +5068,11 @@ len	= raf.length() - 8;
 
                 } else if( magic1 == DATA_MAGIC1 && magic2 == DATA_MAGIC2 ) {
                     essentials--;
-                    sampleDataOffset	= raf.getFilePointer();
+                    sampleDataOffset	= hin.getFilePointer();
                     dataLen				= chunkLen;
 
                 } else if( magic1 == MARKER_MAGIC1 && magic2 == MARKER_MAGIC2 ) {
-                    markersOffset			= raf.getFilePointer();
+                    markersOffset			= hin.getFilePointer();
                 }
             } // for( essentials = 2; (len > 0) && (essentials > 0); )
             if( essentials > 0 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
@@ -2626,17 +5264,17 @@ len	= raf.length() - 8;
             String					str;
             CoderResult				result;
 
-            final long oldPos = raf.getFilePointer();
+            final long oldPos = hin.getFilePointer();
             try {
-                raf.seek( markersOffset );
+                hin.seek( markersOffset );
                 for( int numCues = readLittleInt(), cue = 0; cue < numCues; cue++ ) {
 //System.out.println( "cue " + (cue+1) + " of " + numCues );
-                    raf.readInt();					// marker ID (ignore)
-                    raf.readInt(); 					// padding
+                    hin.readInt();					// marker ID (ignore)
+                    hin.readInt(); 					// padding
                     n1			= readLittleLong();	// pos
                     n2			= readLittleLong();	// length (-1 for markers)
                     numBytes	= readLittleInt();	// size of name string in bytes
-                    raf.readInt(); 					// padding
+                    hin.readInt(); 					// padding
 
                     if( bbuf == null || bbuf.capacity() < numBytes ) {
                         bbuf = ByteBuffer.allocate( numBytes + 16 );
@@ -2645,9 +5283,8 @@ len	= raf.length() - 8;
 
                     bbuf.rewind().limit( numBytes );
 
-//System.out.println( "reading " + bbuf.remaining() + " bytes from " + fch.position() );
-
-                    fch.read( bbuf );
+                    hin.readFully( bbuf.array(), 0, numBytes );
+                    bbuf.position( numBytes );
                     if( (numBytes >= 2) &&
                         (bbuf.get( numBytes - 2 ) == 0) &&
                         (bbuf.get( numBytes - 1 ) == 0) ) { // null term
@@ -2684,7 +5321,7 @@ len	= raf.length() - 8;
 
             }
             finally {
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             }
         }
     } // class Wave64Header
@@ -2706,12 +5343,12 @@ len	= raf.length() - 8;
             int		i1, i2;
             String	str;
 
-            raf.readInt();  // SND magic
-            sampleDataOffset= raf.readInt();
-            i2				= raf.readInt();
-            i1				= raf.readInt();
-            descr.rate		= raf.readInt();
-            descr.channels	= raf.readInt();
+            hin.readInt();  // SND magic
+            sampleDataOffset= hin.readInt();
+            i2				= hin.readInt();
+            i1				= hin.readInt();
+            descr.rate		= hin.readInt();
+            descr.channels	= hin.readInt();
             str				= readNullTermString();
 
             if( str.length() > 0 ) descr.setProperty( AudioFileDescr.KEY_COMMENT, str );
@@ -2856,14 +5493,14 @@ len	= raf.length() - 8;
             byte[]			strBuf2;
             List			regions		= new ArrayList();
 
-            final int magic = raf.readInt();		// IRCAM magic
+            final int magic = hin.readInt();		// IRCAM magic
             final DataInputReader rd;
             if( magic == IRCAM_VAXLE_MAGIC || magic == IRCAM_SUNLE_MAGIC || magic == IRCAM_MIPSLE_MAGIC ) {
                 byteOrder = ByteOrder.LITTLE_ENDIAN;
-                rd = new LittleDataInputReader( raf );
+                rd = new LittleDataInputReader( hin );
             } else {
 //				byteOrder = ByteOrder.BIG_ENDIAN;
-                rd = new BigDataInputReader( raf );
+                rd = new BigDataInputReader( hin );
             }
 
             descr.rate		= rd.readFloat();
@@ -2909,7 +5546,7 @@ len	= raf.length() - 8;
                     if( strBuf == null ) {
                         strBuf = new byte[ 64 ];			// to store the names
                     }
-                    raf.readFully( strBuf );				// region name
+                    hin.readFully( strBuf );				// region name
                     for( i3 = 0; i3 < 64; i3++ ) {
                         if( strBuf[ i3 ] == 0 ) break;
                     }
@@ -2924,12 +5561,12 @@ len	= raf.length() - 8;
 
                 case BICSF_COMMENT:
                     strBuf2	= new byte[ i2 ];
-                    raf.readFully( strBuf2 );
+                    hin.readFully( strBuf2 );
                     descr.setProperty( AudioFileDescr.KEY_COMMENT, new String( strBuf2 ));
                     break;
 
                 default:
-                    raf.seek( raf.getFilePointer() + i2 );		// skip unknown code
+                    hin.seek( hin.getFilePointer() + i2 );		// skip unknown code
                     break;
                 }
             } while( i1 != BICSF_END );
@@ -2938,9 +5575,9 @@ len	= raf.length() - 8;
                 descr.setProperty( AudioFileDescr.KEY_REGIONS, regions );
             }
 
-            l1				= raf.getFilePointer();
+            l1				= hin.getFilePointer();
             sampleDataOffset= (l1 + 1023L) & ~1023L;			// aufgerundet auf ganze kilobyte
-            l1				= raf.length() - sampleDataOffset;  // dataLen in bytes
+            l1				= hin.length() - sampleDataOffset;  // dataLen in bytes
             descr.length	= l1 / (((descr.bitsPerSample + 7) >> 3) * descr.channels);
         }
 
@@ -3017,6 +5654,174 @@ len	= raf.length() - 8;
         }
     } // class IRCAMHeader
 
+    /*
+     *	FLAC streams : the 'fLaC' marker is followed by metadata
+     *	blocks, of which STREAMINFO and SEEKTABLE are used; others
+     *	(VORBIS_COMMENT, PICTURE, PADDING etc.) are skipped when reading.
+     *	When writing, the SEEKTABLE is reserved with placeholder points,
+     *	and both blocks are rewritten by updateHeader. The sample data
+     *	offset is the position of the first audio frame.
+     */
+    private class FLACHeader
+    extends AudioFileHeader
+    {
+        private static final int FLAC_MAGIC			= 0x664C6143;	// 'fLaC'
+
+        private static final int BLOCK_STREAMINFO	= 0;
+        private static final int BLOCK_SEEKTABLE	= 3;
+        private static final int STREAMINFO_LEN		= 34;
+        private static final int SEEKPOINT_LEN		= 18;
+
+        private long				sampleDataOffset;
+        private int					minBlockSize;
+        private int					maxBlockSize;
+        private int					maxFrameSize;
+        private long[]				seekSamples		= null;
+        private long[]				seekOffsets		= null;
+        protected FLACEncoder		encoder			= null;
+
+        protected FLACHeader() { /* empty */ }
+
+        protected void readHeader( AudioFileDescr descr )
+        throws IOException
+        {
+            long	pos			= 4L;
+            boolean	streamInfo	= false;
+            boolean	last;
+            int		i1, type, len;
+            long	n;
+
+            hin.readInt();		// 'fLaC'
+            do {
+                i1		= hin.readInt();
+                last	= i1 < 0;
+                type	= (i1 >> 24) & 0x7F;
+                len		= i1 & 0xFFFFFF;
+                pos	   += 4;
+
+                switch( type ) {
+                case BLOCK_STREAMINFO:
+                    minBlockSize		= hin.readUnsignedShort();
+                    maxBlockSize		= hin.readUnsignedShort();
+                    hin.readUnsignedByte();		// min frame size
+                    hin.readUnsignedShort();
+                    maxFrameSize		= hin.readUnsignedByte() << 16;
+                    maxFrameSize	   |= hin.readUnsignedShort();
+                    n					= hin.readLong();
+                    descr.rate			= (int) (n >>> 44);
+                    descr.channels		= ((int) (n >>> 41) & 0x07) + 1;
+                    descr.bitsPerSample	= ((int) (n >>> 36) & 0x1F) + 1;
+                    descr.sampleFormat	= AudioFileDescr.FORMAT_INT;
+                    descr.length		= n & 0xFFFFFFFFFL;		// zero if unknown
+                    streamInfo			= true;
+                    break;
+
+                case BLOCK_SEEKTABLE:
+                    seekSamples			= new long[ len / SEEKPOINT_LEN ];
+                    seekOffsets			= new long[ seekSamples.length ];
+                    for( int i = 0; i < seekSamples.length; i++ ) {
+                        seekSamples[ i ]	= hin.readLong();		// -1 for placeholders
+                        seekOffsets[ i ]	= hin.readLong();
+                        hin.readUnsignedShort();
+                    }
+                    break;
+
+                default:
+                    break;
+                }
+                pos += len;
+                hin.seek( pos );
+            } while( !last );
+
+            if( !streamInfo ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
+            if( (descr.bitsPerSample < 4) || (descr.bitsPerSample > 24) ) {
+                throw new IOException( getResourceString( "errAudioFileEncoding" ));
+            }
+            sampleDataOffset = pos;
+        }
+
+        protected void writeHeader( AudioFileDescr descr )
+        throws IOException
+        {
+            if( (descr.sampleFormat != AudioFileDescr.FORMAT_INT) ||
+                ((descr.bitsPerSample != 8) && (descr.bitsPerSample != 16) && (descr.bitsPerSample != 24)) ||
+                (descr.channels < 1) || (descr.channels > 8) || (descr.rate < 1) || (descr.rate >= 0x100000) ) {
+
+                throw new IOException( getResourceString( "errAudioFileEncoding" ));
+            }
+
+            raf.writeInt( FLAC_MAGIC );
+            raf.writeInt( (BLOCK_STREAMINFO << 24) | STREAMINFO_LEN );
+            writeStreamInfo( descr, 0, 0, 0L, new byte[ 16 ]);
+            raf.writeInt( 0x80000000 | (BLOCK_SEEKTABLE << 24) | (FLACEncoder.SEEK_POINTS * SEEKPOINT_LEN) );
+            for( int i = 0; i < FLACEncoder.SEEK_POINTS; i++ ) {
+                raf.writeLong( -1L );		// placeholder
+                raf.writeLong( 0L );
+                raf.writeShort( 0 );
+            }
+            sampleDataOffset	= raf.getFilePointer();
+            encoder				= new FLACEncoder( fch, sampleDataOffset, descr.channels, descr.bitsPerSample,
+                                                   (int) (descr.rate + 0.5) );
+        }
+
+        protected void updateHeader( AudioFileDescr descr )
+        throws IOException
+        {
+            final long[]	smp		= new long[ FLACEncoder.SEEK_POINTS ];
+            final long[]	off		= new long[ FLACEncoder.SEEK_POINTS ];
+            final int[]		size	= new int[ FLACEncoder.SEEK_POINTS ];
+            final int		num		= encoder.getSeekPoints( smp, off, size );
+            final long		oldPos	= raf.getFilePointer();
+
+            raf.seek( 8L );
+            writeStreamInfo( descr, encoder.getMinFrameSize(), encoder.getMaxFrameSize(),
+                             encoder.getTotalSamples(), encoder.getMD5() );
+            raf.seek( 8L + STREAMINFO_LEN + 4 );
+            for( int i = 0; i < num; i++ ) {
+                raf.writeLong( smp[ i ]);
+                raf.writeLong( off[ i ]);
+                raf.writeShort( size[ i ]);
+            }
+            raf.seek( oldPos );
+        }
+
+        private void writeStreamInfo( AudioFileDescr descr, int minFrameSize, int maxFrameSize,
+                                      long numSamples, byte[] md5 )
+        throws IOException
+        {
+            raf.writeShort( FLACEncoder.BLOCK_SIZE );
+            raf.writeShort( FLACEncoder.BLOCK_SIZE );
+            raf.writeByte( minFrameSize >> 16 );
+            raf.writeShort( minFrameSize );
+            raf.writeByte( maxFrameSize >> 16 );
+            raf.writeShort( maxFrameSize );
+            raf.writeLong( ((long) (descr.rate + 0.5) << 44) | ((long) (descr.channels - 1) << 41) |
+                           ((long) (descr.bitsPerSample - 1) << 36) | numSamples );
+            raf.write( md5 );
+        }
+
+        protected FLACDecoder createDecoder()
+        {
+            return new FLACDecoder( fch, sampleDataOffset, afd.channels, afd.bitsPerSample, minBlockSize,
+                                    maxBlockSize, maxFrameSize, afd.length, seekSamples, seekOffsets );
+        }
+
+        protected long getSampleDataOffset()
+        {
+            return sampleDataOffset;
+        }
+
+        protected ByteOrder getByteOrder()
+        {
+            return ByteOrder.BIG_ENDIAN;
+        }
+
+        protected boolean isCompressed()
+        {
+            return true;
+        }
+    } // class FLACHeader
+
     private class RawHeader
     extends AudioFileHeader
     {
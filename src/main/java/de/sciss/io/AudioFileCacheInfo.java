@@ -80,6 +80,21 @@ public class AudioFileCacheInfo
         }
     }
 
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public int getModel()
+    {
+        return model;
+    }
+
     public long getNumFrames()
     {
         return numFrames;
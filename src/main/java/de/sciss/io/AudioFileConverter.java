@@ -0,0 +1,165 @@
+/*
+ *  AudioFileConverter.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.sciss.util.Disposable;
+
+/**
+ *	Converts audio files between sample formats using
+ *	several threads. The source is read sequentially in
+ *	large blocks, while the encoding of the blocks into the target's
+ *	sample format and the writing of the raw bytes are distributed
+ *	over a fixed number of daemon threads. Each block is written
+ *	at its final place in the target file, so the blocks may complete
+ *	in any order. The threads are kept until <code>dispose</code>
+ *	is called, so a converter can be reused for many files.
+ *	<p>
+ *	The result is identical to <code>AudioFile.copyFrames</code>,
+ *	except that each thread uses its own dither noise sequence.
+ *	If the target file is compressed, or both files share the same
+ *	sample format (so the bytes are copied unaltered anyway),
+ *	<code>copyFrames</code> is used.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		AudioFile#copyFrames( InterleavedStreamFile, long )
+ */
+public class AudioFileConverter
+implements Disposable
+{
+    private final ExecutorService	pool;
+    private final int				numThreads;
+
+    /**
+     *	Creates a new converter which uses one
+     *	thread per available processor.
+     */
+    public AudioFileConverter()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     *	Creates a new converter.
+     *
+     *	@param	numThreads	the maximum number of blocks encoded at the same time
+     */
+    public AudioFileConverter( int numThreads )
+    {
+        if( numThreads <= 0 ) throw new IllegalArgumentException( "numThreads " + numThreads );
+
+        this.numThreads	= numThreads;
+        pool			= Executors.newFixedThreadPool( numThreads, new ThreadFactory() {
+            public Thread newThread( Runnable r )
+            {
+                final Thread t = new Thread( r, "AudioFileConverter" );
+                t.setDaemon( true );
+                return t;
+            }
+        });
+    }
+
+    /**
+     *	Returns the number of threads used for encoding.
+     *
+     *	@return	the maximum number of blocks encoded at the same time
+     */
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    /**
+     *	Converts a whole audio file. The number of channels
+     *	and the sample rate of the output description are
+     *	replaced by those of the input file.
+     *
+     *	@param	input		the file to convert
+     *	@param	outDescr	the description of the file to create,
+     *						specifying the file, type and sample format
+     *
+     *	@throws	IOException	if a read or write error occurs, or the
+     *						conversion was interrupted
+     */
+    public void convert( File input, AudioFileDescr outDescr )
+    throws IOException
+    {
+        final AudioFile	in	= AudioFile.openAsRead( input );
+        AudioFile		out	= null;
+
+        try {
+            outDescr.channels	= in.getChannelNum();
+            outDescr.rate		= in.getDescr().rate;
+            out					= AudioFile.openAsWrite( outDescr );
+            convert( in, out, in.getFrameNum() );
+            out.close();
+            out = null;
+        }
+        finally {
+            in.cleanUp();
+            if( out != null ) out.cleanUp();
+        }
+    }
+
+    /**
+     *	Copies frames from one audio file to another,
+     *	like <code>copyFrames</code>. This blocks until all
+     *	frames are written. Both files must have the same number
+     *	of channels, and must not be accessed by anyone else
+     *	during the conversion.
+     *
+     *	@param	source	the file to read from
+     *	@param	target	the file to write to
+     *	@param	length	the number of frames to copy. Reading
+     *					and writing begins at the current positions
+     *					of both files, which are advanced by <code>length</code>
+     *
+     *	@throws	IOException	if a read or write error occurs, or the
+     *						conversion was interrupted
+     */
+    public void convert( AudioFile source, AudioFile target, long length )
+    throws IOException
+    {
+        source.convertFrames( target, length, pool, numThreads );
+    }
+
+    /**
+     *	Stops the encoding threads. The converter
+     *	cannot be used afterwards.
+     */
+    public void dispose()
+    {
+        pool.shutdownNow();
+    }
+}
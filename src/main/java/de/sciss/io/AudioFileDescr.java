@@ -80,7 +80,9 @@ public class AudioFileDescr
      */
     public static final int TYPE_IRCAM		= 2;
     /**
-     *  type value : wave (riff) sound file format
+     *  type value : wave (riff) sound file format.
+     *	Files larger than 4 GB are read and written as RF64,
+     *	BW64 files are read as well.
      */
     public static final int TYPE_WAVE		= 3;
     /**
@@ -91,7 +93,13 @@ public class AudioFileDescr
      *  type value : sony wave64 sound file format
      */
     public static final int TYPE_WAVE64		= 5;
-    private static final int NUM_TYPES		= 6;
+    /**
+     *  type value : free lossless audio codec.
+     *	Only integer samples of up to 24 bits are
+     *	supported, and files are written sequentially
+     */
+    public static final int TYPE_FLAC		= 6;
+    private static final int NUM_TYPES		= 7;
 
     /**
      *  sampleFormat type : linear pcm integer
@@ -188,11 +196,12 @@ public class AudioFileDescr
         new StringItem( "ircam", "IRCAM" ),
         new StringItem( "wave", "WAVE" ),
         new StringItem( "raw", "Raw" ),
-        new StringItem( "w64", "Wave64" )
+        new StringItem( "w64", "Wave64" ),
+        new StringItem( "flac", "FLAC" )
     };
-    private static final String[] FORMAT_SUFFICES	= { "aif", "au", "irc", "wav", "raw", "w64" };
+    private static final String[] FORMAT_SUFFICES	= { "aif", "au", "irc", "wav", "raw", "w64", "flac" };
 
-    private static final String			msgPtrn		= "{0,choice,0#AIFF|1#NeXT/Sun AU|2#IRCAM|3#WAVE|4#Raw|5#Wave64} audio, {1,choice,0#no channels|1#mono|2#stereo|2<{1,number,integer}-ch} {2,number,integer}-bit {3,choice,0#int|1#float} {4,number,0.###} kHz, {5,number,integer}:{6,number,00.000}";
+    private static final String			msgPtrn		= "{0,choice,0#AIFF|1#NeXT/Sun AU|2#IRCAM|3#WAVE|4#Raw|5#Wave64|6#FLAC} audio, {1,choice,0#no channels|1#mono|2#stereo|2<{1,number,integer}-ch} {2,number,integer}-bit {3,choice,0#int|1#float} {4,number,0.###} kHz, {5,number,integer}:{6,number,00.000}";
     private static final MessageFormat	msgForm		= new MessageFormat( msgPtrn, Locale.US );  // XXX US locale to allow parsing via Double.parseDouble()
 
     static {
@@ -228,6 +237,9 @@ public class AudioFileDescr
         set.add( KEY_MARKERS );
 //		set.add( KEY_GAIN );
         supports[ TYPE_WAVE64 ]	= set;
+
+        set						= new HashSet( 1 );
+        supports[ TYPE_FLAC ]	= set;
     }
 
 // -------- public Methoden --------
@@ -43,7 +43,7 @@ import java.util.List;
  *  @version	0.15, 05-May-06
  */
 public class AudioFileRegion
-implements Serializable, Cloneable, Transferable
+implements Serializable, Cloneable, Transferable, SpanProvider
 {
     public final File	file;
     public final Region	region;
@@ -87,6 +87,13 @@ implements Serializable, Cloneable, Transferable
         return super.clone();	// field by field copy
     }
 
+// ------------- SpanProvider interface -------------
+
+    public Span getSpan()
+    {
+        return region.span;
+    }
+
 // ------------- Transferable interface -------------
 
     public DataFlavor[] getTransferDataFlavors()
@@ -0,0 +1,660 @@
+/*
+ *  AudioFileResampler.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.sciss.util.Disposable;
+
+/**
+ *	A read-only view of an <code>AudioFile</code> at a different
+ *	sample rate. Frames are converted on the fly using band-limited
+ *	interpolation with a Kaiser windowed sinc filter of 32 zero
+ *	crossings per side, whose cutoff lies slightly below the lower
+ *	of the two Nyquist frequencies. The filter is tabulated once
+ *	and linearly interpolated between the table entries.
+ *	<p>
+ *	The resampler implements the reading part of
+ *	<code>InterleavedStreamFile</code>, so it can be used wherever an
+ *	audio file is read: <code>seekFrame</code>, <code>getFrameNum</code>
+ *	and <code>getFramePosition</code> are given at the target rate.
+ *	All buffers are allocated at construction, so sequential reads
+ *	do not create garbage. Consecutive reads continue in the
+ *	filter's input window, so seeking only costs a refill of that
+ *	window. For multichannel files, the channels are filtered by a
+ *	number of daemon threads, which are kept until <code>dispose</code>
+ *	or <code>close</code> is called.
+ *	<p>
+ *	The source frames are read with positional reads, so the
+ *	audio file's own position is not altered, and it may be used
+ *	by other readers at the same time. If both rates are equal,
+ *	the frames are passed through unaltered.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		AudioFile#readFrames( long, float[][], int, int )
+ */
+public class AudioFileResampler
+implements InterleavedStreamFile, Disposable
+{
+    private static final int		ZERO_CROSSINGS	= 32;
+    private static final int		TABLE_RES		= 512;		// table entries per zero crossing
+    private static final double		KAISER_BETA		= 9.0;		// about 90 dB stop band attenuation
+    private static final double		ROLLOFF			= 0.945;	// cutoff relative to the lower Nyquist frequency
+    private static final int		MAX_WEIGHTS		= 0x40000;	// size of the weight table per block
+
+    // one side of the impulse response; the last two entries are zero
+    private static final float[]	FILTER			= createFilter();
+
+    private final AudioFile			af;
+    private final int				channels;
+    private final double			rate;
+    private final double			ratio;		// source frames per target frame
+    private final boolean			bypass;
+    private final long				srcFrames;
+    private final long				frameNum;
+
+    private final double			fc;			// cutoff relative to the source Nyquist frequency
+    private final double			tableScale;	// table entries per source frame
+    private final int				halfTaps;
+    private final int				numTaps;
+    private final int				blockSize;
+
+    // filter state
+    private final float[][]			inBuf;		// source window
+    private long					bufStart	= 0L;
+    private int						bufFill		= 0;
+    private final float[]			weights;	// [ blockSize * numTaps ]
+    private final int[]				tapOff;		// first tap of each frame in inBuf
+    private float[][]				convBuf		= null;
+    private long					position	= 0L;
+
+    private final ExecutorService	pool;
+    private final List<FilterTask>	tasks;
+
+    /**
+     *	Creates a new resampler which uses one thread per
+     *	channel, at most one per available processor.
+     *
+     *	@param	af		the audio file to read from. Its sample
+     *					rate is taken from the file's description
+     *	@param	rate	the target sample rate
+     *
+     *	@throws	IOException	if the file length cannot be determined
+     */
+    public AudioFileResampler( AudioFile af, double rate )
+    throws IOException
+    {
+        this( af, rate, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     *	Creates a new resampler.
+     *
+     *	@param	af			the audio file to read from. Its sample
+     *						rate is taken from the file's description
+     *	@param	rate		the target sample rate
+     *	@param	numThreads	the maximum number of threads filtering
+     *						channels at the same time. This is limited to
+     *						the number of channels
+     *
+     *	@throws	IOException	if the file length cannot be determined
+     */
+    public AudioFileResampler( AudioFile af, double rate, int numThreads )
+    throws IOException
+    {
+        if( !(rate > 0.0) ) throw new IllegalArgumentException( "rate " + rate );
+        if( numThreads <= 0 ) throw new IllegalArgumentException( "numThreads " + numThreads );
+
+        final double srcRate = af.getDescr().rate;
+
+        this.af		= af;
+        this.rate	= rate;
+        channels	= af.getChannelNum();
+        ratio		= srcRate / rate;
+        bypass		= srcRate == rate;
+        srcFrames	= af.getFrameNum();
+        frameNum	= (long) Math.ceil( srcFrames * rate / srcRate );
+
+        fc			= ROLLOFF * Math.min( 1.0, 1.0 / ratio );
+        tableScale	= fc * TABLE_RES;
+        halfTaps	= (int) Math.ceil( ZERO_CROSSINGS / fc );
+        numTaps		= halfTaps << 1;
+        blockSize	= Math.max( 64, Math.min( 1024, MAX_WEIGHTS / numTaps ));
+
+        if( bypass ) {
+            inBuf	= null;
+            weights	= null;
+            tapOff	= null;
+        } else {
+            inBuf	= new float[ channels ][ (int) Math.ceil( (blockSize - 1) * ratio ) + numTaps + 1 ];
+            weights	= new float[ blockSize * numTaps ];
+            tapOff	= new int[ blockSize ];
+        }
+
+        numThreads = Math.min( numThreads, channels );
+        if( bypass || (numThreads < 2) ) {
+            pool	= null;
+            tasks	= null;
+        } else {
+            pool	= Executors.newFixedThreadPool( numThreads, new ThreadFactory() {
+                public Thread newThread( Runnable r )
+                {
+                    final Thread t = new Thread( r, "AudioFileResampler" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            });
+            tasks	= new ArrayList<FilterTask>( numThreads );
+            for( int i = 0; i < numThreads; i++ ) {
+                tasks.add( new FilterTask( i * channels / numThreads, (i + 1) * channels / numThreads ));
+            }
+        }
+    }
+
+    /**
+     *	Returns the target sample rate.
+     *
+     *	@return	the rate at which frames are delivered
+     */
+    public double getRate()
+    {
+        return rate;
+    }
+
+    /**
+     *	Returns the audio file being resampled.
+     *
+     *	@return	the underlying audio file
+     */
+    public AudioFile getAudioFile()
+    {
+        return af;
+    }
+
+    /**
+     *	Returns the number of threads used for filtering.
+     *
+     *	@return	the maximum number of channels filtered at the same time
+     */
+    public int getNumThreads()
+    {
+        return tasks == null ? 1 : tasks.size();
+    }
+
+    /**
+     *	Reads resampled frames from the current position.
+     *
+     *  @param  data	buffer to hold the frames (deinterleaved;
+     *					<code>null</code> arrays are skipped)
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read
+     *
+     *  @throws IOException if a read error or end-of-file occurs
+     */
+    public void readFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        int chunkLength;
+
+        if( position + length > frameNum ) throw new EOFException();
+
+        if( bypass ) {
+            af.readFrames( position, data, offset, length );
+            position += length;
+            return;
+        }
+
+        while( length > 0 ) {
+            chunkLength = Math.min( blockSize, length );
+            prepare( chunkLength );
+            if( pool == null ) {
+                filter( 0, channels, data, offset, chunkLength );
+            } else {
+                filterParallel( data, offset, chunkLength );
+            }
+            position   += chunkLength;
+            offset	   += chunkLength;
+            length	   -= chunkLength;
+        }
+    }
+
+    public void readFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        float[]			f;
+        double[]		d;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( blockSize, length );
+            readFrames( b, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                d = data[ ch ];
+                if( d == null ) continue;
+                f = b[ ch ];
+                for( int i = 0, j = offset; i < chunkLength; i++, j++ ) {
+                    d[ j ] = f[ i ];
+                }
+            }
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    public void readFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( blockSize, length );
+            readFrames( b, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset * channels + ch; i < chunkLength; i++, j += channels ) {
+                    data[ j ] = f[ i ];
+                }
+            }
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    public void readFrames( double[] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( blockSize, length );
+            readFrames( b, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset * channels + ch; i < chunkLength; i++, j += channels ) {
+                    data[ j ] = f[ i ];
+                }
+            }
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    public void readFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( blockSize, length );
+            readFrames( b, 0, chunkLength );
+            for( int i = 0; i < chunkLength; i++ ) {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    data.put( b[ ch ][ i ]);
+                }
+            }
+            length -= chunkLength;
+        }
+    }
+
+    /**
+     *	Moves the read position. This does not perform any I/O;
+     *	if the new position lies outside the filter's current
+     *	input window, the window is refilled by the next read.
+     *
+     *	@param	frame	the new position in sample frames at the target rate
+     */
+    public void seekFrame( long frame )
+    {
+        position = frame;
+    }
+
+    public long getFramePosition()
+    {
+        return position;
+    }
+
+    /**
+     *	Returns the number of frames at the target rate. These
+     *	cover the whole source file, i.e. the last frame lies
+     *	before the end of the source file.
+     *
+     *	@return	the length of the resampled file in sample frames
+     */
+    public long getFrameNum()
+    {
+        return frameNum;
+    }
+
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    public File getFile()
+    {
+        return af.getFile();
+    }
+
+    public void copyFrames( InterleavedStreamFile target, long length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength	= (int) Math.min( length, blockSize );
+            readFrames( b, 0, chunkLength );
+            target.writeFrames( b, 0, chunkLength );
+            length -= chunkLength;
+        }
+    }
+
+    public void flush() { /* nothing to flush */ }
+
+    /**
+     *	Stops the filter threads and closes the audio file.
+     *
+     *	@throws	IOException	if closing the file fails
+     */
+    public void close()
+    throws IOException
+    {
+        dispose();
+        af.close();
+    }
+
+    /**
+     *	Stops the filter threads. The audio file is not closed,
+     *	and the resampler cannot be used afterwards.
+     */
+    public void dispose()
+    {
+        if( pool != null ) pool.shutdownNow();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void writeFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void writeFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void writeFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void writeFrames( double[] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void writeFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void setFrameNum( long n )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the resampler is read-only.
+     */
+    public void truncate()
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    private static IOException readOnly()
+    {
+        return new IOException( IOUtil.getResourceString( "errAudioFileReadOnly" ));
+    }
+
+    private float[][] getConvBuf()
+    {
+        if( convBuf == null ) convBuf = new float[ channels ][ blockSize ];
+        return convBuf;
+    }
+
+    /*
+     *	Calculates the filter weights for the next length frames,
+     *	and moves the source window so that it covers all their taps.
+     *	Source frames outside the file are taken as silence.
+     */
+    private void prepare( int length )
+    throws IOException
+    {
+        final long	start	= (long) Math.floor( position * ratio ) - halfTaps + 1;
+        final long	stop	= (long) Math.floor( (position + length - 1) * ratio ) + halfTaps + 1;
+        long		first, pos;
+        double		d, x;
+        int			w, idx, keep, off, n;
+        float		h0;
+
+        for( int i = 0; i < length; i++ ) {
+            x			= (position + i) * ratio;
+            first		= (long) Math.floor( x ) - halfTaps + 1;
+            tapOff[ i ]	= (int) (first - start);
+            d			= x - first;		// distance of the first tap
+            w			= i * numTaps;
+            for( int j = 0; j < numTaps; j++, w++ ) {
+                x	= Math.abs( d - j ) * tableScale;
+                idx	= (int) x;
+                if( idx < FILTER.length - 1 ) {
+                    h0			= FILTER[ idx ];
+                    weights[ w ] = (float) ((h0 + (x - idx) * (FILTER[ idx + 1 ] - h0)) * fc);
+                } else {
+                    weights[ w ] = 0f;
+                }
+            }
+        }
+
+        // reuse the overlapping part of the window
+        if( (start >= bufStart) && (start <= bufStart + bufFill) ) {
+            keep = (int) (bufStart + bufFill - start);
+            if( (keep > 0) && (start > bufStart) ) {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    System.arraycopy( inBuf[ ch ], (int) (start - bufStart), inBuf[ ch ], 0, keep );
+                }
+            }
+        } else {
+            keep = 0;
+        }
+        bufStart	= start;
+        bufFill		= keep;
+
+        for( pos = start + keep, off = keep; pos < stop; pos += n, off += n ) {
+            if( (pos < 0) || (pos >= srcFrames) ) {
+                n = (int) ((pos < 0 ? Math.min( 0, stop ) : stop) - pos);
+                for( int ch = 0; ch < channels; ch++ ) {
+                    final float[] b = inBuf[ ch ];
+                    for( int i = off, j = off + n; i < j; i++ ) b[ i ] = 0f;
+                }
+            } else {
+                n = (int) (Math.min( srcFrames, stop ) - pos);
+                af.readFrames( pos, inBuf, off, n );
+            }
+            bufFill = off + n;
+        }
+    }
+
+    // the convolution kernel, one output channel at a time
+    private void filter( int chStart, int chStop, float[][] data, int offset, int length )
+    {
+        float[]	in, out;
+        float	acc;
+        int		w, k;
+
+        for( int ch = chStart; ch < chStop; ch++ ) {
+            out = data[ ch ];
+            if( out == null ) continue;
+            in	= inBuf[ ch ];
+            w	= 0;
+            for( int i = 0; i < length; i++ ) {
+                k	= tapOff[ i ];
+                acc	= 0f;
+                for( int j = 0; j < numTaps; j++ ) {
+                    acc += in[ k + j ] * weights[ w + j ];
+                }
+                out[ offset + i ] = acc;
+                w += numTaps;
+            }
+        }
+    }
+
+    private void filterParallel( float[][] data, int offset, int length )
+    throws IOException
+    {
+        FilterTask t;
+
+        for( int i = 0; i < tasks.size(); i++ ) {
+            t			= tasks.get( i );
+            t.data		= data;
+            t.offset	= offset;
+            t.length	= length;
+        }
+        try {
+            final List<Future<Object>> futures = pool.invokeAll( tasks );
+            for( int i = 0; i < futures.size(); i++ ) {
+                futures.get( i ).get();
+            }
+        }
+        catch( InterruptedException e1 ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e1.getMessage() );
+        }
+        catch( ExecutionException e1 ) {	// only runtime exceptions get here
+            final Throwable cause = e1.getCause();
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new IOException( String.valueOf( cause ));
+        }
+    }
+
+    private static float[] createFilter()
+    {
+        final int		n	= ZERO_CROSSINGS * TABLE_RES;
+        final float[]	h	= new float[ n + 2 ];
+        final double	i0b	= bessel0( KAISER_BETA );
+        double			x, r;
+
+        h[ 0 ] = 1f;
+        for( int i = 1; i < n; i++ ) {
+            x		= Math.PI * i / TABLE_RES;
+            r		= (double) i / n;
+            h[ i ]	= (float) (Math.sin( x ) / x * bessel0( KAISER_BETA * Math.sqrt( 1.0 - r * r )) / i0b);
+        }
+        return h;
+    }
+
+    // modified bessel function of the first kind, order zero
+    private static double bessel0( double x )
+    {
+        final double	q		= x * x / 4;
+        double			sum		= 1.0;
+        double			term	= 1.0;
+
+        for( int k = 1; term > sum * 1.0e-21; k++ ) {
+            term   *= q / ((double) k * k);
+            sum	   += term;
+        }
+        return sum;
+    }
+
+// -------- internal classes --------
+
+    private class FilterTask
+    implements Callable<Object>
+    {
+        private final int	chStart;
+        private final int	chStop;
+        protected float[][]	data;
+        protected int		offset;
+        protected int		length;
+
+        protected FilterTask( int chStart, int chStop )
+        {
+            this.chStart	= chStart;
+            this.chStop		= chStop;
+        }
+
+        public Object call()
+        {
+            filter( chStart, chStop, data, offset, length );
+            return null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *  AudioFileScanner.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.sciss.util.Disposable;
+
+/**
+ *	Probes the headers of many audio files concurrently,
+ *	e.g. to display the contents of a sound folder. Each file is
+ *	read with <code>AudioFile.probe</code>, so no sample buffers
+ *	are allocated. The files are distributed over a fixed number
+ *	of daemon threads, which are kept until <code>dispose</code>
+ *	is called, so a scanner can be reused for several folders.
+ *	<p>
+ *	Files which cannot be read or are not audio files are
+ *	silently skipped.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		AudioFile#probe( File )
+ */
+public class AudioFileScanner
+implements Disposable
+{
+    private final ExecutorService	pool;
+    private final int				numThreads;
+
+    /**
+     *	Creates a new scanner which uses one
+     *	thread per available processor.
+     */
+    public AudioFileScanner()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     *	Creates a new scanner.
+     *
+     *	@param	numThreads	the maximum number of files probed at the same time
+     */
+    public AudioFileScanner( int numThreads )
+    {
+        if( numThreads <= 0 ) throw new IllegalArgumentException( "numThreads " + numThreads );
+
+        this.numThreads	= numThreads;
+        pool			= Executors.newFixedThreadPool( numThreads, new ThreadFactory() {
+            public Thread newThread( Runnable r )
+            {
+                final Thread t = new Thread( r, "AudioFileScanner" );
+                t.setDaemon( true );
+                return t;
+            }
+        });
+    }
+
+    /**
+     *	Returns the number of threads used for probing.
+     *
+     *	@return	the maximum number of files probed at the same time
+     */
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    /**
+     *	Probes all files in a folder.
+     *
+     *	@param	dir			the folder to scan
+     *	@param	filter		decides which files are probed, or <code>null</code>
+     *						to probe all files. Folders are not passed to the filter
+     *	@param	recursive	<code>true</code> to include the sub folders
+     *	@return	a list of <code>AudioFileDescr</code> objects for all
+     *			readable audio files, sorted by path name
+     *
+     *	@throws	IOException	if the folder cannot be listed, or
+     *						the scan was interrupted
+     */
+    public List scan( File dir, FileFilter filter, boolean recursive )
+    throws IOException
+    {
+        final List<File>			files	= new ArrayList<File>();
+        final AudioFileDescr[]		descrs;
+        final List<AudioFileDescr>	result;
+
+        collect( dir, filter, recursive, files );
+        descrs	= probe( files.toArray( new File[ files.size() ]));
+        result	= new ArrayList<AudioFileDescr>( descrs.length );
+        for( int i = 0; i < descrs.length; i++ ) {
+            if( descrs[ i ] != null ) result.add( descrs[ i ]);
+        }
+        return result;
+    }
+
+    /**
+     *	Probes a list of files. This blocks until all
+     *	files are read.
+     *
+     *	@param	files	the files to probe
+     *	@return	an array of the same size as <code>files</code>, holding
+     *			the description of each file, or <code>null</code>
+     *			where the file could not be read
+     *
+     *	@throws	IOException	if the scan was interrupted
+     */
+    public AudioFileDescr[] probe( File[] files )
+    throws IOException
+    {
+        final AudioFileDescr[]				descrs	= new AudioFileDescr[ files.length ];
+        final List<Probe>					tasks	= new ArrayList<Probe>( files.length );
+        final List<Future<AudioFileDescr>>	futures;
+
+        for( int i = 0; i < files.length; i++ ) {
+            tasks.add( new Probe( files[ i ]));
+        }
+        try {
+            futures = pool.invokeAll( tasks );
+            for( int i = 0; i < descrs.length; i++ ) {
+                descrs[ i ] = futures.get( i ).get();
+            }
+        }
+        catch( InterruptedException e1 ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e1.getMessage() );
+        }
+        catch( ExecutionException e1 ) {	// only runtime exceptions get here
+            final Throwable cause = e1.getCause();
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new IOException( String.valueOf( cause ));
+        }
+        return descrs;
+    }
+
+    /**
+     *	Stops the probing threads. The scanner
+     *	cannot be used afterwards.
+     */
+    public void dispose()
+    {
+        pool.shutdownNow();
+    }
+
+    private static void collect( File dir, FileFilter filter, boolean recursive, List<File> files )
+    throws IOException
+    {
+        final File[] entries = dir.listFiles();
+        if( entries == null ) throw new IOException( "Cannot list folder " + dir.getPath() );
+
+        Arrays.sort( entries );
+        for( int i = 0; i < entries.length; i++ ) {
+            if( entries[ i ].isDirectory() ) {
+                if( recursive ) collect( entries[ i ], filter, recursive, files );
+            } else if( (filter == null) || filter.accept( entries[ i ])) {
+                files.add( entries[ i ]);
+            }
+        }
+    }
+
+// -------- internal classes --------
+
+    private static class Probe
+    implements Callable<AudioFileDescr>
+    {
+        private final File f;
+
+        protected Probe( File f )
+        {
+            this.f = f;
+        }
+
+        public AudioFileDescr call()
+        {
+            try {
+                return AudioFile.probe( f );
+            }
+            catch( IOException e1 ) {
+                return null;
+            }
+        }
+    }
+}
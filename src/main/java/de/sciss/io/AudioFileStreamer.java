@@ -0,0 +1,349 @@
+/*
+ *  AudioFileStreamer.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import de.sciss.util.Disposable;
+
+/**
+ *	A disk streaming reader which decodes an
+ *	<code>InterleavedStreamFile</code> ahead of the play position.
+ *	A background thread keeps a ring of decoded float blocks filled,
+ *	while the consumer (typically the audio thread or a helper
+ *	thereof) takes frames out of the ring using <code>read</code>.
+ *	<p>
+ *	The consumer side is lock-free and never blocks or performs I/O:
+ *	if the ring does not hold enough frames, the missing
+ *	frames are replaced by silence and an underrun is reported.
+ *	Note that the frames are not skipped in this case, i.e. the
+ *	stream continues where the ring ran dry. Callers which need to
+ *	stay in sync with a clock should <code>seek</code> after an underrun.
+ *	<p>
+ *	There must be exactly one consumer thread calling <code>read</code>
+ *	and <code>seek</code>. If the file is an <code>AudioFile</code>,
+ *	the prefetch thread uses positional reads, so the file can still be
+ *	used by other readers. Otherwise the prefetch thread moves the file
+ *	pointer, and the file must not be accessed by anyone else while
+ *	the streamer is active.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		AudioFile#readFrames( long, float[][], int, int )
+ */
+public class AudioFileStreamer
+implements Runnable, Disposable
+{
+    private static final long			POLL_NANOS		= 1000000L;	// 1 ms
+
+    private final InterleavedStreamFile	f;
+    private final AudioFile				af;
+    private final int					channels;
+    private final int					blockSize;
+    private final int					numBlocks;
+
+    private final float[][][]			blocks;		// [ numBlocks ][ channels ][ blockSize ]
+    private final int[]					blockLen;
+    private final int[]					blockGen;
+
+    // written by the prefetch thread only
+    private volatile long				writeCount		= 0L;
+    private volatile long				frameNum;
+    private volatile IOException		exception		= null;
+
+    // written by the consumer only
+    private volatile long				readCount		= 0L;
+    private volatile long				seekPos			= 0L;
+    private volatile int				seekGen			= 0;
+    private volatile long				underruns		= 0L;
+    private volatile long				underrunFrames	= 0L;
+
+    // consumer state
+    private int							readOff			= 0;
+    private long						position		= 0L;
+
+    private volatile boolean			running			= true;
+    private final Thread				thread;
+
+    /**
+     *	Creates a new streamer and starts its prefetch thread,
+     *	beginning at frame zero.
+     *
+     *	@param	f			the file to stream from
+     *	@param	blockSize	the size of each decoded block in sample frames
+     *	@param	lookAhead	the number of sample frames to keep decoded ahead
+     *						of the play position. This is rounded up to a multiple
+     *						of the block size; at least two blocks are used
+     *
+     *	@throws	IOException	if the file length cannot be determined
+     */
+    public AudioFileStreamer( InterleavedStreamFile f, int blockSize, int lookAhead )
+    throws IOException
+    {
+        if( blockSize <= 0 ) throw new IllegalArgumentException( "blockSize " + blockSize );
+
+        this.f			= f;
+        this.af			= f instanceof AudioFile ? (AudioFile) f : null;
+        this.blockSize	= blockSize;
+        channels		= f.getChannelNum();
+        numBlocks		= Math.max( 2, (lookAhead + blockSize - 1) / blockSize );
+        blocks			= new float[ numBlocks ][ channels ][ blockSize ];
+        blockLen		= new int[ numBlocks ];
+        blockGen		= new int[ numBlocks ];
+        frameNum		= f.getFrameNum();
+
+        thread			= new Thread( this, "AudioFileStreamer" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MAX_PRIORITY );
+        thread.start();
+    }
+
+    /**
+     *	Copies frames from the ring into the buffer, advancing the
+     *	play position. This method never blocks. If fewer frames
+     *	are available than requested, the remainder of the buffer
+     *	is filled with zeroes, and &ndash; unless the end of the file
+     *	has been reached &ndash; an underrun is counted.
+     *
+     *	@param	data	buffer to hold the frames. channels with
+     *					<code>null</code> arrays are skipped
+     *	@param	offset	offset in the buffer in sample frames
+     *	@param	length	the number of frames requested
+     *	@return	the number of frames actually taken from the file
+     */
+    public int read( float[][] data, int offset, int length )
+    {
+        final int	gen		= seekGen;
+        long		rc		= readCount;
+        int			done	= 0;
+        int			idx, n, ch;
+        float[]		b;
+
+        while( (done < length) && (rc < writeCount) ) {
+            idx = (int) (rc % numBlocks);
+            if( blockGen[ idx ] != gen ) {			// stale block from before a seek
+                readOff	= 0;
+                readCount = ++rc;
+                continue;
+            }
+            n = Math.min( blockLen[ idx ] - readOff, length - done );
+            for( ch = 0; ch < channels; ch++ ) {
+                b = data[ ch ];
+                if( b == null ) continue;
+                System.arraycopy( blocks[ idx ][ ch ], readOff, b, offset + done, n );
+            }
+            readOff	   += n;
+            done	   += n;
+            position   += n;
+            if( readOff == blockLen[ idx ]) {
+                readOff		= 0;
+                readCount	= ++rc;					// hand the block back to the prefetch thread
+            }
+        }
+
+        if( done < length ) {
+            for( ch = 0; ch < channels; ch++ ) {
+                b = data[ ch ];
+                if( b == null ) continue;
+                for( int i = offset + done, stop = offset + length; i < stop; i++ ) b[ i ] = 0f;
+            }
+            if( position < frameNum ) {
+                underruns++;
+                underrunFrames += length - done;
+            }
+        }
+
+        return done;
+    }
+
+    /**
+     *	Moves the play position. All prefetched frames are
+     *	discarded, and the prefetch thread starts decoding at the
+     *	new position. This method never blocks; frames will become
+     *	available once the prefetch thread has caught up.
+     *
+     *	@param	frame	the new play position in sample frames
+     */
+    public void seek( long frame )
+    {
+        seekPos		= frame;
+        seekGen		= seekGen + 1;	// publishes seekPos
+        readCount	= writeCount;
+        readOff		= 0;
+        position	= frame;
+    }
+
+    /**
+     *	Returns the current play position, i.e. the frame
+     *	index of the next frame returned by <code>read</code>.
+     *
+     *	@return	the play position in sample frames
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     *	Returns the number of frames which can currently
+     *	be read without underrun. This is a conservative
+     *	estimate, since the prefetch thread may be
+     *	decoding in parallel.
+     *
+     *	@return	the number of decoded frames ahead of the play position
+     */
+    public long getAvailableFrames()
+    {
+        final int	gen	= seekGen;
+        final long	wc	= writeCount;
+        long		n	= 0;
+        int			idx;
+
+        for( long rc = readCount; rc < wc; rc++ ) {
+            idx	= (int) (rc % numBlocks);
+            if( blockGen[ idx ] == gen ) n += blockLen[ idx ];
+        }
+        return Math.max( 0, n - readOff );
+    }
+
+    /**
+     *	Returns the number of <code>read</code> calls which
+     *	could not be satisfied from the ring.
+     *
+     *	@return	the number of underruns since creation
+     */
+    public long getUnderrunCount()
+    {
+        return underruns;
+    }
+
+    /**
+     *	Returns the total number of frames which were replaced
+     *	by silence due to underruns.
+     *
+     *	@return	the number of missing frames since creation
+     */
+    public long getUnderrunFrames()
+    {
+        return underrunFrames;
+    }
+
+    /**
+     *	Returns the exception which stopped the
+     *	prefetch thread, if any.
+     *
+     *	@return	the I/O error which occurred while reading
+     *			the file, or <code>null</code>
+     */
+    public IOException getException()
+    {
+        return exception;
+    }
+
+    /**
+     *	Returns the size of the decoded blocks.
+     *
+     *	@return	the block size in sample frames
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     *	Returns the maximum number of frames decoded
+     *	ahead of the play position.
+     *
+     *	@return	the look-ahead in sample frames
+     */
+    public int getLookAhead()
+    {
+        return numBlocks * blockSize;
+    }
+
+    /**
+     *	Stops the prefetch thread. The file is not closed.
+     *	Do not call this method from the consumer thread if
+     *	that must not block, since it waits for the prefetch
+     *	thread to terminate.
+     */
+    public void dispose()
+    {
+        running = false;
+        LockSupport.unpark( thread );
+        try {
+            thread.join();
+        }
+        catch( InterruptedException e ) { /* ignored */ }
+    }
+
+// -------- Runnable interface --------
+
+    /**
+     *	The prefetch thread's body. Do not call this directly.
+     */
+    public void run()
+    {
+        long	filePos	= 0L;
+        int		gen		= -1;
+        int		g, idx, len;
+        long	wc;
+
+        try {
+            while( running ) {
+                g = seekGen;
+                if( g != gen ) {
+                    gen		= g;
+                    filePos	= seekPos;		// at least as recent as g
+                }
+                wc			= writeCount;
+                frameNum	= f.getFrameNum();
+                if( (wc - readCount >= numBlocks) || (filePos >= frameNum) ) {
+                    LockSupport.parkNanos( this, POLL_NANOS );
+                    continue;
+                }
+
+                idx	= (int) (wc % numBlocks);
+                len	= (int) Math.min( blockSize, frameNum - filePos );
+                if( af != null ) {
+                    af.readFrames( filePos, blocks[ idx ], 0, len );
+                } else {
+                    f.seekFrame( filePos );
+                    f.readFrames( blocks[ idx ], 0, len );
+                }
+                blockLen[ idx ]	= len;
+                blockGen[ idx ]	= gen;
+                writeCount		= wc + 1;		// publishes the block
+                filePos		   += len;
+            }
+        }
+        catch( IOException e1 ) {
+            exception = e1;
+        }
+    }
+}
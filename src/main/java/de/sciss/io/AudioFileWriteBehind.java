@@ -0,0 +1,332 @@
+/*
+ *  AudioFileWriteBehind.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *	A write-behind front end for recording into an <code>AudioFile</code>.
+ *	The caller hands float blocks into a bounded lock-free ring,
+ *	and a dedicated writer thread encodes and writes them. The periodic
+ *	header update and <code>fsync</code> which <code>AudioFile.writeFrames</code>
+ *	performs every ten seconds thus happen on the writer thread, and
+ *	never stall the caller.
+ *	<p>
+ *	Frames are copied into the ring, so the caller may reuse its
+ *	buffers immediately. <code>offer</code> never blocks and rejects
+ *	(and counts) blocks which do not fit into the ring; <code>write</code>
+ *	waits for free space instead, providing back-pressure. Frames are
+ *	handed to the writer thread in units of the block size, so a
+ *	partially filled block is only written once it is full or the
+ *	file is closed.
+ *	<p>
+ *	There must be exactly one thread calling <code>offer</code>,
+ *	<code>write</code> and <code>close</code>. The audio file must not be
+ *	accessed by anyone else until <code>close</code> has returned.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		AudioFile#openAsWrite( AudioFileDescr )
+ */
+public class AudioFileWriteBehind
+implements Runnable
+{
+    private static final long			POLL_NANOS		= 1000000L;	// 1 ms
+
+    private final AudioFile				af;
+    private final int					channels;
+    private final int					blockSize;
+    private final int					numBlocks;
+
+    private final float[][][]			blocks;		// [ numBlocks ][ channels ][ blockSize ]
+    private final int[]					blockLen;
+
+    // written by the caller only
+    private volatile long				writeCount		= 0L;
+    private volatile long				overflows		= 0L;
+    private volatile long				overflowFrames	= 0L;
+    private volatile long				stalls			= 0L;
+    private volatile boolean			closing			= false;
+    private int							fillOff			= 0;		// frames in the block being filled
+    private boolean						closed			= false;
+
+    // written by the writer thread only
+    private volatile long				readCount		= 0L;
+    private volatile IOException		exception		= null;
+
+    private final Thread				thread;
+
+    /**
+     *	Creates a new write-behind front end and starts its
+     *	writer thread.
+     *
+     *	@param	af			an audio file opened with <code>openAsWrite</code>
+     *	@param	blockSize	the size of each block in the ring in sample frames
+     *	@param	capacity	the maximum number of frames queued for writing.
+     *						This is rounded up to a multiple of the block size;
+     *						at least two blocks are used
+     */
+    public AudioFileWriteBehind( AudioFile af, int blockSize, int capacity )
+    {
+        if( blockSize <= 0 ) throw new IllegalArgumentException( "blockSize " + blockSize );
+
+        this.af			= af;
+        this.blockSize	= blockSize;
+        channels		= af.getChannelNum();
+        numBlocks		= Math.max( 2, (capacity + blockSize - 1) / blockSize );
+        blocks			= new float[ numBlocks ][ channels ][ blockSize ];
+        blockLen		= new int[ numBlocks ];
+
+        thread			= new Thread( this, "AudioFileWriteBehind" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     *	Queues frames for writing without blocking. If the
+     *	ring cannot take all frames, none of them are queued,
+     *	and an overflow is counted.
+     *
+     *	@param	data	buffer holding the frames (deinterleaved).
+     *					<code>null</code> arrays are written as silence
+     *	@param	offset	offset in the buffer in sample frames
+     *	@param	length	number of frames to queue
+     *	@return	<code>true</code> if the frames were queued,
+     *			<code>false</code> if the ring was too full
+     *
+     *	@throws	IOException	if the writer thread has failed before,
+     *						or the file was closed
+     */
+    public boolean offer( float[][] data, int offset, int length )
+    throws IOException
+    {
+        checkState();
+        if( length > getFreeFrames() ) {
+            overflows++;
+            overflowFrames += length;
+            return false;
+        }
+        enqueue( data, offset, length );
+        return true;
+    }
+
+    /**
+     *	Queues frames for writing, waiting for space in
+     *	the ring if necessary. Each wait is counted as a stall.
+     *
+     *	@param	data	buffer holding the frames (deinterleaved).
+     *					<code>null</code> arrays are written as silence
+     *	@param	offset	offset in the buffer in sample frames
+     *	@param	length	number of frames to queue
+     *
+     *	@throws	IOException	if the writer thread has failed,
+     *						or the file was closed
+     */
+    public void write( float[][] data, int offset, int length )
+    throws IOException
+    {
+        int chunkLength;
+
+        checkState();
+        while( length > 0 ) {
+            chunkLength = (int) Math.min( length, getFreeFrames() );
+            if( chunkLength == 0 ) {
+                stalls++;
+                do {
+                    LockSupport.parkNanos( this, POLL_NANOS );
+                    checkState();
+                } while( getFreeFrames() == 0 );
+                continue;
+            }
+            enqueue( data, offset, chunkLength );
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    /**
+     *	Writes all queued frames, stops the writer thread
+     *	and closes the audio file. This blocks until
+     *	the queue is drained.
+     *
+     *	@throws	IOException	if writing or closing fails
+     */
+    public void close()
+    throws IOException
+    {
+        if( closed ) return;
+        closed = true;
+
+        if( fillOff > 0 ) publish();
+        closing = true;
+        LockSupport.unpark( thread );
+        try {
+            thread.join();
+        }
+        catch( InterruptedException e1 ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e1.getMessage() );
+        }
+        if( exception != null ) {
+            af.cleanUp();
+            throw exception;
+        }
+        af.close();
+    }
+
+    /**
+     *	Returns the number of frames which can
+     *	currently be queued without blocking.
+     *
+     *	@return	the free space in the ring in sample frames
+     */
+    public long getFreeFrames()
+    {
+        return( (numBlocks - (writeCount - readCount)) * blockSize - fillOff );
+    }
+
+    /**
+     *	Returns the number of frames queued but
+     *	not yet written to the file.
+     *
+     *	@return	the number of pending sample frames
+     */
+    public long getPendingFrames()
+    {
+        return( numBlocks * blockSize - getFreeFrames() );
+    }
+
+    /**
+     *	Returns the number of calls to <code>offer</code>
+     *	which were rejected because the ring was full.
+     *
+     *	@return	the number of overflows since creation
+     */
+    public long getOverflowCount()
+    {
+        return overflows;
+    }
+
+    /**
+     *	Returns the total number of frames rejected
+     *	by <code>offer</code>.
+     *
+     *	@return	the number of dropped sample frames since creation
+     */
+    public long getOverflowFrames()
+    {
+        return overflowFrames;
+    }
+
+    /**
+     *	Returns the number of times <code>write</code> had to
+     *	wait for the writer thread to free space in the ring.
+     *
+     *	@return	the number of stalls since creation
+     */
+    public long getStallCount()
+    {
+        return stalls;
+    }
+
+    /**
+     *	Returns the audio file being written.
+     *
+     *	@return	the underlying audio file
+     */
+    public AudioFile getAudioFile()
+    {
+        return af;
+    }
+
+    private void checkState()
+    throws IOException
+    {
+        if( exception != null ) throw exception;
+        if( closed ) throw new IOException( "Write-behind closed" );
+    }
+
+    private void enqueue( float[][] data, int offset, int length )
+    {
+        int			chunkLength, idx;
+        float[][]	block;
+        float[]		b;
+
+        while( length > 0 ) {
+            idx			= (int) (writeCount % numBlocks);
+            block		= blocks[ idx ];
+            chunkLength	= Math.min( length, blockSize - fillOff );
+            for( int ch = 0; ch < channels; ch++ ) {
+                if( data[ ch ] == null ) {		// written as silence, like AudioFile.writeFrames does
+                    b = block[ ch ];
+                    for( int i = fillOff, stop = fillOff + chunkLength; i < stop; i++ ) b[ i ] = 0f;
+                } else {
+                    System.arraycopy( data[ ch ], offset, block[ ch ], fillOff, chunkLength );
+                }
+            }
+            fillOff	   += chunkLength;
+            offset	   += chunkLength;
+            length	   -= chunkLength;
+            if( fillOff == blockSize ) publish();
+        }
+    }
+
+    private void publish()
+    {
+        blockLen[ (int) (writeCount % numBlocks) ] = fillOff;
+        fillOff		= 0;
+        writeCount	= writeCount + 1;	// hands the block to the writer thread
+    }
+
+// -------- Runnable interface --------
+
+    /**
+     *	The writer thread's body. Do not call this directly.
+     */
+    public void run()
+    {
+        long	rc		= readCount;
+        int		idx;
+        boolean	done	= false;
+
+        try {
+            while( !done ) {
+                done = closing;		// read before writeCount, so the last blocks are not missed
+                while( rc < writeCount ) {
+                    idx = (int) (rc % numBlocks);
+                    af.writeFrames( blocks[ idx ], 0, blockLen[ idx ]);
+                    readCount = ++rc;
+                }
+                if( !done ) LockSupport.parkNanos( this, POLL_NANOS );
+            }
+        }
+        catch( IOException e1 ) {
+            exception = e1;
+        }
+    }
+}
@@ -26,31 +26,94 @@
 package de.sciss.io;
 
 import java.awt.event.ActionEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 
 /**
+ *	Manages a folder of cache files with a limited capacity.
+ *	The cache files are kept in an index ordered by access time,
+ *	and when the folder grows beyond its capacity, the least recently
+ *	used files are deleted. Files count as used when they are added,
+ *	and whenever they are looked up using <code>getCacheFile</code>
+ *	or <code>touch</code>.
+ *	<p>
+ *	All methods may be called from any thread. The index is guarded
+ *	by a lock which is never held during file system operations, and
+ *	eviction is performed by a background thread, so <code>addFile</code>
+ *	returns without deleting any files.
+ *	<p>
+ *	Cache file names are SHA-1 digests of the reference file's path
+ *	(and optionally its <code>AudioFileCacheInfo</code> or sampled
+ *	contents). The files are spread across 256 sub folders named after
+ *	the first two hex digits of the digest, so no single folder holds
+ *	too many entries.
+ *	<p>
+ *	The index is persisted in a journal file inside the cache folder,
+ *	which records additions, removals and accesses. When a folder is
+ *	set, the journal is read in one sequential pass instead of listing
+ *	the folder and querying each file. Entries read from the journal are
+ *	checked against the file system when they are first looked up.
+ *	Only when the journal is missing or corrupt is the folder rescanned.
+ *	Accesses are buffered and written along with the next addition or
+ *	removal, once about a thousand of them have accumulated, or by
+ *	<code>flush</code>.
+ *
  *  @author		Hanns Holger Rutz
- *  @version	0.32, 25-Feb-08
+ *  @version	0.40, 18-Oct-26
  */
 public class CacheManager
 implements FilenameFilter
 {
     private static final String	CACHE_EXT		= ".cache";
     private static final String	HEX_CHARS		= "0123456789ABCDEF";
+    private static final int	SAMPLE_SIZE		= 0x10000;	// bytes per content sample
+
+    private static final String	JOURNAL_NAME	= "index.journal";
+    private static final String	JOURNAL_TEMP	= "index.tmp";
+    private static final int	JOURNAL_MAGIC	= 0x434D4A31;	// 'CMJ1'
+    private static final int	OP_ADD			= 1;
+    private static final int	OP_TOUCH		= 2;
+    private static final int	OP_REMOVE		= 3;
+    private static final int	PENDING_LIMIT	= 0x10000;	// bytes of journal records written by touch
+
+    private volatile File		folder			= null;
+    private volatile int		capacity;			// in MB
 
-    private File				folder			= null;
-    private int					capacity;			// in MB
-    private long				folderSize;			// in Bytes
+    private final Object		sync			= new Object();
+    // maps cache files to CacheEntry objects, least recently used first
+    private final LinkedHashMap<File, CacheEntry>	cacheMap	= new LinkedHashMap<File, CacheEntry>( 16, 0.75f, true );
+    private long				folderSize		= 0L;	// in Bytes, guarded by sync
+    private Thread				evictor			= null;	// guarded by sync
 
-    private SortedSet			cacheList		= new TreeSet();
+    // journal records not yet written, guarded by sync
+    private final ByteArrayOutputStream	pending		= new ByteArrayOutputStream();
+    private final DataOutputStream		pendingStream	= new DataOutputStream( pending );
+    private int					journalRecords	= 0;	// guarded by sync
+    private final Object		journalSync		= new Object();
 
-    private boolean				active			= false;
+    private volatile boolean	active			= false;
 
     public CacheManager()
     {
@@ -68,43 +131,299 @@ implements FilenameFilter
         return active;
     }
 
+    /**
+     *	Adds a file to the cache index, or updates its
+     *	size if it has been added before. The file becomes the most
+     *	recently used one. If the cache exceeds its capacity
+     *	afterwards, the least recently used files are deleted
+     *	in the background.
+     *
+     *	@param	f	the cache file, which should have been completely written
+     */
     public void addFile( File f )
     {
-        CacheEntry ce = new CacheEntry( f );
-        if( cacheList.add( ce )) {
+        final CacheEntry	ce	= new CacheEntry( f );
+        final CacheEntry	old;
+
+        ce.lastAccess = System.currentTimeMillis();
+        synchronized( sync ) {
+            old			= cacheMap.put( f, ce );
+            if( old != null ) folderSize -= old.size;
             folderSize += ce.size;
-            trimToCapacity();
+            journal( OP_ADD, ce );
+            if( folderSize > getCapacityBytes() ) startEviction();
         }
+        flush();
     }
 
+    /**
+     *	Removes a file from the cache index and deletes it.
+     *
+     *	@param	f	the cache file to remove
+     */
     public void removeFile( File f )
     {
-        CacheEntry ce = new CacheEntry( f );
-        if( cacheList.remove( ce )) {
-            folderSize -= ce.size;
-        }
+        unlist( f );
+        flush();
         if( f.exists() && !f.delete() ) {
             final String	refName		= f.getName();
             final int		suffixIdx	= refName.lastIndexOf( '.' );
             final String	name		= suffixIdx == -1 ? refName : refName.substring( 0, suffixIdx );
-            final File		tempFile	= new File( folder, name + ".tmp" );
+            final File		tempFile	= new File( f.getParentFile(), name + ".tmp" );
             tempFile.delete();
             f.renameTo( tempFile );
             tempFile.deleteOnExit();
         }
     }
 
+    /**
+     *	Looks up the cache file of a reference file.
+     *	A hit makes the cache file the most recently used one.
+     *
+     *	@param	reference	the file whose cache file is looked up
+     *	@return	the cache file, or <code>null</code> if there is no
+     *			such file in the index
+     *
+     *	@see	#createCacheFileName( File )
+     */
+    public File getCacheFile( File reference )
+    {
+        final File f = createCacheFileName( reference );
+
+        return( touch( f ) ? f : null );
+    }
+
+    /**
+     *	Looks up the cache file of a reference file
+     *	which is named after the file's path and cache info.
+     *	A hit makes the cache file the most recently used one.
+     *
+     *	@param	reference	the file whose cache file is looked up
+     *	@param	info		the cache info of the reference file
+     *	@return	the cache file, or <code>null</code> if there is no
+     *			such file in the index
+     *
+     *	@see	#createCacheFileName( File, AudioFileCacheInfo )
+     */
+    public File getCacheFile( File reference, AudioFileCacheInfo info )
+    {
+        final File f = createCacheFileName( reference, info );
+
+        return( touch( f ) ? f : null );
+    }
+
+    /**
+     *	Marks a cache file as used, making it
+     *	the most recently used one.
+     *
+     *	@param	f	the cache file
+     *	@return	<code>true</code> if the file is in the index,
+     *			<code>false</code> otherwise
+     */
+    public boolean touch( File f )
+    {
+        final CacheEntry	ce;
+        final boolean		verified, full;
+        final long			size;
+
+        synchronized( sync ) {
+            ce = cacheMap.get( f );	// moves the entry to the end
+            if( ce == null ) return false;
+            ce.lastAccess = System.currentTimeMillis();
+            journal( OP_TOUCH, ce );
+            verified	= ce.verified;
+            full		= pending.size() >= PENDING_LIMIT;
+        }
+        // lookups alone never call flush otherwise
+        if( full ) flush();
+        if( verified ) return true;
+
+        // entries read from the journal are checked on their first hit
+        if( !f.isFile() ) {
+            unlist( f );
+            flush();
+            return false;
+        }
+        size = f.length();
+        synchronized( sync ) {
+            ce.verified = true;
+            if( (ce.size != size) && (cacheMap.get( f ) == ce) ) {
+                folderSize += size - ce.size;
+                ce.size		= size;
+                journal( OP_ADD, ce );
+            }
+        }
+        return true;
+    }
+
+    /**
+     *	Writes pending index changes, such as access
+     *	times, to the journal in the cache folder.
+     */
+    public void flush()
+    {
+        final File		f;
+        final byte[]	b;
+        final boolean	compact;
+
+        synchronized( journalSync ) {
+            synchronized( sync ) {
+                f		= folder;
+                if( (f == null) || (pending.size() == 0) ) return;
+                b		= pending.toByteArray();
+                pending.reset();
+                compact	= journalRecords > (cacheMap.size() << 1) + 1024;
+            }
+            if( compact ) {
+                writeJournal( f );	// includes the pending records
+            } else {
+                appendJournal( f, b );
+            }
+        }
+    }
+
+    /**
+     *	Returns the number of files in the cache index.
+     *
+     *	@return	the number of cache files
+     */
+    public int getFileCount()
+    {
+        synchronized( sync ) {
+            return cacheMap.size();
+        }
+    }
+
+    /**
+     *	Returns the total size of the files in the cache index.
+     *	This may temporarily exceed the capacity, until
+     *	the background eviction has caught up.
+     *
+     *	@return	the size of the cache in bytes
+     */
+    public long getSize()
+    {
+        synchronized( sync ) {
+            return folderSize;
+        }
+    }
+
+    /**
+     *	Returns the cache file name for a reference file,
+     *	derived from the file's absolute path.
+     *
+     *	@param	reference	the file for which a cache file is needed
+     *	@return	the cache file inside the cache folder. If the cache
+     *			is active, its sub folder is created
+     */
     public File createCacheFileName( File reference )
     {
-        final StringBuffer	strBuf	= new StringBuffer( 16 );
-        int					hash	= reference.hashCode();
+        final MessageDigest		md	= createDigest();
+        final DataOutputStream	dos	= new DataOutputStream( new DigestOutputStream( NULL_STREAM, md ));
+
+        try {
+            dos.writeUTF( reference.getAbsolutePath() );
+        }
+        catch( IOException e1 ) { /* cannot happen */ }
+
+        return createCacheFileName( md.digest() );
+    }
+
+    /**
+     *	Returns the cache file name for a reference file, derived from
+     *	the file's absolute path and cache info. Since the cache info
+     *	includes the modification date and length of the reference file,
+     *	a changed file gets a new cache file, and the stale one is
+     *	eventually evicted.
+     *
+     *	@param	reference	the file for which a cache file is needed
+     *	@param	info		the cache info of the reference file
+     *	@return	the cache file inside the cache folder. If the cache
+     *			is active, its sub folder is created
+     */
+    public File createCacheFileName( File reference, AudioFileCacheInfo info )
+    {
+        final MessageDigest		md	= createDigest();
+        final DataOutputStream	dos	= new DataOutputStream( new DigestOutputStream( NULL_STREAM, md ));
 
-        for( int i = 0; i < 8; i++, hash >>= 4 ) {
-            strBuf.append( HEX_CHARS.charAt( hash & 0x0F ));
+        try {
+            dos.writeUTF( reference.getAbsolutePath() );
+            dos.write( info.encode() );
+        }
+        catch( IOException e1 ) { /* cannot happen */ }
+
+        return createCacheFileName( md.digest() );
+    }
+
+    /**
+     *	Returns the cache file name for a reference file, derived from
+     *	its contents rather than its path, so the cache file is found
+     *	again after the reference file has been moved or renamed.
+     *	The digest covers the file's length, three samples of 64 KB
+     *	from its beginning, middle and end, and the cache info except for
+     *	the file name.
+     *
+     *	@param	reference	the file for which a cache file is needed
+     *	@param	info		the cache info of the reference file
+     *	@return	the cache file inside the cache folder. If the cache
+     *			is active, its sub folder is created
+     *
+     *	@throws	IOException	if the reference file cannot be read
+     */
+    public File createContentCacheFileName( File reference, AudioFileCacheInfo info )
+    throws IOException
+    {
+        final MessageDigest		md		= createDigest();
+        final DataOutputStream	dos		= new DataOutputStream( new DigestOutputStream( NULL_STREAM, md ));
+        final RandomAccessFile	raf		= new RandomAccessFile( reference, "r" );
+        final byte[]			buf		= new byte[ SAMPLE_SIZE ];
+        final long				len		= raf.length();
+        final long[]			offsets	= { 0L, (len - SAMPLE_SIZE) / 2, len - SAMPLE_SIZE };
+        final int				n		= (int) Math.min( SAMPLE_SIZE, len );
+
+        try {
+            dos.writeLong( len );
+            for( int i = 0; i < offsets.length; i++ ) {
+                raf.seek( Math.max( 0L, offsets[ i ]));
+                raf.readFully( buf, 0, n );
+                dos.write( buf, 0, n );
+            }
+        }
+        finally {
+            raf.close();
+        }
+        dos.writeLong( info.getLastModified() );
+        dos.writeInt( info.getModel() );
+        dos.writeLong( info.getNumChannels() );
+        dos.writeLong( info.getNumFrames() );
+
+        return createCacheFileName( md.digest() );
+    }
+
+    private File createCacheFileName( byte[] digest )
+    {
+        final StringBuffer	strBuf	= new StringBuffer( digest.length * 2 + CACHE_EXT.length() );
+        final File			shard;
+
+        for( int i = 0; i < digest.length; i++ ) {
+            strBuf.append( HEX_CHARS.charAt( (digest[ i ] >> 4) & 0x0F ));
+            strBuf.append( HEX_CHARS.charAt( digest[ i ] & 0x0F ));
         }
         strBuf.append( CACHE_EXT );
 
-        return new File( folder, strBuf.toString() );
+        shard = new File( folder, strBuf.substring( 0, 2 ));
+        if( isActive() ) shard.mkdir();
+        return new File( shard, strBuf.substring( 2 ));
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch( NoSuchAlgorithmException e1 ) {
+            throw new IllegalStateException( e1.getMessage() );	// every platform provides SHA-1
+        }
     }
 
     public void setFolder( String folder )
@@ -139,7 +458,9 @@ implements FilenameFilter
 
     public void setFolderAndCapacity( File folder, int capacity )
     {
-        if( (folder == null) || !folder.equals( this.folder )) {
+        final boolean newFolder = (folder == null) || !folder.equals( this.folder );
+
+        if( newFolder ) {
             if( this.folder != null ) {
                 clearCache();
             }
@@ -152,8 +473,25 @@ implements FilenameFilter
 //			prefs.put( KEY_CAPACITY, new Param( capacity, ParamSpace.NONE | ParamSpace.ABS ).toString() );
         }
 
-        updateFileList();
-        trimToCapacity();
+        if( newFolder && !readJournal() ) {
+            updateFileList();
+            if( folder != null ) {
+                synchronized( journalSync ) {
+                    writeJournal( folder );
+                }
+            }
+        }
+        synchronized( sync ) {
+            if( folderSize > getCapacityBytes() ) startEviction();
+        }
+    }
+
+    private static boolean isShard( File f )
+    {
+        final String name = f.getName();
+
+        return( (name.length() == 2) && (HEX_CHARS.indexOf( name.charAt( 0 )) >= 0) &&
+                (HEX_CHARS.indexOf( name.charAt( 1 )) >= 0) && f.isDirectory() );
     }
 
     private void makeSureFolderExists()
@@ -161,49 +499,280 @@ implements FilenameFilter
         if( folder != null ) folder.mkdirs();
     }
 
-    private void updateFileList()
+    private long getCapacityBytes()
     {
-        final File[] files = folder == null ? null : folder.listFiles( this );
-        cacheList.clear();
-        folderSize = 0;
-        if( files == null ) return;
-
-        CacheEntry ce;
+        return( (long) capacity * 0x100000 );	// megabyte -> byte
+    }
 
-        for( int i = 0; i < files.length; i++ ) {
-            ce			= new CacheEntry( files[ i ]);
-            cacheList.add( ce );
-            folderSize += ce.size;
+    /*
+     *	Rebuilds the index from the contents of the folder and
+     *	its sub folders. Since access times are not known,
+     *	the files are ordered by modification date.
+     */
+    private void updateFileList()
+    {
+        final File[]		files	= folder == null ? null : folder.listFiles();
+        final List<CacheEntry>	coll	= new ArrayList<CacheEntry>();
+        final CacheEntry[]		entries;
+        File[]					shard;
+
+        if( files != null ) {
+            for( int i = 0; i < files.length; i++ ) {
+                if( isShard( files[ i ])) {
+                    shard = files[ i ].listFiles( this );
+                    if( shard == null ) continue;
+                    for( int j = 0; j < shard.length; j++ ) {
+                        coll.add( new CacheEntry( shard[ j ]));
+                    }
+                } else if( accept( folder, files[ i ].getName() )) {
+                    coll.add( new CacheEntry( files[ i ]));		// flat layout of older versions
+                }
+            }
+        }
+        entries = new CacheEntry[ coll.size() ];
+        coll.toArray( entries );
+        Arrays.sort( entries, accessComparator );
+
+        synchronized( sync ) {
+            cacheMap.clear();
+            folderSize = 0;
+            for( int i = 0; i < entries.length; i++ ) {
+                cacheMap.put( entries[ i ].file, entries[ i ]);
+                folderSize += entries[ i ].size;
+            }
         }
     }
 
-    private void trimToCapacity()
+    // must be called with sync held
+    private void startEviction()
     {
-        CacheEntry ce;
-        long	capaBytes	= (long) capacity * 0x100000;	// megabyte -> byte
+        if( evictor != null ) return;
+
+        evictor = new Thread( new Runnable() {
+            public void run()
+            {
+                evict();
+            }
+        }, "CacheManager" );
+        evictor.setDaemon( true );
+        evictor.start();
+    }
 
-        while( folderSize > capaBytes ) {
-            ce = (CacheEntry) cacheList.first();
-            cacheList.remove( ce );
-            folderSize -= ce.size;
+    /*
+     *	Body of the eviction thread. Removes the least recently
+     *	used entries from the index until the cache fits into its capacity,
+     *	deleting the files with the lock released.
+     */
+    private void evict()
+    {
+        Iterator<CacheEntry>	iter;
+        CacheEntry				ce;
+
+        while( true ) {
+            synchronized( sync ) {
+                if( (folderSize <= getCapacityBytes()) || cacheMap.isEmpty() ) {
+                    evictor = null;
+                    break;
+                }
+                iter		= cacheMap.values().iterator();
+                ce			= iter.next();
+                iter.remove();
+                folderSize -= ce.size;
+                journal( OP_REMOVE, ce );
+            }
             if( !ce.file.delete() ) {
                 ce.file.deleteOnExit();
             }
         }
+        flush();
     }
 
     private void clearCache()
     {
-        CacheEntry ce;
-
-        while( !cacheList.isEmpty() ) {
-            ce = (CacheEntry) cacheList.last();
-            cacheList.remove( ce );
+        final List<CacheEntry>	coll;
+        CacheEntry				ce;
+
+        synchronized( journalSync ) {
+            synchronized( sync ) {
+                coll = new ArrayList<CacheEntry>( cacheMap.values() );
+                cacheMap.clear();
+                folderSize = 0;
+                pending.reset();
+                journalRecords = 0;
+            }
+            new File( folder, JOURNAL_NAME ).delete();
+        }
+        for( int i = coll.size() - 1; i >= 0; i-- ) {
+            ce = coll.get( i );
             if( !ce.file.delete() ) {
                 ce.file.deleteOnExit();
             }
         }
-        folderSize = 0;
+    }
+
+    // removes an entry from the index, without deleting the file
+    private void unlist( File f )
+    {
+        synchronized( sync ) {
+            final CacheEntry ce = cacheMap.remove( f );
+            if( ce != null ) {
+                folderSize -= ce.size;
+                journal( OP_REMOVE, ce );
+            }
+        }
+    }
+
+    // must be called with sync held. without a folder there is no
+    // journal; it is written from scratch when a folder is set
+    private void journal( int op, CacheEntry ce )
+    {
+        final File dir = folder;
+
+        if( dir == null ) return;
+        try {
+            pendingStream.writeByte( op );
+            pendingStream.writeUTF( getJournalName( dir, ce.file ));
+            if( op == OP_ADD ) pendingStream.writeLong( ce.size );
+            if( op != OP_REMOVE ) pendingStream.writeLong( ce.lastAccess );
+            journalRecords++;
+        }
+        catch( IOException e1 ) { /* cannot happen */ }
+    }
+
+    // file names are stored relative to the cache folder
+    private static String getJournalName( File dir, File f )
+    {
+        final String path	= f.getPath();
+        final String root	= dir.getPath() + File.separatorChar;
+
+        return( path.startsWith( root ) ? path.substring( root.length() ) : f.getAbsolutePath() );
+    }
+
+    /*
+     *	Reads the journal of the current folder, replacing the index.
+     *	Returns false if there is no journal or it is corrupt.
+     *	A truncated last record, as left by a crash while
+     *	appending, is ignored.
+     */
+    private boolean readJournal()
+    {
+        final File				f		= folder == null ? null : new File( folder, JOURNAL_NAME );
+        final LinkedHashMap<File, CacheEntry>	map	= new LinkedHashMap<File, CacheEntry>( 16, 0.75f, true );
+        DataInputStream			dis		= null;
+        int						records	= 0;
+        long					size	= 0L;
+        long					time;
+        int						op;
+        String					name;
+        File					cf;
+        CacheEntry				ce;
+
+        if( (f == null) || !f.isFile() ) return false;
+
+        try {
+            dis = new DataInputStream( new BufferedInputStream( new FileInputStream( f ), 0x10000 ));
+            if( dis.readInt() != JOURNAL_MAGIC ) return false;
+            while( true ) {
+                try {
+                    op = dis.read();
+                    if( op < 0 ) break;
+                    name	= dis.readUTF();
+                    cf		= new File( name );
+                    if( !cf.isAbsolute() ) cf = new File( folder, name );
+                    switch( op ) {
+                    case OP_ADD:
+                        map.put( cf, new CacheEntry( cf, dis.readLong(), dis.readLong() ));
+                        break;
+                    case OP_TOUCH:
+                        time	= dis.readLong();
+                        ce		= map.get( cf );	// moves the entry to the end
+                        if( ce != null ) ce.lastAccess = time;
+                        break;
+                    case OP_REMOVE:
+                        map.remove( cf );
+                        break;
+                    default:
+                        return false;
+                    }
+                    records++;
+                }
+                catch( EOFException e1 ) {
+                    break;
+                }
+            }
+        }
+        catch( IOException e1 ) {
+            return false;
+        }
+        finally {
+            if( dis != null ) try { dis.close(); } catch( IOException e1 ) { /* ignored */ }
+        }
+
+        for( CacheEntry entry : map.values() ) {
+            size += entry.size;
+        }
+        synchronized( sync ) {
+            cacheMap.clear();
+            cacheMap.putAll( map );
+            folderSize		= size;
+            journalRecords	= records;
+        }
+        return true;
+    }
+
+    // writes a fresh journal holding the current index. must be called with journalSync held
+    private void writeJournal( File dir )
+    {
+        final File			temp	= new File( dir, JOURNAL_TEMP );
+        final File			f		= new File( dir, JOURNAL_NAME );
+        final byte[]		b;
+        DataOutputStream	dos		= null;
+
+        synchronized( sync ) {
+            pending.reset();
+            journalRecords = 0;
+            for( CacheEntry ce : cacheMap.values() ) {
+                journal( OP_ADD, ce );
+            }
+            b		= pending.toByteArray();
+            pending.reset();
+        }
+        try {
+            dir.mkdirs();
+            dos = new DataOutputStream( new FileOutputStream( temp ));
+            dos.writeInt( JOURNAL_MAGIC );
+            dos.write( b );
+            dos.close();
+            dos = null;
+            f.delete();
+            if( !temp.renameTo( f )) temp.delete();
+        }
+        catch( IOException e1 ) {
+            temp.delete();
+        }
+        finally {
+            if( dos != null ) try { dos.close(); } catch( IOException e1 ) { /* ignored */ }
+        }
+    }
+
+    // must be called with journalSync held
+    private void appendJournal( File dir, byte[] b )
+    {
+        final File			f	= new File( dir, JOURNAL_NAME );
+        FileOutputStream	fos	= null;
+
+        if( !f.isFile() ) {
+            writeJournal( dir );	// the index includes the records in b
+            return;
+        }
+        try {
+            fos = new FileOutputStream( f, true );
+            fos.write( b );
+        }
+        catch( IOException e1 ) { /* the journal is rewritten on the next rescan */ }
+        finally {
+            if( fos != null ) try { fos.close(); } catch( IOException e1 ) { /* ignored */ }
+        }
     }
 
     /**
@@ -219,13 +788,21 @@ implements FilenameFilter
 
     protected void debugDump()
     {
-        System.err.println( "WaveformCacheManager " + this.hashCode() + "; active ? " + isActive() +
-            "; cache folder = " + (folder == null ? "null" : folder.getAbsolutePath()) +
-            "; listed files = " + cacheList.size() +"; listed size = " + (folderSize / 0x100000) +
-            "MB (capacity = " + capacity +" MB)" );
-        if( !cacheList.isEmpty() ) {
-            System.err.println( "Oldest file = " + new Date( ((CacheEntry) cacheList.first()).lastModified ).toString() );
-            System.err.println( "Newest file = " + new Date( ((CacheEntry) cacheList.last()).lastModified ).toString() );
+        CacheEntry first = null, last = null;
+
+        synchronized( sync ) {
+            System.err.println( "WaveformCacheManager " + this.hashCode() + "; active ? " + isActive() +
+                "; cache folder = " + (folder == null ? "null" : folder.getAbsolutePath()) +
+                "; listed files = " + cacheMap.size() +"; listed size = " + (folderSize / 0x100000) +
+                "MB (capacity = " + capacity +" MB)" );
+            for( CacheEntry ce : cacheMap.values() ) {
+                last = ce;
+                if( first == null ) first = last;
+            }
+        }
+        if( first != null ) {
+            System.err.println( "Least recently used file = " + new Date( first.lastAccess ).toString() );
+            System.err.println( "Most recently used file = " + new Date( last.lastAccess ).toString() );
         }
     }
 
@@ -252,41 +829,41 @@ implements FilenameFilter
         }
     }
 
-    private static class CacheEntry
-    implements Comparable
-    {
-        protected final File	file;
-        protected final long	size;
-        protected final long	lastModified;
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        public void write( int b ) { /* discarded */ }
+        public void write( byte[] b, int off, int len ) { /* discarded */ }
+    };
 
-        protected CacheEntry( File file )
+    private static final Comparator<CacheEntry> accessComparator = new Comparator<CacheEntry>() {
+        public int compare( CacheEntry ce1, CacheEntry ce2 )
         {
-            this.file			= file;
-            this.size			= file.length();
-            this.lastModified	= file.lastModified();
+            final long diff = ce1.lastAccess - ce2.lastAccess;
+            return( diff < 0 ? -1 : (diff > 0 ? 1 : 0) );
         }
+    };
 
-        public int hashCode()
-        {
-            return file.hashCode();
-        }
+    private static class CacheEntry
+    {
+        protected final File	file;
+        protected long			size;			// guarded by sync
+        protected long			lastAccess;		// guarded by sync
+        protected boolean		verified;		// guarded by sync
 
-        public boolean equals( Object o )
+        protected CacheEntry( File file )
         {
-            if( o != null ) {
-                if( o instanceof CacheEntry ) {
-                    return( this.file.equals( ((CacheEntry) o).file ));
-                } else if( o instanceof File ) {
-                    return( this.file.equals( o ));
-                }
-            }
-            return false;
+            this.file		= file;
+            this.size		= file.length();
+            this.lastAccess	= file.lastModified();
+            verified		= true;
         }
 
-        public int compareTo( Object o )
+        // an entry read from the journal
+        protected CacheEntry( File file, long size, long lastAccess )
         {
-            long diff = this.lastModified - ((CacheEntry) o).lastModified;
-            return( diff < 0 ? -1 : (diff > 0 ? 1 : 0) );
+            this.file		= file;
+            this.size		= size;
+            this.lastAccess	= lastAccess;
+            verified		= false;
         }
     }
-}
\ No newline at end of file
+}
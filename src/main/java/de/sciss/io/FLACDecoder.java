@@ -0,0 +1,913 @@
+/*
+ *  FLACDecoder.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ *	Decodes the audio frames of a FLAC stream. The stream parameters
+ *	are taken from the STREAMINFO and SEEKTABLE blocks which are parsed
+ *	by <code>AudioFile</code>. The file is read with positional reads
+ *	only, so several decoders may work on the same channel.
+ *	<p>
+ *	Frames are decoded into a small batch of frame buffers. When the
+ *	caller announces a bulk read through <code>expect</code>, the frame
+ *	boundaries of the next batch are located by their sync codes and
+ *	header checksums, and the frames are decoded in parallel on a shared
+ *	pool of daemon threads. A frame whose boundary turns out to be wrong
+ *	is simply decoded again sequentially.
+ *	<p>
+ *	<code>seek</code> starts at the nearest seek point, narrows the
+ *	remaining range by bisection over the frame headers, and then decodes
+ *	only the frame containing the target sample.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		FLACEncoder
+ */
+class FLACDecoder
+{
+    private static final int		MAX_HEADER_SIZE	= 16;
+    private static final int		SCAN_SIZE		= 0x10000;
+    private static final int		NUM_THREADS		= Runtime.getRuntime().availableProcessors();
+    private static final int		MAX_BATCH		= Math.min( 32, NUM_THREADS << 1 );
+
+    // sample size codes of the frame header
+    private static final int[]		SAMPLE_BITS		= { 0, 8, 12, 0, 16, 20, 24, 32 };
+
+    private static final int[]		CRC8_TABLE		= new int[ 256 ];
+    private static final int[]		CRC16_TABLE		= new int[ 256 ];
+
+    private static ExecutorService	pool			= null;
+
+    private final FileChannel		fch;
+    private final long				firstFrame;
+    private final int				channels;
+    private final int				bitsPerSample;
+    private final int				maxBlockSize;
+    private final int				fixedBlockSize;		// 0 if the stream has variable block sizes
+    private final int				frameBytes;			// upper estimate of a frame's size
+    private final long				totalSamples;		// 0 if unknown
+    private final long[]			seekSamples;
+    private final long[]			seekOffsets;
+    private final int				numSeekPoints;		// without the trailing placeholders
+
+    private byte[]					buf;
+    private ByteBuffer				bb;
+    private long					bufStart		= 0L;
+    private int						bufLen			= 0;
+
+    private final FrameDecoder[]	frames;
+    private final FrameDecoder		scanner;
+    private int						numFrames		= 0;	// decoded frames in the batch
+    private int						curFrame		= 0;	// the frame being read
+    private int						framePos		= 0;	// the read offset in the current frame
+    private long					nextOffset;				// file offset of the first undecoded frame
+    private long					nextSample		= 0L;	// its first sample
+    private long					expected		= 0L;	// frames the caller is going to read
+
+    static {
+        int i, j, c;
+
+        for( i = 0; i < 256; i++ ) {
+            c = i;
+            for( j = 0; j < 8; j++ ) {
+                c = (c & 0x80) != 0 ? (c << 1) ^ 0x07 : c << 1;
+            }
+            CRC8_TABLE[ i ] = c & 0xFF;
+            c = i << 8;
+            for( j = 0; j < 8; j++ ) {
+                c = (c & 0x8000) != 0 ? (c << 1) ^ 0x8005 : c << 1;
+            }
+            CRC16_TABLE[ i ] = c & 0xFFFF;
+        }
+    }
+
+    /**
+     *	Creates a decoder for a FLAC stream.
+     *
+     *	@param	fch				the channel to read from
+     *	@param	firstFrame		file offset of the first audio frame
+     *	@param	channels		number of channels (STREAMINFO)
+     *	@param	bitsPerSample	resolution (STREAMINFO), at most 24
+     *	@param	minBlockSize	minimum block size in samples (STREAMINFO)
+     *	@param	maxBlockSize	maximum block size in samples (STREAMINFO)
+     *	@param	maxFrameSize	maximum frame size in bytes (STREAMINFO), or 0 if unknown
+     *	@param	totalSamples	number of sample frames (STREAMINFO), or 0 if unknown
+     *	@param	seekSamples		sample numbers of the seek points (SEEKTABLE), or <code>null</code>
+     *	@param	seekOffsets		offsets of the seek points relative to the first frame
+     */
+    protected FLACDecoder( FileChannel fch, long firstFrame, int channels, int bitsPerSample,
+                           int minBlockSize, int maxBlockSize, int maxFrameSize, long totalSamples,
+                           long[] seekSamples, long[] seekOffsets )
+    {
+        this.fch			= fch;
+        this.firstFrame		= firstFrame;
+        this.channels		= channels;
+        this.bitsPerSample	= bitsPerSample;
+        this.maxBlockSize	= maxBlockSize >= 16 ? maxBlockSize : 65535;
+        this.fixedBlockSize	= minBlockSize == maxBlockSize ? maxBlockSize : 0;
+        this.totalSamples	= totalSamples;
+        this.seekSamples	= seekSamples;
+        this.seekOffsets	= seekOffsets;
+        int n = 0;
+        if( seekSamples != null ) {
+            while( (n < seekSamples.length) && (seekSamples[ n ] >= 0L) ) n++;
+        }
+        numSeekPoints		= n;
+        frameBytes			= maxFrameSize > 0 ? maxFrameSize + MAX_HEADER_SIZE :
+            this.maxBlockSize * channels * ((bitsPerSample >> 3) + 1) + 64;
+        nextOffset			= firstFrame;
+
+        buf					= new byte[ Math.max( SCAN_SIZE, frameBytes << 1 )];
+        bb					= ByteBuffer.wrap( buf );
+        frames				= new FrameDecoder[ NUM_THREADS > 1 ? MAX_BATCH : 1 ];
+        frames[ 0 ]			= new FrameDecoder( true );
+        scanner				= new FrameDecoder( false );
+    }
+
+    /**
+     *	Announces the number of frames which are going to be read
+     *	from the current position on. A value large enough to span several
+     *	audio frames enables parallel decoding.
+     */
+    protected void expect( long length )
+    {
+        expected = length;
+    }
+
+    /**
+     *	Decodes frames into an interleaved integer buffer, beginning
+     *	at index zero.
+     *
+     *	@throws	EOFException	if the stream ends before
+     */
+    protected void read( int[] dst, int length )
+    throws IOException
+    {
+        FrameDecoder	d;
+        int[]			s;
+        int				n, off = 0;
+
+        while( length > 0 ) {
+            if( curFrame >= numFrames ) fill();
+            d = frames[ curFrame ];
+            n = Math.min( length, d.blockSize - framePos );
+            for( int ch = 0; ch < channels; ch++ ) {
+                s = d.samples[ ch ];
+                for( int i = framePos, j = off * channels + ch, stop = framePos + n; i < stop; i++, j += channels ) {
+                    dst[ j ] = s[ i ];
+                }
+            }
+            framePos   += n;
+            off		   += n;
+            length	   -= n;
+            expected	= Math.max( 0L, expected - n );
+            if( framePos == d.blockSize ) {
+                curFrame++;
+                framePos = 0;
+            }
+        }
+    }
+
+    /**
+     *	Moves to a sample frame. Positions beyond the end of the
+     *	stream are accepted, but reading from them fails.
+     */
+    protected void seek( long sample )
+    throws IOException
+    {
+        FrameDecoder	d;
+        long			off, smp, hi, mid, q;
+        int				hl, pt;
+
+        for( int i = 0; i < numFrames; i++ ) {		// already decoded
+            d = frames[ i ];
+            if( (sample >= d.sampleNum) && (sample < d.sampleNum + d.blockSize) ) {
+                curFrame	= i;
+                framePos	= (int) (sample - d.sampleNum);
+                return;
+            }
+        }
+
+        numFrames	= 0;
+        curFrame	= 0;
+        framePos	= 0;
+        if( sample == nextSample ) return;		// continues at the next frame
+        if( (totalSamples > 0) && (sample >= totalSamples) ) {
+            nextSample = sample;
+            return;
+        }
+
+        off	= firstFrame;
+        smp	= 0L;
+        hi	= fch.size();
+        pt	= findSeekPoint( sample );
+        // only the point itself is verified. if it does not lead
+        // to a frame, the previous one is tried, then bisection
+        for( int i = pt; (i >= 0) && (i >= pt - 1); i-- ) {
+            q = firstFrame + seekOffsets[ i ];
+            if( (q < hi) && (findFrame( q, seekSamples[ i ], q ) == q) ) {
+                off	= q;
+                smp	= seekSamples[ i ];
+                break;
+            }
+        }
+        if( (pt + 1 < numSeekPoints) && (firstFrame + seekOffsets[ pt + 1 ] > off) ) {
+            hi	= Math.min( hi, firstFrame + seekOffsets[ pt + 1 ]);
+        }
+
+        // bisection over the frame headers
+        while( (hi - off > frameBytes << 1) && (sample - smp > maxBlockSize << 2) ) {
+            mid = off + ((hi - off) >> 1);
+            q	= findFrame( mid, -1L, hi );
+            if( (q < 0L) || (scanner.sampleNum > sample) ) {
+                hi	= mid;
+            } else {
+                off	= q;
+                smp	= scanner.sampleNum;
+            }
+        }
+
+        // skip the frames in front of the target
+        for( ;; ) {
+            if( ensure( off, MAX_HEADER_SIZE ) < 2 ) throw new EOFException();
+            try {
+                hl = scanner.parseHeader( buf, (int) (off - bufStart), bufLen );
+            }
+            catch( BufferUnderflowException e1 ) {
+                throw new EOFException();
+            }
+            if( hl < 0 ) throw corrupt();
+            if( sample < scanner.sampleNum + scanner.blockSize ) break;
+            smp	= scanner.sampleNum + scanner.blockSize;
+            q	= findFrame( off + hl, smp, off + frameBytes );
+            if( q < 0L ) throw new EOFException();
+            off	= q;
+        }
+
+        nextOffset	= off;
+        nextSample	= scanner.sampleNum;
+        decodeNext( frames[ 0 ]);
+        numFrames	= 1;
+        framePos	= (int) (sample - frames[ 0 ].sampleNum);
+    }
+
+    // index of the last seek point at or before the sample, or -1
+    private int findSeekPoint( long sample )
+    {
+        int lo = 0;
+        int hi = numSeekPoints;
+        int mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( seekSamples[ mid ] <= sample ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    private static IOException corrupt()
+    {
+        return new IOException( AudioFile.getResourceString( "errAudioFileCorrupt" ));
+    }
+
+    private void fill()
+    throws IOException
+    {
+        int want;
+
+        if( (totalSamples > 0) && (nextSample >= totalSamples) ) throw new EOFException();
+
+        curFrame	= 0;
+        framePos	= 0;
+        want		= (int) Math.min( frames.length, (expected + maxBlockSize - 1) / maxBlockSize );
+        if( want > 1 ) {
+            numFrames = decodeBatch( want );
+            if( numFrames > 0 ) return;
+        }
+        decodeNext( frames[ 0 ]);
+        numFrames	= 1;
+    }
+
+    // decodes the frame at nextOffset
+    private void decodeNext( FrameDecoder d )
+    throws IOException
+    {
+        int want = frameBytes;
+        int avail, len;
+
+        for( ;; ) {
+            avail = ensure( nextOffset, want );
+            if( avail == 0 ) throw new EOFException();
+            try {
+                final int off = (int) (nextOffset - bufStart);
+                len = d.decode( buf, off, off + avail );
+                break;
+            }
+            catch( BufferUnderflowException e1 ) {
+                if( avail < want ) throw new EOFException();	// truncated file
+                want <<= 1;
+            }
+        }
+        nextOffset += len;
+        nextSample	= d.sampleNum + d.blockSize;
+    }
+
+    // locates up to 'want' frames in the buffer and decodes them in parallel.
+    // returns the number of frames decoded
+    private int decodeBatch( int want )
+    throws IOException
+    {
+        final int		avail	= ensure( nextOffset, want * frameBytes );
+        final int		base	= (int) (nextOffset - bufStart);
+        final int		limit	= base + avail;
+        final boolean	atEnd	= bufStart + limit >= fch.size();
+        final int[]		starts	= new int[ want + 1 ];
+        final List<BatchTask>		tasks	= new ArrayList<BatchTask>( want );
+        final List<Future<Boolean>>	results;
+        long			smp		= nextSample;
+        int				count	= 0;
+        int				hl, next;
+        FrameDecoder	d;
+
+        starts[ 0 ] = base;
+        try {
+            while( count < want ) {
+                hl = scanner.parseHeader( buf, starts[ count ], limit );
+                if( (hl < 0) || (scanner.sampleNum != smp) ) break;
+                smp += scanner.blockSize;
+                if( (totalSamples > 0) && (smp >= totalSamples) ) {
+                    if( !atEnd ) break;
+                    next = limit;			// the last frame
+                } else {
+                    next = findSync( starts[ count ] + hl, limit, smp );
+                    if( next < 0 ) break;
+                }
+                starts[ ++count ] = next;
+            }
+        }
+        catch( BufferUnderflowException e1 ) { /* frame header incomplete */ }
+        if( count < 2 ) return 0;
+
+        for( int i = 0; i < count; i++ ) {
+            if( frames[ i ] == null ) frames[ i ] = new FrameDecoder( true );
+            tasks.add( new BatchTask( frames[ i ], starts[ i ], starts[ i + 1 ], starts[ i + 1 ] == limit ));
+        }
+        try {
+            results = getPool().invokeAll( tasks );
+            for( int i = 0; i < count; i++ ) {
+                if( !results.get( i ).get().booleanValue() ) {
+                    count = i;
+                    break;
+                }
+            }
+        }
+        catch( InterruptedException e1 ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e1.getMessage() );
+        }
+        catch( ExecutionException e1 ) {
+            throw new IOException( String.valueOf( e1.getCause() ));
+        }
+        if( count == 0 ) return 0;
+
+        d			= frames[ count - 1 ];
+        nextOffset	= bufStart + starts[ count - 1 ] + d.frameLen;
+        nextSample	= d.sampleNum + d.blockSize;
+        return count;
+    }
+
+    // returns the buffer index of the next frame header at or after off
+    // which carries the given sample number, or -1
+    private int findSync( int off, int limit, long sample )
+    {
+        for( int i = off; i < limit - 1; i++ ) {
+            if( (buf[ i ] == (byte) 0xFF) && ((buf[ i + 1 ] & 0xFE) == 0xF8) &&
+                (scanner.parseHeader( buf, i, limit ) > 0) && (scanner.sampleNum == sample) ) return i;
+        }
+        return -1;
+    }
+
+    /*
+     *	Returns the file offset of the next frame header at or after pos,
+     *	but not behind maxPos, or -1. If sample is non-negative, the frame must
+     *	begin with that sample. Otherwise the header is confirmed by the header
+     *	of the frame following it. The scanner holds the frame's header
+     *	information afterwards.
+     */
+    private long findFrame( long pos, long sample, long maxPos )
+    throws IOException
+    {
+        int		avail, base, limit, hl, bs;
+        long	q, sn;
+
+outer:	while( pos <= maxPos ) {
+            avail	= ensure( pos, SCAN_SIZE );
+            if( avail < 2 ) return -1L;
+            base	= (int) (pos - bufStart);
+            limit	= base + avail;
+            for( int i = base; i < limit - 1; i++ ) {
+                if( (buf[ i ] != (byte) 0xFF) || ((buf[ i + 1 ] & 0xFE) != 0xF8) ) continue;
+                q = bufStart + i;
+                if( q > maxPos ) return -1L;
+                if( (limit - i < MAX_HEADER_SIZE) && (avail == SCAN_SIZE) ) {	// make the header fit
+                    pos = q;
+                    continue outer;
+                }
+                try {
+                    hl = scanner.parseHeader( buf, i, limit );
+                }
+                catch( BufferUnderflowException e1 ) {
+                    continue;
+                }
+                if( hl < 0 ) continue;
+                sn = scanner.sampleNum;
+                bs = scanner.blockSize;
+                if( sample >= 0L ) {
+                    if( sn == sample ) return q;
+                    continue;
+                }
+                if( (totalSamples > 0) && (sn >= totalSamples) ) continue;
+                if( ((totalSamples > 0) && (sn + bs >= totalSamples)) ||
+                    (findFrame( q + hl, sn + bs, q + frameBytes ) >= 0L) ) {
+
+                    return findFrame( q, sn, q );	// restores the scanner
+                }
+                pos = q + 1;		// the buffer may have been reloaded
+                continue outer;
+            }
+            if( avail < SCAN_SIZE ) return -1L;	// end of file
+            pos = bufStart + limit - 1;
+        }
+        return -1L;
+    }
+
+    // makes n bytes beginning at file offset pos available in the buffer
+    // (as far as the file extends) and returns their number
+    private int ensure( long pos, int n )
+    throws IOException
+    {
+        int r;
+
+        if( (pos >= bufStart) && (pos + n <= bufStart + bufLen) ) return n;
+
+        if( n > buf.length ) {
+            buf	= new byte[ Math.max( n, buf.length << 1 )];
+            bb	= ByteBuffer.wrap( buf );
+        }
+        bufStart	= pos;
+        bb.clear();
+        while( bb.hasRemaining() ) {
+            r = fch.read( bb, pos + bb.position() );
+            if( r < 0 ) break;
+        }
+        bufLen		= bb.position();
+        return Math.min( n, bufLen );
+    }
+
+    private static synchronized ExecutorService getPool()
+    {
+        if( pool == null ) {
+            pool = Executors.newFixedThreadPool( NUM_THREADS, new ThreadFactory() {
+                public Thread newThread( Runnable r )
+                {
+                    final Thread t = new Thread( r, "FLACDecoder" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    protected static int crc8( byte[] b, int off, int len )
+    {
+        int crc = 0;
+
+        for( int i = off, stop = off + len; i < stop; i++ ) {
+            crc = CRC8_TABLE[ crc ^ (b[ i ] & 0xFF) ];
+        }
+        return crc;
+    }
+
+    protected static int crc16( byte[] b, int off, int len )
+    {
+        int crc = 0;
+
+        for( int i = off, stop = off + len; i < stop; i++ ) {
+            crc = ((crc << 8) & 0xFFFF) ^ CRC16_TABLE[ (crc >> 8) ^ (b[ i ] & 0xFF) ];
+        }
+        return crc;
+    }
+
+// -------- internal classes --------
+
+    private class BatchTask
+    implements Callable<Boolean>
+    {
+        private final FrameDecoder	d;
+        private final int			start;
+        private final int			stop;
+        private final boolean		last;
+
+        protected BatchTask( FrameDecoder d, int start, int stop, boolean last )
+        {
+            this.d		= d;
+            this.start	= start;
+            this.stop	= stop;
+            this.last	= last;
+        }
+
+        // succeeds if the frame decodes and exactly fills the space up to
+        // the next frame. the last frame of the stream may be followed by tags
+        public Boolean call()
+        {
+            try {
+                final int len = d.decode( buf, start, stop );
+                return Boolean.valueOf( last ? len <= stop - start : len == stop - start );
+            }
+            catch( IOException e1 ) {
+                return Boolean.FALSE;
+            }
+            catch( BufferUnderflowException e1 ) {
+                return Boolean.FALSE;
+            }
+        }
+    }
+
+    /*
+     *	Parses frame headers and decodes complete frames
+     *	into one integer array per channel.
+     */
+    private class FrameDecoder
+    {
+        protected final int[][]	samples;
+        protected int			blockSize;
+        protected long			sampleNum;
+        protected int			frameLen;
+
+        private final int[]		coefs	= new int[ 32 ];
+        private int				chanAssign;
+        private byte[]			b;
+        private int				pos, limit;
+        private long			cache;
+        private int				bits;
+
+        protected FrameDecoder( boolean allocate )
+        {
+            samples = allocate ? new int[ channels ][ maxBlockSize ] : null;
+        }
+
+        /*
+         *	Parses and validates the header of the frame at b[ off ].
+         *	Returns the header length, or -1 if this is not a valid frame header
+         *	(bad sync code, reserved values, bad checksum, or parameters
+         *	deviating from the stream info).
+         *
+         *	@throws	BufferUnderflowException	if the header exceeds lim
+         */
+        protected int parseHeader( byte[] src, int off, int lim )
+        {
+            final boolean	variable;
+            final long		num;
+            int				x, n, bsCode, srCode, ssCode;
+            long			v;
+
+            b		= src;
+            pos		= off;
+            limit	= lim;
+
+            if( nextByte() != 0xFF ) return -1;
+            x = nextByte();
+            if( (x & 0xFE) != 0xF8 ) return -1;
+            variable	= (x & 1) != 0;
+            x			= nextByte();
+            bsCode		= x >> 4;
+            srCode		= x & 0x0F;
+            x			= nextByte();
+            chanAssign	= x >> 4;
+            ssCode		= (x >> 1) & 7;
+            if( (bsCode == 0) || (srCode == 15) || (chanAssign > 10) || (ssCode == 3) || (ssCode == 7) ||
+                ((x & 1) != 0) ) return -1;
+
+            // utf-8 style coded frame or sample number
+            x = nextByte();
+            if( x < 0x80 ) {
+                v = x;			n = 0;
+            } else if( x < 0xC0 ) {
+                return -1;
+            } else if( x < 0xE0 ) {
+                v = x & 0x1F;	n = 1;
+            } else if( x < 0xF0 ) {
+                v = x & 0x0F;	n = 2;
+            } else if( x < 0xF8 ) {
+                v = x & 0x07;	n = 3;
+            } else if( x < 0xFC ) {
+                v = x & 0x03;	n = 4;
+            } else if( x < 0xFE ) {
+                v = x & 0x01;	n = 5;
+            } else if( x == 0xFE ) {
+                v = 0;			n = 6;
+            } else {
+                return -1;
+            }
+            for( int i = 0; i < n; i++ ) {
+                x = nextByte();
+                if( (x & 0xC0) != 0x80 ) return -1;
+                v = (v << 6) | (x & 0x3F);
+            }
+            num = v;
+
+            if( bsCode == 1 ) {
+                blockSize = 192;
+            } else if( bsCode <= 5 ) {
+                blockSize = 576 << (bsCode - 2);
+            } else if( bsCode == 6 ) {
+                blockSize = nextByte() + 1;
+            } else if( bsCode == 7 ) {
+                x			= nextByte() << 8;
+                blockSize	= (x | nextByte()) + 1;
+            } else {
+                blockSize = 256 << (bsCode - 8);
+            }
+            if( srCode == 12 ) {
+                nextByte();
+            } else if( srCode >= 13 ) {
+                nextByte();
+                nextByte();
+            }
+            x = pos - off;
+            if( nextByte() != crc8( src, off, x )) return -1;
+
+            if( (blockSize > maxBlockSize) ||
+                (((chanAssign < 8) ? chanAssign + 1 : 2) != channels) ||
+                ((ssCode != 0) && (SAMPLE_BITS[ ssCode ] != bitsPerSample)) ) return -1;
+
+            sampleNum = variable ? num : num * (fixedBlockSize > 0 ? fixedBlockSize : blockSize);
+            return pos - off;
+        }
+
+        /*
+         *	Decodes the frame at b[ off ], which must end before lim.
+         *	Returns the frame length in bytes.
+         *
+         *	@throws	BufferUnderflowException	if the frame exceeds lim
+         */
+        protected int decode( byte[] src, int off, int lim )
+        throws IOException
+        {
+            final int	side;
+            int[]		a, c;
+            int			x, y;
+
+            if( parseHeader( src, off, lim ) < 0 ) throw corrupt();
+            cache	= 0L;
+            bits	= 0;
+
+            side	= chanAssign == 9 ? 0 : (chanAssign >= 8 ? 1 : -1);
+            for( int ch = 0; ch < channels; ch++ ) {
+                readSubframe( samples[ ch ], ch == side ? bitsPerSample + 1 : bitsPerSample );
+            }
+
+            if( chanAssign >= 8 ) {
+                a = samples[ 0 ];
+                c = samples[ 1 ];
+                switch( chanAssign ) {
+                case 8:		// left / side
+                    for( int i = 0; i < blockSize; i++ ) c[ i ] = a[ i ] - c[ i ];
+                    break;
+                case 9:		// side / right
+                    for( int i = 0; i < blockSize; i++ ) a[ i ] += c[ i ];
+                    break;
+                default:	// mid / side
+                    for( int i = 0; i < blockSize; i++ ) {
+                        y		= c[ i ];
+                        x		= (a[ i ] << 1) | (y & 1);
+                        a[ i ]	= (x + y) >> 1;
+                        c[ i ]	= (x - y) >> 1;
+                    }
+                    break;
+                }
+            }
+
+            bits	= 0;		// byte alignment
+            x		= pos - off;
+            y		= nextByte() << 8;
+            y	   |= nextByte();
+            if( y != crc16( src, off, x )) throw corrupt();
+
+            frameLen = pos - off;
+            return frameLen;
+        }
+
+        private void readSubframe( int[] d, int sb )
+        throws IOException
+        {
+            final int	n	= blockSize;
+            final int	type;
+            int			wasted	= 0;
+            int			order, prec, shift, v;
+
+            if( readUInt( 1 ) != 0 ) throw corrupt();
+            type = readUInt( 6 );
+            if( readUInt( 1 ) != 0 ) {
+                wasted = 1;
+                while( readUInt( 1 ) == 0 ) wasted++;
+                sb -= wasted;
+                if( sb < 1 ) throw corrupt();
+            }
+
+            if( type == 0 ) {				// constant
+                v = readSInt( sb );
+                for( int i = 0; i < n; i++ ) d[ i ] = v;
+            } else if( type == 1 ) {		// verbatim
+                for( int i = 0; i < n; i++ ) d[ i ] = readSInt( sb );
+            } else if( (type >= 8) && (type <= 12) ) {
+                order = type - 8;
+                if( order > n ) throw corrupt();
+                for( int i = 0; i < order; i++ ) d[ i ] = readSInt( sb );
+                readResidual( d, order );
+                restoreFixed( d, order );
+            } else if( type >= 32 ) {
+                order = type - 31;
+                if( order > n ) throw corrupt();
+                for( int i = 0; i < order; i++ ) d[ i ] = readSInt( sb );
+                prec	= readUInt( 4 ) + 1;
+                if( prec == 16 ) throw corrupt();
+                shift	= readSInt( 5 );
+                if( shift < 0 ) throw corrupt();
+                for( int i = 0; i < order; i++ ) coefs[ i ] = readSInt( prec );
+                readResidual( d, order );
+                if( sb + prec + (32 - Integer.numberOfLeadingZeros( order )) > 32 ) {
+                    restoreLPCWide( d, order, shift );
+                } else {
+                    restoreLPC( d, order, shift );
+                }
+            } else {
+                throw corrupt();
+            }
+
+            if( wasted > 0 ) {
+                for( int i = 0; i < n; i++ ) d[ i ] <<= wasted;
+            }
+        }
+
+        private void readResidual( int[] d, int order )
+        throws IOException
+        {
+            final int	method	= readUInt( 2 );
+            final int	paramBits, escape, partOrder, partSize;
+            int			k, m, numBits;
+
+            if( method > 1 ) throw corrupt();
+            paramBits	= method == 0 ? 4 : 5;
+            escape		= method == 0 ? 15 : 31;
+            partOrder	= readUInt( 4 );
+            partSize	= blockSize >> partOrder;
+            if( ((partSize << partOrder) != blockSize) || (partSize < order) ) throw corrupt();
+
+            for( int p = 0, i = order; p < (1 << partOrder); p++ ) {
+                m	= p == 0 ? partSize - order : partSize;
+                k	= readUInt( paramBits );
+                if( k == escape ) {
+                    numBits = readUInt( 5 );
+                    for( int j = 0; j < m; j++ ) d[ i++ ] = readSInt( numBits );
+                } else {
+                    for( int j = 0; j < m; j++ ) d[ i++ ] = readRice( k );
+                }
+            }
+        }
+
+        private void restoreFixed( int[] d, int order )
+        {
+            final int n = blockSize;
+
+            switch( order ) {
+            case 1:
+                for( int i = 1; i < n; i++ ) d[ i ] += d[ i - 1 ];
+                break;
+            case 2:
+                for( int i = 2; i < n; i++ ) d[ i ] += (d[ i - 1 ] << 1) - d[ i - 2 ];
+                break;
+            case 3:
+                for( int i = 3; i < n; i++ ) d[ i ] += 3 * (d[ i - 1 ] - d[ i - 2 ]) + d[ i - 3 ];
+                break;
+            case 4:
+                for( int i = 4; i < n; i++ ) d[ i ] += ((d[ i - 1 ] + d[ i - 3 ]) << 2) - 6 * d[ i - 2 ] - d[ i - 4 ];
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void restoreLPC( int[] d, int order, int shift )
+        {
+            int sum;
+
+            for( int i = order; i < blockSize; i++ ) {
+                sum = 0;
+                for( int j = 0; j < order; j++ ) sum += coefs[ j ] * d[ i - j - 1 ];
+                d[ i ] += sum >> shift;
+            }
+        }
+
+        // for predictions which may overflow 32 bits
+        private void restoreLPCWide( int[] d, int order, int shift )
+        {
+            long sum;
+
+            for( int i = order; i < blockSize; i++ ) {
+                sum = 0L;
+                for( int j = 0; j < order; j++ ) sum += (long) coefs[ j ] * d[ i - j - 1 ];
+                d[ i ] += (int) (sum >> shift);
+            }
+        }
+
+        private int nextByte()
+        {
+            if( pos >= limit ) throw new BufferUnderflowException();
+            return b[ pos++ ] & 0xFF;
+        }
+
+        private int readUInt( int n )
+        {
+            while( bits < n ) {
+                cache	= (cache << 8) | nextByte();
+                bits   += 8;
+            }
+            bits -= n;
+            return (int) ((cache >>> bits) & ((1L << n) - 1));
+        }
+
+        private int readSInt( int n )
+        {
+            if( n == 0 ) return 0;
+            return (readUInt( n ) << (32 - n)) >> (32 - n);
+        }
+
+        private int readRice( int k )
+        {
+            int		q	= 0;
+            long	m;
+            int		lz;
+
+            for( ;; ) {
+                m = cache & ((1L << bits) - 1);
+                if( m == 0L ) {
+                    q	   += bits;
+                    cache	= nextByte();
+                    bits	= 8;
+                } else {
+                    lz		= bits - (64 - Long.numberOfLeadingZeros( m ));
+                    q	   += lz;
+                    bits   -= lz + 1;
+                    break;
+                }
+            }
+            final int u = (q << k) | readUInt( k );
+            return (u >>> 1) ^ -(u & 1);
+        }
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ *  FLACEncoder.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *	Encodes integer samples into FLAC frames, writing them
+ *	with positional writes behind the metadata blocks which
+ *	are maintained by <code>AudioFile</code>.
+ *	<p>
+ *	The encoder uses a fixed block size and chooses for each
+ *	subframe the cheapest of a constant, a verbatim, and a fixed
+ *	polynomial predictor of order zero to four, along with wasted
+ *	bits detection and a Rice partition search. Stereo files are
+ *	additionally tried with left-side, side-right and mid-side
+ *	decorrelation. No LPC analysis is done, so files are somewhat
+ *	larger than those produced by the reference encoder at its
+ *	default settings, but encoding is very cheap.
+ *	<p>
+ *	About once per second, a seek point is recorded. A subset of
+ *	these is written into the SEEKTABLE block when the header is
+ *	updated.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		FLACDecoder
+ */
+class FLACEncoder
+{
+    protected static final int	BLOCK_SIZE		= 4096;
+    protected static final int	SEEK_POINTS		= 100;
+
+    private static final int	MAX_FIXED_ORDER	= 4;
+    private static final int	MAX_PART_ORDER	= 8;
+
+    private static final int	SUB_CONSTANT	= 0;
+    private static final int	SUB_VERBATIM	= 1;
+    private static final int	SUB_FIXED		= 8;
+
+    private final FileChannel	fch;
+    private final long			firstFrame;
+    private final int			channels;
+    private final int			bitsPerSample;
+    private final int			sampleBytes;
+    private final int			rate;
+    private final int			rateCode;
+    private final int			sizeCode;
+
+    private final int[][]		block;
+    private int					blockFill		= 0;
+    private final Subframe[]	subs;
+    private final int[]			mid, side;
+
+    private byte[]				out;
+    private int					outLen;
+    private long				cache;
+    private int					bits;
+
+    private final MessageDigest	md5;
+    private final byte[]		md5Buf;
+    private byte[]				md5Sum			= null;
+
+    private long				filePos;
+    private long				frameNum		= 0L;
+    private long				sampleNum		= 0L;
+    private int					minFrameSize	= 0;
+    private int					maxFrameSize	= 0;
+
+    private long[]				pointSamples	= new long[ 64 ];
+    private long[]				pointOffsets	= new long[ 64 ];
+    private int[]				pointSizes		= new int[ 64 ];
+    private int					numPoints		= 0;
+    private long				nextPoint		= 0L;
+
+    /**
+     *	Creates an encoder.
+     *
+     *	@param	fch				the channel to write to
+     *	@param	firstFrame		file offset of the first audio frame,
+     *							i.e. the end of the metadata blocks
+     *	@param	channels		number of channels (1 to 8)
+     *	@param	bitsPerSample	resolution, 8, 16 or 24
+     *	@param	rate			sample rate in hertz
+     */
+    protected FLACEncoder( FileChannel fch, long firstFrame, int channels, int bitsPerSample, int rate )
+    {
+        MessageDigest md;
+
+        this.fch			= fch;
+        this.firstFrame		= firstFrame;
+        this.channels		= channels;
+        this.bitsPerSample	= bitsPerSample;
+        this.rate			= rate;
+        sampleBytes			= bitsPerSample >> 3;
+        filePos				= firstFrame;
+
+        switch( rate ) {
+        case 88200:		rateCode = 1;	break;
+        case 176400:	rateCode = 2;	break;
+        case 192000:	rateCode = 3;	break;
+        case 8000:		rateCode = 4;	break;
+        case 16000:		rateCode = 5;	break;
+        case 22050:		rateCode = 6;	break;
+        case 24000:		rateCode = 7;	break;
+        case 32000:		rateCode = 8;	break;
+        case 44100:		rateCode = 9;	break;
+        case 48000:		rateCode = 10;	break;
+        case 96000:		rateCode = 11;	break;
+        default:		rateCode = 0;	break;	// taken from the stream info
+        }
+        sizeCode = bitsPerSample == 8 ? 1 : (bitsPerSample == 16 ? 4 : 6);
+
+        block	= new int[ channels ][ BLOCK_SIZE ];
+        subs	= new Subframe[ channels == 2 ? 4 : channels ];
+        for( int i = 0; i < subs.length; i++ ) subs[ i ] = new Subframe();
+        mid		= channels == 2 ? new int[ BLOCK_SIZE ] : null;
+        side	= channels == 2 ? new int[ BLOCK_SIZE ] : null;
+        out		= new byte[ BLOCK_SIZE * channels * (sampleBytes + 1) + 64 ];
+
+        try {
+            md	= MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException e1 ) {
+            md	= null;		// the checksum is left blank
+        }
+        md5		= md;
+        md5Buf	= new byte[ BLOCK_SIZE * channels * sampleBytes ];
+    }
+
+    /**
+     *	Encodes frames from an interleaved integer buffer, beginning
+     *	at index zero. Complete blocks are written immediately,
+     *	the remainder is kept until more frames arrive or
+     *	<code>finish</code> is called.
+     */
+    protected void write( int[] src, int length )
+    throws IOException
+    {
+        int n, off = 0;
+
+        while( length > 0 ) {
+            n = Math.min( length, BLOCK_SIZE - blockFill );
+            for( int ch = 0; ch < channels; ch++ ) {
+                final int[] b = block[ ch ];
+                for( int i = blockFill, j = off * channels + ch, stop = blockFill + n; i < stop; i++, j += channels ) {
+                    b[ i ] = src[ j ];
+                }
+            }
+            blockFill  += n;
+            off		   += n;
+            length	   -= n;
+            if( blockFill == BLOCK_SIZE ) {
+                encodeBlock( BLOCK_SIZE );
+                blockFill = 0;
+            }
+        }
+    }
+
+    /**
+     *	Writes the final (partial) block and
+     *	completes the MD5 checksum. No more frames may
+     *	be written afterwards.
+     */
+    protected void finish()
+    throws IOException
+    {
+        if( md5Sum != null ) return;
+
+        if( blockFill > 0 ) {
+            encodeBlock( blockFill );
+            blockFill = 0;
+        }
+        md5Sum = md5 == null ? new byte[ 16 ] : md5.digest();
+    }
+
+    /**
+     *	Returns the number of sample frames written so far.
+     */
+    protected long getTotalSamples()
+    {
+        return sampleNum;
+    }
+
+    protected int getMinFrameSize()
+    {
+        return minFrameSize;
+    }
+
+    protected int getMaxFrameSize()
+    {
+        return maxFrameSize;
+    }
+
+    /**
+     *	Returns the MD5 checksum of the samples, or sixteen zero
+     *	bytes (meaning unknown) if the encoder has not finished yet.
+     */
+    protected byte[] getMD5()
+    {
+        return md5Sum == null ? new byte[ 16 ] : md5Sum;
+    }
+
+    /**
+     *	Selects up to <code>SEEK_POINTS</code> seek points,
+     *	distributed evenly over the frames written so far.
+     *
+     *	@return	the number of points copied into the arrays
+     */
+    protected int getSeekPoints( long[] samples, long[] offsets, int[] sizes )
+    {
+        final int num = Math.min( numPoints, SEEK_POINTS );
+        int j;
+
+        for( int i = 0; i < num; i++ ) {
+            j				= (int) ((long) i * numPoints / num);
+            samples[ i ]	= pointSamples[ j ];
+            offsets[ i ]	= pointOffsets[ j ];
+            sizes[ i ]		= pointSizes[ j ];
+        }
+        return num;
+    }
+
+    private void encodeBlock( int n )
+    throws IOException
+    {
+        final int	chanAssign;
+        final int	hdrStart;
+        Subframe	s0, s1;
+        int			frameSize, v;
+        int[]		a, b;
+        ByteBuffer	bb;
+
+        // checksum over the little endian samples
+        if( md5 != null ) {
+            for( int i = 0, k = 0; i < n; i++ ) {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    v = block[ ch ][ i ];
+                    for( int m = 0; m < sampleBytes; m++ ) {
+                        md5Buf[ k++ ]	= (byte) v;
+                        v			  >>= 8;
+                    }
+                }
+            }
+            md5.update( md5Buf, 0, n * channels * sampleBytes );
+        }
+
+        // choose the subframes
+        if( channels == 2 ) {
+            a	= block[ 0 ];
+            b	= block[ 1 ];
+            for( int i = 0; i < n; i++ ) {
+                side[ i ]	= a[ i ] - b[ i ];
+                mid[ i ]	= (a[ i ] + b[ i ]) >> 1;
+            }
+            subs[ 0 ].analyze( a, n, bitsPerSample );
+            subs[ 1 ].analyze( b, n, bitsPerSample );
+            subs[ 2 ].analyze( mid, n, bitsPerSample );
+            subs[ 3 ].analyze( side, n, bitsPerSample + 1 );
+            final long indep	= subs[ 0 ].size + subs[ 1 ].size;
+            final long ls		= subs[ 0 ].size + subs[ 3 ].size;
+            final long sr		= subs[ 3 ].size + subs[ 1 ].size;
+            final long ms		= subs[ 2 ].size + subs[ 3 ].size;
+            if( (indep <= ls) && (indep <= sr) && (indep <= ms) ) {
+                chanAssign = 1;		s0 = subs[ 0 ];	s1 = subs[ 1 ];
+            } else if( (ls <= sr) && (ls <= ms) ) {
+                chanAssign = 8;		s0 = subs[ 0 ];	s1 = subs[ 3 ];
+            } else if( sr <= ms ) {
+                chanAssign = 9;		s0 = subs[ 3 ];	s1 = subs[ 1 ];
+            } else {
+                chanAssign = 10;	s0 = subs[ 2 ];	s1 = subs[ 3 ];
+            }
+        } else {
+            for( int ch = 0; ch < channels; ch++ ) subs[ ch ].analyze( block[ ch ], n, bitsPerSample );
+            chanAssign	= channels - 1;
+            s0			= null;
+            s1			= null;
+        }
+
+        // frame header
+        outLen		= 0;
+        cache		= 0L;
+        bits		= 0;
+        hdrStart	= outLen;
+        writeBits( 0xFFF8, 16 );				// sync, fixed block size
+        writeBits( n == BLOCK_SIZE ? 12 : (n <= 256 ? 6 : 7), 4 );
+        writeBits( rateCode, 4 );
+        writeBits( chanAssign, 4 );
+        writeBits( sizeCode, 3 );
+        writeBits( 0, 1 );
+        writeUTF8( frameNum );
+        if( n != BLOCK_SIZE ) writeBits( n - 1, n <= 256 ? 8 : 16 );
+        writeBits( FLACDecoder.crc8( out, hdrStart, outLen - hdrStart ), 8 );
+
+        if( channels == 2 ) {
+            s0.write( n );
+            s1.write( n );
+        } else {
+            for( int ch = 0; ch < channels; ch++ ) subs[ ch ].write( n );
+        }
+
+        if( bits > 0 ) writeBits( 0, 8 - bits );	// byte alignment
+        writeBits( FLACDecoder.crc16( out, hdrStart, outLen - hdrStart ), 16 );
+
+        // seek points
+        if( sampleNum >= nextPoint ) {
+            if( numPoints == pointSamples.length ) {
+                pointSamples	= grow( pointSamples );
+                pointOffsets	= grow( pointOffsets );
+                final int[] c	= new int[ numPoints << 1 ];
+                System.arraycopy( pointSizes, 0, c, 0, numPoints );
+                pointSizes		= c;
+            }
+            pointSamples[ numPoints ]	= sampleNum;
+            pointOffsets[ numPoints ]	= filePos - firstFrame;
+            pointSizes[ numPoints ]		= n;
+            numPoints++;
+            nextPoint				   += rate;
+        }
+
+        bb = ByteBuffer.wrap( out, 0, outLen );
+        while( bb.hasRemaining() ) {
+            filePos += fch.write( bb, filePos );
+        }
+
+        frameSize		= outLen;
+        minFrameSize	= frameNum == 0 ? frameSize : Math.min( minFrameSize, frameSize );
+        maxFrameSize	= Math.max( maxFrameSize, frameSize );
+        sampleNum	   += n;
+        frameNum++;
+    }
+
+    private static long[] grow( long[] a )
+    {
+        final long[] b = new long[ a.length << 1 ];
+        System.arraycopy( a, 0, b, 0, a.length );
+        return b;
+    }
+
+    private void writeBits( int v, int n )
+    {
+        cache	= (cache << n) | (v & ((1L << n) - 1));
+        bits   += n;
+        while( bits >= 8 ) {
+            bits -= 8;
+            if( outLen == out.length ) {
+                final byte[] b = new byte[ out.length << 1 ];
+                System.arraycopy( out, 0, b, 0, outLen );
+                out = b;
+            }
+            out[ outLen++ ] = (byte) (cache >>> bits);
+        }
+    }
+
+    // q zero bits followed by a one
+    private void writeUnary( int q )
+    {
+        while( q >= 32 ) {
+            writeBits( 0, 32 );
+            q -= 32;
+        }
+        writeBits( 1, q + 1 );
+    }
+
+    // utf-8 style coded frame number
+    private void writeUTF8( long v )
+    {
+        int n;
+
+        if( v < 0x80 ) {
+            writeBits( (int) v, 8 );
+            return;
+        }
+        n = v < 0x800 ? 1 : (v < 0x10000 ? 2 : (v < 0x200000 ? 3 : (v < 0x4000000 ? 4 : (v < 0x80000000L ? 5 : 6))));
+        writeBits( (0xFF00 >> (n + 1)) | (int) (v >>> (6 * n)), 8 );
+        for( int i = n - 1; i >= 0; i-- ) {
+            writeBits( 0x80 | ((int) (v >>> (6 * i)) & 0x3F), 8 );
+        }
+    }
+
+// -------- internal classes --------
+
+    /*
+     *	Analyses one channel of a block and
+     *	writes the cheapest subframe found.
+     */
+    private class Subframe
+    {
+        private final int[]		data	= new int[ BLOCK_SIZE ];
+        private final int[]		res		= new int[ BLOCK_SIZE ];	// zigzag coded residual
+        private final long[]	sums	= new long[ 1 << MAX_PART_ORDER ];
+        private final int[]		params	= new int[ 1 << MAX_PART_ORDER ];
+        private final long[]	err		= new long[ MAX_FIXED_ORDER + 1 ];
+
+        protected long			size;		// estimated size in bits
+        private int				type, order, partOrder, method, wasted, sampleBits;
+
+        protected Subframe() { /* empty */ }
+
+        protected void analyze( int[] src, int n, int sb )
+        {
+            int		or	= 0;
+            int		hdr, v, e0, e1, e2, e3, e4;
+            long	fixedBits;
+
+            for( int i = 0; i < n; i++ ) or |= src[ i ];
+            wasted		= or == 0 ? 0 : Integer.numberOfTrailingZeros( or );
+            sampleBits	= sb - wasted;
+            if( wasted > 0 ) {
+                for( int i = 0; i < n; i++ ) data[ i ] = src[ i ] >> wasted;
+            } else {
+                System.arraycopy( src, 0, data, 0, n );
+            }
+            hdr		= 8 + wasted;
+
+            v		= data[ 0 ];
+            type	= SUB_CONSTANT;
+            for( int i = 1; i < n; i++ ) {
+                if( data[ i ] != v ) {
+                    type = SUB_VERBATIM;
+                    break;
+                }
+            }
+            if( type == SUB_CONSTANT ) {
+                size = hdr + sampleBits;
+                return;
+            }
+            size = hdr + (long) n * sampleBits;
+            if( n <= MAX_FIXED_ORDER ) return;
+
+            // fixed predictor with the smallest sum of absolute residuals
+            for( int k = 0; k <= MAX_FIXED_ORDER; k++ ) err[ k ] = 0L;
+            for( int i = MAX_FIXED_ORDER; i < n; i++ ) {
+                e0			= data[ i ];
+                e1			= e0 - data[ i - 1 ];
+                e2			= e1 - data[ i - 1 ] + data[ i - 2 ];
+                e3			= e2 - data[ i - 1 ] + (data[ i - 2 ] << 1) - data[ i - 3 ];
+                e4			= e3 - data[ i - 1 ] + 3 * (data[ i - 2 ] - data[ i - 3 ]) + data[ i - 4 ];
+                err[ 0 ]   += Math.abs( e0 );
+                err[ 1 ]   += Math.abs( e1 );
+                err[ 2 ]   += Math.abs( e2 );
+                err[ 3 ]   += Math.abs( e3 );
+                err[ 4 ]   += Math.abs( e4 );
+            }
+            order = 0;
+            for( int k = 1; k <= MAX_FIXED_ORDER; k++ ) {
+                if( err[ k ] < err[ order ]) order = k;
+            }
+
+            for( int i = order, j = 0; i < n; i++, j++ ) {
+                switch( order ) {
+                case 0:		v = data[ i ]; break;
+                case 1:		v = data[ i ] - data[ i - 1 ]; break;
+                case 2:		v = data[ i ] - (data[ i - 1 ] << 1) + data[ i - 2 ]; break;
+                case 3:		v = data[ i ] - 3 * (data[ i - 1 ] - data[ i - 2 ]) - data[ i - 3 ]; break;
+                default:	v = data[ i ] - ((data[ i - 1 ] + data[ i - 3 ]) << 2) + 6 * data[ i - 2 ] + data[ i - 4 ]; break;
+                }
+                res[ j ] = (v << 1) ^ (v >> 31);
+            }
+
+            fixedBits = hdr + (long) order * sampleBits + 6 + searchPartitions( n );
+            if( fixedBits < size ) {
+                type	= SUB_FIXED;
+                size	= fixedBits;
+            }
+        }
+
+        // finds the partition order with the smallest rice coded size
+        // and returns that size in bits
+        private long searchPartitions( int n )
+        {
+            int		maxOrder	= 0;
+            int		psize, cnt, k, maxK;
+            long	cost, best	= Long.MAX_VALUE;
+
+            while( (maxOrder < MAX_PART_ORDER) && (((n >> (maxOrder + 1)) << (maxOrder + 1)) == n) &&
+                   ((n >> (maxOrder + 1)) > order) ) maxOrder++;
+
+            psize = n >> maxOrder;
+            for( int p = 0, j = 0; p < (1 << maxOrder); p++ ) {
+                long sum = 0L;
+                for( int stop = (p + 1) * psize - order; j < stop; j++ ) sum += res[ j ];
+                sums[ p ] = sum;
+            }
+
+            partOrder = 0;
+            for( int po = maxOrder; po >= 0; po-- ) {
+                psize	= n >> po;
+                cost	= 0L;
+                maxK	= 0;
+                for( int p = 0; p < (1 << po); p++ ) {
+                    cnt		= p == 0 ? psize - order : psize;
+                    k		= riceParam( sums[ p ], cnt );
+                    cost   += (long) cnt * (k + 1) + (sums[ p ] >> k);
+                    maxK	= Math.max( maxK, k );
+                }
+                cost += (1 << po) * (maxK > 14 ? 5 : 4);
+                if( cost < best ) {
+                    best		= cost;
+                    partOrder	= po;
+                }
+                for( int p = 0; p < (1 << po) >> 1; p++ ) sums[ p ] = sums[ p << 1 ] + sums[ (p << 1) + 1 ];
+            }
+
+            // parameters of the chosen order
+            psize	= n >> partOrder;
+            method	= 0;
+            for( int p = 0, j = 0; p < (1 << partOrder); p++ ) {
+                long sum = 0L;
+                cnt = p == 0 ? psize - order : psize;
+                for( int stop = j + cnt; j < stop; j++ ) sum += res[ j ];
+                k			= riceParam( sum, cnt );
+                params[ p ]	= k;
+                if( k > 14 ) method = 1;
+            }
+            return best;
+        }
+
+        private int riceParam( long sum, int cnt )
+        {
+            int		k;
+            long	c, c2;
+
+            if( (cnt == 0) || (sum < cnt) ) return 0;
+            k	= Math.min( 30, 63 - Long.numberOfLeadingZeros( sum / cnt ));
+            c	= (long) cnt * (k + 1) + (sum >> k);
+            // the estimate tends to be one too large
+            if( k > 0 ) {
+                c2 = (long) cnt * k + (sum >> (k - 1));
+                if( c2 < c ) k--;
+            }
+            return k;
+        }
+
+        protected void write( int n )
+        {
+            final int	paramBits;
+            int			psize, k, u, q, cnt;
+
+            writeBits( 0, 1 );
+            writeBits( type == SUB_FIXED ? SUB_FIXED + order : type, 6 );
+            if( wasted > 0 ) {
+                writeBits( 1, 1 );
+                writeUnary( wasted - 1 );
+            } else {
+                writeBits( 0, 1 );
+            }
+
+            switch( type ) {
+            case SUB_CONSTANT:
+                writeBits( data[ 0 ], sampleBits );
+                break;
+
+            case SUB_VERBATIM:
+                for( int i = 0; i < n; i++ ) writeBits( data[ i ], sampleBits );
+                break;
+
+            default:
+                for( int i = 0; i < order; i++ ) writeBits( data[ i ], sampleBits );
+                writeBits( method, 2 );
+                writeBits( partOrder, 4 );
+                paramBits	= method == 0 ? 4 : 5;
+                psize		= n >> partOrder;
+                for( int p = 0, j = 0; p < (1 << partOrder); p++ ) {
+                    k	= params[ p ];
+                    cnt	= p == 0 ? psize - order : psize;
+                    writeBits( k, paramBits );
+                    for( int stop = j + cnt; j < stop; j++ ) {
+                        u	= res[ j ];
+                        q	= u >>> k;
+                        if( q + k < 32 ) {
+                            writeBits( (1 << k) | (u & ((1 << k) - 1)), q + k + 1 );
+                        } else {
+                            writeUnary( q );
+                            writeBits( u, k );
+                        }
+                    }
+                }
+                break;
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ package de.sciss.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 
 /**
  *  A <code>RandomAccessFile</code> wrapper class that using 
@@ -54,6 +55,24 @@ public interface InterleavedStreamFile
 
     public void writeFrames( float[][] data, int offset, int length ) throws IOException;
 
+    public void readFrames( double[][] data, int offset, int length ) throws IOException;
+
+    public void writeFrames( double[][] data, int offset, int length ) throws IOException;
+
+    // interleaved variants. offset and length are given in sample frames
+    public void readFrames( float[] data, int offset, int length ) throws IOException;
+
+    public void writeFrames( float[] data, int offset, int length ) throws IOException;
+
+    public void readFrames( double[] data, int offset, int length ) throws IOException;
+
+    public void writeFrames( double[] data, int offset, int length ) throws IOException;
+
+    // interleaved, beginning at and advancing the buffer's position
+    public void readFrames( FloatBuffer data, int length ) throws IOException;
+
+    public void writeFrames( FloatBuffer data, int length ) throws IOException;
+
     public void copyFrames( InterleavedStreamFile target, long length ) throws IOException;
 
     public void seekFrame( long position ) throws IOException;
@@ -28,6 +28,7 @@ package de.sciss.io;
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  *  A struct class: marker in
@@ -37,6 +38,7 @@ import java.util.List;
  *  @version	0.23, 25-Feb-08
  *
  *  @see	de.sciss.io.AudioFileDescr#KEY_MARKERS
+ *  @see	MarkerIndex
  */
 public class Marker
 implements Cloneable, Comparable, Serializable
@@ -167,12 +169,24 @@ implements Cloneable, Comparable, Serializable
      */
     public static int add( List markers, Marker marker )
     {
-        int i;
-        for( i = 0; i < markers.size(); i++ ) {
-            if( ((Marker) markers.get( i )).pos > marker.pos ) break;
+        int lo = 0, hi = markers.size(), mid;
+
+        if( markers instanceof RandomAccess ) {	// binary search for the first greater position
+            while( lo < hi ) {
+                mid = (lo + hi) >>> 1;
+                if( ((Marker) markers.get( mid )).pos > marker.pos ) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+        } else {
+            for( ; lo < hi; lo++ ) {
+                if( ((Marker) markers.get( lo )).pos > marker.pos ) break;
+            }
         }
-        markers.add( i, marker );
-        return i;
+        markers.add( lo, marker );
+        return lo;
     }
 
     /**
@@ -0,0 +1,493 @@
+/*
+ *  MarkerIndex.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *	A chronological marker store for large numbers of markers.
+ *	Instead of a list of <code>Marker</code> objects, positions and
+ *	names are kept in parallel arrays, with equal names sharing one
+ *	string instance. Markers are addressed by their index, i.e. their
+ *	rank in chronological order; markers at the same position keep
+ *	the order in which they were added.
+ *	<p>
+ *	All look-ups use binary search (by position) or a hash table
+ *	(by name) and never allocate objects, so they may be called at
+ *	a high rate, e.g. to snap the playhead to the nearest marker on
+ *	every mouse drag event. To visit the markers within a span,
+ *	iterate over the index range:
+ *	<pre>
+ *	for( int i = idx.lowerBound( span.start ), stop = idx.lowerBound( span.stop ); i &lt; stop; i++ ) {
+ *		... idx.getPosition( i ) ... idx.getName( i ) ...
+ *	}
+ *	</pre>
+ *	Adding or removing a marker moves the array elements behind it.
+ *	The name table is rebuilt by the next name look-up after a
+ *	modification. Names no longer in use are dropped from the shared
+ *	strings once enough markers have been removed. This class is not
+ *	thread-safe.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		Marker
+ */
+public class MarkerIndex
+{
+    private long[]		positions;
+    private String[]	names;
+    private int			size		= 0;
+    private Map<String, String>	namePool	= new HashMap<String, String>();	// shares equal names
+    private int			numRemoved	= 0;	// removals since the name pool was compacted
+
+    // open addressing name table. a slot holds 1 + the lowest
+    // index of a name (zero for empty slots), the other markers
+    // of the same name are chained in ascending order through nextSame
+    private boolean		namesValid	= false;
+    private int[]		nameTable	= new int[ 0 ];
+    private int[]		nextSame	= new int[ 0 ];
+
+    /**
+     *	Creates an empty marker index.
+     */
+    public MarkerIndex()
+    {
+        positions	= new long[ 16 ];
+        names		= new String[ 16 ];
+    }
+
+    /**
+     *	Creates a marker index holding the given markers.
+     *
+     *	@param	markers	a list whose elements are instanceof <code>Marker</code>.
+     *					the list need not be sorted
+     */
+    public MarkerIndex( List markers )
+    {
+        this();
+        addAll( markers );
+    }
+
+    /**
+     *	Returns the number of markers.
+     *
+     *	@return	the number of markers in the index
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return( size == 0 );
+    }
+
+    /**
+     *	Returns the position of a marker.
+     *
+     *	@param	index	the marker's index
+     *	@return	the marker's position in sample frames
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public long getPosition( int index )
+    {
+        checkIndex( index );
+        return positions[ index ];
+    }
+
+    /**
+     *	Returns the name of a marker.
+     *
+     *	@param	index	the marker's index
+     *	@return	the marker's name
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public String getName( int index )
+    {
+        checkIndex( index );
+        return names[ index ];
+    }
+
+    /**
+     *	Returns a marker as a new <code>Marker</code> object.
+     *
+     *	@param	index	the marker's index
+     *	@return	the marker at that index
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public Marker get( int index )
+    {
+        checkIndex( index );
+        return new Marker( positions[ index ], names[ index ]);
+    }
+
+    /**
+     *	Returns all markers.
+     *
+     *	@return	a new chronological list of <code>Marker</code> objects,
+     *			e.g. to be stored as <code>AudioFileDescr.KEY_MARKERS</code>
+     */
+    public List getAll()
+    {
+        final List<Marker> markers = new ArrayList<Marker>( size );
+
+        for( int i = 0; i < size; i++ ) {
+            markers.add( new Marker( positions[ i ], names[ i ]));
+        }
+        return markers;
+    }
+
+    /**
+     *	Adds a marker. If markers exist at the same position,
+     *	the new marker is placed after them.
+     *
+     *	@param	pos		the marker's position in sample frames
+     *	@param	name	the marker's name
+     *	@return	the index at which the marker was inserted
+     */
+    public int add( long pos, String name )
+    {
+        final int idx = upperBound( pos );
+
+        ensureCapacity( size + 1 );
+        System.arraycopy( positions, idx, positions, idx + 1, size - idx );
+        System.arraycopy( names, idx, names, idx + 1, size - idx );
+        positions[ idx ]	= pos;
+        names[ idx ]		= intern( name );
+        size++;
+        namesValid			= false;
+        return idx;
+    }
+
+    /**
+     *	Adds a marker.
+     *
+     *	@param	marker	the marker to add
+     *	@return	the index at which the marker was inserted
+     *
+     *	@see	#add( long, String )
+     */
+    public int add( Marker marker )
+    {
+        return add( marker.pos, marker.name );
+    }
+
+    /**
+     *	Adds several markers at once. This is
+     *	considerably faster than adding them one by one.
+     *
+     *	@param	markers	a list whose elements are instanceof <code>Marker</code>.
+     *					the list need not be sorted
+     */
+    public void addAll( List markers )
+    {
+        final Marker[]	a	= new Marker[ size + markers.size() ];
+        Marker			m;
+
+        for( int i = 0; i < size; i++ ) {
+            a[ i ] = new Marker( positions[ i ], names[ i ]);
+        }
+        for( int i = 0, j = size; j < a.length; i++, j++ ) {
+            a[ j ] = (Marker) markers.get( i );
+        }
+        Arrays.sort( a );	// stable, so equal positions keep their order
+        ensureCapacity( a.length );
+        for( int i = 0; i < a.length; i++ ) {
+            m				= a[ i ];
+            positions[ i ]	= m.pos;
+            names[ i ]		= intern( m.name );
+        }
+        size		= a.length;
+        namesValid	= false;
+    }
+
+    /**
+     *	Removes a marker.
+     *
+     *	@param	index	the index of the marker to remove
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public void remove( int index )
+    {
+        checkIndex( index );
+        size--;
+        System.arraycopy( positions, index + 1, positions, index, size - index );
+        System.arraycopy( names, index + 1, names, index, size - index );
+        names[ size ]	= null;
+        namesValid		= false;
+        numRemoved++;
+        // the pool may hold names no longer in use. rebuilding it costs
+        // O(size), so it is only done after as many removals
+        if( (numRemoved > namePool.size() >> 1) && (numRemoved > size >> 1) ) compactNamePool();
+    }
+
+    /**
+     *	Removes all markers.
+     */
+    public void clear()
+    {
+        Arrays.fill( names, 0, size, null );
+        namePool	= new HashMap<String, String>();
+        numRemoved	= 0;
+        size		= 0;
+        namesValid	= false;
+    }
+
+    /**
+     *	Finds a marker at a given position.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the first marker at exactly that position,
+     *			or <code>-1</code> if there is none
+     */
+    public int indexOf( long pos )
+    {
+        final int idx = lowerBound( pos );
+        return( ((idx < size) && (positions[ idx ] == pos)) ? idx : -1 );
+    }
+
+    /**
+     *	Finds the last marker at or before a given position.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the last marker whose position is
+     *			less than or equal to <code>pos</code>, or <code>-1</code>
+     *			if there is none
+     */
+    public int floor( long pos )
+    {
+        return( upperBound( pos ) - 1 );
+    }
+
+    /**
+     *	Finds the first marker at or after a given position.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the first marker whose position is
+     *			greater than or equal to <code>pos</code>, or <code>-1</code>
+     *			if there is none
+     */
+    public int ceiling( long pos )
+    {
+        final int idx = lowerBound( pos );
+        return( idx < size ? idx : -1 );
+    }
+
+    /**
+     *	Finds the marker closest to a given position.
+     *	If two markers are equally close, the earlier one is chosen.
+     *	Of several markers at the same position, the first is returned.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the closest marker, or <code>-1</code>
+     *			if the index is empty
+     */
+    public int nearest( long pos )
+    {
+        final int ceil	= lowerBound( pos );
+        final int floor	= ceil - 1;
+
+        if( floor < 0 ) return( ceil < size ? ceil : -1 );
+        if( (ceil < size) && (positions[ ceil ] - pos < pos - positions[ floor ]) ) return ceil;
+        return lowerBound( positions[ floor ]);	// the first of the markers at that position
+    }
+
+    /**
+     *	Returns the index of the first marker at
+     *	or after a given position. Together with
+     *	<code>upperBound</code>, this describes index ranges for iteration.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the first marker whose position is greater
+     *			than or equal to <code>pos</code>, or <code>size()</code>
+     *			if there is none
+     */
+    public int lowerBound( long pos )
+    {
+        int lo = 0, hi = size, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( positions[ mid ] < pos ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     *	Returns the index of the first marker after
+     *	a given position.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the first marker whose position is greater
+     *			than <code>pos</code>, or <code>size()</code> if there is none
+     */
+    public int upperBound( long pos )
+    {
+        int lo = 0, hi = size, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( positions[ mid ] <= pos ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     *	Finds the first marker of a given name.
+     *
+     *	@param	name	the marker name to look for
+     *	@return	the index of the earliest marker of that name,
+     *			or <code>-1</code> if there is none
+     */
+    public int indexOf( String name )
+    {
+        final int slot;
+
+        if( !namesValid ) buildNameTable();
+        slot = findSlot( name );
+        return( nameTable[ slot ] - 1 );
+    }
+
+    /**
+     *	Finds a marker of a given name, beginning at a given
+     *	index. This corresponds to <code>Marker.find</code>.
+     *
+     *	@param	name		the marker name to look for
+     *	@param	startIndex	the index at which to begin
+     *	@return	the index of the first marker of that name at or
+     *			after <code>startIndex</code>, or <code>-1</code> if there is none
+     *
+     *	@see	Marker#find( List, String, int )
+     */
+    public int find( String name, int startIndex )
+    {
+        int idx = indexOf( name );
+
+        while( (idx >= 0) && (idx < startIndex) ) {
+            idx = nextSame[ idx ];
+        }
+        return idx;
+    }
+
+    private void checkIndex( int index )
+    {
+        if( (index < 0) || (index >= size) ) throw new IndexOutOfBoundsException( String.valueOf( index ));
+    }
+
+    private String intern( String name )
+    {
+        final String shared = namePool.get( name );
+
+        if( shared != null ) return shared;
+        namePool.put( name, name );
+        return name;
+    }
+
+    // keeps only the names in use. a new map is created,
+    // since a HashMap never shrinks its table
+    private void compactNamePool()
+    {
+        final Map<String, String> pool = new HashMap<String, String>();
+
+        for( int i = 0; i < size; i++ ) {
+            pool.put( names[ i ], names[ i ]);
+        }
+        namePool	= pool;
+        numRemoved	= 0;
+    }
+
+    private void ensureCapacity( int n )
+    {
+        if( n <= positions.length ) return;
+
+        final int		newCap			= Math.max( n, positions.length << 1 );
+        final long[]	newPositions	= new long[ newCap ];
+        final String[]	newNames		= new String[ newCap ];
+
+        System.arraycopy( positions, 0, newPositions, 0, size );
+        System.arraycopy( names, 0, newNames, 0, size );
+        positions	= newPositions;
+        names		= newNames;
+    }
+
+    private void buildNameTable()
+    {
+        int cap = 16, slot;
+
+        while( cap < (size << 1) ) cap <<= 1;
+        if( nameTable.length != cap ) {
+            nameTable = new int[ cap ];
+        } else {
+            Arrays.fill( nameTable, 0 );
+        }
+        if( nextSame.length < size ) nextSame = new int[ positions.length ];
+
+        // backwards, so each slot ends up with the lowest index
+        for( int i = size - 1; i >= 0; i-- ) {
+            slot			= findSlot( names[ i ]);
+            nextSame[ i ]	= nameTable[ slot ] - 1;
+            nameTable[ slot ] = i + 1;
+        }
+        namesValid = true;
+    }
+
+    // the slot holding the name, or the empty slot where it would go
+    private int findSlot( String name )
+    {
+        final int	mask	= nameTable.length - 1;
+        int			h		= name.hashCode();
+        int			idx;
+
+        h ^= (h >>> 16);
+        for( int slot = h & mask; true; slot = (slot + 1) & mask ) {
+            idx = nameTable[ slot ] - 1;
+            if( (idx < 0) || name.equals( names[ idx ])) return slot;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ *  PeakPyramid.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *	A multi-resolution waveform overview of an audio file.
+ *	For each channel, the minimum, maximum and RMS of the sample
+ *	frames are kept at several decimation levels of 256, 4096 and 65536
+ *	frames per bin. The pyramid is calculated in one streaming pass
+ *	over the audio file, and stored in a cache file, so it can be
+ *	reopened without rescanning the audio file.
+ *	<p>
+ *	The cache file is an AIFF file with 16 bit integer samples,
+ *	holding three channels (minimum, maximum, RMS) for each channel of
+ *	the audio file, and one frame per bin. The levels are stored one
+ *	after the other, beginning with the finest one. The file is tagged
+ *	with an <code>AudioFileCacheInfo</code> in its application chunk,
+ *	so a cache file is not used when the audio file has changed.
+ *	<p>
+ *	<code>readPeaks</code> answers queries for any zoom level by
+ *	choosing the coarsest level whose bins are not larger than a pixel,
+ *	so the number of bins read is proportional to the number of
+ *	pixels. If a pixel covers fewer frames than the finest bin,
+ *	the audio file itself is read, if it was given.
+ *	<p>
+ *	A pyramid can also be a view on a <code>PeakPyramidBuilder</code>
+ *	which is still being fed, in which case all queries are answered
+ *	from memory.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		PeakPyramidBuilder
+ *	@see		CacheManager
+ */
+public class PeakPyramid
+{
+    /**
+     *	The number of decimation levels
+     */
+    public static final int		NUM_LEVELS		= 3;
+
+    /**
+     *	The model identifier used in the <code>AudioFileCacheInfo</code>
+     *	of peak pyramid cache files
+     */
+    public static final int		CACHE_MODEL		= 0x50656B31;	// 'Pek1'
+
+    /**
+     *	The application code of peak pyramid cache files
+     */
+    public static final String	APPCODE			= "Peak";
+
+    static final int			NUM_STATS		= 3;			// min, max, rms
+    private static final int	WINDOW_SIZE		= 8192;			// bins or frames read at once
+
+    private final AudioFile				cache;
+    private final PeakPyramidBuilder	live;
+    private final AudioFile				source;
+    private final int					channels;
+    private final long					numFrames;
+    private final long[]				levelOff;
+
+    private PeakPyramid( AudioFile cache, AudioFile source )
+    throws IOException
+    {
+        this.cache	= cache;
+        this.source	= source;
+        live		= null;
+        channels	= source.getChannelNum();
+        numFrames	= source.getFrameNum();
+        levelOff	= new long[ NUM_LEVELS ];
+        for( int level = 1; level < NUM_LEVELS; level++ ) {
+            levelOff[ level ] = levelOff[ level - 1 ] + getBinCount( numFrames, level - 1 );
+        }
+    }
+
+    /**
+     *	Creates a pyramid which answers queries from a builder.
+     *	The pyramid grows along with the builder, and no
+     *	file is accessed at all.
+     *
+     *	@param	live	a builder which keeps all levels in memory
+     */
+    public PeakPyramid( PeakPyramidBuilder live )
+    {
+        this.live	= live;
+        cache		= null;
+        source		= null;
+        channels	= live.getChannelNum();
+        numFrames	= -1L;
+        levelOff	= null;
+    }
+
+    /**
+     *	Returns the number of frames per bin at a given level.
+     *
+     *	@param	level	the level, from zero (finest) to <code>NUM_LEVELS - 1</code>
+     *	@return	the bin size in sample frames
+     */
+    public static int getBinSize( int level )
+    {
+        return( 256 << (level << 2) );
+    }
+
+    /**
+     *	Opens the pyramid cache file of an audio file.
+     *
+     *	@param	cacheFile	the pyramid cache file
+     *	@param	source		the audio file which the pyramid describes.
+     *						This is also used to answer queries finer than
+     *						the finest level. It is not closed by the pyramid
+     *	@return	the pyramid, or <code>null</code> if the cache file does not
+     *			exist, or does not match the audio file
+     *
+     *	@throws	IOException	if the cache file cannot be read
+     */
+    public static PeakPyramid open( File cacheFile, AudioFile source )
+    throws IOException
+    {
+        final AudioFile				af;
+        final AudioFileDescr		afd;
+        final AudioFileCacheInfo	info;
+        final byte[]				appCode;
+
+        if( !cacheFile.isFile() ) return null;
+
+        af = AudioFile.openAsRead( cacheFile );
+        try {
+            af.readAppCode();
+            afd		= af.getDescr();
+            appCode	= (byte[]) afd.getProperty( AudioFileDescr.KEY_APPCODE );
+            info	= ((appCode != null) && APPCODE.equals( afd.appCode )) ? AudioFileCacheInfo.decode( appCode ) : null;
+            if( (info == null) || !info.equals( new AudioFileCacheInfo( source, CACHE_MODEL, source.getFrameNum() )) ||
+                (af.getChannelNum() != source.getChannelNum() * NUM_STATS) ||
+                (af.getFrameNum() != getCacheLength( source.getFrameNum() ))) {
+
+                af.close();
+                return null;
+            }
+            return new PeakPyramid( af, source );
+        }
+        catch( IOException e1 ) {
+            af.cleanUp();
+            throw e1;
+        }
+    }
+
+    /**
+     *	Calculates the pyramid of an audio file, and writes it to a
+     *	cache file. The audio file is read in one pass, using positional
+     *	reads, so its file pointer is not moved.
+     *
+     *	@param	source		the audio file to analyse.
+     *						It is not closed by the pyramid
+     *	@param	cacheFile	the cache file to create. An existing file is overwritten
+     *	@return	the pyramid, opened from the new cache file
+     *
+     *	@throws	IOException	if reading the audio file or writing the cache file
+     *						fails. In this case, the cache file is deleted
+     */
+    public static PeakPyramid build( AudioFile source, File cacheFile )
+    throws IOException
+    {
+        final long					n		= source.getFrameNum();
+        final AudioFileCacheInfo	info	= new AudioFileCacheInfo( source, CACHE_MODEL, n );
+        final AudioFile				af		= AudioFile.openAsWrite( createCacheDescr( cacheFile,
+                                                source.getChannelNum(), source.getDescr().rate, info ));
+        final PeakPyramidBuilder	builder	= new PeakPyramidBuilder( source.getChannelNum(), af );
+        final float[][]				buf		= new float[ source.getChannelNum() ][ getBinSize( NUM_LEVELS - 1 )];
+        int							chunkLength;
+
+        try {
+            af.setClipping( true );
+            for( long pos = 0; pos < n; pos += chunkLength ) {
+                chunkLength = (int) Math.min( buf[ 0 ].length, n - pos );
+                source.readFrames( pos, buf, 0, chunkLength );
+                builder.add( buf, 0, chunkLength );
+            }
+            builder.finish();
+            af.close();
+        }
+        catch( IOException e1 ) {
+            af.cleanUp();
+            cacheFile.delete();
+            throw e1;
+        }
+
+        return open( cacheFile, source );
+    }
+
+    /**
+     *	Returns the number of channels of the audio file.
+     *
+     *	@return	the number of channels
+     */
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    /**
+     *	Returns the number of frames of the audio file.
+     *	For a pyramid created from a builder, this is the
+     *	number of frames added so far.
+     *
+     *	@return	the number of sample frames covered by the pyramid
+     */
+    public long getFrameNum()
+    {
+        return( live == null ? numFrames : live.getFrameNum() );
+    }
+
+    /**
+     *	Reads the overview of a span of the audio file, divided into
+     *	a given number of pixels. For each pixel and channel,
+     *	the minimum, maximum and RMS of the frames covered by the pixel
+     *	are calculated. Pixels beyond the end of the file are set
+     *	to zero. Since bins are not split, the values of a pixel may
+     *	include frames just outside of its span.
+     *	<p>
+     *	This method may be called concurrently from several threads.
+     *
+     *	@param	start		the first frame of the span
+     *	@param	stop		the frame after the end of the span
+     *	@param	min			buffer to hold the minima, one array per channel
+     *	@param	max			buffer to hold the maxima, one array per channel
+     *	@param	rms			buffer to hold the RMS values, one array per channel,
+     *						or <code>null</code>
+     *	@param	offset		offset in the buffers
+     *	@param	numPixels	the number of pixels to calculate
+     *
+     *	@throws	IOException	if a read error occurs
+     */
+    public void readPeaks( long start, long stop, float[][] min, float[][] max, float[][] rms,
+                           int offset, int numPixels )
+    throws IOException
+    {
+        final long		n		= getFrameNum();
+        final long		len		= stop - start;
+        final double	spp		= (double) len / numPixels;
+        final float[][]	buf;
+        final float[]	mn		= new float[ channels ];
+        final float[]	mx		= new float[ channels ];
+        final double[]	sq		= new double[ channels ];
+        final boolean	raw;
+        final long		binSize, numUnits;
+        int				level	= NUM_LEVELS - 1;
+        long			f0, f1, u0, u1, u, winStart, winStop, weight;
+        int				k, j;
+        float[]			b;
+
+        if( (len <= 0) || (numPixels <= 0) ) return;
+
+        while( (level >= 0) && (getBinSize( level ) > spp) ) level--;
+        raw = (level < 0) && (source != null);
+        if( level < 0 ) level = 0;
+        binSize		= raw ? 1 : getBinSize( level );
+        numUnits	= raw ? n : getBinCount( n, level );
+        buf			= new float[ raw ? channels : channels * NUM_STATS ][ WINDOW_SIZE ];
+        winStart	= 0L;
+        winStop		= 0L;
+
+        for( int p = 0, off = offset; p < numPixels; p++, off++ ) {
+            f0	= start + p * len / numPixels;
+            f1	= Math.max( f0 + 1, start + (p + 1) * len / numPixels );
+            u0	= f0 / binSize;
+            u1	= Math.min( numUnits, (f1 - 1) / binSize + 1 );
+            if( u0 >= u1 ) {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    min[ ch ][ off ] = 0f;
+                    max[ ch ][ off ] = 0f;
+                    if( rms != null ) rms[ ch ][ off ] = 0f;
+                }
+                continue;
+            }
+
+            for( int ch = 0; ch < channels; ch++ ) {
+                mn[ ch ] = Float.POSITIVE_INFINITY;
+                mx[ ch ] = Float.NEGATIVE_INFINITY;
+                sq[ ch ] = 0.0;
+            }
+            weight	= 0L;
+            for( u = u0; u < u1; u += k ) {
+                if( (u < winStart) || (u >= winStop) ) {
+                    winStart	= u;
+                    winStop		= Math.min( numUnits, u + WINDOW_SIZE );
+                    if( raw ) {
+                        source.readFrames( winStart, buf, 0, (int) (winStop - winStart) );
+                    } else {
+                        readBins( level, winStart, buf, (int) (winStop - winStart) );
+                    }
+                }
+                k	= (int) (Math.min( u1, winStop ) - u);
+                j	= (int) (u - winStart);
+                if( raw ) {
+                    for( int ch = 0; ch < channels; ch++ ) {
+                        b = buf[ ch ];
+                        accumulate( b, b, b, j, k, ch, mn, mx, sq, 1.0 );
+                    }
+                    weight += k;
+                } else {
+                    for( int ch = 0, i = 0; ch < channels; ch++, i += NUM_STATS ) {
+                        accumulate( buf[ i ], buf[ i + 1 ], buf[ i + 2 ], j, k, ch, mn, mx, sq, binSize );
+                    }
+                    // all bins are full except for the last one of the file
+                    weight += k * binSize;
+                    if( u + k == numUnits ) {
+                        for( int ch = 0, i = 0; ch < channels; ch++, i += NUM_STATS ) {
+                            b		 = buf[ i + 2 ];
+                            sq[ ch ] -= (double) b[ j + k - 1 ] * b[ j + k - 1 ] * (numUnits * binSize - n);
+                        }
+                        weight -= numUnits * binSize - n;
+                    }
+                }
+            }
+            for( int ch = 0; ch < channels; ch++ ) {
+                min[ ch ][ off ] = mn[ ch ];
+                max[ ch ][ off ] = mx[ ch ];
+                if( rms != null ) rms[ ch ][ off ] = (float) Math.sqrt( Math.max( 0.0, sq[ ch ] / weight ));
+            }
+        }
+    }
+
+    /**
+     *	Closes the cache file. The audio file is not closed.
+     *
+     *	@throws	IOException	if closing the cache file fails
+     */
+    public void close()
+    throws IOException
+    {
+        if( cache != null ) cache.close();
+    }
+
+    /*
+     *	Folds a range of frames (all three arrays being the same)
+     *	or bins into the stats of a pixel. The squares are multiplied by
+     *	weight, which is the number of frames per bin
+     */
+    private static void accumulate( float[] bMin, float[] bMax, float[] bVal, int off, int len,
+                                    int ch, float[] mn, float[] mx, double[] sq, double weight )
+    {
+        final int	stop	= off + len;
+        float		lo		= mn[ ch ];
+        float		hi		= mx[ ch ];
+        double		acc		= 0.0;
+        float		x;
+
+        for( int i = off; i < stop; i++ ) {
+            if( bMin[ i ] < lo ) lo = bMin[ i ];
+            if( bMax[ i ] > hi ) hi = bMax[ i ];
+            x	 = bVal[ i ];
+            acc	+= x * x;
+        }
+        mn[ ch ]	 = lo;
+        mx[ ch ]	 = hi;
+        sq[ ch ]	+= acc * weight;
+    }
+
+    private void readBins( int level, long index, float[][] dst, int length )
+    throws IOException
+    {
+        if( live != null ) {
+            live.readBins( level, index, dst, 0, length );
+        } else {
+            cache.readFrames( levelOff[ level ] + index, dst, 0, length );
+        }
+    }
+
+    private static long getBinCount( long numFrames, int level )
+    {
+        return( (numFrames + getBinSize( level ) - 1) / getBinSize( level ));
+    }
+
+    private static long getCacheLength( long numFrames )
+    {
+        long n = 0L;
+
+        for( int level = 0; level < NUM_LEVELS; level++ ) {
+            n += getBinCount( numFrames, level );
+        }
+        return n;
+    }
+
+    static AudioFileDescr createCacheDescr( File f, int channels, double rate, AudioFileCacheInfo info )
+    throws IOException
+    {
+        final AudioFileDescr afd = new AudioFileDescr();
+
+        afd.file			= f;
+        afd.type			= AudioFileDescr.TYPE_AIFF;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_INT;
+        afd.bitsPerSample	= 16;
+        afd.channels		= channels * NUM_STATS;
+        afd.rate			= rate;
+        afd.appCode			= APPCODE;
+        afd.setProperty( AudioFileDescr.KEY_APPCODE, info.encode() );
+
+        return afd;
+    }
+}
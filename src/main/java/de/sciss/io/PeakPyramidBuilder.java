@@ -0,0 +1,335 @@
+/*
+ *  PeakPyramidBuilder.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *	Accumulates the decimation levels of a <code>PeakPyramid</code>
+ *	from a stream of sample frames. Frames are handed in using
+ *	<code>add</code>, in any block size; each level keeps the
+ *	minimum, maximum and sum of squares of its current bin, and
+ *	completed bins of one level are folded into the next coarser one,
+ *	so every frame is looked at exactly once.
+ *	<p>
+ *	By default all levels are kept in memory, and the builder can
+ *	be queried at any time through a <code>PeakPyramid</code>
+ *	created from it, including the bins which are not yet complete.
+ *	All methods are synchronized, so one thread may add frames while
+ *	others are querying.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		PeakPyramid#PeakPyramid( PeakPyramidBuilder )
+ */
+public class PeakPyramidBuilder
+{
+    private static final int	SPILL_SIZE	= 4096;	// bins of the finest level buffered before being written
+
+    private final int			channels;
+    private final int			numStats;
+    private final AudioFile		spill;				// receives the finest level, or null
+
+    private final float[][][]	bins;				// [ level ][ stat ][ bin ]
+    private final int[]			numBins;			// completed bins per level held in memory
+
+    // the current (incomplete) bin of each level
+    private final float[][]		accMin;				// [ level ][ ch ]
+    private final float[][]		accMax;
+    private final double[][]	accSq;
+    private final long[]		accFrames;			// [ level ]
+
+    private long				numFrames	= 0L;
+
+    /**
+     *	Creates a new builder which keeps all levels in memory.
+     *
+     *	@param	channels	the number of channels of the frames
+     *						which will be added
+     */
+    public PeakPyramidBuilder( int channels )
+    {
+        this( channels, null );
+    }
+
+    /*
+     *	Creates a builder which writes the bins of the finest level
+     *	straight to the given cache file as they are completed, keeping
+     *	only the coarser levels in memory. Such a builder cannot be queried.
+     */
+    PeakPyramidBuilder( int channels, AudioFile spill )
+    {
+        this.channels	= channels;
+        this.spill		= spill;
+        numStats		= channels * PeakPyramid.NUM_STATS;
+        bins			= new float[ PeakPyramid.NUM_LEVELS ][][];
+        numBins			= new int[ PeakPyramid.NUM_LEVELS ];
+        accMin			= new float[ PeakPyramid.NUM_LEVELS ][ channels ];
+        accMax			= new float[ PeakPyramid.NUM_LEVELS ][ channels ];
+        accSq			= new double[ PeakPyramid.NUM_LEVELS ][ channels ];
+        accFrames		= new long[ PeakPyramid.NUM_LEVELS ];
+
+        for( int level = 0; level < PeakPyramid.NUM_LEVELS; level++ ) {
+            bins[ level ] = new float[ numStats ][ ((level == 0) && (spill != null)) ? SPILL_SIZE : 64 ];
+            resetBin( level );
+        }
+    }
+
+    /**
+     *	Adds sample frames to the pyramid. Channels with
+     *	<code>null</code> arrays are treated as silence.
+     *
+     *	@param	data	the frames (deinterleaved)
+     *	@param	offset	offset in the buffer in sample frames
+     *	@param	length	the number of frames to add
+     *
+     *	@throws	IOException	if the finest level is written to a cache file
+     *						and writing fails
+     */
+    public synchronized void add( float[][] data, int offset, int length )
+    throws IOException
+    {
+        final int	binSize	= PeakPyramid.getBinSize( 0 );
+        float[]		b;
+        float		mn, mx, x;
+        double		sq;
+        int			chunkLength, stop;
+
+        while( length > 0 ) {
+            chunkLength	= (int) Math.min( length, binSize - accFrames[ 0 ]);
+            stop		= offset + chunkLength;
+            for( int ch = 0; ch < channels; ch++ ) {
+                b	= data[ ch ];
+                mn	= accMin[ 0 ][ ch ];
+                mx	= accMax[ 0 ][ ch ];
+                if( b == null ) {
+                    if( mn > 0f ) mn = 0f;
+                    if( mx < 0f ) mx = 0f;
+                } else {
+                    sq	= 0.0;
+                    for( int i = offset; i < stop; i++ ) {
+                        x	 = b[ i ];
+                        if( x < mn ) mn = x;
+                        if( x > mx ) mx = x;
+                        sq	+= x * x;
+                    }
+                    accSq[ 0 ][ ch ] += sq;
+                }
+                accMin[ 0 ][ ch ] = mn;
+                accMax[ 0 ][ ch ] = mx;
+            }
+            accFrames[ 0 ] += chunkLength;
+            numFrames	   += chunkLength;
+            offset		   += chunkLength;
+            length		   -= chunkLength;
+            if( accFrames[ 0 ] == binSize ) completeBin( 0 );
+        }
+    }
+
+    /**
+     *	Returns the number of frames added so far.
+     *
+     *	@return	the number of sample frames covered by the pyramid
+     */
+    public synchronized long getFrameNum()
+    {
+        return numFrames;
+    }
+
+    /**
+     *	Returns the number of channels.
+     *
+     *	@return	the number of channels of the added frames
+     */
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    /**
+     *	Writes the pyramid in its current state to a new cache file.
+     *	Incomplete bins are included. Frames can still be added
+     *	afterwards, the builder itself is not changed.
+     *
+     *	@param	f		the cache file to create. An existing file is overwritten
+     *	@param	info	the stamp identifying the audio file the pyramid describes
+     *	@param	rate	the sample rate of the audio file
+     *
+     *	@throws	IOException	if the file cannot be written. In this case, the
+     *						file is deleted
+     */
+    public synchronized void writeCache( File f, AudioFileCacheInfo info, double rate )
+    throws IOException
+    {
+        if( spill != null ) throw new IllegalStateException( "Builder writes to a cache file" );
+
+        final AudioFile af = AudioFile.openAsWrite( PeakPyramid.createCacheDescr( f, channels, rate, info ));
+
+        try {
+            af.setClipping( true );
+            for( int level = 0; level < PeakPyramid.NUM_LEVELS; level++ ) {
+                writeLevel( af, level );
+            }
+            af.close();
+        }
+        catch( IOException e1 ) {
+            af.cleanUp();
+            f.delete();
+            throw e1;
+        }
+    }
+
+    /*
+     *	Completes the cache file given to the constructor, appending
+     *	the coarser levels to the finest one. The file is not closed.
+     */
+    void finish()
+    throws IOException
+    {
+        writeLevel( spill, 0 );
+        for( int level = 1; level < PeakPyramid.NUM_LEVELS; level++ ) {
+            writeLevel( spill, level );
+        }
+    }
+
+    /*
+     *	Returns the number of bins of a level, including an
+     *	incomplete last bin.
+     */
+    synchronized long getBinCount( int level )
+    {
+        return( (numFrames + PeakPyramid.getBinSize( level ) - 1) / PeakPyramid.getBinSize( level ));
+    }
+
+    /*
+     *	Copies bins of a level, in the layout of the cache file
+     *	(minimum, maximum and RMS of each channel in turn).
+     */
+    synchronized void readBins( int level, long index, float[][] dst, int dstOff, int length )
+    {
+        final float[][]	src		= bins[ level ];
+        final int		full	= numBins[ level ];
+        final int		inMem	= (int) Math.max( 0, Math.min( length, full - index ));
+
+        if( (level == 0) && (spill != null) ) throw new IllegalStateException( "Builder writes to a cache file" );
+
+        for( int i = 0; i < numStats; i++ ) {
+            System.arraycopy( src[ i ], (int) index, dst[ i ], dstOff, inMem );
+        }
+        if( inMem < length ) partialBin( level, dst, dstOff + inMem );
+    }
+
+    private void writeLevel( AudioFile af, int level )
+    throws IOException
+    {
+        final float[][] partial;
+
+        af.writeFrames( bins[ level ], 0, numBins[ level ]);
+        if( numFrames % PeakPyramid.getBinSize( level ) != 0 ) {
+            partial = new float[ numStats ][ 1 ];
+            partialBin( level, partial, 0 );
+            af.writeFrames( partial, 0, 1 );
+        }
+    }
+
+    private void completeBin( int level )
+    throws IOException
+    {
+        final int	next	= level + 1;
+        final float	norm	= 1f / PeakPyramid.getBinSize( level );
+        float[][]	b		= bins[ level ];
+        final int	idx		= numBins[ level ];
+
+        if( idx == b[ 0 ].length ) {
+            if( (level == 0) && (spill != null) ) {
+                spill.writeFrames( b, 0, idx );
+                numBins[ 0 ]	= 0;
+                completeBin( level );
+                return;
+            }
+            b = new float[ numStats ][ idx << 1 ];
+            for( int i = 0; i < numStats; i++ ) {
+                System.arraycopy( bins[ level ][ i ], 0, b[ i ], 0, idx );
+            }
+            bins[ level ] = b;
+        }
+
+        for( int ch = 0, i = 0; ch < channels; ch++, i += PeakPyramid.NUM_STATS ) {
+            b[ i ][ idx ]		= accMin[ level ][ ch ];
+            b[ i + 1 ][ idx ]	= accMax[ level ][ ch ];
+            b[ i + 2 ][ idx ]	= (float) Math.sqrt( accSq[ level ][ ch ] * norm );
+            if( next < PeakPyramid.NUM_LEVELS ) {
+                if( accMin[ level ][ ch ] < accMin[ next ][ ch ]) accMin[ next ][ ch ] = accMin[ level ][ ch ];
+                if( accMax[ level ][ ch ] > accMax[ next ][ ch ]) accMax[ next ][ ch ] = accMax[ level ][ ch ];
+                accSq[ next ][ ch ] += accSq[ level ][ ch ];
+            }
+        }
+        numBins[ level ]++;
+        resetBin( level );
+
+        if( next < PeakPyramid.NUM_LEVELS ) {
+            accFrames[ next ] += PeakPyramid.getBinSize( level );
+            if( accFrames[ next ] == PeakPyramid.getBinSize( next )) completeBin( next );
+        }
+    }
+
+    private void resetBin( int level )
+    {
+        for( int ch = 0; ch < channels; ch++ ) {
+            accMin[ level ][ ch ]	= Float.POSITIVE_INFINITY;
+            accMax[ level ][ ch ]	= Float.NEGATIVE_INFINITY;
+            accSq[ level ][ ch ]	= 0.0;
+        }
+        accFrames[ level ] = 0L;
+    }
+
+    // stats of the incomplete last bin of a level, which covers the
+    // current bins of that level and all finer ones
+    private void partialBin( int level, float[][] dst, int dstOff )
+    {
+        final long	frames	= numFrames % PeakPyramid.getBinSize( level );
+        float		mn, mx;
+        double		sq;
+        int			j;
+
+        for( int ch = 0, i = 0; ch < channels; ch++, i += PeakPyramid.NUM_STATS ) {
+            mn	= Float.POSITIVE_INFINITY;
+            mx	= Float.NEGATIVE_INFINITY;
+            sq	= 0.0;
+            for( j = 0; j <= level; j++ ) {
+                if( accMin[ j ][ ch ] < mn ) mn = accMin[ j ][ ch ];
+                if( accMax[ j ][ ch ] > mx ) mx = accMax[ j ][ ch ];
+                sq += accSq[ j ][ ch ];
+            }
+            dst[ i ][ dstOff ]		= mn;
+            dst[ i + 1 ][ dstOff ]	= mx;
+            dst[ i + 2 ][ dstOff ]	= (float) Math.sqrt( sq / frames );
+        }
+    }
+}
@@ -27,7 +27,11 @@ package de.sciss.io;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  *  A struct class: region in
@@ -37,10 +41,14 @@ import java.util.List;
  *  @version	0.22, 05-May-06
  *
  *  @see	de.sciss.io.AudioFileDescr#KEY_REGIONS
+ *  @see	SpanTree
  */
 public class Region
-implements Serializable, Cloneable
+implements Serializable, Cloneable, SpanProvider
 {
+    private static final Comparator<Object>	startComparator	= new SpanComparator( true );
+    private static final Comparator<Object>	stopComparator	= new SpanComparator( false );
+
 // -------- public Variablen --------
     /**
      *  A region's time span in sample frames
@@ -101,14 +109,14 @@ implements Serializable, Cloneable
      *	@return	sorted region list. Each region
      *			is guaranteed to have a time span's begin (byBegin==true)
      *			or end (byBegin==false) less or equal its successor
+     *
+     *	@see	SpanList#SpanList( java.util.Collection )
      */
     public static List sort( List regions, boolean byBegin )
     {
-        List sorted = new ArrayList( regions.size() );
-        for( int i = 0; i < regions.size(); i++ ) {
-            add( sorted, (Region) regions.get( i ), byBegin );
-        }
-        return sorted;
+        final Object[] sorted = regions.toArray();
+        Arrays.sort( sorted, byBegin ? startComparator : stopComparator );	// stable, like repeated add
+        return new ArrayList<Object>( Arrays.asList( sorted ));
     }
 
     /**
@@ -130,18 +138,30 @@ implements Serializable, Cloneable
      */
     public static int add( List regions, Region region, boolean byBegin )
     {
-        int i;
-        if( byBegin ) {
-            for( i = 0; i < regions.size(); i++ ) {
-                if( ((Region) regions.get( i )).span.start > region.span.start ) break;
+        final long	key	= byBegin ? region.span.start : region.span.stop;
+        int			lo	= 0;
+        int			hi	= regions.size();
+        int			mid;
+        Span		span;
+
+        if( regions instanceof RandomAccess ) {	// binary search for the first greater key
+            while( lo < hi ) {
+                mid		= (lo + hi) >>> 1;
+                span	= ((Region) regions.get( mid )).span;
+                if( (byBegin ? span.start : span.stop) > key ) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
             }
         } else {
-            for( i = 0; i < regions.size(); i++ ) {
-                if( ((Region) regions.get( i )).span.stop > region.span.stop ) break;
+            for( ; lo < hi; lo++ ) {
+                span = ((Region) regions.get( lo )).span;
+                if( (byBegin ? span.start : span.stop) > key ) break;
             }
         }
-        regions.add( i, region );
-        return i;
+        regions.add( lo, region );
+        return lo;
     }
 
     /**
@@ -162,5 +182,78 @@ implements Serializable, Cloneable
         }
         return -1;
     }
+
+    /**
+     *	Adds a region chronologically to a persistent
+     *	region list. The list itself is not altered, so it
+     *	can be kept for undoing the addition.
+     *
+     *  @param  regions a list whose elements are instanceof Region
+     *  @param  region	the region to insert after all regions
+     *					whose time span starts before or at this region's start
+     *					(regions with equal start are ordered by their end points)
+     *	@return	the new list containing the region
+     *
+     *	@see	SpanList#add( SpanProvider )
+     */
+    public static SpanList add( SpanList regions, Region region )
+    {
+        return regions.add( region );
+    }
+
+    /**
+     *	Gets the index for specific region in a
+     *	persistent region list.
+     *
+     *  @param  regions		a list whose elements are
+     *						instanceof Region.
+     *	@param	name		region name to find
+     *	@param	startIndex	where to begin
+     *	@return	The list index of the first occurance (beginning
+     *			at <code>startIndex</code>) of a region whose name equals
+     *			the given name, or <code>-1</code>
+     */
+    public static int find( SpanList regions, String name, int startIndex )
+    {
+        int i = Math.max( 0, startIndex );
+
+        if( i >= regions.size() ) return -1;
+        for( Iterator iter = regions.iterator( i ); iter.hasNext(); i++ ) {
+            if( ((Region) iter.next()).name.equals( name )) return i;
+        }
+        return -1;
+    }
+
+// -------- SpanProvider interface --------
+
+    public Span getSpan()
+    {
+        return span;
+    }
+
+// -------- internal classes --------
+
+    private static class SpanComparator
+    implements Comparator<Object>
+    {
+        private final boolean byBegin;
+
+        protected SpanComparator( boolean byBegin )
+        {
+            this.byBegin = byBegin;
+        }
+
+        public int compare( Object o1, Object o2 )
+        {
+            final Span	s1	= ((Region) o1).span;
+            final Span	s2	= ((Region) o2).span;
+            final long	n1	= byBegin ? s1.start : s1.stop;
+            final long	n2	= byBegin ? s2.start : s2.stop;
+
+            if( n1 < n2 ) return -1;
+            if( n1 > n2 ) return 1;
+            return 0;
+        }
+    }
 }
 // class Region
\ No newline at end of file
@@ -42,7 +42,7 @@ import java.util.Comparator;
  *  @version	0.30, 18-Jul-08
  */
 public class Span
-implements Serializable, Cloneable
+implements Serializable, Cloneable, SpanProvider
 {
     public static final Comparator	startComparator	= new StartComparator();
     public static final Comparator	stopComparator	= new StopComparator();
@@ -297,6 +297,19 @@ implements Serializable, Cloneable
         return new Span( start + delta, stop + delta );
     }
 
+// ---------------- SpanProvider interface ----------------
+
+    /**
+     *	Returns this span, so spans can
+     *	be put into a <code>SpanTree</code>.
+     *
+     *	@return	this span
+     */
+    public Span getSpan()
+    {
+        return this;
+    }
+
 // ---------------- internal classes ----------------
 
     private static class StartComparator
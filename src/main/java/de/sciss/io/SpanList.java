@@ -0,0 +1,696 @@
+/*
+ *  SpanList.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ *	An immutable, sorted list of objects occupying time spans, such
+ *	as regions, meant to be kept in an undo history. The objects must
+ *	implement <code>SpanProvider</code> and are sorted by span start
+ *	(then stop); objects with equal spans keep the order in which
+ *	they were added.
+ *	<p>
+ *	The list is a persistent B-tree: each modification returns a
+ *	new list, which shares all nodes with the old one except for those
+ *	on the path to the modified entry. Adding or removing an object thus
+ *	creates only <code>O(log n)</code> new nodes, and keeping the
+ *	previous list (e.g. in an undoable edit) costs nothing, as opposed
+ *	to copying an <code>ArrayList</code> for every edit. Access by
+ *	index, the position of an object and the look-up by span start
+ *	take <code>O(log n)</code> as well. The nodes record the
+ *	greatest span stop below them, so <code>getOverlapping</code>
+ *	skips subtrees which cannot contain overlapping spans.
+ *	<p>
+ *	Being immutable, instances can be shared between threads freely.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		Region#add( SpanList, Region )
+ *	@see		SpanTree
+ */
+public class SpanList
+{
+    /**
+     *	The list which contains no objects.
+     */
+    public static final SpanList	EMPTY			= new SpanList( (Node) null );
+
+    private static final int		MAX_ENTRIES		= 32;	// per node
+    private static final int		MIN_ENTRIES		= MAX_ENTRIES >> 1;
+
+    private static final Comparator<Object>	spanComparator	= new SpanComparator();
+
+    private final Node				root;			// null if empty
+
+    /**
+     *	Creates a list holding the given objects. The collection
+     *	need not be sorted. This takes <code>O(n log n)</code>.
+     *
+     *	@param	coll	a collection whose elements are
+     *					instanceof <code>SpanProvider</code>
+     */
+    public SpanList( Collection coll )
+    {
+        final Object[] items = coll.toArray();
+
+        Arrays.sort( items, spanComparator );	// stable
+        root = build( items );
+    }
+
+    private SpanList( Node root )
+    {
+        this.root = root;
+    }
+
+    /**
+     *	Returns the number of objects.
+     *
+     *	@return	the number of objects in the list
+     */
+    public int size()
+    {
+        return( root == null ? 0 : root.size );
+    }
+
+    public boolean isEmpty()
+    {
+        return( root == null );
+    }
+
+    /**
+     *	Returns an object by its position in the list.
+     *
+     *	@param	index	the position of the object
+     *	@return	the object at that position
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public SpanProvider get( int index )
+    {
+        Node	n	= root;
+        Node[]	c;
+        int		i;
+
+        checkIndex( index );
+        while( n instanceof Branch ) {
+            c = ((Branch) n).children;
+            for( i = 0; index >= c[ i ].size; i++ ) index -= c[ i ].size;
+            n = c[ i ];
+        }
+        return (SpanProvider) ((Leaf) n).items[ index ];
+    }
+
+    /**
+     *	Returns a list with an object added. If the list holds objects
+     *	with an equal span, the new object is placed after them.
+     *
+     *	@param	o	the object to add
+     *	@return	the new list
+     */
+    public SpanList add( SpanProvider o )
+    {
+        final Span		span	= o.getSpan();
+        final Node[]	n;
+
+        if( root == null ) return new SpanList( new Leaf( new Object[] { o }));
+
+        n = root.insert( o, span.start, span.stop );
+        return new SpanList( n.length == 1 ? n[ 0 ] : new Branch( n ));
+    }
+
+    /**
+     *	Returns a list with several objects added. If few objects
+     *	are added to a large list, they are added one by one,
+     *	otherwise the list is rebuilt.
+     *
+     *	@param	coll	a collection whose elements are
+     *					instanceof <code>SpanProvider</code>
+     *	@return	the new list
+     */
+    public SpanList addAll( Collection coll )
+    {
+        final Object[]	items;
+        int				n;
+        SpanList		result;
+
+        if( coll.size() < (size() >> 4) ) {
+            result = this;
+            for( Iterator iter = coll.iterator(); iter.hasNext(); ) {
+                result = result.add( (SpanProvider) iter.next() );
+            }
+            return result;
+        }
+
+        items	= new Object[ size() + coll.size() ];
+        n		= 0;
+        for( Iterator iter = iterator( 0 ); iter.hasNext(); ) {
+            items[ n++ ] = iter.next();
+        }
+        System.arraycopy( coll.toArray(), 0, items, n, coll.size() );
+        Arrays.sort( items, spanComparator );	// stable
+        return new SpanList( build( items ));
+    }
+
+    /**
+     *	Returns a list with the object at a given position removed.
+     *
+     *	@param	index	the position of the object to remove
+     *	@return	the new list
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public SpanList remove( int index )
+    {
+        Node n;
+
+        checkIndex( index );
+        n = root.removeAt( index );
+        if( n.size == 0 ) return EMPTY;
+        while( (n instanceof Branch) && (((Branch) n).children.length == 1) ) {
+            n = ((Branch) n).children[ 0 ];
+        }
+        return new SpanList( n );
+    }
+
+    /**
+     *	Returns a list with an object removed.
+     *
+     *	@param	o	the object to remove
+     *	@return	the new list, or this list if
+     *			it does not contain the object
+     */
+    public SpanList remove( SpanProvider o )
+    {
+        final int idx = indexOf( o );
+        return( idx < 0 ? this : remove( idx ));
+    }
+
+    /**
+     *	Returns a list with an object replaced by another one,
+     *	e.g. a region which has been moved or renamed.
+     *
+     *	@param	oldObject	the object to remove
+     *	@param	newObject	the object to add
+     *	@return	the new list
+     */
+    public SpanList replace( SpanProvider oldObject, SpanProvider newObject )
+    {
+        return remove( oldObject ).add( newObject );
+    }
+
+    /**
+     *	Returns the position of an object, as determined
+     *	by its span and <code>equals</code>.
+     *
+     *	@param	o	the object to look for
+     *	@return	the object's position in the list, or <code>-1</code>
+     *			if the list does not contain the object
+     */
+    public int indexOf( SpanProvider o )
+    {
+        final Span	span	= o.getSpan();
+        int			idx		= rank( span.start, span.stop );
+        Object		item;
+        Span		s;
+
+        // scan the objects with an equal span
+        for( Iterator iter = iterator( idx ); iter.hasNext(); idx++ ) {
+            item	= iter.next();
+            s		= ((SpanProvider) item).getSpan();
+            if( (s.start != span.start) || (s.stop != span.stop) ) break;
+            if( o.equals( item )) return idx;
+        }
+        return -1;
+    }
+
+    public boolean contains( SpanProvider o )
+    {
+        return( indexOf( o ) >= 0 );
+    }
+
+    /**
+     *	Returns the position of the first object whose
+     *	span begins at or after a given position.
+     *
+     *	@param	pos	the position in sample frames
+     *	@return	the index of the first object whose span start is greater
+     *			than or equal to <code>pos</code>, or <code>size()</code>
+     *			if there is none
+     */
+    public int lowerBound( long pos )
+    {
+        return rank( pos, Long.MIN_VALUE );
+    }
+
+    /**
+     *	Returns an iterator over the objects, beginning at a given
+     *	position. The iterator does not support <code>remove</code>.
+     *
+     *	@param	index	the position of the first object returned
+     *	@return	an iterator visiting the objects in ascending order
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or greater than <code>size()</code>
+     */
+    public Iterator iterator( int index )
+    {
+        if( (index < 0) || (index > size()) ) throw new IndexOutOfBoundsException( String.valueOf( index ));
+        return new Iter( index );
+    }
+
+    /**
+     *	Returns all objects.
+     *
+     *	@return	a new list of all objects, sorted by span start (then stop)
+     */
+    public List getAll()
+    {
+        final List<Object> result = new ArrayList<Object>( size() );
+
+        for( Iterator iter = iterator( 0 ); iter.hasNext(); ) {
+            result.add( iter.next() );
+        }
+        return result;
+    }
+
+    /**
+     *	Finds all objects which overlap a given span,
+     *	as defined by <code>Span.overlaps</code>.
+     *
+     *	@param	span	the span to query
+     *	@return	a new list of the overlapping objects, sorted by span start (then stop)
+     */
+    public List getOverlapping( Span span )
+    {
+        final List<Object> result = new ArrayList<Object>();
+
+        if( root != null ) collectOverlapping( root, span, result );
+        return result;
+    }
+
+    private static void collectOverlapping( Node n, Span span, List<Object> result )
+    {
+        if( (n.minStart >= span.stop) || (n.maxStop <= span.start) ) return;	// no span can overlap
+
+        if( n instanceof Branch ) {
+            final Node[] c = ((Branch) n).children;
+            for( int i = 0; (i < c.length) && (c[ i ].minStart < span.stop); i++ ) {
+                collectOverlapping( c[ i ], span, result );
+            }
+        } else {
+            final Object[] items = ((Leaf) n).items;
+            for( int i = 0; i < items.length; i++ ) {
+                if( ((SpanProvider) items[ i ]).getSpan().overlaps( span )) result.add( items[ i ]);
+            }
+        }
+    }
+
+    private void checkIndex( int index )
+    {
+        if( (index < 0) || (index >= size()) ) throw new IndexOutOfBoundsException( String.valueOf( index ));
+    }
+
+    // the number of objects whose span is less than (start, stop)
+    private int rank( long start, long stop )
+    {
+        Node	n		= root;
+        int		rank	= 0;
+        Node[]	c;
+        Object[] items;
+        int		i;
+
+        if( n == null ) return 0;
+
+        while( n instanceof Branch ) {
+            c = ((Branch) n).children;
+            for( i = 0; (i < c.length - 1) && (compare( c[ i ].lastStart, c[ i ].lastStop, start, stop ) < 0); i++ ) {
+                rank += c[ i ].size;
+            }
+            n = c[ i ];
+        }
+        items = ((Leaf) n).items;
+        for( i = 0; i < items.length; i++ ) {
+            final Span s = ((SpanProvider) items[ i ]).getSpan();
+            if( compare( s.start, s.stop, start, stop ) >= 0 ) break;
+        }
+        return rank + i;
+    }
+
+    private static int compare( long start1, long stop1, long start2, long stop2 )
+    {
+        if( start1 < start2 ) return -1;
+        if( start1 > start2 ) return 1;
+        if( stop1 < stop2 ) return -1;
+        if( stop1 > stop2 ) return 1;
+        return 0;
+    }
+
+    /*
+     *	Builds a tree bottom-up from sorted objects, distributing
+     *	the entries evenly, so each node but the root is at least half full
+     */
+    private static Node build( Object[] items )
+    {
+        Node[]	level, next;
+        int		num;
+
+        if( items.length == 0 ) return null;
+
+        num		= (items.length + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        level	= new Node[ num ];
+        for( int i = 0; i < num; i++ ) {
+            level[ i ] = new Leaf( slice( items, i, num ));
+        }
+        while( level.length > 1 ) {
+            num		= (level.length + MAX_ENTRIES - 1) / MAX_ENTRIES;
+            next	= new Node[ num ];
+            for( int i = 0; i < num; i++ ) {
+                next[ i ] = new Branch( (Node[]) slice( level, i, num ));
+            }
+            level = next;
+        }
+        return level[ 0 ];
+    }
+
+    // the i-th of num almost equally sized parts of an array
+    private static Object[] slice( Object[] a, int i, int num )
+    {
+        final int		start	= (int) ((long) a.length * i / num);
+        final int		stop	= (int) ((long) a.length * (i + 1) / num);
+        final Object[]	b		= (Object[]) Array.newInstance( a.getClass().getComponentType(), stop - start );
+
+        System.arraycopy( a, start, b, 0, b.length );
+        return b;
+    }
+
+// -------- internal classes --------
+
+    private abstract static class Node
+    {
+        protected int	size;		// objects in this subtree
+        protected long	minStart;	// span start of the first object
+        protected long	lastStart;	// span of the last object
+        protected long	lastStop;
+        protected long	maxStop;	// greatest span stop in this subtree
+
+        protected Node() { /* empty */ }
+
+        protected abstract int numEntries();
+
+        // returns the new node, or two nodes if it had to be split
+        protected abstract Node[] insert( Object o, long start, long stop );
+
+        // returns the new node, which may be empty or have too few entries
+        protected abstract Node removeAt( int index );
+
+        // joins two neighbouring nodes of the same kind,
+        // returning one node, or two if they do not fit into one
+        protected abstract Node[] join( Node succ );
+    }
+
+    private static class Leaf
+    extends Node
+    {
+        protected final Object[] items;
+
+        protected Leaf( Object[] items )
+        {
+            Span s;
+
+            this.items	= items;
+            size		= items.length;
+            maxStop		= Long.MIN_VALUE;
+            for( int i = 0; i < items.length; i++ ) {
+                s = ((SpanProvider) items[ i ]).getSpan();
+                if( s.stop > maxStop ) maxStop = s.stop;
+            }
+            if( size > 0 ) {
+                minStart	= ((SpanProvider) items[ 0 ]).getSpan().start;
+                s			= ((SpanProvider) items[ size - 1 ]).getSpan();
+                lastStart	= s.start;
+                lastStop	= s.stop;
+            }
+        }
+
+        protected int numEntries()
+        {
+            return items.length;
+        }
+
+        protected Node[] insert( Object o, long start, long stop )
+        {
+            final Object[]	b	= new Object[ items.length + 1 ];
+            int				i;
+            Span			s;
+
+            // after all objects with an equal span
+            for( i = items.length; i > 0; i-- ) {
+                s = ((SpanProvider) items[ i - 1 ]).getSpan();
+                if( compare( s.start, s.stop, start, stop ) <= 0 ) break;
+            }
+            System.arraycopy( items, 0, b, 0, i );
+            b[ i ] = o;
+            System.arraycopy( items, i, b, i + 1, items.length - i );
+            if( b.length <= MAX_ENTRIES ) return new Node[] { new Leaf( b )};
+            return new Node[] { new Leaf( slice( b, 0, 2 )), new Leaf( slice( b, 1, 2 ))};
+        }
+
+        protected Node removeAt( int index )
+        {
+            final Object[] b = new Object[ items.length - 1 ];
+
+            System.arraycopy( items, 0, b, 0, index );
+            System.arraycopy( items, index + 1, b, index, b.length - index );
+            return new Leaf( b );
+        }
+
+        protected Node[] join( Node succ )
+        {
+            final Object[] succItems	= ((Leaf) succ).items;
+            final Object[] b			= new Object[ items.length + succItems.length ];
+
+            System.arraycopy( items, 0, b, 0, items.length );
+            System.arraycopy( succItems, 0, b, items.length, succItems.length );
+            if( b.length <= MAX_ENTRIES ) return new Node[] { new Leaf( b )};
+            return new Node[] { new Leaf( slice( b, 0, 2 )), new Leaf( slice( b, 1, 2 ))};
+        }
+    }
+
+    private static class Branch
+    extends Node
+    {
+        protected final Node[] children;
+
+        protected Branch( Node[] children )
+        {
+            Node c;
+
+            this.children	= children;
+            maxStop			= Long.MIN_VALUE;
+            for( int i = 0; i < children.length; i++ ) {
+                c		= children[ i ];
+                size   += c.size;
+                if( c.maxStop > maxStop ) maxStop = c.maxStop;
+            }
+            c			= children[ children.length - 1 ];
+            minStart	= children[ 0 ].minStart;
+            lastStart	= c.lastStart;
+            lastStop	= c.lastStop;
+        }
+
+        protected int numEntries()
+        {
+            return children.length;
+        }
+
+        protected Node[] insert( Object o, long start, long stop )
+        {
+            final Node[]	r;
+            final Node[]	b;
+            int				i;
+
+            // the first child whose last span is greater, so the
+            // object goes after all objects with an equal span
+            for( i = 0; (i < children.length - 1) &&
+                 (compare( children[ i ].lastStart, children[ i ].lastStop, start, stop ) <= 0); i++ ) ;
+
+            r = children[ i ].insert( o, start, stop );
+            b = new Node[ children.length - 1 + r.length ];
+            System.arraycopy( children, 0, b, 0, i );
+            System.arraycopy( r, 0, b, i, r.length );
+            System.arraycopy( children, i + 1, b, i + r.length, children.length - i - 1 );
+            if( b.length <= MAX_ENTRIES ) return new Node[] { new Branch( b )};
+            return new Node[] { new Branch( (Node[]) slice( b, 0, 2 )), new Branch( (Node[]) slice( b, 1, 2 ))};
+        }
+
+        protected Node removeAt( int index )
+        {
+            final Node	c;
+            final Node[] r, b;
+            int			i, j;
+
+            for( i = 0; index >= children[ i ].size; i++ ) index -= children[ i ].size;
+            c = children[ i ].removeAt( index );
+
+            if( c.size == 0 ) {										// drop the child
+                r = new Node[ 0 ];
+                j = i;
+            } else if( (c.numEntries() < MIN_ENTRIES) && (children.length > 1) ) {	// join with a neighbour
+                if( i > 0 ) {
+                    j = i - 1;
+                    r = children[ j ].join( c );
+                } else {
+                    j = i;
+                    i = i + 1;
+                    r = c.join( children[ i ]);
+                }
+                // replaces children[ j ... i ]
+                b = new Node[ children.length - 2 + r.length ];
+                System.arraycopy( children, 0, b, 0, j );
+                System.arraycopy( r, 0, b, j, r.length );
+                System.arraycopy( children, i + 1, b, j + r.length, children.length - i - 1 );
+                return new Branch( b );
+            } else {
+                r = new Node[] { c };
+                j = i;
+            }
+            b = new Node[ children.length - 1 + r.length ];
+            System.arraycopy( children, 0, b, 0, j );
+            System.arraycopy( r, 0, b, j, r.length );
+            System.arraycopy( children, j + 1, b, j + r.length, children.length - j - 1 );
+            if( b.length == 0 ) return new Leaf( new Object[ 0 ]);
+            return new Branch( b );
+        }
+
+        protected Node[] join( Node succ )
+        {
+            final Node[] succChildren	= ((Branch) succ).children;
+            final Node[] b				= new Node[ children.length + succChildren.length ];
+
+            System.arraycopy( children, 0, b, 0, children.length );
+            System.arraycopy( succChildren, 0, b, children.length, succChildren.length );
+            if( b.length <= MAX_ENTRIES ) return new Node[] { new Branch( b )};
+            return new Node[] { new Branch( (Node[]) slice( b, 0, 2 )), new Branch( (Node[]) slice( b, 1, 2 ))};
+        }
+    }
+
+    private class Iter
+    implements Iterator
+    {
+        private final Branch[]	path;		// the branches above the current leaf
+        private final int[]		pathIdx;	// the child index taken in each branch
+        private Leaf			leaf;
+        private int				leafIdx;
+        private int				remaining;
+
+        protected Iter( int index )
+        {
+            Node	n		= root;
+            int		depth	= 0;
+            int		i;
+
+            remaining = size() - index;
+            for( Node m = root; m instanceof Branch; m = ((Branch) m).children[ 0 ]) depth++;
+            path	= new Branch[ depth ];
+            pathIdx	= new int[ depth ];
+            if( remaining == 0 ) return;
+
+            for( int level = 0; level < depth; level++ ) {
+                path[ level ] = (Branch) n;
+                for( i = 0; index >= path[ level ].children[ i ].size; i++ ) index -= path[ level ].children[ i ].size;
+                pathIdx[ level ]	= i;
+                n					= path[ level ].children[ i ];
+            }
+            leaf	= (Leaf) n;
+            leafIdx	= index;
+        }
+
+        public boolean hasNext()
+        {
+            return( remaining > 0 );
+        }
+
+        public Object next()
+        {
+            final Object o;
+
+            if( remaining == 0 ) throw new NoSuchElementException();
+
+            o = leaf.items[ leafIdx++ ];
+            if( (--remaining > 0) && (leafIdx == leaf.items.length) ) advance();
+            return o;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        // moves to the first object of the next leaf
+        private void advance()
+        {
+            int		level	= path.length - 1;
+            Node	n;
+
+            while( pathIdx[ level ] == path[ level ].children.length - 1 ) level--;
+            pathIdx[ level ]++;
+            n = path[ level ].children[ pathIdx[ level ]];
+            for( level++; level < path.length; level++ ) {
+                path[ level ]		= (Branch) n;
+                pathIdx[ level ]	= 0;
+                n					= ((Branch) n).children[ 0 ];
+            }
+            leaf	= (Leaf) n;
+            leafIdx	= 0;
+        }
+    }
+
+    private static class SpanComparator
+    implements Comparator<Object>
+    {
+        protected SpanComparator() { /* empty */ }
+
+        public int compare( Object o1, Object o2 )
+        {
+            final Span s1 = ((SpanProvider) o1).getSpan();
+            final Span s2 = ((SpanProvider) o2).getSpan();
+
+            return SpanList.compare( s1.start, s1.stop, s2.start, s2.stop );
+        }
+    }
+}
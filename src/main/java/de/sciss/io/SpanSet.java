@@ -0,0 +1,473 @@
+/*
+ *  SpanSet.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ *	An immutable set of positions, described as a sequence
+ *	of disjoint spans, e.g. a selection made of several time ranges.
+ *	The spans are stored as a sorted array of alternating start and
+ *	stop points. The set is always normalized: it never contains
+ *	empty spans, and overlapping or touching spans are merged, so two
+ *	sets covering the same positions are equal.
+ *	<p>
+ *	Union, intersection and difference run in <code>O(n + m)</code>
+ *	for sets of <code>n</code> and <code>m</code> spans; containment
+ *	tests and clipping use binary search. Gaps, e.g. the unselected
+ *	parts of a visible span, are found using <code>complement</code>.
+ *	Like <code>Span</code>, the start points are inclusive, the
+ *	stop points are exclusive.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		Span
+ */
+public class SpanSet
+implements Serializable
+{
+    /**
+     *	The set which contains no positions.
+     */
+    public static final SpanSet	EMPTY	= new SpanSet( new long[ 0 ]);
+
+    private static final int	OP_UNION		= 0;
+    private static final int	OP_INTERSECTION	= 1;
+    private static final int	OP_DIFFERENCE	= 2;
+
+    // start0, stop0, start1, stop1 ... strictly increasing
+    private final long[]		bounds;
+
+    /**
+     *	Creates a set made of a single span.
+     *
+     *	@param	span	the span to cover. an empty span
+     *					results in an empty set
+     */
+    public SpanSet( Span span )
+    {
+        this( span.start, span.stop );
+    }
+
+    /**
+     *	Creates a set made of a single span.
+     *
+     *	@param	start	the start of the span (inclusive)
+     *	@param	stop	the stop of the span (exclusive). if this is
+     *					less than or equal to <code>start</code>, the set is empty
+     */
+    public SpanSet( long start, long stop )
+    {
+        bounds = (start < stop) ? new long[] { start, stop } : new long[ 0 ];
+    }
+
+    /**
+     *	Creates a set covering all spans of a collection.
+     *	The spans may be given in any order, and may overlap.
+     *
+     *	@param	coll	a collection whose elements are instanceof
+     *					<code>SpanProvider</code>, e.g. <code>Span</code>
+     *					or <code>Region</code> objects
+     */
+    public SpanSet( Collection coll )
+    {
+        final Span[]	spans	= new Span[ coll.size() ];
+        final long[]	b		= new long[ spans.length << 1 ];
+        int				n		= 0;
+        int				i		= 0;
+        Span			span;
+
+        for( Iterator iter = coll.iterator(); iter.hasNext(); ) {
+            spans[ i++ ] = ((SpanProvider) iter.next()).getSpan();
+        }
+        sortByStart( spans );
+        for( i = 0; i < spans.length; i++ ) {
+            span = spans[ i ];
+            if( span.isEmpty() ) continue;
+            if( (n > 0) && (span.start <= b[ n - 1 ]) ) {	// overlaps or touches the previous
+                if( span.stop > b[ n - 1 ]) b[ n - 1 ] = span.stop;
+            } else {
+                b[ n++ ] = span.start;
+                b[ n++ ] = span.stop;
+            }
+        }
+        bounds = trim( b, n );
+    }
+
+    private SpanSet( long[] bounds )
+    {
+        this.bounds = bounds;
+    }
+
+    /**
+     *	Returns the number of disjoint spans.
+     *
+     *	@return	the number of spans the set is made of
+     */
+    public int getNumSpans()
+    {
+        return( bounds.length >> 1 );
+    }
+
+    /**
+     *	Returns one of the spans the set is made of.
+     *
+     *	@param	index	the index of the span, where the spans
+     *					are sorted in ascending order
+     *	@return	a new span object
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>getNumSpans()</code>
+     */
+    public Span getSpan( int index )
+    {
+        return new Span( bounds[ index << 1 ], bounds[ (index << 1) + 1 ]);
+    }
+
+    public long getStart( int index )
+    {
+        return bounds[ index << 1 ];
+    }
+
+    public long getStop( int index )
+    {
+        return bounds[ (index << 1) + 1 ];
+    }
+
+    public boolean isEmpty()
+    {
+        return( bounds.length == 0 );
+    }
+
+    /**
+     *	Returns the smallest span covering the whole set.
+     *
+     *	@return	the span from the first start to the last stop,
+     *			or <code>null</code> if the set is empty
+     */
+    public Span getExtent()
+    {
+        return( isEmpty() ? null : new Span( bounds[ 0 ], bounds[ bounds.length - 1 ]));
+    }
+
+    /**
+     *	Returns the number of positions covered by the set.
+     *
+     *	@return	the sum of the lengths of all spans
+     */
+    public long getLength()
+    {
+        long sum = 0;
+
+        for( int i = 0; i < bounds.length; i += 2 ) {
+            sum += bounds[ i + 1 ] - bounds[ i ];
+        }
+        return sum;
+    }
+
+    /**
+     *	Returns all spans.
+     *
+     *	@return	a new array of the spans in ascending order
+     */
+    public Span[] getSpans()
+    {
+        final Span[] spans = new Span[ getNumSpans() ];
+
+        for( int i = 0; i < spans.length; i++ ) {
+            spans[ i ] = getSpan( i );
+        }
+        return spans;
+    }
+
+    /**
+     *	Finds the span containing a position.
+     *
+     *	@param	pos	the position to look up
+     *	@return	the index of the span containing <code>pos</code>. if there
+     *			is none, <code>(-(insertion point) - 1)</code>, where the
+     *			insertion point is the index of the first span beginning
+     *			after <code>pos</code> (or <code>getNumSpans()</code>)
+     */
+    public int indexOf( long pos )
+    {
+        final int k = upperBound( pos );
+        return( ((k & 1) != 0) ? (k >> 1) : (-(k >> 1) - 1) );
+    }
+
+    /**
+     *	Checks whether a position lies within the set.
+     *
+     *	@param	pos	the position to check
+     *	@return	<code>true</code> if one of the spans contains <code>pos</code>
+     */
+    public boolean contains( long pos )
+    {
+        return( (upperBound( pos ) & 1) != 0 );
+    }
+
+    /**
+     *	Checks whether a span lies entirely within the set.
+     *
+     *	@param	span	the span to check
+     *	@return	<code>true</code> if the span is not empty and
+     *			one of the set's spans contains it
+     */
+    public boolean contains( Span span )
+    {
+        if( span.isEmpty() ) return false;
+
+        final int k = upperBound( span.start );
+        return( ((k & 1) != 0) && (bounds[ k ] >= span.stop) );
+    }
+
+    /**
+     *	Checks whether a span and the set have positions in common.
+     *
+     *	@param	span	the span to check
+     *	@return	<code>true</code> if the span is not empty and
+     *			overlaps one of the set's spans
+     */
+    public boolean overlaps( Span span )
+    {
+        if( span.isEmpty() ) return false;
+
+        final int k = upperBound( span.start );
+        return( ((k & 1) != 0) || ((k < bounds.length) && (bounds[ k ] < span.stop)) );
+    }
+
+    /**
+     *	Returns the union of two sets.
+     *
+     *	@param	s	the set to unite with this set
+     *	@return	a set holding the positions contained in either set
+     */
+    public SpanSet union( SpanSet s )
+    {
+        if( s.isEmpty() ) return this;
+        if( this.isEmpty() ) return s;
+        return combine( s, OP_UNION );
+    }
+
+    /**
+     *	Returns the intersection of two sets.
+     *
+     *	@param	s	the set to intersect with this set
+     *	@return	a set holding the positions contained in both sets
+     */
+    public SpanSet intersection( SpanSet s )
+    {
+        return combine( s, OP_INTERSECTION );
+    }
+
+    /**
+     *	Returns the difference of two sets.
+     *
+     *	@param	s	the set to subtract from this set
+     *	@return	a set holding the positions contained in this set
+     *			but not in <code>s</code>
+     */
+    public SpanSet difference( SpanSet s )
+    {
+        if( s.isEmpty() || this.isEmpty() ) return this;
+        return combine( s, OP_DIFFERENCE );
+    }
+
+    /**
+     *	Returns the gaps of this set within a given span.
+     *
+     *	@param	span	the span in which to look for gaps,
+     *					e.g. the visible span of a timeline
+     *	@return	a set holding the positions of <code>span</code> which are
+     *			not contained in this set
+     */
+    public SpanSet complement( Span span )
+    {
+        return new SpanSet( span ).difference( this );
+    }
+
+    /**
+     *	Returns the part of this set within a given span.
+     *	This is equivalent to the intersection with the span,
+     *	but takes only <code>O(log n + k)</code>.
+     *
+     *	@param	span	the span to clip to
+     *	@return	a set holding the positions of this set which
+     *			lie within <code>span</code>
+     */
+    public SpanSet clip( Span span )
+    {
+        if( span.isEmpty() ) return EMPTY;
+
+        final int		p	= upperBound( span.start );		// first bound after the start
+        final int		q	= lowerBound( span.stop );		// first bound at or after the stop
+        final long[]	b	= new long[ (q - p) + (p & 1) + (q & 1) ];
+        int				n	= 0;
+
+        if( (p & 1) != 0 ) b[ n++ ] = span.start;		// the start lies within a span
+        System.arraycopy( bounds, p, b, n, q - p );
+        n += q - p;
+        if( (q & 1) != 0 ) b[ n ] = span.stop;			// the stop lies within a span
+        if( b.length == 0 ) return EMPTY;
+        return( Arrays.equals( b, bounds ) ? this : new SpanSet( b ));
+    }
+
+    /**
+     *	Returns the set moved by a given offset.
+     *
+     *	@param	delta	the amount to add to all positions
+     *	@return	the shifted set
+     */
+    public SpanSet shift( long delta )
+    {
+        if( delta == 0 ) return this;
+
+        final long[] b = new long[ bounds.length ];
+        for( int i = 0; i < b.length; i++ ) {
+            b[ i ] = bounds[ i ] + delta;
+        }
+        return new SpanSet( b );
+    }
+
+    public boolean equals( Object o )
+    {
+        return( (o instanceof SpanSet) && Arrays.equals( this.bounds, ((SpanSet) o).bounds ));
+    }
+
+    public int hashCode()
+    {
+        return Arrays.hashCode( bounds );
+    }
+
+    public String toString()
+    {
+        final StringBuffer sb = new StringBuffer( "[" );
+
+        for( int i = 0; i < bounds.length; i += 2 ) {
+            if( i > 0 ) sb.append( ", " );
+            sb.append( bounds[ i ]);
+            sb.append( " ... " );
+            sb.append( bounds[ i + 1 ]);
+        }
+        sb.append( ']' );
+        return sb.toString();
+    }
+
+    /*
+     *	Sweeps over the bounds of both sets in ascending order,
+     *	tracking whether the current position lies within either set,
+     *	and emits a bound whenever the combined state changes
+     */
+    private SpanSet combine( SpanSet s, int op )
+    {
+        final long[]	a		= this.bounds;
+        final long[]	c		= s.bounds;
+        final long[]	b		= new long[ a.length + c.length ];
+        int				i		= 0;
+        int				j		= 0;
+        int				n		= 0;
+        boolean			inA		= false;
+        boolean			inC		= false;
+        boolean			inside	= false;
+        boolean			now;
+        long			x;
+
+        while( (i < a.length) || (j < c.length) ) {
+            x = ((j == c.length) || ((i < a.length) && (a[ i ] <= c[ j ]))) ? a[ i ] : c[ j ];
+            if( (i < a.length) && (a[ i ] == x) ) inA = (i++ & 1) == 0;
+            if( (j < c.length) && (c[ j ] == x) ) inC = (j++ & 1) == 0;
+            switch( op ) {
+            case OP_UNION:
+                now = inA || inC;
+                break;
+            case OP_INTERSECTION:
+                now = inA && inC;
+                break;
+            default:
+                now = inA && !inC;
+                break;
+            }
+            if( now != inside ) {
+                b[ n++ ] = x;
+                inside	 = now;
+            }
+        }
+        return( n == 0 ? EMPTY : new SpanSet( trim( b, n )));
+    }
+
+    // index of the first bound greater than pos
+    private int upperBound( long pos )
+    {
+        int lo = 0, hi = bounds.length, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( bounds[ mid ] <= pos ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // index of the first bound greater than or equal to pos
+    private int lowerBound( long pos )
+    {
+        int lo = 0, hi = bounds.length, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( bounds[ mid ] < pos ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static long[] trim( long[] b, int n )
+    {
+        if( n == b.length ) return b;
+
+        final long[] t = new long[ n ];
+        System.arraycopy( b, 0, t, 0, n );
+        return t;
+    }
+
+    // Span.startComparator is declared raw, hence the suppression
+    @SuppressWarnings( "unchecked" )
+    private static void sortByStart( Span[] spans )
+    {
+        Arrays.sort( spans, Span.startComparator );
+    }
+}
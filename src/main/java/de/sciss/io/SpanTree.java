@@ -0,0 +1,532 @@
+/*
+ *  SpanTree.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *	An index of objects occupying time spans, such as regions,
+ *	answering which of them overlap or contain a given position or span.
+ *	The objects must implement <code>SpanProvider</code>;
+ *	<code>Span</code>, <code>Region</code> and <code>AudioFileRegion</code>
+ *	all do.
+ *	<p>
+ *	The objects are kept in arrays sorted by span start (then stop).
+ *	Additionally the non-empty spans are arranged in a centered interval
+ *	tree: each node holds the spans containing its center point, sorted
+ *	by start and by stop, while the spans entirely before or after
+ *	the center are passed on to the node's children. A stabbing
+ *	query thus takes <code>O(log n + k)</code> for <code>k</code> results.
+ *	An overlap query is answered by a stabbing query at the span's start
+ *	plus a binary search for the spans beginning within the span, which
+ *	is <code>O(log n + k)</code> as well. The containment queries
+ *	take <code>O(log n + m)</code>, where <code>m</code> is the number
+ *	of candidates examined (the spans containing the query's start,
+ *	or those beginning within the query span respectively).
+ *	<p>
+ *	Bulk loading sorts the objects once, i.e. it takes <code>O(n log n)</code>.
+ *	Adding or removing single objects moves the array elements behind
+ *	the insertion point, and invalidates the tree, which is rebuilt
+ *	in <code>O(n log n)</code> by the next query. Many objects
+ *	should therefore be added at once using <code>addAll</code>.
+ *	<p>
+ *	Spans follow the convention of <code>Span</code>, i.e. the start is
+ *	inclusive and the stop is exclusive. The results of the queries agree
+ *	with <code>Span.overlaps</code> and <code>Span.contains</code>.
+ *	This class is not thread-safe.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		Span#overlaps( Span )
+ *	@see		Span#contains( Span )
+ */
+public class SpanTree
+{
+    private static final Comparator<Object>	spanComparator	= new SpanComparator();
+
+    private Object[]	items;
+    private long[]		starts;
+    private long[]		stops;
+    private int			size		= 0;
+
+    // the centered interval tree over the non-empty spans. each node owns
+    // a range of byStart and byStop, holding the indices of the spans
+    // which contain the node's center
+    private boolean		valid		= false;
+    private int			root		= -1;
+    private long[]		nodeCenter;
+    private int[]		nodeLeft;
+    private int[]		nodeRight;
+    private int[]		nodeOff;
+    private int[]		nodeLen;
+    private int[]		byStart;	// ascending span start
+    private int[]		byStop;		// descending span stop
+
+    /**
+     *	Creates an empty index.
+     */
+    public SpanTree()
+    {
+        items	= new Object[ 16 ];
+        starts	= new long[ 16 ];
+        stops	= new long[ 16 ];
+    }
+
+    /**
+     *	Creates an index holding the given objects.
+     *
+     *	@param	coll	a collection whose elements are
+     *					instanceof <code>SpanProvider</code>
+     */
+    public SpanTree( Collection coll )
+    {
+        this();
+        addAll( coll );
+    }
+
+    /**
+     *	Returns the number of objects in the index.
+     *
+     *	@return	the number of objects
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return( size == 0 );
+    }
+
+    /**
+     *	Returns an object by its position in the index,
+     *	the objects being sorted by span start (then stop).
+     *
+     *	@param	index	the position of the object
+     *	@return	the object at that position
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>size()</code>
+     */
+    public SpanProvider get( int index )
+    {
+        if( (index < 0) || (index >= size) ) throw new IndexOutOfBoundsException( String.valueOf( index ));
+        return (SpanProvider) items[ index ];
+    }
+
+    /**
+     *	Returns all objects.
+     *
+     *	@return	a new list of all objects, sorted by span start (then stop)
+     */
+    public List getAll()
+    {
+        return new ArrayList<Object>( Arrays.asList( items ).subList( 0, size ));
+    }
+
+    /**
+     *	Adds an object. If the index holds objects with an
+     *	equal span, the new object is placed after them.
+     *
+     *	@param	o	the object to add
+     */
+    public void add( SpanProvider o )
+    {
+        final Span	span	= o.getSpan();
+        final int	idx		= upperBound( span.start, span.stop );
+
+        ensureCapacity( size + 1 );
+        System.arraycopy( items, idx, items, idx + 1, size - idx );
+        System.arraycopy( starts, idx, starts, idx + 1, size - idx );
+        System.arraycopy( stops, idx, stops, idx + 1, size - idx );
+        items[ idx ]	= o;
+        starts[ idx ]	= span.start;
+        stops[ idx ]	= span.stop;
+        size++;
+        valid			= false;
+    }
+
+    /**
+     *	Adds several objects at once. This is
+     *	considerably faster than adding them one by one.
+     *
+     *	@param	coll	a collection whose elements are
+     *					instanceof <code>SpanProvider</code>
+     */
+    public void addAll( Collection coll )
+    {
+        final int	n	= coll.size();
+        final int	newSize;
+        Span		span;
+
+        if( n == 0 ) return;
+
+        newSize = size + n;
+        ensureCapacity( newSize );
+        System.arraycopy( coll.toArray(), 0, items, size, n );
+        Arrays.sort( items, 0, newSize, spanComparator );	// stable
+        for( int i = 0; i < newSize; i++ ) {
+            span		= ((SpanProvider) items[ i ]).getSpan();
+            starts[ i ]	= span.start;
+            stops[ i ]	= span.stop;
+        }
+        size	= newSize;
+        valid	= false;
+    }
+
+    /**
+     *	Removes an object.
+     *
+     *	@param	o	the object to remove
+     *	@return	<code>true</code> if the object was found and removed
+     */
+    public boolean remove( SpanProvider o )
+    {
+        final int idx = indexOf( o );
+
+        if( idx < 0 ) return false;
+
+        size--;
+        System.arraycopy( items, idx + 1, items, idx, size - idx );
+        System.arraycopy( starts, idx + 1, starts, idx, size - idx );
+        System.arraycopy( stops, idx + 1, stops, idx, size - idx );
+        items[ size ]	= null;
+        valid			= false;
+        return true;
+    }
+
+    /**
+     *	Removes all objects.
+     */
+    public void clear()
+    {
+        Arrays.fill( items, 0, size, null );
+        size	= 0;
+        valid	= false;
+    }
+
+    /**
+     *	Returns the position of an object, as determined
+     *	by its span and <code>equals</code>.
+     *
+     *	@param	o	the object to look for
+     *	@return	the object's position in the index, or <code>-1</code>
+     *			if the object is not part of the index
+     */
+    public int indexOf( SpanProvider o )
+    {
+        final Span	span	= o.getSpan();
+        final int	stop	= upperBound( span.start, span.stop );
+
+        for( int i = lowerBound( span.start, span.stop ); i < stop; i++ ) {
+            if( o.equals( items[ i ])) return i;
+        }
+        return -1;
+    }
+
+    public boolean contains( SpanProvider o )
+    {
+        return( indexOf( o ) >= 0 );
+    }
+
+    /**
+     *	Finds all objects which overlap a given span,
+     *	as defined by <code>Span.overlaps</code>.
+     *
+     *	@param	span	the span to query
+     *	@return	a new list of the overlapping objects, in no particular order
+     */
+    public List getOverlapping( Span span )
+    {
+        final List<Object> result = new ArrayList<Object>();
+
+        if( span.isEmpty() ) {	// spans beginning at the position do not count
+            stab( span.start, span.start - 1, Long.MIN_VALUE, result );
+        } else {
+            stab( span.start, Long.MAX_VALUE, Long.MIN_VALUE, result );
+            addRange( upperBound( span.start, Long.MAX_VALUE ), lowerBound( span.stop, Long.MIN_VALUE ), result );
+        }
+        return result;
+    }
+
+    /**
+     *	Finds all objects whose span contains
+     *	a given position.
+     *
+     *	@param	pos	the position to query
+     *	@return	a new list of the objects for which <code>start &lt;= pos &lt; stop</code>,
+     *			in no particular order
+     */
+    public List getContaining( long pos )
+    {
+        final List<Object> result = new ArrayList<Object>();
+
+        stab( pos, Long.MAX_VALUE, Long.MIN_VALUE, result );
+        return result;
+    }
+
+    /**
+     *	Finds all objects whose span contains a given span,
+     *	as defined by <code>Span.contains</code>.
+     *
+     *	@param	span	the span to query
+     *	@return	a new list of the containing objects, in no particular order
+     */
+    public List getContaining( Span span )
+    {
+        final List<Object> result = new ArrayList<Object>();
+
+        if( span.isEmpty() ) {
+            // either contain the position before, or begin at the position
+            stab( span.start - 1, Long.MAX_VALUE, span.stop, result );
+            addRange( lowerBound( span.start, Long.MIN_VALUE ), upperBound( span.start, Long.MAX_VALUE ), result );
+        } else {
+            stab( span.start, Long.MAX_VALUE, span.stop, result );
+        }
+        return result;
+    }
+
+    /**
+     *	Finds all objects whose span lies within
+     *	a given span, as defined by <code>Span.contains</code>.
+     *
+     *	@param	span	the span to query
+     *	@return	a new list of the contained objects, sorted by span start (then stop)
+     */
+    public List getContained( Span span )
+    {
+        final List<Object>	result	= new ArrayList<Object>();
+        final int	stop	= upperBound( span.stop, span.stop );
+
+        for( int i = lowerBound( span.start, Long.MIN_VALUE ); i < stop; i++ ) {
+            if( stops[ i ] <= span.stop ) result.add( items[ i ]);
+        }
+        return result;
+    }
+
+    private void addRange( int start, int stop, List<Object> result )
+    {
+        for( int i = start; i < stop; i++ ) {
+            result.add( items[ i ]);
+        }
+    }
+
+    // index of the first span greater than or equal to (start, stop)
+    private int lowerBound( long start, long stop )
+    {
+        int lo = 0, hi = size, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( (starts[ mid ] < start) || ((starts[ mid ] == start) && (stops[ mid ] < stop)) ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // index of the first span greater than (start, stop)
+    private int upperBound( long start, long stop )
+    {
+        int lo = 0, hi = size, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( (starts[ mid ] < start) || ((starts[ mid ] == start) && (stops[ mid ] <= stop)) ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void ensureCapacity( int n )
+    {
+        if( n <= items.length ) return;
+
+        final int newCap = Math.max( n, items.length << 1 );
+        final Object[]	newItems	= new Object[ newCap ];
+        final long[]	newStarts	= new long[ newCap ];
+        final long[]	newStops	= new long[ newCap ];
+
+        System.arraycopy( items, 0, newItems, 0, size );
+        System.arraycopy( starts, 0, newStarts, 0, size );
+        System.arraycopy( stops, 0, newStops, 0, size );
+        items	= newItems;
+        starts	= newStarts;
+        stops	= newStops;
+    }
+
+    /*
+     *	Adds the objects containing pos, whose start
+     *	is less than or equal to maxStart, and whose stop
+     *	is greater than or equal to minStop
+     */
+    private void stab( long pos, long maxStart, long minStop, List<Object> result )
+    {
+        int node, i, j, stop;
+
+        if( !valid ) buildTree();
+
+        node = root;
+        while( node >= 0 ) {
+            i		= nodeOff[ node ];
+            stop	= i + nodeLen[ node ];
+            if( pos < nodeCenter[ node ]) {
+                for( ; i < stop; i++ ) {
+                    j = byStart[ i ];
+                    if( starts[ j ] > pos ) break;
+                    if( (starts[ j ] <= maxStart) && (stops[ j ] >= minStop) ) result.add( items[ j ]);
+                }
+                node = nodeLeft[ node ];
+            } else {
+                for( ; i < stop; i++ ) {
+                    j = byStop[ i ];
+                    if( stops[ j ] <= pos ) break;
+                    if( (starts[ j ] <= maxStart) && (stops[ j ] >= minStop) ) result.add( items[ j ]);
+                }
+                node = nodeRight[ node ];
+            }
+        }
+    }
+
+    private void buildTree()
+    {
+        final int[]	idx	= new int[ size ];
+        int			n	= 0;
+
+        // empty spans contain no position, so they are left out
+        for( int i = 0; i < size; i++ ) {
+            if( starts[ i ] < stops[ i ]) idx[ n++ ] = i;
+        }
+        // each node holds at least one span
+        nodeCenter	= new long[ n ];
+        nodeLeft	= new int[ n ];
+        nodeRight	= new int[ n ];
+        nodeOff		= new int[ n ];
+        nodeLen		= new int[ n ];
+        byStart		= new int[ n ];
+        byStop		= new int[ n ];
+        root		= new TreeBuilder().build( idx, 0, n );
+        valid		= true;
+    }
+
+// -------- internal classes --------
+
+    private class TreeBuilder
+    {
+        private final int[]	tmp			= new int[ byStart.length ];
+        private int			numNodes	= 0;
+        private int			fill		= 0;
+
+        protected TreeBuilder() { /* empty */ }
+
+        // idx[ off ... off + len ] are sorted by span start. returns the node index
+        protected int build( int[] idx, int off, int len )
+        {
+            if( len == 0 ) return -1;
+
+            final long	c		= starts[ idx[ off + (len >> 1) ]];	// the median start
+            final int	node	= numNodes++;
+            final int	first	= fill;
+            int			numLeft	= 0;
+            int			numRight= 0;
+            int			j;
+
+            // stable three way partition: spans before the center stay in
+            // idx, spans after it go to tmp, the others belong to the node
+            for( int i = off, stop = off + len; i < stop; i++ ) {
+                j = idx[ i ];
+                if( stops[ j ] <= c ) {
+                    idx[ off + numLeft++ ] = j;
+                } else if( starts[ j ] > c ) {
+                    tmp[ numRight++ ] = j;
+                } else {
+                    byStart[ fill++ ] = j;
+                }
+            }
+            System.arraycopy( tmp, 0, idx, off + numLeft, numRight );
+            System.arraycopy( byStart, first, byStop, first, fill - first );
+            sortByStop( first, fill - first );
+
+            nodeCenter[ node ]	= c;
+            nodeOff[ node ]		= first;
+            nodeLen[ node ]		= fill - first;
+            nodeLeft[ node ]	= build( idx, off, numLeft );
+            nodeRight[ node ]	= build( idx, off + numLeft, numRight );
+            return node;
+        }
+
+        // merge sort of byStop[ off ... off + len ] by descending span stop
+        private void sortByStop( int off, int len )
+        {
+            final int	mid;
+            int			i, j, k;
+
+            if( len < 2 ) return;
+
+            mid = off + (len >> 1);
+            sortByStop( off, mid - off );
+            sortByStop( mid, off + len - mid );
+            System.arraycopy( byStop, off, tmp, 0, len );
+            for( i = 0, j = mid - off, k = off; k < off + len; k++ ) {
+                if( (j >= len) || ((i < mid - off) && (stops[ tmp[ i ]] >= stops[ tmp[ j ]])) ) {
+                    byStop[ k ] = tmp[ i++ ];
+                } else {
+                    byStop[ k ] = tmp[ j++ ];
+                }
+            }
+        }
+    }
+
+    private static class SpanComparator
+    implements Comparator<Object>
+    {
+        protected SpanComparator() { /* empty */ }
+
+        public int compare( Object o1, Object o2 )
+        {
+            final Span s1 = ((SpanProvider) o1).getSpan();
+            final Span s2 = ((SpanProvider) o2).getSpan();
+
+            if( s1.start < s2.start ) return -1;
+            if( s1.start > s2.start ) return 1;
+            if( s1.stop < s2.stop ) return -1;
+            if( s1.stop > s2.stop ) return 1;
+            return 0;
+        }
+    }
+}
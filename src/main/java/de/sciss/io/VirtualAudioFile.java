@@ -0,0 +1,688 @@
+/*
+ *  VirtualAudioFile.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *	A non-destructive composite file, presenting sections of
+ *	several audio files as one continuous stream. The file is
+ *	described by an edit list of segments, each taking a span of
+ *	frames from an <code>AudioFile</code>, scaled by a gain factor,
+ *	and placing it at a position of the virtual timeline. Positions
+ *	not covered by a segment read as silence.
+ *	<p>
+ *	Edits such as inserting, removing or silencing a span only
+ *	change the edit list, no sample data is copied. The frames are
+ *	decoded only when they are read: <code>seekFrame</code> looks up
+ *	the segment at the new position in <code>O(log n)</code> for
+ *	<code>n</code> segments, and <code>readFrames</code> then stitches
+ *	the segments together, continuing from one segment to the next.
+ *	The source frames are fetched with positional reads, so the
+ *	same audio file may be used by several segments or by other readers.
+ *	<p>
+ *	The virtual file is read-only in the sense of the
+ *	<code>InterleavedStreamFile</code> interface, i.e. the
+ *	<code>writeFrames</code> methods throw an <code>IOException</code>.
+ *	This class is not thread-safe.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 18-Oct-26
+ *
+ *	@see		AudioFile#readFrames( long, float[][], int, int )
+ */
+public class VirtualAudioFile
+implements InterleavedStreamFile
+{
+    private static final int	BUF_SIZE	= 8192;
+
+    private final int			channels;
+    private Segment[]			segments	= new Segment[ 16 ];	// ascending, not overlapping
+    private int					numSegments	= 0;
+    private long				frameNum	= 0L;
+
+    private long				position	= 0L;
+    private int					curSeg		= -1;	// first segment ending after position, -1 if unknown
+    private float[][]			convBuf		= null;
+
+    /**
+     *	Creates an empty virtual file.
+     *
+     *	@param	channels	the number of channels. All audio files
+     *						used by the segments must have this number of channels
+     */
+    public VirtualAudioFile( int channels )
+    {
+        if( channels <= 0 ) throw new IllegalArgumentException( "channels " + channels );
+        this.channels = channels;
+    }
+
+    /**
+     *	Returns the number of segments in the edit list.
+     *
+     *	@return	the number of segments
+     */
+    public int getNumSegments()
+    {
+        return numSegments;
+    }
+
+    /**
+     *	Returns a segment of the edit list.
+     *
+     *	@param	index	the index of the segment, where the
+     *					segments are sorted by position
+     *	@return	the segment
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>getNumSegments()</code>
+     */
+    public Segment getSegment( int index )
+    {
+        if( (index < 0) || (index >= numSegments) ) throw new IndexOutOfBoundsException( String.valueOf( index ));
+        return segments[ index ];
+    }
+
+    /**
+     *	Returns all segments of the edit list.
+     *
+     *	@return	a new list of the segments, sorted by position
+     */
+    public List<Segment> getSegments()
+    {
+        final List<Segment> result = new ArrayList<Segment>( numSegments );
+
+        for( int i = 0; i < numSegments; i++ ) {
+            result.add( segments[ i ]);
+        }
+        return result;
+    }
+
+    /**
+     *	Finds the segment covering a position.
+     *
+     *	@param	pos	the position in the virtual file
+     *	@return	the index of the segment containing <code>pos</code>. if
+     *			<code>pos</code> lies in a gap, <code>(-(insertion point) - 1)</code>,
+     *			where the insertion point is the index of the next segment
+     *			(or <code>getNumSegments()</code>)
+     */
+    public int indexOfSegment( long pos )
+    {
+        final int idx = findSegment( pos );
+        return( ((idx < numSegments) && (segments[ idx ].pos <= pos)) ? idx : (-idx - 1) );
+    }
+
+    /**
+     *	Places a segment in the edit list. The segment must not
+     *	overlap any other segment. If it ends after the end
+     *	of the virtual file, the file is extended.
+     *
+     *	@param	pos		the position of the segment in the virtual file
+     *	@param	af		the audio file to take the frames from
+     *	@param	span	the span of frames to take from the audio file
+     *	@param	gain	the linear factor by which the frames are multiplied
+     *
+     *	@throws	IOException	if the audio file's length cannot be determined
+     *	@throws	IllegalArgumentException	if the position is negative, the audio file has
+     *										a different number of channels, the span lies outside
+     *										of the audio file, or the segment overlaps another segment
+     */
+    public void addSegment( long pos, AudioFile af, Span span, float gain )
+    throws IOException
+    {
+        final Segment	seg	= createSegment( pos, af, span, gain );
+        final int		idx;
+
+        if( seg == null ) return;
+
+        idx = findSegment( pos );
+        if( ((idx < numSegments) && (segments[ idx ].pos < seg.getStop())) ) {
+            throw new IllegalArgumentException( "Segment overlaps " + segments[ idx ]);
+        }
+        insertSegment( idx, seg );
+        frameNum = Math.max( frameNum, seg.getStop() );
+    }
+
+    /**
+     *	Removes a segment from the edit list. The
+     *	segment's frames are replaced by silence.
+     *
+     *	@param	index	the index of the segment to remove
+     *
+     *	@throws	IndexOutOfBoundsException	if <code>index</code> is negative
+     *										or not less than <code>getNumSegments()</code>
+     */
+    public void removeSegment( int index )
+    {
+        if( (index < 0) || (index >= numSegments) ) throw new IndexOutOfBoundsException( String.valueOf( index ));
+        removeSegments( index, index + 1 );
+    }
+
+    /**
+     *	Inserts frames of an audio file at a given position. Segments
+     *	beginning at or after the position are moved towards the end by
+     *	the length of the inserted span, a segment crossing the position
+     *	is split.
+     *
+     *	@param	pos		the insertion position in the virtual file
+     *	@param	af		the audio file to take the frames from
+     *	@param	span	the span of frames to take from the audio file
+     *	@param	gain	the linear factor by which the frames are multiplied
+     *
+     *	@throws	IOException	if the audio file's length cannot be determined
+     *	@throws	IllegalArgumentException	if the position is negative, the audio file has
+     *										a different number of channels, or the span lies
+     *										outside of the audio file
+     */
+    public void insert( long pos, AudioFile af, Span span, float gain )
+    throws IOException
+    {
+        final Segment seg = createSegment( pos, af, span, gain );
+
+        if( seg == null ) return;
+
+        insertSilence( pos, span.getLength() );
+        insertSegment( findSegment( pos ), seg );
+    }
+
+    /**
+     *	Inserts silence at a given position. Segments
+     *	beginning at or after the position are moved towards
+     *	the end, a segment crossing the position is split.
+     *
+     *	@param	pos		the insertion position in the virtual file
+     *	@param	length	the number of frames to insert
+     */
+    public void insertSilence( long pos, long length )
+    {
+        if( length <= 0 ) return;
+
+        split( pos );
+        for( int i = findSegment( pos ); i < numSegments; i++ ) {
+            segments[ i ] = segments[ i ].shift( length );
+        }
+        frameNum	= Math.max( frameNum, pos ) + length;
+        curSeg		= -1;
+    }
+
+    /**
+     *	Removes a span of frames. The segments after the
+     *	span are moved towards the beginning, segments crossing
+     *	the span's bounds are shortened, and the virtual file
+     *	becomes shorter by the span's length.
+     *
+     *	@param	span	the span to remove. only the part
+     *					within the virtual file is considered
+     */
+    public void remove( Span span )
+    {
+        final long start	= Math.max( 0, span.start );
+        final long stop		= Math.min( frameNum, span.stop );
+        final long length	= stop - start;
+
+        if( length <= 0 ) return;
+
+        clear( new Span( start, stop ));
+        for( int i = findSegment( stop ); i < numSegments; i++ ) {
+            segments[ i ] = segments[ i ].shift( -length );
+        }
+        frameNum   -= length;
+        curSeg		= -1;
+    }
+
+    /**
+     *	Silences a span of frames. Segments within the span are
+     *	removed, segments crossing the span's bounds are shortened.
+     *	The length of the virtual file does not change.
+     *
+     *	@param	span	the span to silence
+     */
+    public void clear( Span span )
+    {
+        if( span.isEmpty() ) return;
+
+        split( span.start );
+        split( span.stop );
+        removeSegments( findSegment( span.start ), findSegment( span.stop ));
+    }
+
+    /**
+     *	Reads frames from the current position. Gaps
+     *	between segments are read as silence.
+     *
+     *  @param  data	buffer to hold the frames (deinterleaved;
+     *					<code>null</code> arrays are skipped)
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read
+     *
+     *  @throws IOException if a read error or end-of-file occurs
+     */
+    public void readFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        Segment	seg;
+        int		chunkLength;
+        float[]	b;
+
+        if( position + length > frameNum ) throw new EOFException();
+        if( curSeg < 0 ) curSeg = findSegment( position );
+
+        while( length > 0 ) {
+            seg = curSeg < numSegments ? segments[ curSeg ] : null;
+            if( (seg != null) && (position >= seg.pos) ) {
+                chunkLength = (int) Math.min( length, seg.getStop() - position );
+                seg.file.readFrames( seg.span.start + (position - seg.pos), data, offset, chunkLength );
+                if( seg.gain != 1f ) {
+                    for( int ch = 0; ch < channels; ch++ ) {
+                        b = data[ ch ];
+                        if( b == null ) continue;
+                        for( int i = offset, j = offset + chunkLength; i < j; i++ ) {
+                            b[ i ] *= seg.gain;
+                        }
+                    }
+                }
+            } else {	// a gap
+                chunkLength = (int) (seg == null ? length : Math.min( length, seg.pos - position ));
+                for( int ch = 0; ch < channels; ch++ ) {
+                    b = data[ ch ];
+                    if( b == null ) continue;
+                    for( int i = offset, j = offset + chunkLength; i < j; i++ ) {
+                        b[ i ] = 0f;
+                    }
+                }
+            }
+            position   += chunkLength;
+            offset	   += chunkLength;
+            length	   -= chunkLength;
+            if( (seg != null) && (position >= seg.getStop()) ) curSeg++;
+        }
+    }
+
+    public void readFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        float[]			f;
+        double[]		d;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( BUF_SIZE, length );
+            readFrames( b, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                d = data[ ch ];
+                if( d == null ) continue;
+                f = b[ ch ];
+                for( int i = 0, j = offset; i < chunkLength; i++, j++ ) {
+                    d[ j ] = f[ i ];
+                }
+            }
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    public void readFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( BUF_SIZE, length );
+            readFrames( b, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset * channels + ch; i < chunkLength; i++, j += channels ) {
+                    data[ j ] = f[ i ];
+                }
+            }
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    public void readFrames( double[] data, int offset, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        float[]			f;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( BUF_SIZE, length );
+            readFrames( b, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                f = b[ ch ];
+                for( int i = 0, j = offset * channels + ch; i < chunkLength; i++, j += channels ) {
+                    data[ j ] = f[ i ];
+                }
+            }
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+    }
+
+    public void readFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( BUF_SIZE, length );
+            readFrames( b, 0, chunkLength );
+            for( int i = 0; i < chunkLength; i++ ) {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    data.put( b[ ch ][ i ]);
+                }
+            }
+            length -= chunkLength;
+        }
+    }
+
+    public void copyFrames( InterleavedStreamFile target, long length )
+    throws IOException
+    {
+        final float[][]	b	= getConvBuf();
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength	= (int) Math.min( length, BUF_SIZE );
+            readFrames( b, 0, chunkLength );
+            target.writeFrames( b, 0, chunkLength );
+            length -= chunkLength;
+        }
+    }
+
+    /**
+     *	Moves the read position, looking up
+     *	the segment at the new position.
+     *
+     *	@param	frame	the new position in sample frames
+     */
+    public void seekFrame( long frame )
+    {
+        position	= frame;
+        curSeg		= findSegment( frame );
+    }
+
+    public long getFramePosition()
+    {
+        return position;
+    }
+
+    public long getFrameNum()
+    {
+        return frameNum;
+    }
+
+    /**
+     *	Changes the length of the virtual file. When shortening the
+     *	file, segments beyond the new end are removed or shortened.
+     *	When extending the file, silence is appended.
+     *
+     *	@param	n	the new length in sample frames
+     */
+    public void setFrameNum( long n )
+    {
+        if( n < frameNum ) clear( new Span( n, frameNum ));
+        frameNum = Math.max( 0, n );
+        if( position > frameNum ) seekFrame( frameNum );
+    }
+
+    /**
+     *	Shortens the virtual file to end
+     *	at the current position.
+     */
+    public void truncate()
+    {
+        if( position < frameNum ) setFrameNum( position );
+    }
+
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    /**
+     *	Returns <code>null</code>, since a virtual
+     *	file has no file of its own.
+     */
+    public File getFile()
+    {
+        return null;
+    }
+
+    public void flush() { /* nothing to flush */ }
+
+    /**
+     *	Closes all audio files used by the segments.
+     *
+     *	@throws	IOException	if closing a file fails
+     */
+    public void close()
+    throws IOException
+    {
+        final List<AudioFile>	files	= new ArrayList<AudioFile>();
+        AudioFile				af;
+
+        for( int i = 0; i < numSegments; i++ ) {
+            af = segments[ i ].file;
+            if( !files.contains( af )) files.add( af );
+        }
+        for( int i = 0; i < files.size(); i++ ) {
+            files.get( i ).close();
+        }
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the virtual file is read-only.
+     */
+    public void writeFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the virtual file is read-only.
+     */
+    public void writeFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the virtual file is read-only.
+     */
+    public void writeFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the virtual file is read-only.
+     */
+    public void writeFrames( double[] data, int offset, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    /**
+     *	Throws an <code>IOException</code>, since the virtual file is read-only.
+     */
+    public void writeFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        throw readOnly();
+    }
+
+    private static IOException readOnly()
+    {
+        return new IOException( IOUtil.getResourceString( "errAudioFileReadOnly" ));
+    }
+
+    private float[][] getConvBuf()
+    {
+        if( convBuf == null ) convBuf = new float[ channels ][ BUF_SIZE ];
+        return convBuf;
+    }
+
+    // returns null for an empty span
+    private Segment createSegment( long pos, AudioFile af, Span span, float gain )
+    throws IOException
+    {
+        if( pos < 0 ) throw new IllegalArgumentException( "Position " + pos );
+        if( af.getChannelNum() != channels ) {
+            throw new IllegalArgumentException( "Channel mismatch (" + af.getChannelNum() + " != " + channels + ")" );
+        }
+        if( (span.start < 0) || (span.stop > af.getFrameNum()) ) {
+            throw new IllegalArgumentException( "Span " + span + " outside of " + af.getFile() );
+        }
+        return( span.isEmpty() ? null : new Segment( pos, af, span, gain ));
+    }
+
+    // index of the first segment ending after pos, or numSegments
+    private int findSegment( long pos )
+    {
+        int lo = 0, hi = numSegments, mid;
+
+        while( lo < hi ) {
+            mid = (lo + hi) >>> 1;
+            if( segments[ mid ].getStop() <= pos ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // splits the segment crossing pos, if any, so that a segment begins at pos
+    private void split( long pos )
+    {
+        final int		idx	= findSegment( pos );
+        final Segment	seg;
+
+        if( idx == numSegments ) return;
+        seg = segments[ idx ];
+        if( seg.pos >= pos ) return;
+
+        segments[ idx ] = new Segment( seg.pos, seg.file, new Span( seg.span.start, seg.span.start + (pos - seg.pos) ), seg.gain );
+        insertSegment( idx + 1, new Segment( pos, seg.file, new Span( seg.span.start + (pos - seg.pos), seg.span.stop ), seg.gain ));
+    }
+
+    private void insertSegment( int idx, Segment seg )
+    {
+        if( numSegments == segments.length ) {
+            final Segment[] newSegments = new Segment[ numSegments << 1 ];
+            System.arraycopy( segments, 0, newSegments, 0, numSegments );
+            segments = newSegments;
+        }
+        System.arraycopy( segments, idx, segments, idx + 1, numSegments - idx );
+        segments[ idx ] = seg;
+        numSegments++;
+        curSeg = -1;
+    }
+
+    private void removeSegments( int start, int stop )
+    {
+        if( stop <= start ) return;
+
+        System.arraycopy( segments, stop, segments, start, numSegments - stop );
+        for( int i = numSegments - (stop - start); i < numSegments; i++ ) segments[ i ] = null;
+        numSegments	   -= stop - start;
+        curSeg			= -1;
+    }
+
+// -------- internal classes --------
+
+    /**
+     *	An entry of the edit list: a span of frames of an
+     *	audio file, placed at a position in the virtual file.
+     *	Segments are immutable.
+     */
+    public static class Segment
+    {
+        /**
+         *	The position in the virtual file at which the segment begins
+         */
+        public final long		pos;
+        /**
+         *	The audio file from which the frames are read
+         */
+        public final AudioFile	file;
+        /**
+         *	The span of frames in the audio file
+         */
+        public final Span		span;
+        /**
+         *	The linear factor by which the frames are multiplied
+         */
+        public final float		gain;
+
+        protected Segment( long pos, AudioFile file, Span span, float gain )
+        {
+            this.pos	= pos;
+            this.file	= file;
+            this.span	= span;
+            this.gain	= gain;
+        }
+
+        /**
+         *	Returns the position in the virtual
+         *	file at which the segment ends.
+         *
+         *	@return	the segment's position plus its length (exclusive)
+         */
+        public long getStop()
+        {
+            return( pos + span.getLength() );
+        }
+
+        protected Segment shift( long delta )
+        {
+            return new Segment( pos + delta, file, span, gain );
+        }
+
+        public String toString()
+        {
+            return( "Segment( " + pos + ", " + file.getFile() + ", " + span + ", " + gain + " )" );
+        }
+    }
+}
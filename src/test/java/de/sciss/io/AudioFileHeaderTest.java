@@ -0,0 +1,155 @@
+/*
+ *  AudioFileHeaderTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *	Checks that the header walk does not take sample
+ *	data for chunks when the length of the sample data
+ *	chunk is zero or too small.
+ */
+public class AudioFileHeaderTest
+{
+    private static final int	NUM_FRAMES	= 1000;
+
+    @Test
+    public void streamedWaveDataIsNotIndexed()
+    throws IOException
+    {
+        final File				f		= writeSilence( AudioFileDescr.TYPE_WAVE, ".wav" );
+        final RandomAccessFile	raf		= new RandomAccessFile( f, "rw" );
+        final long				dataPos;
+        final AudioFile			af;
+
+        try {
+            dataPos = findMagic( raf, "data" );
+            raf.seek( dataPos + 4 );
+            raf.writeInt( 0 );					// length not known, as when streaming
+            // a cue chunk inside the sample data
+            raf.writeBytes( "cue " );
+            writeLittleInt( raf, 28 );
+            writeLittleInt( raf, 1 );			// one cue point
+            writeLittleInt( raf, 1 );			// dwIdentifier
+            writeLittleInt( raf, 0 );			// dwPosition
+            raf.writeBytes( "data" );
+            raf.writeLong( 0 );
+            writeLittleInt( raf, 1234 );		// dwSampleOffset
+        }
+        finally {
+            raf.close();
+        }
+
+        af = AudioFile.openAsRead( f );
+        try {
+            af.readMarkers();
+            assertNull( "markers", af.getDescr().getProperty( AudioFileDescr.KEY_MARKERS ));
+        }
+        finally {
+            af.close();
+        }
+    }
+
+    @Test
+    public void shortAIFFSoundDataIsNotIndexed()
+    throws IOException
+    {
+        final File				f		= writeSilence( AudioFileDescr.TYPE_AIFF, ".aif" );
+        final RandomAccessFile	raf		= new RandomAccessFile( f, "rw" );
+        final long				ssndPos;
+        final AudioFile			af;
+
+        try {
+            ssndPos = findMagic( raf, "SSND" );
+            raf.seek( ssndPos + 4 );
+            raf.writeInt( 24 );					// too short for the frames in COMM
+            // a MARK chunk inside the sound data
+            raf.seek( ssndPos + 32 );
+            raf.writeBytes( "MARK" );
+            raf.writeInt( 10 );
+            raf.writeShort( 1 );				// one marker
+            raf.writeShort( 1 );				// marker ID
+            raf.writeInt( 1234 );				// position
+            raf.writeByte( 1 );
+            raf.writeBytes( "x" );
+        }
+        finally {
+            raf.close();
+        }
+
+        af = AudioFile.openAsRead( f );
+        try {
+            assertEquals( NUM_FRAMES, af.getFrameNum() );
+            af.readMarkers();
+            assertNull( "markers", af.getDescr().getProperty( AudioFileDescr.KEY_MARKERS ));
+        }
+        finally {
+            af.close();
+        }
+    }
+
+    private static File writeSilence( int type, String suffix )
+    throws IOException
+    {
+        final AudioFileDescr	afd		= new AudioFileDescr();
+        final AudioFile			af;
+
+        afd.type			= type;
+        afd.channels		= 1;
+        afd.bitsPerSample	= 16;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_INT;
+        afd.rate			= 44100;
+        afd.file			= File.createTempFile( "hdr", suffix );
+        afd.file.deleteOnExit();
+        af = AudioFile.openAsWrite( afd );
+        af.writeFrames( new float[][] { new float[ NUM_FRAMES ]}, 0, NUM_FRAMES );
+        af.close();
+        return afd.file;
+    }
+
+    private static long findMagic( RandomAccessFile raf, String magic )
+    throws IOException
+    {
+        final byte[] b = new byte[ 256 ];
+
+        raf.seek( 0 );
+        raf.readFully( b );
+        return new String( b, "ISO-8859-1" ).indexOf( magic );
+    }
+
+    private static void writeLittleInt( RandomAccessFile raf, int i )
+    throws IOException
+    {
+        raf.writeInt( Integer.reverseBytes( i ));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  AudioFilePositionalReadTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *	Checks that positional reads do not keep closed
+ *	<code>AudioFile</code>s or their read buffers reachable
+ *	from the reading thread.
+ */
+public class AudioFilePositionalReadTest
+{
+    private static final int	NUM_FILES	= 50;
+    private static final int	NUM_FRAMES	= 20000;
+
+    @Test
+    public void closedFLACFilesAreReleased()
+    throws IOException, InterruptedException
+    {
+        final AudioFileDescr	afd		= new AudioFileDescr();
+        final float[][]			data	= new float[ 2 ][ NUM_FRAMES ];
+        final float[][]			in		= new float[ 2 ][ 1000 ];
+        final WeakReference<?>[]	refs	= new WeakReference<?>[ NUM_FILES ];
+        AudioFile				af;
+
+        for( int i = 0; i < NUM_FRAMES; i++ ) {
+            data[ 0 ][ i ] = (float) Math.sin( i * 0.01 ) * 0.5f;
+            data[ 1 ][ i ] = (float) Math.cos( i * 0.013 ) * 0.5f;
+        }
+        afd.type			= AudioFileDescr.TYPE_FLAC;
+        afd.channels		= 2;
+        afd.bitsPerSample	= 24;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_INT;
+        afd.rate			= 44100;
+        afd.file			= File.createTempFile( "pos", ".flac" );
+        afd.file.deleteOnExit();
+        af = AudioFile.openAsWrite( afd );
+        af.writeFrames( data, 0, NUM_FRAMES );
+        af.close();
+
+        try {
+            for( int i = 0; i < NUM_FILES; i++ ) {
+                af = AudioFile.openAsRead( afd.file );
+                af.readFrames( 5000, in, 0, in[ 0 ].length );
+                af.close();
+                refs[ i ] = new WeakReference<AudioFile>( af );
+            }
+            af = AudioFile.openAsRead( afd.file );
+            af.readFrames( 0, in, 0, in[ 0 ].length );
+            af.close();
+            for( int ch = 0; ch < 2; ch++ ) {
+                final float[] expected = new float[ in[ ch ].length ];
+                System.arraycopy( data[ ch ], 0, expected, 0, expected.length );
+                assertArrayEquals( expected, in[ ch ], 1.0e-6f );
+            }
+            af = null;
+
+            for( int retry = 0; (retry < 20) && (refs[ NUM_FILES - 1 ].get() != null); retry++ ) {
+                System.gc();
+                Thread.sleep( 50 );
+            }
+            for( int i = 0; i < NUM_FILES; i++ ) {
+                assertNull( "file #" + i + " still reachable", refs[ i ].get() );
+            }
+        }
+        finally {
+            afd.file.delete();
+        }
+    }
+
+    @Test
+    public void closedFilesReleaseReadBuffers()
+    throws IOException, InterruptedException
+    {
+        final AudioFileDescr	afd		= new AudioFileDescr();
+        final float[][]			in		= new float[ 2 ][ 1000 ];
+        final long				before;
+        AudioFile				af;
+
+        afd.type			= AudioFileDescr.TYPE_AIFF;
+        afd.channels		= 2;
+        afd.bitsPerSample	= 16;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_INT;
+        afd.rate			= 44100;
+        afd.file			= File.createTempFile( "pos", ".aif" );
+        afd.file.deleteOnExit();
+        af = AudioFile.openAsWrite( afd );
+        af.writeFrames( new float[ 2 ][ NUM_FRAMES ], 0, NUM_FRAMES );
+        af.close();
+
+        try {
+            before = collectDirectBuffers( 0 );
+            for( int i = 0; i < NUM_FILES; i++ ) {
+                af = AudioFile.openAsRead( afd.file );
+                af.readFrames( 5000, in, 0, in[ 0 ].length );
+                af.close();
+            }
+            af = null;
+            // each file allocates one buffer of its own and one for the positional read
+            final long after = collectDirectBuffers( before );
+            assertTrue( (after - before) + " direct buffers still reachable", after - before < NUM_FILES / 2 );
+        }
+        finally {
+            afd.file.delete();
+        }
+    }
+
+    // runs the garbage collector until the number of direct buffers drops to the limit
+    private static long collectDirectBuffers( long limit )
+    throws InterruptedException
+    {
+        long count = directBufferCount();
+
+        for( int retry = 0; (retry < 20) && (count > limit); retry++ ) {
+            System.gc();
+            Thread.sleep( 50 );
+            count = directBufferCount();
+        }
+        return count;
+    }
+
+    private static long directBufferCount()
+    {
+        for( BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans( BufferPoolMXBean.class )) {
+            if( pool.getName().equals( "direct" )) return pool.getCount();
+        }
+        return 0;
+    }
+}
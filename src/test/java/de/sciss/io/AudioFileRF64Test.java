@@ -0,0 +1,145 @@
+/*
+ *  AudioFileRF64Test.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *	Reads a synthetic RF64 header whose RIFF and data sizes
+ *	are 0xFFFFFFFF, so that the real sizes must be taken from
+ *	the ds64 chunk.
+ */
+public class AudioFileRF64Test
+{
+    private static final int	CHANNELS	= 2;
+    private static final int	NUM_FRAMES	= 64;
+    private static final long	DATA_LEN	= 6000000000L;		// beyond 4 GB
+    private static final int	JUNK_LEN	= 10;
+    // RF64 + WAVE, ds64, fmt, JUNK and the data chunk header
+    private static final long	DATA_OFFSET	= 12 + (8 + 28) + (8 + 16) + (8 + JUNK_LEN) + 8;
+
+    @Test
+    public void lengthIsTakenFromDS64()
+    throws IOException
+    {
+        final File				f	= writeRF64();
+        final AudioFileDescr	afd	= AudioFile.probe( f );
+
+        assertEquals( AudioFileDescr.TYPE_WAVE, afd.type );
+        assertEquals( CHANNELS, afd.channels );
+        assertEquals( "frames", DATA_LEN / (CHANNELS * 2), afd.length );
+    }
+
+    @Test
+    public void samplesStartBehindTheDataHeader()
+    throws IOException
+    {
+        final File			f	= writeRF64();
+        final AudioFile		af	= AudioFile.openAsRead( f );
+        final float[][]		in	= new float[ CHANNELS ][ NUM_FRAMES ];
+
+        try {
+            assertEquals( "frames", DATA_LEN / (CHANNELS * 2), af.getFrameNum() );
+            af.readFrames( in, 0, NUM_FRAMES );
+            for( int i = 0; i < NUM_FRAMES; i++ ) {
+                for( int ch = 0; ch < CHANNELS; ch++ ) {
+                    assertEquals( "frame " + i, sample( i, ch ) / 32768f, in[ ch ][ i ], 1.0e-4f );
+                }
+            }
+        }
+        finally {
+            af.close();
+        }
+    }
+
+    // distinct for every frame and channel, so that a wrong data offset
+    // shows even with the tolerance of the 16 bit scaling
+    private static int sample( int frame, int ch )
+    {
+        return (frame * 311 + ch * 1000) - 16000;
+    }
+
+    private static File writeRF64()
+    throws IOException
+    {
+        final File				f	= File.createTempFile( "rf64", ".wav" );
+        final RandomAccessFile	raf	= new RandomAccessFile( f, "rw" );
+
+        f.deleteOnExit();
+        try {
+            raf.writeBytes( "RF64" );
+            writeLittleInt( raf, -1 );								// see ds64
+            raf.writeBytes( "WAVE" );
+            raf.writeBytes( "ds64" );
+            writeLittleInt( raf, 28 );
+            writeLittleLong( raf, DATA_OFFSET - 8 + DATA_LEN );		// RIFF size
+            writeLittleLong( raf, DATA_LEN );						// data size
+            writeLittleLong( raf, DATA_LEN / (CHANNELS * 2) );		// sample count
+            writeLittleInt( raf, 0 );								// no table
+            raf.writeBytes( "fmt " );
+            writeLittleInt( raf, 16 );
+            raf.writeShort( Short.reverseBytes( (short) 1 ));		// PCM
+            raf.writeShort( Short.reverseBytes( (short) CHANNELS ));
+            writeLittleInt( raf, 44100 );
+            writeLittleInt( raf, 44100 * CHANNELS * 2 );
+            raf.writeShort( Short.reverseBytes( (short) (CHANNELS * 2) ));
+            raf.writeShort( Short.reverseBytes( (short) 16 ));
+            raf.writeBytes( "JUNK" );
+            writeLittleInt( raf, JUNK_LEN );
+            raf.write( new byte[ JUNK_LEN ]);
+            raf.writeBytes( "data" );
+            writeLittleInt( raf, -1 );								// see ds64
+            assertEquals( "header", DATA_OFFSET, raf.getFilePointer() );
+            for( int i = 0; i < NUM_FRAMES; i++ ) {
+                for( int ch = 0; ch < CHANNELS; ch++ ) {
+                    raf.writeShort( Short.reverseBytes( (short) sample( i, ch )));
+                }
+            }
+        }
+        finally {
+            raf.close();
+        }
+        return f;
+    }
+
+    private static void writeLittleInt( RandomAccessFile raf, int i )
+    throws IOException
+    {
+        raf.writeInt( Integer.reverseBytes( i ));
+    }
+
+    private static void writeLittleLong( RandomAccessFile raf, long n )
+    throws IOException
+    {
+        raf.writeLong( Long.reverseBytes( n ));
+    }
+}
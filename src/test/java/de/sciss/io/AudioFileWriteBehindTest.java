@@ -0,0 +1,81 @@
+/*
+ *  AudioFileWriteBehindTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioFileWriteBehindTest
+{
+    @Test
+    public void nullChannelsAreWrittenAsSilence()
+    throws IOException
+    {
+        final AudioFileDescr		afd		= new AudioFileDescr();
+        final float[][]				data	= new float[ 2 ][ 300 ];
+        final float[][]				in		= new float[ 2 ][ 900 ];
+        final AudioFileWriteBehind	wb;
+        AudioFile					af;
+
+        for( int i = 0; i < data[ 0 ].length; i++ ) {
+            data[ 0 ][ i ] = 0.25f;
+            data[ 1 ][ i ] = -0.5f;
+        }
+        afd.type			= AudioFileDescr.TYPE_AIFF;
+        afd.channels		= 2;
+        afd.bitsPerSample	= 32;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_FLOAT;
+        afd.rate			= 44100;
+        afd.file			= File.createTempFile( "awb", ".aif" );
+        afd.file.deleteOnExit();
+
+        try {
+            wb = new AudioFileWriteBehind( AudioFile.openAsWrite( afd ), 128, 4096 );
+            wb.write( data, 0, 300 );
+            wb.write( new float[][] { data[ 0 ], null }, 0, 300 );	// the block still holds the previous frames
+            assertTrue( wb.offer( new float[][] { null, data[ 1 ]}, 0, 300 ));
+            wb.close();
+
+            af = AudioFile.openAsRead( afd.file );
+            assertEquals( 900, af.getFrameNum() );
+            af.readFrames( in, 0, 900 );
+            af.close();
+            for( int i = 0; i < 900; i++ ) {
+                assertEquals( "frame " + i, i < 600 ? 0.25f : 0f, in[ 0 ][ i ], 0f );
+                assertEquals( "frame " + i, i < 300 || i >= 600 ? -0.5f : 0f, in[ 1 ][ i ], 0f );
+            }
+        }
+        finally {
+            afd.file.delete();
+        }
+    }
+}
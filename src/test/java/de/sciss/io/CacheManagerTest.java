@@ -0,0 +1,122 @@
+/*
+ *  CacheManagerTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheManagerTest
+{
+    @Test
+    public void indexWithoutFolder()
+    throws IOException
+    {
+        final CacheManager	cm	= new CacheManager();
+        final File			f	= createFile( File.createTempFile( "cache", ".cache" ), 100 );
+
+        try {
+            cm.setCapacity( 10 );
+            cm.addFile( f );
+            assertEquals( 1, cm.getFileCount() );
+            assertEquals( 100, cm.getSize() );
+            assertTrue( cm.touch( f ));
+            cm.removeFile( f );
+            assertEquals( 0, cm.getFileCount() );
+            assertEquals( 0, cm.getSize() );
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void touchesAreWrittenWithoutFlush()
+    throws IOException, InterruptedException
+    {
+        final File			dir		= File.createTempFile( "cache", "" );
+        final CacheManager	cm		= new CacheManager();
+        final CacheManager	cm2		= new CacheManager();
+        final File			f1, f2;
+
+        dir.delete();
+        dir.mkdirs();
+        try {
+            cm.setActive( true );
+            cm.setFolderAndCapacity( dir, 10 );
+            f1	= createFile( cm.createCacheFileName( new File( "/ref1" )), 600000 );
+            f2	= createFile( cm.createCacheFileName( new File( "/ref2" )), 600000 );
+            cm.addFile( f1 );
+            cm.addFile( f2 );
+            Thread.sleep( 10 );
+            for( int i = 0; i < 10000; i++ ) {	// makes f1 the most recently used file
+                assertTrue( cm.touch( f1 ));
+            }
+
+            // re-reading the journal with a smaller capacity evicts the least recently used file
+            cm2.setFolderAndCapacity( dir, 1 );
+            for( int retry = 0; (retry < 100) && (cm2.getFileCount() > 1); retry++ ) {
+                Thread.sleep( 10 );
+            }
+            assertEquals( 1, cm2.getFileCount() );
+            assertTrue( "accesses not journaled", cm2.touch( f1 ));
+        }
+        finally {
+            deleteTree( dir );
+        }
+    }
+
+    private static void deleteTree( File f )
+    {
+        final File[] children = f.listFiles();
+
+        if( children != null ) {
+            for( int i = 0; i < children.length; i++ ) deleteTree( children[ i ]);
+        }
+        f.delete();
+    }
+
+    private static File createFile( File f, int size )
+    throws IOException
+    {
+        final OutputStream os = new FileOutputStream( f );
+
+        try {
+            os.write( new byte[ size ]);
+        }
+        finally {
+            os.close();
+        }
+        return f;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  FLACRoundTripTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *	Writes FLAC files through <code>AudioFile.openAsWrite</code>,
+ *	decodes them again and compares the frames, both sequentially
+ *	and after seeking to arbitrary frames, with those of an AIFF
+ *	file of the same resolution.
+ */
+public class FLACRoundTripTest
+{
+    private static final int	NUM_FRAMES	= 300000;
+    private static final int	NUM_SEEKS	= 200;
+    private static final long	SEEKTABLE	= 46L;	// fLaC, STREAMINFO and the SEEKTABLE block header
+    private static final int	SEEKPOINT	= 18;
+
+    @Test
+    public void roundTrip8()
+    throws IOException
+    {
+        roundTrip( 8, 2, false );
+    }
+
+    @Test
+    public void roundTrip16()
+    throws IOException
+    {
+        roundTrip( 16, 2, false );
+    }
+
+    @Test
+    public void roundTrip24()
+    throws IOException
+    {
+        roundTrip( 24, 3, false );
+    }
+
+    @Test
+    public void seekWithBrokenSeekTable()
+    throws IOException
+    {
+        roundTrip( 16, 1, true );
+    }
+
+    private static void roundTrip( int bitsPerSample, int channels, boolean breakSeekTable )
+    throws IOException
+    {
+        final Random			rnd		= new Random( bitsPerSample * 31 + channels );
+        final float[][]			data	= createFrames( rnd, channels );
+        final float[][]			in		= new float[ channels ][ NUM_FRAMES ];
+        final AudioFileDescr	afd		= new AudioFileDescr();
+        AudioFile				af;
+        int						off, len, pos;
+
+        afd.type			= AudioFileDescr.TYPE_AIFF;
+        afd.channels		= channels;
+        afd.bitsPerSample	= bitsPerSample;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_INT;
+        afd.rate			= 44100;
+        afd.file			= File.createTempFile( "flac", ".aif" );
+        afd.file.deleteOnExit();
+        af = AudioFile.openAsWrite( afd );
+        af.writeFrames( data, 0, NUM_FRAMES );
+        af.close();
+        af = AudioFile.openAsRead( afd.file );		// the expected quantization
+        af.readFrames( data, 0, NUM_FRAMES );
+        af.close();
+
+        afd.type			= AudioFileDescr.TYPE_FLAC;
+        afd.file			= File.createTempFile( "flac", ".flac" );
+        afd.file.deleteOnExit();
+        af = AudioFile.openAsWrite( afd );
+        for( off = 0; off < NUM_FRAMES; off += len ) {	// odd chunk sizes
+            len = Math.min( NUM_FRAMES - off, 1 + rnd.nextInt( 10000 ));
+            af.writeFrames( data, off, len );
+        }
+        af.close();
+        if( breakSeekTable ) shiftSeekPoints( afd.file );
+
+        af = AudioFile.openAsRead( afd.file );
+        try {
+            assertEquals( NUM_FRAMES, af.getFrameNum() );
+            if( !breakSeekTable ) {
+                af.readFrames( in, 0, NUM_FRAMES );
+                for( int ch = 0; ch < channels; ch++ ) {
+                    assertArrayEquals( data[ ch ], in[ ch ], 0f );
+                }
+            }
+            for( int i = 0; i < NUM_SEEKS; i++ ) {
+                pos = i == 0 ? NUM_FRAMES - 1 : rnd.nextInt( NUM_FRAMES );
+                len = Math.min( NUM_FRAMES - pos, 1 + rnd.nextInt( 5000 ));
+                af.seekFrame( pos );
+                af.readFrames( in, 0, len );
+                for( int ch = 0; ch < channels; ch++ ) {
+                    for( int j = 0; j < len; j++ ) {
+                        assertEquals( "frame " + (pos + j), data[ ch ][ pos + j ], in[ ch ][ j ], 0f );
+                    }
+                }
+            }
+        }
+        finally {
+            af.close();
+        }
+    }
+
+    // sine and noise
+    private static float[][] createFrames( Random rnd, int channels )
+    {
+        final float[][]	data	= new float[ channels ][ NUM_FRAMES ];
+
+        for( int ch = 0; ch < channels; ch++ ) {
+            for( int i = 0; i < NUM_FRAMES; i++ ) {
+                data[ ch ][ i ] = (float) (Math.sin( i * 0.003 * (ch + 1) ) * 0.6 + (rnd.nextDouble() - 0.5) * 0.2);
+            }
+        }
+        return data;
+    }
+
+    // moves every seek point into the middle of a frame
+    private static void shiftSeekPoints( File f )
+    throws IOException
+    {
+        final RandomAccessFile	raf	= new RandomAccessFile( f, "rw" );
+        long					smp, off;
+
+        try {
+            for( long pos = SEEKTABLE; pos < SEEKTABLE + FLACEncoder.SEEK_POINTS * SEEKPOINT; pos += SEEKPOINT ) {
+                raf.seek( pos );
+                smp = raf.readLong();
+                if( smp == -1L ) break;	// placeholder
+                off = raf.readLong();
+                raf.seek( pos + 8 );
+                raf.writeLong( off + 7 );
+            }
+        }
+        finally {
+            raf.close();
+        }
+    }
+}
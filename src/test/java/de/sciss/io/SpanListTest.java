@@ -0,0 +1,306 @@
+/*
+ *  SpanListTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *	Compares <code>SpanList</code> with a sorted <code>ArrayList</code>
+ *	while objects are added and removed, checks the shape of the
+ *	B-tree as nodes are split and joined, and verifies that
+ *	earlier versions of a list are not affected by later edits.
+ */
+public class SpanListTest
+{
+    private static final int	MAX_ENTRIES	= 32;		// as in SpanList
+    private static final int	NUM_OPS		= 5000;
+    private static final int	RANGE		= 10000;
+
+    @Test
+    public void editsAgreeWithSortedList()
+    {
+        final Random		rnd		= new Random( 24 );
+        final List<Item>	ref		= new ArrayList<Item>();
+        SpanList			list	= SpanList.EMPTY;
+        Item				item;
+        int					idx;
+
+        for( int i = 0; i < NUM_OPS; i++ ) {
+            if( ref.isEmpty() || (rnd.nextInt( 5 ) < 3) ) {
+                item	= createItem( rnd, i );
+                list	= list.add( item );
+                insert( ref, item );
+            } else if( rnd.nextBoolean() ) {
+                idx		= rnd.nextInt( ref.size() );
+                list	= list.remove( idx );
+                ref.remove( idx );
+            } else {
+                item	= ref.remove( rnd.nextInt( ref.size() ));
+                list	= list.remove( item );
+            }
+            assertEquals( "size", ref.size(), list.size() );
+            if( (i % 100) == 0 ) check( rnd, list, ref );
+        }
+        check( rnd, list, ref );
+    }
+
+    @Test
+    public void bulkLoadingAgreesWithSortedList()
+    {
+        final Random		rnd		= new Random( 25 );
+        final List<Item>	ref		= new ArrayList<Item>();
+        final List<Item>	more	= new ArrayList<Item>();
+        SpanList			list;
+        Item				item;
+
+        for( int i = 0; i < 1000; i++ ) {
+            item = createItem( rnd, i );
+            more.add( item );
+            insert( ref, item );
+        }
+        list = new SpanList( more );
+        check( rnd, list, ref );
+
+        more.clear();		// few objects, added one by one
+        for( int i = 0; i < 20; i++ ) {
+            item = createItem( rnd, 1000 + i );
+            more.add( item );
+            insert( ref, item );
+        }
+        list = list.addAll( more );
+        check( rnd, list, ref );
+
+        more.clear();		// many objects, rebuilding the tree
+        for( int i = 0; i < 500; i++ ) {
+            item = createItem( rnd, 2000 + i );
+            more.add( item );
+            insert( ref, item );
+        }
+        list = list.addAll( more );
+        check( rnd, list, ref );
+    }
+
+    @Test
+    public void nodesAreSplitAndJoined()
+    {
+        final Random		rnd		= new Random( 26 );
+        final List<Item>	ref		= new ArrayList<Item>();
+        SpanList			list	= SpanList.EMPTY;
+        Item				item;
+        int					idx, depth	= 0;
+
+        for( int i = 0; i < MAX_ENTRIES * MAX_ENTRIES * 2; i++ ) {
+            item	= createItem( rnd, i );
+            list	= list.add( item );
+            insert( ref, item );
+            depth	= checkShape( list );
+            if( i == MAX_ENTRIES - 1 ) assertEquals( "one leaf", 1, depth );
+            if( i == MAX_ENTRIES ) assertEquals( "split leaf", 2, depth );
+        }
+        assertEquals( "split branch", 3, depth );
+        assertEquals( ref, list.getAll() );
+
+        while( !ref.isEmpty() ) {
+            idx		= rnd.nextInt( ref.size() );
+            list	= list.remove( idx );
+            ref.remove( idx );
+            depth	= checkShape( list );
+            if( (ref.size() > 0) && (ref.size() < MAX_ENTRIES) ) assertEquals( "joined into one leaf", 1, depth );
+        }
+        assertTrue( list.isEmpty() );
+    }
+
+    @Test
+    public void snapshotsAreNotAffectedByEdits()
+    {
+        final Random			rnd			= new Random( 27 );
+        final List<SpanList>	snapshots	= new ArrayList<SpanList>();
+        final List<List<?>>		contents	= new ArrayList<List<?>>();
+        SpanList				list		= SpanList.EMPTY;
+
+        for( int i = 0; i < NUM_OPS; i++ ) {
+            if( list.isEmpty() || (rnd.nextInt( 5 ) < 3) ) {
+                list = list.add( createItem( rnd, i ));
+            } else {
+                list = list.remove( rnd.nextInt( list.size() ));
+            }
+            if( (i % 250) == 0 ) {
+                snapshots.add( list );
+                contents.add( list.getAll() );
+            }
+        }
+        for( int i = 0; i < snapshots.size(); i++ ) {
+            assertEquals( "snapshot " + i, contents.get( i ), snapshots.get( i ).getAll() );
+            checkShape( snapshots.get( i ));
+        }
+    }
+
+    // compares access by index, iteration, indexOf, lowerBound and
+    // getOverlapping with the reference list, and checks the tree's shape
+    private static void check( Random rnd, SpanList list, List<Item> ref )
+    {
+        final Iterator	iter;
+        Span			q;
+        List<Item>		expected;
+        long			pos;
+        int				idx;
+
+        assertEquals( ref, list.getAll() );
+        checkShape( list );
+        for( int i = 0; i < ref.size(); i++ ) {
+            assertTrue( "get " + i, ref.get( i ) == list.get( i ));
+            assertEquals( "indexOf " + i, i, list.indexOf( ref.get( i )));
+        }
+        idx		= rnd.nextInt( ref.size() + 1 );
+        iter	= list.iterator( idx );
+        for( int i = idx; i < ref.size(); i++ ) {
+            assertTrue( "iterator " + i, ref.get( i ) == iter.next() );
+        }
+        assertTrue( "iterator end", !iter.hasNext() );
+        assertEquals( "not contained", -1, list.indexOf( createItem( rnd, -1 )));
+
+        for( int i = 0; i < 200; i++ ) {
+            pos	= rnd.nextInt( RANGE + 200 ) - 100;
+            idx	= 0;
+            while( (idx < ref.size()) && (ref.get( idx ).span.start < pos) ) idx++;
+            assertEquals( "lowerBound " + pos, idx, list.lowerBound( pos ));
+
+            q = new Span( pos, pos + (rnd.nextInt( 4 ) == 0 ? 0 : rnd.nextInt( RANGE / 20 )));
+            expected = new ArrayList<Item>();
+            for( Item item : ref ) if( item.span.overlaps( q )) expected.add( item );
+            assertEquals( "overlapping " + q, expected, list.getOverlapping( q ));
+        }
+    }
+
+    // inserts behind the objects with an equal span
+    private static void insert( List<Item> ref, Item item )
+    {
+        int i = ref.size();
+
+        while( (i > 0) && (compare( ref.get( i - 1 ).span, item.span ) > 0) ) i--;
+        ref.add( i, item );
+    }
+
+    private static int compare( Span s1, Span s2 )
+    {
+        if( s1.start != s2.start ) return( s1.start < s2.start ? -1 : 1 );
+        if( s1.stop != s2.stop ) return( s1.stop < s2.stop ? -1 : 1 );
+        return 0;
+    }
+
+    // spans of few distinct lengths, so equal spans are common
+    private static Item createItem( Random rnd, int id )
+    {
+        final long start = rnd.nextInt( RANGE );
+
+        return new Item( new Span( start, start + rnd.nextInt( 4 ) * rnd.nextInt( 50 )), id );
+    }
+
+    /*
+     *	Checks that all leaves have the same depth, that no node holds
+     *	more than MAX_ENTRIES entries, and that every node except the
+     *	root holds at least half as many. Returns the depth.
+     */
+    private static int checkShape( SpanList list )
+    {
+        final Object root = field( list, "root" );
+
+        if( root == null ) return 0;
+        return checkNode( root, true );
+    }
+
+    private static int checkNode( Object node, boolean isRoot )
+    {
+        final Object[]	entries;
+        final boolean	leaf	= node.getClass().getName().endsWith( "$Leaf" );
+        int				depth	= -1, d;
+
+        entries = (Object[]) field( node, leaf ? "items" : "children" );
+        assertTrue( "too many entries: " + entries.length, entries.length <= MAX_ENTRIES );
+        if( !isRoot ) assertTrue( "too few entries: " + entries.length, entries.length >= MAX_ENTRIES >> 1 );
+        if( leaf ) return 1;
+
+        for( int i = 0; i < entries.length; i++ ) {
+            d = checkNode( entries[ i ], false );
+            if( depth < 0 ) depth = d;
+            assertEquals( "depth", depth, d );
+        }
+        return depth + 1;
+    }
+
+    private static Object field( Object o, String name )
+    {
+        try {
+            for( Class<?> c = o.getClass(); c != null; c = c.getSuperclass() ) {
+                try {
+                    final Field f = c.getDeclaredField( name );
+                    f.setAccessible( true );
+                    return f.get( o );
+                }
+                catch( NoSuchFieldException e1 ) { /* try the superclass */ }
+            }
+            throw new NoSuchFieldException( name );
+        }
+        catch( Exception e1 ) {
+            throw new IllegalStateException( e1.toString() );
+        }
+    }
+
+// -------- internal classes --------
+
+    // compared by identity, unlike Span
+    private static class Item
+    implements SpanProvider
+    {
+        protected final Span	span;
+        protected final int		id;
+
+        protected Item( Span span, int id )
+        {
+            this.span	= span;
+            this.id		= id;
+        }
+
+        public Span getSpan()
+        {
+            return span;
+        }
+
+        public String toString()
+        {
+            return span.toString() + " #" + id;
+        }
+    }
+}
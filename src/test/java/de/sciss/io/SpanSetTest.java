@@ -0,0 +1,178 @@
+/*
+ *  SpanSetTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *	Checks the set operations of <code>SpanSet</code> for adjacent,
+ *	nested and empty spans, and compares them with a membership
+ *	array for random sets.
+ */
+public class SpanSetTest
+{
+    private static final int	RANGE		= 200;		// the sets lie within 0 ... RANGE
+    private static final int	OFFSET		= 20;		// position of the first array element: -OFFSET
+    private static final int	SIZE		= (RANGE + OFFSET) << 1;
+    private static final int	NUM_TRIALS	= 2000;
+
+    @Test
+    public void adjacentSpansAreMerged()
+    {
+        final SpanSet a = set( 0, 10 );
+        final SpanSet b = set( 10, 20 );
+
+        assertEquals( set( 0, 20 ), set( 0, 10, 10, 20 ));
+        assertEquals( set( 0, 20 ), a.union( b ));
+        assertEquals( 1, a.union( b ).getNumSpans() );
+        assertEquals( SpanSet.EMPTY, a.intersection( b ));
+        assertEquals( a, a.difference( b ));
+        assertEquals( b, set( 0, 20 ).difference( a ));
+        assertEquals( a, a.clip( new Span( -5, 10 )));
+        assertEquals( SpanSet.EMPTY, a.clip( new Span( 10, 30 )));
+    }
+
+    @Test
+    public void nestedSpans()
+    {
+        final SpanSet outer = set( 0, 100 );
+        final SpanSet inner = set( 20, 30 );
+
+        assertEquals( outer, outer.union( inner ));
+        assertEquals( inner, outer.intersection( inner ));
+        assertEquals( set( 0, 20, 30, 100 ), outer.difference( inner ));
+        assertEquals( SpanSet.EMPTY, inner.difference( outer ));
+        assertEquals( inner, outer.clip( new Span( 20, 30 )));
+        assertEquals( set( 25, 30, 40, 45 ), set( 0, 30, 40, 100 ).clip( new Span( 25, 45 )));
+        assertEquals( set( 0, 20, 30, 100 ), inner.complement( new Span( 0, 100 )));
+        assertEquals( outer, set( 0, 100, 20, 30 ));
+    }
+
+    @Test
+    public void emptySpans()
+    {
+        final SpanSet a = set( 0, 10, 20, 30 );
+
+        assertTrue( set( 5, 5 ).isEmpty() );
+        assertEquals( a, set( 0, 10, 15, 15, 20, 30 ));
+        assertEquals( a, a.union( SpanSet.EMPTY ));
+        assertEquals( a, SpanSet.EMPTY.union( a ));
+        assertEquals( SpanSet.EMPTY, a.intersection( SpanSet.EMPTY ));
+        assertEquals( a, a.difference( SpanSet.EMPTY ));
+        assertEquals( SpanSet.EMPTY, SpanSet.EMPTY.difference( a ));
+        assertEquals( SpanSet.EMPTY, a.clip( new Span( 5, 5 )));
+        assertEquals( SpanSet.EMPTY, a.clip( new Span( 10, 20 )));
+        assertEquals( set( 5, 5 ), SpanSet.EMPTY );
+    }
+
+    @Test
+    public void operationsAgreeWithMembership()
+    {
+        final Random	rnd	= new Random( 23 );
+        boolean[]		ma, mb, mc;
+        SpanSet			a, b;
+        Span			span;
+
+        for( int i = 0; i < NUM_TRIALS; i++ ) {
+            ma		= randomMembership( rnd );
+            mb		= randomMembership( rnd );
+            a		= fromMembership( ma );
+            b		= fromMembership( mb );
+            span	= randomSpan( rnd );
+
+            mc = new boolean[ SIZE ];
+            for( int j = 0; j < SIZE; j++ ) mc[ j ] = ma[ j ] || mb[ j ];
+            assertEquals( "union", fromMembership( mc ), a.union( b ));
+
+            for( int j = 0; j < SIZE; j++ ) mc[ j ] = ma[ j ] && mb[ j ];
+            assertEquals( "intersection", fromMembership( mc ), a.intersection( b ));
+
+            for( int j = 0; j < SIZE; j++ ) mc[ j ] = ma[ j ] && !mb[ j ];
+            assertEquals( "difference", fromMembership( mc ), a.difference( b ));
+
+            for( int j = 0; j < SIZE; j++ ) mc[ j ] = ma[ j ] && span.contains( j - OFFSET );
+            assertEquals( "clip " + span, fromMembership( mc ), a.clip( span ));
+
+            for( int j = 0; j < SIZE; j++ ) mc[ j ] = !ma[ j ] && span.contains( j - OFFSET );
+            assertEquals( "complement " + span, fromMembership( mc ), a.complement( span ));
+
+            for( int j = 0; j < SIZE; j++ ) {
+                assertEquals( "contains " + (j - OFFSET), ma[ j ], a.contains( j - OFFSET ));
+            }
+        }
+    }
+
+    // pairs of start and stop
+    private static SpanSet set( long... bounds )
+    {
+        final List<Span> spans = new ArrayList<Span>();
+
+        for( int i = 0; i < bounds.length; i += 2 ) {
+            spans.add( new Span( bounds[ i ], bounds[ i + 1 ]));
+        }
+        return new SpanSet( spans );
+    }
+
+    // a few runs, often touching each other
+    private static boolean[] randomMembership( Random rnd )
+    {
+        final boolean[]	m		= new boolean[ SIZE ];
+        final int		runs	= rnd.nextInt( 8 );
+        int				start, stop;
+
+        for( int i = 0; i < runs; i++ ) {
+            start	= rnd.nextInt( RANGE );
+            stop	= Math.min( RANGE, start + rnd.nextInt( 40 ));
+            for( int j = start; j < stop; j++ ) m[ j + OFFSET ] = true;
+        }
+        return m;
+    }
+
+    // from overlapping single position spans, so the constructor has to merge them
+    private static SpanSet fromMembership( boolean[] m )
+    {
+        final List<Span> spans = new ArrayList<Span>();
+
+        for( int j = m.length - 1; j >= 0; j-- ) {
+            if( m[ j ]) spans.add( new Span( j - OFFSET, j - OFFSET + 1 ));
+        }
+        return new SpanSet( spans );
+    }
+
+    private static Span randomSpan( Random rnd )
+    {
+        final long start = rnd.nextInt( RANGE + OFFSET ) - OFFSET;
+
+        return new Span( start, rnd.nextInt( 4 ) == 0 ? start : start + rnd.nextInt( RANGE ));
+    }
+}
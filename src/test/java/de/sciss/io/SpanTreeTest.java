@@ -0,0 +1,193 @@
+/*
+ *  SpanTreeTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *	Compares the queries of <code>SpanTree</code> with a brute
+ *	force scan using <code>Span.overlaps</code> and
+ *	<code>Span.contains</code>, including empty spans and
+ *	spans sharing their bounds.
+ */
+public class SpanTreeTest
+{
+    private static final int	NUM_ITEMS	= 400;
+    private static final int	NUM_QUERIES	= 2000;
+    private static final int	RANGE		= 300;
+
+    @Test
+    public void bulkLoadedQueriesAgreeWithScan()
+    {
+        final Random		rnd		= new Random( 21 );
+        final List<Item>	items	= createItems( rnd, NUM_ITEMS );
+        final SpanTree		tree	= new SpanTree( items );
+
+        assertEquals( items.size(), tree.size() );
+        checkQueries( rnd, tree, items );
+    }
+
+    @Test
+    public void editedQueriesAgreeWithScan()
+    {
+        final Random		rnd		= new Random( 22 );
+        final List<Item>	items	= new ArrayList<Item>();
+        final SpanTree		tree	= new SpanTree();
+        Item				item;
+
+        checkQueries( rnd, tree, items );		// empty tree
+        for( int i = 0; i < NUM_ITEMS; i++ ) {
+            item = createItem( rnd, i );
+            items.add( item );
+            tree.add( item );
+            if( (i % 50) == 49 ) checkQueries( rnd, tree, items );
+        }
+        for( int i = 0; i < NUM_ITEMS / 2; i++ ) {
+            item = items.remove( rnd.nextInt( items.size() ));
+            assertTrue( "remove", tree.remove( item ));
+            if( (i % 50) == 49 ) checkQueries( rnd, tree, items );
+        }
+        assertEquals( items.size(), tree.size() );
+    }
+
+    private static void checkQueries( Random rnd, SpanTree tree, List<Item> items )
+    {
+        Span			q;
+        long			pos;
+        List<Integer>	expected;
+
+        for( int i = 0; i < NUM_QUERIES; i++ ) {
+            q	= createQuery( rnd, items );
+            pos	= q.start;
+
+            expected = new ArrayList<Integer>();
+            for( Item item : items ) if( item.span.overlaps( q )) expected.add( item.id );
+            assertEquals( "overlapping " + q, sorted( expected ), ids( tree.getOverlapping( q )));
+
+            expected = new ArrayList<Integer>();
+            for( Item item : items ) if( item.span.contains( q )) expected.add( item.id );
+            assertEquals( "containing " + q, sorted( expected ), ids( tree.getContaining( q )));
+
+            expected = new ArrayList<Integer>();
+            for( Item item : items ) if( q.contains( item.span )) expected.add( item.id );
+            assertEquals( "contained " + q, sorted( expected ), ids( tree.getContained( q )));
+
+            expected = new ArrayList<Integer>();
+            for( Item item : items ) if( item.span.contains( pos )) expected.add( item.id );
+            assertEquals( "stab " + pos, sorted( expected ), ids( tree.getContaining( pos )));
+        }
+    }
+
+    // many empty spans and spans of equal length, so that bounds coincide
+    private static List<Item> createItems( Random rnd, int num )
+    {
+        final List<Item> items = new ArrayList<Item>( num );
+
+        for( int i = 0; i < num; i++ ) {
+            items.add( createItem( rnd, i ));
+        }
+        return items;
+    }
+
+    private static Item createItem( Random rnd, int id )
+    {
+        final long	start	= rnd.nextInt( RANGE );
+        final int	kind	= rnd.nextInt( 4 );
+        final long	len		= kind == 0 ? 0 : (kind == 1 ? 10 : rnd.nextInt( RANGE / 3 ));
+
+        return new Item( new Span( start, start + len ), id );
+    }
+
+    // half of the queries use the bounds of existing spans
+    private static Span createQuery( Random rnd, List<Item> items )
+    {
+        long start, stop;
+
+        if( !items.isEmpty() && rnd.nextBoolean() ) {
+            start	= bound( rnd, items );
+            stop	= bound( rnd, items );
+        } else {
+            start	= rnd.nextInt( RANGE + 20 ) - 10;
+            stop	= rnd.nextInt( 4 ) == 0 ? start : start + rnd.nextInt( RANGE / 2 );
+        }
+        return start <= stop ? new Span( start, stop ) : new Span( stop, start );
+    }
+
+    private static long bound( Random rnd, List<Item> items )
+    {
+        final Span span = items.get( rnd.nextInt( items.size() )).span;
+
+        return rnd.nextBoolean() ? span.start : span.stop;
+    }
+
+    private static List<Integer> ids( List result )
+    {
+        final List<Integer> ids = new ArrayList<Integer>( result.size() );
+
+        for( Object o : result ) ids.add( ((Item) o).id );
+        return sorted( ids );
+    }
+
+    private static List<Integer> sorted( List<Integer> ids )
+    {
+        Collections.sort( ids );
+        return ids;
+    }
+
+// -------- internal classes --------
+
+    // compared by identity, unlike Span
+    private static class Item
+    implements SpanProvider
+    {
+        protected final Span	span;
+        protected final int		id;
+
+        protected Item( Span span, int id )
+        {
+            this.span	= span;
+            this.id		= id;
+        }
+
+        public Span getSpan()
+        {
+            return span;
+        }
+
+        public String toString()
+        {
+            return span.toString();
+        }
+    }
+}
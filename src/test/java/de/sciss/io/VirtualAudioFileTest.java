@@ -0,0 +1,118 @@
+/*
+ *  VirtualAudioFileTest.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class VirtualAudioFileTest
+{
+    @Test
+    public void readAfterRemovingGap()
+    throws IOException
+    {
+        final float[][]			data	= new float[ 1 ][ 100 ];
+        final float[][]			in		= new float[ 1 ][ 100 ];
+        final VirtualAudioFile	vf		= new VirtualAudioFile( 1 );
+        final File				f		= writeRamp( data );
+        final AudioFile			af		= AudioFile.openAsRead( f );
+
+        try {
+            vf.addSegment(   0, af, new Span( 0, 100 ), 1f );
+            vf.addSegment( 200, af, new Span( 0, 100 ), 1f );
+            vf.addSegment( 400, af, new Span( 0, 100 ), 1f );
+            vf.seekFrame( 250 );
+            vf.remove( new Span( 110, 190 ));		// covers only a gap
+            assertEquals( 420, vf.getFrameNum() );
+
+            vf.readFrames( in, 0, in[ 0 ].length );	// frames 250 until 350
+            for( int i = 0; i < 70; i++ ) {
+                assertEquals( "frame " + (250 + i), 0f, in[ 0 ][ i ], 0f );		// gap 220 - 320
+            }
+            for( int i = 70; i < 100; i++ ) {
+                assertEquals( "frame " + (250 + i), data[ 0 ][ i - 70 ], in[ 0 ][ i ], 0f );
+            }
+        }
+        finally {
+            vf.close();
+            f.delete();
+        }
+    }
+
+    @Test
+    public void negativePositionsAreRejected()
+    throws IOException
+    {
+        final VirtualAudioFile	vf	= new VirtualAudioFile( 1 );
+        final File				f	= writeRamp( new float[ 1 ][ 100 ]);
+        final AudioFile			af	= AudioFile.openAsRead( f );
+
+        try {
+            try {
+                vf.addSegment( -10, af, new Span( 0, 100 ), 1f );
+                fail( "addSegment accepted a negative position" );
+            }
+            catch( IllegalArgumentException e1 ) { /* expected */ }
+            try {
+                vf.insert( -1, af, new Span( 0, 100 ), 1f );
+                fail( "insert accepted a negative position" );
+            }
+            catch( IllegalArgumentException e1 ) { /* expected */ }
+            assertEquals( 0, vf.getNumSegments() );
+            assertEquals( 0, vf.getFrameNum() );
+        }
+        finally {
+            af.close();		// not used by any segment
+            f.delete();
+        }
+    }
+
+    private static File writeRamp( float[][] data )
+    throws IOException
+    {
+        final AudioFileDescr	afd	= new AudioFileDescr();
+        final AudioFile			af;
+
+        for( int i = 0; i < data[ 0 ].length; i++ ) data[ 0 ][ i ] = i / 128f;
+        afd.type			= AudioFileDescr.TYPE_AIFF;
+        afd.channels		= 1;
+        afd.bitsPerSample	= 32;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_FLOAT;
+        afd.rate			= 44100;
+        afd.file			= File.createTempFile( "virt", ".aif" );
+        afd.file.deleteOnExit();
+        af = AudioFile.openAsWrite( afd );
+        af.writeFrames( data, 0, data[ 0 ].length );
+        af.close();
+        return afd.file;
+    }
+}